@@ -0,0 +1,50 @@
+package com.arriky.nfcPaymentCardReader;
+
+import android.nfc.Tag;
+import android.nfc.tech.IsoDep;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+
+/**
+ * ApduTransport on top of the Android NFC IsoDep technology
+ */
+public class IsoDepTransport implements ApduTransport {
+
+    private final IsoDep isoDep;
+
+    public IsoDepTransport(@NonNull IsoDep isoDep) {
+        this.isoDep = isoDep;
+    }
+
+    /**
+     * @param tag
+     * @return the transport to the tag, null if the tag does not support IsoDep
+     */
+    public static IsoDepTransport get(@NonNull Tag tag) {
+        boolean isoDepInTechList = false;
+        for (String s : tag.getTechList()) {
+            if (s.equals("android.nfc.tech.IsoDep")) isoDepInTechList = true;
+        }
+        // proceed only if tag has IsoDep in the techList
+        if (!isoDepInTechList) return null;
+        IsoDep isoDep = IsoDep.get(tag);
+        return isoDep != null ? new IsoDepTransport(isoDep) : null;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        isoDep.connect();
+    }
+
+    @Override
+    public byte[] transceive(byte[] command) throws IOException {
+        return isoDep.transceive(command);
+    }
+
+    @Override
+    public void close() throws IOException {
+        isoDep.close();
+    }
+}
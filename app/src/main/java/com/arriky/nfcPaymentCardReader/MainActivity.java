@@ -2,26 +2,44 @@ package com.arriky.nfcPaymentCardReader;
 
 import android.content.Context;
 import android.content.Intent;
-import android.media.MediaPlayer;
 import android.nfc.NfcAdapter;
 import android.nfc.Tag;
-import android.os.Build;
 import android.os.Bundle;
-import android.os.VibrationEffect;
-import android.os.Vibrator;
 import android.provider.Settings;
 import android.view.View;
-import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 public class MainActivity extends AppCompatActivity implements NfcAdapter.ReaderCallback {
-    private String outputString = "";
     private final String TAG = "MainAct";
     private com.google.android.material.textfield.TextInputEditText etLog;
     private View loadingLayout;
     private NfcAdapter mNfcAdapter;
+    // layouts of card products read before, makes repeated taps faster
+    private final WarmTapCache warmTapCache = new WarmTapCache(32);
+    // a card left on the reader is discovered again after each presence check, it is not read twice
+    private final RecentCardFilter recentCardFilter = new RecentCardFilter(256, RecentCardFilter.DEFAULT_WINDOW_MILLIS);
+    // the last exchanges with the cards in binary form, for debugging failures in the field,
+    // kept for the process so the taps before a rotation are still in it
+    private static final ApduTraceRecorder TRACE_RECORDER = new ApduTraceRecorder(64 * 1024);
+    // the recorded exchanges are written here after a failed tap, see ApduTraceReader
+    private static final String TRACE_FILE = "trace.apdt";
+    // sound and vibration, played off the NFC thread
+    private TapFeedback tapFeedback;
+    // the results go to logcat, the card history and the UI without holding up the NFC thread
+    private ResultPipeline resultPipeline;
+    // every card read with its last tap and read count, opened once for the process: an activity
+    // recreated after a rotation must not open the directory while the old pipeline still closes
+    private static CardHistoryStore historyStore;
+    private static boolean historyStoreOpened = false;
 
     Context context;
 
@@ -36,6 +54,94 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
         context = getApplicationContext();
 
         mNfcAdapter = NfcAdapter.getDefaultAdapter(this);
+        tapFeedback = new TapFeedback(this);
+
+        resultPipeline = new ResultPipeline(64, ResultPipeline.OverflowPolicy.DROP_OLDEST);
+        resultPipeline
+                .addSink("logcat", new ResultSink() {
+                    // one line per tap, without the PAN: logcat ends up in bug reports
+                    @Override
+                    public void write(List<TapResult> batch) {
+                        for (TapResult result : batch) {
+                            System.out.println(String.format(Locale.US, "%s: %s, %d APDUs in %d ms", TAG,
+                                    result.getScheme().getDescription(), result.getApduCount(), result.getTapNanos() / 1_000_000));
+                        }
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                });
+        // before the ui sink, so the ui shows the read count including this tap
+        resultPipeline
+                .addSink("cards", new ResultSink() {
+                    @Override
+                    public void write(List<TapResult> batch) throws IOException {
+                        // opened here on the pipeline thread, opening scans all segments
+                        CardHistoryStore store = openHistoryStore(context);
+                        if (store != null) store.write(batch);
+                    }
+
+                    @Override
+                    public void close() {
+                        // the store outlives the pipeline of this activity
+                    }
+                })
+                .addSink("ui", new ResultSink() {
+                    @Override
+                    public void write(List<TapResult> batch) {
+                        TapResult result = batch.get(batch.size() - 1);
+                        String text = String.format(Locale.US, "%d APDUs in %d ms\n", result.getApduCount(), result.getTapNanos() / 1_000_000);
+                        // looked up on the pipeline thread, the store holds its lock while it writes or compacts
+                        String pan = result.getResult().getPan();
+                        CardHistoryStore store = getHistoryStore();
+                        if (store != null && pan != null) {
+                            text += String.format(Locale.US, "card read %d times\n", store.getReadCount(pan));
+                        }
+                        final String uiText = text;
+                        runOnUiThread(() -> etLog.append(uiText));
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                });
+        resultPipeline.start();
+    }
+
+    /**
+     * opens the card history on first use, not on the UI thread; an open that failed is not
+     * tried again in this process
+     *
+     * @param context
+     * @return the store or null if it can not be opened
+     */
+    private static synchronized CardHistoryStore openHistoryStore(Context context) {
+        if (!historyStoreOpened) {
+            historyStoreOpened = true;
+            try {
+                historyStore = new CardHistoryStore(new File(context.getFilesDir(), "history"));
+            } catch (IOException e) {
+                System.out.println("card history not available: " + e);
+            }
+        }
+        return historyStore;
+    }
+
+    /**
+     * @return the store or null if it is not open (yet)
+     */
+    private static synchronized CardHistoryStore getHistoryStore() {
+        return historyStore;
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        tapFeedback.release();
+        // the queued taps are written in the background, joining the pipeline would hold up the
+        // UI thread while the history store syncs or compacts
+        resultPipeline.shutdown();
     }
 
 
@@ -46,21 +152,46 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
     @Override
     public void onTagDiscovered(Tag tag) {
         clearData();
-        playSinglePing();
+        tapFeedback.playSinglePing();
         setLoadingLayoutVisibility(true);
 
-        // feed NFC tag into EMV decoder
+        // feed NFC tag into EMV decoder, the log lines are shown as soon as they are decoded
         EmvDecoder emvDecoder = new EmvDecoder();
-        emvDecoder.decodeEmv(tag);
-        outputString = emvDecoder.outputString;
+        emvDecoder.setWarmTapCache(warmTapCache);
+        emvDecoder.setRecentCardFilter(recentCardFilter);
+        emvDecoder.setReadPolicy(ReadPolicy.PAN_AND_EXPIRY);
+        emvDecoder.setMetrics(ReaderMetrics.getShared());
+        emvDecoder.setTraceRecorder(TRACE_RECORDER);
+        emvDecoder.setResultPipeline(resultPipeline);
+        emvDecoder.addListener(new DecodeEventHandoff(this::runOnUiThread, this::writeToUiAppend),
+                DecodeEvent.Type.MESSAGE, DecodeEvent.Type.ERROR);
+        // a reading error or a lost connection, called on this thread
+        AtomicBoolean failed = new AtomicBoolean(false);
+        emvDecoder.addListener(event -> failed.set(true), DecodeEvent.Type.ERROR);
+        emvDecoder.decodeDiscoveredTag(IsoDepTransport.get(tag));
+        if (failed.get()) exportTrace();
 
-        // action after reading
-        vibrate();
-        playDoublePing();
-        writeToUiFinal(etLog);
+        // action after reading, the result was queued for the sinks of the pipeline
+        tapFeedback.vibrate();
+        tapFeedback.playDoublePing();
         setLoadingLayoutVisibility(false);
     }
 
+    /**
+     * writes the recorded exchanges to the trace file, replacing the one of an earlier failure
+     */
+    private void exportTrace() {
+        File file = new File(getFilesDir(), TRACE_FILE);
+        File temp = new File(getFilesDir(), TRACE_FILE + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            TRACE_RECORDER.export(out);
+        } catch (IOException e) {
+            System.out.println("trace not exported: " + e);
+            return;
+        }
+        if (!temp.renameTo(file)) System.out.println("trace not exported to " + file);
+    }
+
     /**
      * Direct the user to turn on NFC if it is disabled
      */
@@ -115,49 +246,20 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
     }
 
 
-    /**
-     * vibrate
-     */
-    private void vibrate() {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            ((Vibrator) getSystemService(VIBRATOR_SERVICE)).vibrate(VibrationEffect.createOneShot(150, 10));
-        } else {
-            Vibrator v = (Vibrator) getSystemService(Context.VIBRATOR_SERVICE);
-            v.vibrate(200);
-        }
-    }
-
-    /**
-     * Sound files downloaded from Material Design Sounds
-     * https://m2.material.io/design/sound/sound-resources.html
-     */
-    private void playSinglePing() {
-        MediaPlayer mp = MediaPlayer.create(this, R.raw.notification_decorative_02);
-        mp.start();
-    }
-
-    private void playDoublePing() {
-        MediaPlayer mp = MediaPlayer.create(this, R.raw.notification_decorative_01);
-        mp.start();
-    }
-
     private void clearData() {
         runOnUiThread(() -> {
-            outputString = "";
             etLog.setText("");
         });
     }
 
-    private void writeToUiFinal(final TextView textView) {
-        if (textView == (TextView) etLog) {
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    textView.setText(outputString);
-                    System.out.println(outputString);
-                }
-            });
-        }
+    /**
+     * appends a line of the decoder's log, runs on the UI thread
+     *
+     * @param event
+     */
+    private void writeToUiAppend(DecodeEvent event) {
+        etLog.append(event.getText());
+        etLog.append("\n");
     }
 
 
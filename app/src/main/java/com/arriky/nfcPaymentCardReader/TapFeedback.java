@@ -0,0 +1,105 @@
+package com.arriky.nfcPaymentCardReader;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.media.SoundPool;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.VibrationEffect;
+import android.os.Vibrator;
+
+/**
+ * Sound and vibration for a tap, played on a dedicated handler thread so the NFC thread only
+ * talks to the card.
+ *
+ * Both sounds are loaded once into a SoundPool when the feedback is created, playing a sound
+ * afterwards does not decode anything. A sound requested before its loading has finished is
+ * skipped. Call release when the activity is destroyed.
+ *
+ * Sound files downloaded from Material Design Sounds
+ * https://m2.material.io/design/sound/sound-resources.html
+ */
+public class TapFeedback {
+
+    private final HandlerThread thread;
+    private final Handler handler;
+    private final Vibrator vibrator;
+    private SoundPool soundPool;
+    private int singlePingId;
+    private int doublePingId;
+    // set when the loading of a sound has finished, only used on the handler thread
+    private boolean singlePingLoaded = false;
+    private boolean doublePingLoaded = false;
+
+    public TapFeedback(Context context) {
+        final Context appContext = context.getApplicationContext();
+        vibrator = (Vibrator) appContext.getSystemService(Context.VIBRATOR_SERVICE);
+        thread = new HandlerThread("tap-feedback");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        handler.post(() -> {
+            AudioAttributes attributes = new AudioAttributes.Builder()
+                    .setUsage(AudioAttributes.USAGE_ASSISTANCE_SONIFICATION)
+                    .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+                    .build();
+            soundPool = new SoundPool.Builder()
+                    .setMaxStreams(2)
+                    .setAudioAttributes(attributes)
+                    .build();
+            // the listener runs on this thread as the pool was created here
+            soundPool.setOnLoadCompleteListener((pool, sampleId, status) -> {
+                if (status != 0) return;
+                if (sampleId == singlePingId) singlePingLoaded = true;
+                if (sampleId == doublePingId) doublePingLoaded = true;
+            });
+            singlePingId = soundPool.load(appContext, R.raw.notification_decorative_02, 1);
+            doublePingId = soundPool.load(appContext, R.raw.notification_decorative_01, 1);
+        });
+    }
+
+    /**
+     * the sound when a card is discovered
+     */
+    public void playSinglePing() {
+        handler.post(() -> {
+            if (singlePingLoaded) soundPool.play(singlePingId, 1f, 1f, 1, 0, 1f);
+        });
+    }
+
+    /**
+     * the sound when the reading is finished
+     */
+    public void playDoublePing() {
+        handler.post(() -> {
+            if (doublePingLoaded) soundPool.play(doublePingId, 1f, 1f, 1, 0, 1f);
+        });
+    }
+
+    public void vibrate() {
+        handler.post(() -> {
+            if (vibrator == null) return;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                vibrator.vibrate(VibrationEffect.createOneShot(150, 10));
+            } else {
+                vibrator.vibrate(200);
+            }
+        });
+    }
+
+    /**
+     * releases the sounds and stops the handler thread, pending feedback is dropped
+     */
+    public void release() {
+        handler.removeCallbacksAndMessages(null);
+        handler.post(() -> {
+            if (soundPool != null) {
+                soundPool.release();
+                soundPool = null;
+            }
+            singlePingLoaded = false;
+            doublePingLoaded = false;
+        });
+        thread.quitSafely();
+    }
+}
@@ -0,0 +1,127 @@
+package com.arriky.nfcPaymentCardReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares HexCodec with the former String based hex conversions (LegacyHex).
+ *
+ * The input sizes follow the data that is formatted on every tap:
+ * PAN = 8 bytes (tag 5A), AFL = 12 bytes (3 AFL entries), RECORD = 256 bytes (a full READ RECORD response)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HexCodecBenchmark {
+
+    @Param({"PAN", "AFL", "RECORD"})
+    public String input;
+
+    private byte[] bytes;
+    private String hex;
+    private String hexBlank;
+    private char[] charTarget;
+    private byte[] byteTarget;
+    private StringBuilder sbTarget;
+
+    @Setup
+    public void setup() {
+        int size;
+        switch (input) {
+            case "PAN":
+                size = 8;
+                break;
+            case "AFL":
+                size = 12;
+                break;
+            default:
+                size = 256;
+        }
+        bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        hex = LegacyHex.bytesToHexNpe(bytes);
+        hexBlank = LegacyHex.bytesToHexBlankNpe(bytes);
+        charTarget = new char[size * 2];
+        byteTarget = new byte[size];
+        sbTarget = new StringBuilder(size * 3);
+    }
+
+    @Benchmark
+    public String legacyBytesToHex() {
+        return LegacyHex.bytesToHexNpe(bytes);
+    }
+
+    @Benchmark
+    public String codecToHex() {
+        return HexCodec.toHex(bytes);
+    }
+
+    @Benchmark
+    public char[] codecEncodeIntoCharArray() {
+        HexCodec.encode(bytes, 0, bytes.length, charTarget, 0);
+        return charTarget;
+    }
+
+    @Benchmark
+    public StringBuilder codecEncodeIntoStringBuilder() {
+        sbTarget.setLength(0);
+        return HexCodec.encode(bytes, 0, bytes.length, sbTarget);
+    }
+
+    @Benchmark
+    public String legacyBytesToHexBlank() {
+        return LegacyHex.bytesToHexBlankNpe(bytes);
+    }
+
+    @Benchmark
+    public String codecToHexBlank() {
+        return HexCodec.toHexBlank(bytes);
+    }
+
+    @Benchmark
+    public StringBuilder codecEncodeBlankIntoStringBuilder() {
+        sbTarget.setLength(0);
+        return HexCodec.encodeBlank(bytes, 0, bytes.length, sbTarget);
+    }
+
+    @Benchmark
+    public byte[] legacyHexToBytes() {
+        return LegacyHex.hexToBytes(hex);
+    }
+
+    @Benchmark
+    public byte[] codecFromHex() {
+        return HexCodec.fromHex(hex);
+    }
+
+    @Benchmark
+    public byte[] codecDecodeIntoByteArray() {
+        HexCodec.decode(hex, 0, hex.length(), byteTarget, 0);
+        return byteTarget;
+    }
+
+    @Benchmark
+    public byte[] legacyHexBlankToBytes() {
+        return LegacyHex.hexBlankToBytes(hexBlank);
+    }
+
+    @Benchmark
+    public byte[] codecFromHexBlank() {
+        return HexCodec.fromHexBlank(hexBlank);
+    }
+
+    @Benchmark
+    public byte[] codecDecodeBlankIntoByteArray() {
+        HexCodec.decodeBlank(hexBlank, 0, hexBlank.length(), byteTarget, 0);
+        return byteTarget;
+    }
+}
@@ -0,0 +1,49 @@
+package com.arriky.nfcPaymentCardReader;
+
+/**
+ * the hex conversions as they were implemented in EmvDecoder and DolValues before HexCodec,
+ * kept unchanged as the baseline for HexCodecBenchmark
+ */
+final class LegacyHex {
+
+    private LegacyHex() {
+    }
+
+    static String bytesToHexNpe(byte[] bytes) {
+        if (bytes != null) {
+            StringBuffer result = new StringBuffer();
+            for (byte b : bytes)
+                result.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
+            return result.toString();
+        } else {
+            return "";
+        }
+    }
+
+    static String bytesToHexBlankNpe(byte[] bytes) {
+        if (bytes == null) return "";
+        StringBuffer result = new StringBuffer();
+        for (byte b : bytes)
+            result.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1)).append(" ");
+        return result.toString();
+    }
+
+    static byte[] hexToBytes(String str) {
+        byte[] bytes = new byte[str.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(str.substring(2 * i, 2 * i + 2),
+                    16);
+        }
+        return bytes;
+    }
+
+    static byte[] hexBlankToBytes(String str) {
+        str = str.replaceAll(" ", "");
+        byte[] bytes = new byte[str.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(str.substring(2 * i, 2 * i + 2),
+                    16);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,178 @@
+package com.arriky.nfcPaymentCardReader;
+
+import java.util.Arrays;
+
+/**
+ * Turns the Application File Locator (AFL, tag 0x94) of an application into a read plan, the
+ * list of records that are read with READ RECORD.
+ *
+ * All 4 byte AFL entries (SFI, first record, last record, number of records for offline data
+ * authentication) are decoded into one plan. A record that was already read for another
+ * application of the same card is not planned again, girocards for example list the same files
+ * under both of their AIDs. The records are ordered by the PanLocationStats of the card scheme,
+ * the record that held the PAN most often comes first, records without statistics keep their
+ * AFL order.
+ *
+ * A planner is used for one card session, the statistics are shared between sessions.
+ */
+public class AflReadPlanner {
+
+    private final PanLocationStats panLocationStats;
+    // the locations (SFI << 8 | record) planned in this session
+    private int[] plannedLocations = new int[16];
+    private int plannedCount = 0;
+
+    /**
+     * a read plan for one application
+     */
+    public static final class ReadPlan {
+        private final int[] locations;
+        private final int duplicates;
+
+        ReadPlan(int[] locations, int duplicates) {
+            this.locations = locations;
+            this.duplicates = duplicates;
+        }
+
+        /**
+         * @return the number of records to read
+         */
+        public int size() {
+            return locations.length;
+        }
+
+        public int getSfi(int index) {
+            return locations[index] >>> 8;
+        }
+
+        public int getRecord(int index) {
+            return locations[index] & 0xFF;
+        }
+
+        /**
+         * @return the number of AFL records left out because another application read them
+         */
+        public int getDuplicates() {
+            return duplicates;
+        }
+
+        /**
+         * @param index
+         * @return the READ RECORD command for the record at this position of the plan
+         */
+        public byte[] getCommand(int index) {
+            return readRecordCommand(getSfi(index), getRecord(index));
+        }
+
+        /**
+         * @return the READ RECORD commands of the complete plan, in plan order
+         */
+        public byte[][] getCommands() {
+            byte[][] commands = new byte[locations.length][];
+            for (int i = 0; i < locations.length; i++) {
+                commands[i] = getCommand(i);
+            }
+            return commands;
+        }
+    }
+
+    public AflReadPlanner(PanLocationStats panLocationStats) {
+        this.panLocationStats = panLocationStats;
+    }
+
+    /**
+     * builds a READ RECORD command
+     *
+     * @param sfi    short file identifier (1..30)
+     * @param record record number (1..255)
+     * @return
+     */
+    static byte[] readRecordCommand(int sfi, int record) {
+        byte[] cmd = ApduCommandFactory.newReadRecordCommand();
+        ApduCommandFactory.patchReadRecord(cmd, sfi, record);
+        return cmd;
+    }
+
+    /**
+     * plans the records of an application, the records are marked as read for the following
+     * applications of this session
+     * entries with record number 0 or a last record before the first record are ignored, as are
+     * incomplete trailing bytes
+     *
+     * @param scheme the scheme of the selected application
+     * @param afl    the AFL from the GPO response, may be null
+     * @return the plan, empty if there is nothing to read
+     */
+    public ReadPlan plan(CardScheme scheme, byte[] afl) {
+        if (afl == null) return new ReadPlan(new int[0], 0);
+        int[] locations = new int[16];
+        int count = 0;
+        int duplicates = 0;
+        for (int i = 0; i + 3 < afl.length; i += 4) {
+            int sfi = (afl[i] & 0xFF) >>> 3;
+            int firstRecord = afl[i + 1] & 0xFF;
+            int lastRecord = afl[i + 2] & 0xFF;
+            if (firstRecord == 0) continue;
+            for (int record = firstRecord; record <= lastRecord; record++) {
+                int location = PanLocationStats.location(sfi, record);
+                if (isPlanned(location)) {
+                    duplicates++;
+                    continue;
+                }
+                if (count == locations.length) locations = Arrays.copyOf(locations, count * 2);
+                locations[count++] = location;
+                markPlanned(location);
+            }
+        }
+        locations = Arrays.copyOf(locations, count);
+        sortByPanCount(scheme, locations);
+        return new ReadPlan(locations, duplicates);
+    }
+
+    /**
+     * note where the PAN was found, the next cards of this scheme read this record first
+     *
+     * @param scheme
+     * @param sfi
+     * @param record
+     */
+    public void recordPanLocation(CardScheme scheme, int sfi, int record) {
+        panLocationStats.recordPanLocation(scheme, sfi, record);
+    }
+
+    private boolean isPlanned(int location) {
+        for (int i = 0; i < plannedCount; i++) {
+            if (plannedLocations[i] == location) return true;
+        }
+        return false;
+    }
+
+    private void markPlanned(int location) {
+        if (plannedCount == plannedLocations.length) {
+            plannedLocations = Arrays.copyOf(plannedLocations, plannedCount * 2);
+        }
+        plannedLocations[plannedCount++] = location;
+    }
+
+    /**
+     * stable insertion sort, highest PAN count first; an AFL has only a few records
+     */
+    private void sortByPanCount(CardScheme scheme, int[] locations) {
+        int[] panCounts = new int[locations.length];
+        for (int i = 0; i < locations.length; i++) {
+            panCounts[i] = panLocationStats.getPanCount(scheme, locations[i] >>> 8, locations[i] & 0xFF);
+        }
+        for (int i = 1; i < locations.length; i++) {
+            int location = locations[i];
+            int panCount = panCounts[i];
+            int j = i - 1;
+            while (j >= 0 && panCounts[j] < panCount) {
+                locations[j + 1] = locations[j];
+                panCounts[j + 1] = panCounts[j];
+                j--;
+            }
+            locations[j + 1] = location;
+            panCounts[j + 1] = panCount;
+        }
+    }
+}
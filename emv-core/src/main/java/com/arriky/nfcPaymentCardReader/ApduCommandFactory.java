@@ -0,0 +1,155 @@
+package com.arriky.nfcPaymentCardReader;
+
+import androidx.annotation.NonNull;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Builds the SELECT, GET PROCESSING OPTIONS, READ RECORD and INTERNAL AUTHENTICATE commands of a session in buffers
+ * that are allocated once and reused for every following command of the same shape: the
+ * constant header bytes are written when a buffer is created, a command only patches P1/P2, Lc
+ * and the data. A READ RECORD allocates nothing once the session has read its first record.
+ *
+ * A command is only valid until the next command of the same kind (and, for SELECT and GPO, the
+ * same length) is built. Whoever keeps a command beyond that has to copy it, see ExchangeLog and
+ * ApduTraceRecorder. A factory belongs to one EmvDecoder and is not thread safe.
+ */
+public class ApduCommandFactory {
+
+    static final byte[] PPSE_NAME = "2PAY.SYS.DDF01".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_SELECT_DATA = 255;
+    private static final int READ_RECORD_LENGTH = 5;
+
+    private final GpoCommandBuilder gpoCommandBuilder;
+    // SELECT commands by the length of their data, created on first use
+    private final byte[][] selectCommands = new byte[MAX_SELECT_DATA + 1][];
+    private byte[] gpoCommand = null;
+    private byte[] internalAuthenticateCommand = null;
+    private final byte[] readRecordCommand = newReadRecordCommand();
+    // distinct READ RECORD commands for transceiveAll, grows to the longest plan of the session
+    private byte[][] readRecordCommands = new byte[0][];
+
+    public ApduCommandFactory() {
+        this(new GpoCommandBuilder());
+    }
+
+    /**
+     * @param gpoCommandBuilder
+     */
+    public ApduCommandFactory(@NonNull GpoCommandBuilder gpoCommandBuilder) {
+        this.gpoCommandBuilder = gpoCommandBuilder;
+    }
+
+    /**
+     * @return SELECT 2PAY.SYS.DDF01
+     */
+    public byte[] selectPpse() {
+        return select(PPSE_NAME);
+    }
+
+    /**
+     * @param name the AID or the name of the directory, at most 255 bytes
+     * @return the SELECT by name command
+     */
+    public byte[] select(@NonNull byte[] name) {
+        if (name.length > MAX_SELECT_DATA) throw new IllegalArgumentException("name too long: " + name.length);
+        byte[] command = selectCommands[name.length];
+        if (command == null) {
+            command = new byte[6 + name.length];
+            command[0] = (byte) 0x00;  // CLA
+            command[1] = (byte) 0xA4;  // INS
+            command[2] = (byte) 0x04;  // P1
+            command[3] = (byte) 0x00;  // P2
+            command[4] = (byte) name.length;  // Lc
+            command[command.length - 1] = (byte) 0x00;  // Le
+            selectCommands[name.length] = command;
+        }
+        System.arraycopy(name, 0, command, 5, name.length);
+        return command;
+    }
+
+    /**
+     * @param pdol the value of tag 9F38, an empty array if the card has no PDOL
+     * @param ttq  the TTQ alternative 00..03, see DolValues
+     * @return the GET PROCESSING OPTIONS command with the default values of the DolRegistry
+     * @throws IllegalStateException if the values of the PDOL do not fit into the command
+     */
+    public byte[] gpo(@NonNull byte[] pdol, byte ttq) {
+        GpoCommandBuilder.PdolLayout layout = gpoCommandBuilder.getLayout(pdol);
+        if (gpoCommand == null || gpoCommand.length != layout.getCommandLength()) {
+            gpoCommand = new byte[layout.getCommandLength()];
+        }
+        gpoCommandBuilder.build(layout, ttq, gpoCommand, 0);
+        return gpoCommand;
+    }
+
+    /**
+     * @param dynamicData the data of the DDOL, see OfflineDataAuthenticator, at most 255 bytes
+     * @return the INTERNAL AUTHENTICATE command
+     */
+    public byte[] internalAuthenticate(@NonNull byte[] dynamicData) {
+        if (dynamicData.length > MAX_SELECT_DATA) throw new IllegalArgumentException("data too long: " + dynamicData.length);
+        byte[] command = internalAuthenticateCommand;
+        if (command == null || command.length != 6 + dynamicData.length) {
+            command = new byte[6 + dynamicData.length];
+            command[0] = (byte) 0x00;  // CLA
+            command[1] = (byte) 0x88;  // INS
+            command[2] = (byte) 0x00;  // P1
+            command[3] = (byte) 0x00;  // P2
+            command[4] = (byte) dynamicData.length;  // Lc
+            command[command.length - 1] = (byte) 0x00;  // Le
+            internalAuthenticateCommand = command;
+        }
+        System.arraycopy(dynamicData, 0, command, 5, dynamicData.length);
+        return command;
+    }
+
+    /**
+     * @param sfi    short file identifier (1..30)
+     * @param record record number (1..255)
+     * @return the READ RECORD command
+     */
+    public byte[] readRecord(int sfi, int record) {
+        patchReadRecord(readRecordCommand, sfi, record);
+        return readRecordCommand;
+    }
+
+    /**
+     * @param plan
+     * @return a READ RECORD command for every record of the plan, each in a buffer of its own
+     */
+    public byte[][] readRecords(@NonNull AflReadPlanner.ReadPlan plan) {
+        if (readRecordCommands.length < plan.size()) {
+            byte[][] grown = new byte[Math.max(plan.size(), 2 * readRecordCommands.length)][];
+            System.arraycopy(readRecordCommands, 0, grown, 0, readRecordCommands.length);
+            for (int i = readRecordCommands.length; i < grown.length; i++) {
+                grown[i] = newReadRecordCommand();
+            }
+            readRecordCommands = grown;
+        }
+        byte[][] commands = new byte[plan.size()][];
+        for (int i = 0; i < commands.length; i++) {
+            commands[i] = readRecordCommands[i];
+            patchReadRecord(commands[i], plan.getSfi(i), plan.getRecord(i));
+        }
+        return commands;
+    }
+
+    static byte[] newReadRecordCommand() {
+        byte[] command = new byte[READ_RECORD_LENGTH];
+        command[0] = (byte) 0x00;  // CLA
+        command[1] = (byte) 0xB2;  // INS
+        command[4] = (byte) 0x00;  // Le
+        return command;
+    }
+
+    /**
+     * @param command a READ RECORD command
+     * @param sfi
+     * @param record
+     */
+    static void patchReadRecord(byte[] command, int sfi, int record) {
+        command[2] = (byte) (record & 0x0FF);  // P1
+        command[3] = (byte) (((sfi << 3) | 0x04) & 0x0FF);  // P2: SFI, P1 is a record number
+    }
+}
@@ -0,0 +1,23 @@
+package com.arriky.nfcPaymentCardReader;
+
+/**
+ * one command / response pair as sent to and received from the card
+ */
+public class ApduExchange {
+
+    private final byte[] command;
+    private final byte[] response;
+
+    public ApduExchange(byte[] command, byte[] response) {
+        this.command = command;
+        this.response = response;
+    }
+
+    public byte[] getCommand() {
+        return command;
+    }
+
+    public byte[] getResponse() {
+        return response;
+    }
+}
@@ -0,0 +1,190 @@
+package com.arriky.nfcPaymentCardReader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Decodes the binary export of an ApduTraceRecorder back into the taps it recorded.
+ *
+ * The exchanges are sorted into the sessions by their session id, the taps of several readers
+ * that ran at the same time come out separated. Exchanges whose session entry was overwritten
+ * form a session with an unknown start time and reader. A trace that ends inside an entry (e.g.
+ * a file that was cut) keeps all complete entries before it.
+ */
+public final class ApduTraceReader {
+
+    /**
+     * one tap of the recording
+     */
+    public static final class TraceSession {
+        private final long startMillis;
+        private final String source;
+        private final List<ApduExchange> exchanges = new ArrayList<>();
+        private final List<int[]> timings = new ArrayList<>();
+
+        TraceSession(long startMillis, String source) {
+            this.startMillis = startMillis;
+            this.source = source;
+        }
+
+        /**
+         * @return the wall clock time of the tap in milliseconds, 0 if it is unknown
+         */
+        public long getStartMillis() {
+            return startMillis;
+        }
+
+        /**
+         * @return the reader of the tap, null if it is unknown
+         */
+        public String getSource() {
+            return source;
+        }
+
+        public List<ApduExchange> getExchanges() {
+            return Collections.unmodifiableList(exchanges);
+        }
+
+        /**
+         * @param index
+         * @return microseconds between the start of the tap and the command
+         */
+        public int getOffsetMicros(int index) {
+            return timings.get(index)[0];
+        }
+
+        /**
+         * @param index
+         * @return microseconds until the response arrived
+         */
+        public int getDurationMicros(int index) {
+            return timings.get(index)[1];
+        }
+
+        /**
+         * @return the report of the tap in the style of logfile.md
+         */
+        public SessionReport getReport() {
+            return new SessionReport(exchanges);
+        }
+    }
+
+    private ApduTraceReader() {
+    }
+
+    public static List<TraceSession> read(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return read(in);
+        }
+    }
+
+    public static List<TraceSession> read(InputStream in) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int read;
+        while ((read = in.read(chunk)) > 0) {
+            data.write(chunk, 0, read);
+        }
+        return read(data.toByteArray());
+    }
+
+    /**
+     * @param data the binary export
+     * @return the sessions from the oldest to the newest
+     * @throws IOException if the data is not a trace
+     */
+    public static List<TraceSession> read(byte[] data) throws IOException {
+        int headerLength = ApduTraceRecorder.MAGIC.length + 1;
+        if (data.length < headerLength || !Arrays.equals(Arrays.copyOf(data, ApduTraceRecorder.MAGIC.length), ApduTraceRecorder.MAGIC)) {
+            throw new IOException("not an APDU trace");
+        }
+        if (data[ApduTraceRecorder.MAGIC.length] != ApduTraceRecorder.VERSION) {
+            throw new IOException("unsupported APDU trace version " + data[ApduTraceRecorder.MAGIC.length]);
+        }
+        List<TraceSession> sessions = new ArrayList<>();
+        Map<Integer, TraceSession> sessionsById = new HashMap<>();
+        int position = headerLength;
+        while (position + ApduTraceRecorder.ENTRY_HEADER_LENGTH <= data.length) {
+            byte type = data[position];
+            int payload = getShort(data, position + 1);
+            int start = position + ApduTraceRecorder.ENTRY_HEADER_LENGTH;
+            int end = start + payload;
+            if (end > data.length) break;
+            if (type == ApduTraceRecorder.TYPE_SESSION && payload >= ApduTraceRecorder.SESSION_FIXED_LENGTH) {
+                long millis = ((long) getInt(data, start) << 32) | (getInt(data, start + 4) & 0xFFFFFFFFL);
+                int sourceLength = Math.min(data[start + 12] & 0xFF, payload - ApduTraceRecorder.SESSION_FIXED_LENGTH);
+                String source = sourceLength > 0
+                        ? new String(data, start + ApduTraceRecorder.SESSION_FIXED_LENGTH, sourceLength, StandardCharsets.UTF_8) : null;
+                TraceSession session = new TraceSession(millis, source);
+                sessions.add(session);
+                sessionsById.put(getInt(data, start + 8), session);
+            } else if (type == ApduTraceRecorder.TYPE_EXCHANGE && payload >= ApduTraceRecorder.EXCHANGE_FIXED_LENGTH) {
+                int id = getInt(data, start);
+                TraceSession session = sessionsById.get(id);
+                if (session == null) {
+                    session = new TraceSession(0, null);
+                    sessions.add(session);
+                    sessionsById.put(id, session);
+                }
+                int commandLength = getShort(data, start + 14);
+                int commandStart = start + 16;
+                if (commandStart + commandLength + 2 > end) break;
+                byte[] command = Arrays.copyOfRange(data, commandStart, commandStart + commandLength);
+                int responseLength = getShort(data, commandStart + commandLength);
+                int responseStart = commandStart + commandLength + 2;
+                byte[] response = null;
+                if (responseLength != ApduTraceRecorder.NO_RESPONSE) {
+                    if (responseStart + responseLength > end) break;
+                    response = Arrays.copyOfRange(data, responseStart, responseStart + responseLength);
+                }
+                session.exchanges.add(new ApduExchange(command, response));
+                session.timings.add(new int[]{getInt(data, start + 4), getInt(data, start + 8)});
+            }
+            position = end;
+        }
+        return sessions;
+    }
+
+    /**
+     * appends all sessions in the style of logfile.md
+     *
+     * @param sessions
+     * @param out
+     */
+    public static void render(List<TraceSession> sessions, StringBuilder out) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS 'UTC'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        for (int i = 0; i < sessions.size(); i++) {
+            TraceSession session = sessions.get(i);
+            out.append("## Session ").append(i + 1);
+            if (session.getSource() != null) out.append(", ").append(session.getSource());
+            if (session.getStartMillis() != 0) out.append(", ").append(format.format(new Date(session.getStartMillis())));
+            out.append("\n```plaintext\n");
+            session.getReport().render(out);
+            out.append("```\n\n");
+        }
+    }
+
+    private static int getShort(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    }
+
+    private static int getInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,240 @@
+package com.arriky.nfcPaymentCardReader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An always-on flight recorder for APDUs: every command and response (with a timestamp, the
+ * duration and the status word) is copied into a ring buffer that is allocated once. When the
+ * buffer is full the oldest entries are overwritten, the memory used never grows.
+ *
+ * The TracingTransport feeds the recorder, recording an exchange is a few header bytes and an
+ * array copy of the command and the response, no objects are created. export writes the
+ * buffer in a compact length-prefixed binary format, the ApduTraceReader turns it back into
+ * sessions and the logfile.md style SessionReport, e.g. with EmvCli --trace.
+ *
+ * Format (big endian): the magic "APDT" and a version byte, then the entries from the oldest
+ * to the newest, each entry is a type byte, a 2 byte payload length and the payload:
+ * - SESSION: the start of a tap, 8 bytes wall clock time in milliseconds, 4 bytes session id,
+ *   1 byte length and the UTF-8 name of the reader
+ * - EXCHANGE: 4 bytes session id, 4 bytes microseconds since the start of the tap, 4 bytes
+ *   duration in microseconds, 2 bytes status word, 2 bytes command length, the command, 2 bytes
+ *   response length (0xFFFF if there was no response) and the response
+ * Unknown entry types are skipped by the reader.
+ *
+ * The recorder is thread safe and can be shared by several readers: the taps of different
+ * readers may interleave in the ring, every exchange carries the id of its session and the
+ * TracingTransport of each tap keeps the start time its offsets are measured from.
+ */
+public final class ApduTraceRecorder {
+
+    static final byte[] MAGIC = {'A', 'P', 'D', 'T'};
+    static final byte VERSION = 2;
+    static final byte TYPE_SESSION = 'S';
+    static final byte TYPE_EXCHANGE = 'X';
+    static final int ENTRY_HEADER_LENGTH = 3;
+    static final int SESSION_FIXED_LENGTH = 8 + 4 + 1;
+    static final int EXCHANGE_FIXED_LENGTH = 4 + 4 + 4 + 2 + 2 + 2;
+    private static final int MAX_SOURCE_LENGTH = 0xFF;
+    static final int NO_RESPONSE = 0xFFFF;
+    private static final int MAX_PAYLOAD = 0xFFFF;
+
+    private final byte[] buffer;
+    // start of the oldest entry, write position and number of bytes in use
+    private int head = 0;
+    private int tail = 0;
+    private int used = 0;
+    private int nextSession = 1;
+    private long entries = 0;
+    private long overwrittenEntries = 0;
+    private long droppedEntries = 0;
+    // the header of an entry is built here before it is copied into the ring
+    private final byte[] scratch = new byte[ENTRY_HEADER_LENGTH + 4 + 4 + 4 + 2 + 2];
+
+    /**
+     * @param capacity the size of the ring buffer in bytes
+     */
+    public ApduTraceRecorder(int capacity) {
+        if (capacity < 64) throw new IllegalArgumentException("capacity must be at least 64 bytes");
+        this.buffer = new byte[capacity];
+    }
+
+    /**
+     * marks the start of a tap
+     *
+     * @param source the reader of the tap, may be null
+     * @return the id the exchanges of the tap are recorded with
+     */
+    public synchronized int startSession(String source) {
+        int session = nextSession++;
+        long millis = System.currentTimeMillis();
+        byte[] name = source != null ? source.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        int nameLength = Math.min(name.length, MAX_SOURCE_LENGTH);
+        if (!reserve(ENTRY_HEADER_LENGTH + SESSION_FIXED_LENGTH + nameLength)) return session;
+        scratch[0] = TYPE_SESSION;
+        putShort(scratch, 1, SESSION_FIXED_LENGTH + nameLength);
+        putInt(scratch, 3, (int) (millis >>> 32));
+        putInt(scratch, 7, (int) millis);
+        putInt(scratch, 11, session);
+        scratch[15] = (byte) nameLength;
+        write(scratch, 0, ENTRY_HEADER_LENGTH + SESSION_FIXED_LENGTH);
+        write(name, 0, nameLength);
+        return session;
+    }
+
+    /**
+     * records one exchange
+     *
+     * @param session     the id from startSession
+     * @param offsetNanos time between the start of the tap and the command
+     * @param nanos       time until the response arrived
+     * @param command
+     * @param response    may be null
+     */
+    public void record(int session, long offsetNanos, long nanos, byte[] command, byte[] response) {
+        record(session, offsetNanos, nanos, command, response, response != null ? response.length : 0);
+    }
+
+    /**
+     * records one exchange whose response is a view into a buffer
+     *
+     * @param session
+     * @param offsetNanos
+     * @param nanos
+     * @param command
+     * @param response       may be null
+     * @param responseLength the bytes of the buffer that belong to the response
+     */
+    public synchronized void record(int session, long offsetNanos, long nanos, byte[] command, byte[] response, int responseLength) {
+        int commandLength = command.length;
+        if (response == null) responseLength = 0;
+        int payload = EXCHANGE_FIXED_LENGTH + commandLength + responseLength;
+        if (payload > MAX_PAYLOAD || responseLength >= NO_RESPONSE || !reserve(ENTRY_HEADER_LENGTH + payload)) {
+            droppedEntries++;
+            return;
+        }
+        int statusWord = CardReadResult.statusWord(response, responseLength);
+        scratch[0] = TYPE_EXCHANGE;
+        putShort(scratch, 1, payload);
+        putInt(scratch, 3, session);
+        putInt(scratch, 7, toMicros(offsetNanos));
+        putInt(scratch, 11, toMicros(nanos));
+        putShort(scratch, 15, statusWord);
+        putShort(scratch, 17, commandLength);
+        write(scratch, 0, 19);
+        write(command, 0, commandLength);
+        putShort(scratch, 0, response != null ? responseLength : NO_RESPONSE);
+        write(scratch, 0, 2);
+        if (response != null) write(response, 0, responseLength);
+    }
+
+    /**
+     * writes the recorded entries, the recording goes on
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void export(OutputStream out) throws IOException {
+        out.write(export());
+    }
+
+    /**
+     * @return the recorded entries in the binary format
+     */
+    public synchronized byte[] export() {
+        byte[] data = new byte[MAGIC.length + 1 + used];
+        System.arraycopy(MAGIC, 0, data, 0, MAGIC.length);
+        data[MAGIC.length] = VERSION;
+        int first = Math.min(used, buffer.length - head);
+        System.arraycopy(buffer, head, data, MAGIC.length + 1, first);
+        System.arraycopy(buffer, 0, data, MAGIC.length + 1 + first, used - first);
+        return data;
+    }
+
+    /**
+     * forgets all entries
+     */
+    public synchronized void clear() {
+        head = 0;
+        tail = 0;
+        used = 0;
+    }
+
+    public int getCapacity() {
+        return buffer.length;
+    }
+
+    /**
+     * @return the number of bytes in use
+     */
+    public synchronized int size() {
+        return used;
+    }
+
+    /**
+     * @return the number of entries recorded since the recorder was created
+     */
+    public synchronized long getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return the number of old entries that were overwritten by newer ones
+     */
+    public synchronized long getOverwrittenEntries() {
+        return overwrittenEntries;
+    }
+
+    /**
+     * @return the number of entries that did not fit into the buffer at all
+     */
+    public synchronized long getDroppedEntries() {
+        return droppedEntries;
+    }
+
+    /**
+     * frees the space for an entry by removing the oldest ones
+     *
+     * @return false if the entry is larger than the buffer
+     */
+    private boolean reserve(int length) {
+        if (length > buffer.length) return false;
+        while (buffer.length - used < length) {
+            int payload = ((buffer[(head + 1) % buffer.length] & 0xFF) << 8) | (buffer[(head + 2) % buffer.length] & 0xFF);
+            int entryLength = ENTRY_HEADER_LENGTH + payload;
+            head = (head + entryLength) % buffer.length;
+            used -= entryLength;
+            overwrittenEntries++;
+        }
+        entries++;
+        return true;
+    }
+
+    /**
+     * copies into the ring at the write position, in two parts if it wraps around
+     */
+    private void write(byte[] src, int offset, int length) {
+        int first = Math.min(length, buffer.length - tail);
+        System.arraycopy(src, offset, buffer, tail, first);
+        System.arraycopy(src, offset + first, buffer, 0, length - first);
+        tail = (tail + length) % buffer.length;
+        used += length;
+    }
+
+    private static int toMicros(long nanos) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, nanos / 1000));
+    }
+
+    private static void putShort(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 8);
+        target[offset + 1] = (byte) value;
+    }
+
+    private static void putInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+}
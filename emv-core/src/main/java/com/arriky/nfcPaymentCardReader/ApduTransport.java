@@ -0,0 +1,76 @@
+package com.arriky.nfcPaymentCardReader;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A channel that delivers command APDUs to a payment card and returns the card's response.
+ *
+ * The EmvDecoder talks to the card only through this interface, so the same decoding code runs
+ * against a real card on the phone (IsoDepTransport) or against a recorded session on a plain
+ * JVM (ReplayCard).
+ */
+public interface ApduTransport extends Closeable {
+
+    /**
+     * opens the connection to the card, called once before the first transceive
+     *
+     * @throws IOException
+     */
+    void connect() throws IOException;
+
+    /**
+     * sends a command apdu to the card
+     *
+     * @param command
+     * @return the complete response including the trailing status word (e.g. 0x'9000')
+     * @throws IOException
+     */
+    byte[] transceive(byte[] command) throws IOException;
+
+    /**
+     * sends a command apdu and writes the response into a buffer of the caller, the response
+     * is a view (buffer, 0, length) that is valid until the buffer is used again
+     * a transport that can receive without allocating (e.g. a recorded card or a PC/SC channel)
+     * overrides this, the default copies the response of transceive
+     *
+     * @param command
+     * @param response receives the complete response including the trailing status word
+     * @return the length of the response
+     * @throws IOException also if the response does not fit into the buffer
+     */
+    default int transceive(byte[] command, byte[] response) throws IOException {
+        return copyResponse(transceive(command), response);
+    }
+
+    /**
+     * sends a list of independent command apdus, e.g. the READ RECORD commands of a read plan
+     * a transport that can pipeline commands may override this, the default sends them one
+     * after the other
+     *
+     * @param commands
+     * @return the responses in the order of the commands
+     * @throws IOException
+     */
+    default byte[][] transceiveAll(byte[][] commands) throws IOException {
+        byte[][] responses = new byte[commands.length][];
+        for (int i = 0; i < commands.length; i++) {
+            responses[i] = transceive(commands[i]);
+        }
+        return responses;
+    }
+
+    /**
+     * @param answer   the response of the card
+     * @param response the buffer of the caller
+     * @return the length of the response
+     * @throws IOException if the response does not fit into the buffer
+     */
+    static int copyResponse(byte[] answer, byte[] response) throws IOException {
+        if (answer.length > response.length) {
+            throw new IOException("response of " + answer.length + " bytes does not fit into " + response.length + " bytes");
+        }
+        System.arraycopy(answer, 0, response, 0, answer.length);
+        return answer.length;
+    }
+}
@@ -0,0 +1,160 @@
+package com.arriky.nfcPaymentCardReader;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The public keys of the certification authorities of the payment schemes, the roots of the
+ * offline data authentication. A key is identified by the RID (the first five bytes of the AID)
+ * and the CA public key index the card names in tag 8F.
+ *
+ * The shared table is loaded from the bundled ca-keys.txt, one key per line: RID, index,
+ * exponent and modulus in hex. Keys can be added at runtime, e.g. the test keys of a scheme or
+ * keys generated for an offline test. The table can be shared by all taps.
+ */
+public final class CaPublicKeyTable {
+
+    static final String RESOURCE = "ca-keys.txt";
+    private static final int RID_LENGTH = 5;
+
+    /**
+     * an RSA public key of a certification authority
+     */
+    public static final class Key {
+        private final byte[] rid;
+        private final int index;
+        private final BigInteger modulus;
+        private final BigInteger exponent;
+        private final int modulusLength;
+
+        Key(byte[] rid, int index, BigInteger modulus, BigInteger exponent) {
+            this.rid = rid.clone();
+            this.index = index;
+            this.modulus = modulus;
+            this.exponent = exponent;
+            this.modulusLength = (modulus.bitLength() + 7) / 8;
+        }
+
+        public byte[] getRid() {
+            return rid.clone();
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public BigInteger getModulus() {
+            return modulus;
+        }
+
+        public BigInteger getExponent() {
+            return exponent;
+        }
+
+        /**
+         * @return the length of the modulus in bytes, the length of the issuer certificate
+         */
+        public int getModulusLength() {
+            return modulusLength;
+        }
+    }
+
+    // the shared table is loaded on first use
+    private static final class Shared {
+        static final CaPublicKeyTable INSTANCE = loadBundled();
+    }
+
+    private final Map<Long, Key> keys = new ConcurrentHashMap<>();
+
+    public CaPublicKeyTable() {
+    }
+
+    /**
+     * @return the table with the bundled keys, shared by all readings in this process
+     */
+    public static CaPublicKeyTable getShared() {
+        return Shared.INSTANCE;
+    }
+
+    private static CaPublicKeyTable loadBundled() {
+        CaPublicKeyTable table = new CaPublicKeyTable();
+        try (InputStream in = CaPublicKeyTable.class.getResourceAsStream(RESOURCE)) {
+            if (in == null) throw new IllegalStateException(RESOURCE + " is missing");
+            table.load(in);
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot read " + RESOURCE, e);
+        }
+        return table;
+    }
+
+    /**
+     * adds the keys of a table in the format of ca-keys.txt, blank lines and lines starting
+     * with # are skipped
+     *
+     * @param in
+     * @throws IOException if a line is malformed
+     */
+    public void load(@NonNull InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+        String line;
+        int number = 0;
+        while ((line = reader.readLine()) != null) {
+            number++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] fields = line.split("\\s+");
+            if (fields.length != 4) throw new IOException("line " + number + ": expected RID, index, exponent and modulus");
+            try {
+                add(HexCodec.fromHex(fields[0]), Integer.parseInt(fields[1], 16),
+                        new BigInteger(fields[3], 16), new BigInteger(fields[2], 16));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("line " + number + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * adds a key or replaces the key with the same RID and index
+     *
+     * @param rid      the registered application provider identifier, 5 bytes
+     * @param index    the CA public key index (tag 8F)
+     * @param modulus
+     * @param exponent
+     */
+    public void add(@NonNull byte[] rid, int index, @NonNull BigInteger modulus, @NonNull BigInteger exponent) {
+        if (rid.length != RID_LENGTH) throw new IllegalArgumentException("a RID has 5 bytes: " + HexCodec.toHex(rid));
+        if (index < 0 || index > 0xFF) throw new IllegalArgumentException("invalid index: " + index);
+        if (modulus.signum() <= 0 || exponent.signum() <= 0) throw new IllegalArgumentException("invalid key");
+        keys.put(key(rid, index), new Key(rid, index, modulus, exponent));
+    }
+
+    /**
+     * @param aid   the AID of the application or the RID
+     * @param index the CA public key index (tag 8F)
+     * @return the key or null if the table does not know it
+     */
+    public Key get(@NonNull byte[] aid, int index) {
+        if (aid.length < RID_LENGTH) return null;
+        return keys.get(key(aid, index));
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    private static long key(byte[] rid, int index) {
+        long key = 0;
+        for (int i = 0; i < RID_LENGTH; i++) {
+            key = (key << 8) | (rid[i] & 0xFF);
+        }
+        return (key << 8) | (index & 0xFF);
+    }
+}
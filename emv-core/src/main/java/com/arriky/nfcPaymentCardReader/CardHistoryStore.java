@@ -0,0 +1,749 @@
+package com.arriky.nfcPaymentCardReader;
+
+import androidx.annotation.NonNull;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The history of the cards that were read, kept across restarts, e.g. to answer "when was this
+ * card read last" and "how often was it read" in constant time.
+ *
+ * The taps are appended as compact records to segment files (history-N.seg) in a directory:
+ * each record is its length, its CRC32 and the payload (hashed PAN, time, read count, scheme,
+ * masked PAN, expiration date, APDUs, duration and reader). No PAN is stored, the PAN is
+ * hashed with SipHash and a random key kept in history.key next to the segments. An index in
+ * memory maps the hashed PAN to the location of the card's last record, its time and its read
+ * count (open addressing over the hashes), the records themselves are read through a memory
+ * map of the segment.
+ *
+ * When the segment that is written reaches segmentBytes a new one is started. When there are
+ * more than maxSegments, the closed segments are compacted into one that keeps only the last
+ * record of each card (the read count is part of the record, so it survives). On open the index
+ * is rebuilt by scanning the segments, a record with a wrong length or checksum at the end of
+ * the last segment (a tap that was written while the app died) is cut off.
+ *
+ * The store is a ResultSink: in a ResultPipeline a batch of taps is written with one write and
+ * one flush on the pipeline's thread, never on the reading thread. Only taps with a PAN are
+ * stored. The methods are synchronized, a lookup waits while a batch is written or compacted.
+ */
+public final class CardHistoryStore implements ResultSink {
+
+    public static final long DEFAULT_SEGMENT_BYTES = 1024 * 1024;
+    public static final int DEFAULT_MAX_SEGMENTS = 8;
+    // "EMVH" and the version in front of each segment
+    static final int MAGIC = 0x454D5648;
+    static final int VERSION = 1;
+    static final int SEGMENT_HEADER_BYTES = 8;
+    // the length and the CRC32 in front of each payload
+    static final int RECORD_HEADER_BYTES = 8;
+    static final int MAX_PAYLOAD_BYTES = 1024;
+    private static final String SEGMENT_PREFIX = "history-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String KEY_FILE = "history.key";
+    private static final int KEY_BYTES = 16;
+
+    /**
+     * one tap as it was stored
+     */
+    public static final class Record {
+        private final long timeMillis;
+        private final int readCount;
+        private final CardScheme scheme;
+        private final boolean cardRead;
+        private final String maskedPan;
+        private final String expirationDate;
+        private final int apduCount;
+        private final long tapMicros;
+        private final String source;
+
+        Record(long timeMillis, int readCount, CardScheme scheme, boolean cardRead, String maskedPan, String expirationDate,
+               int apduCount, long tapMicros, String source) {
+            this.timeMillis = timeMillis;
+            this.readCount = readCount;
+            this.scheme = scheme;
+            this.cardRead = cardRead;
+            this.maskedPan = maskedPan;
+            this.expirationDate = expirationDate;
+            this.apduCount = apduCount;
+            this.tapMicros = tapMicros;
+            this.source = source;
+        }
+
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+
+        /**
+         * @return the number of times the card was read up to and including this tap
+         */
+        public int getReadCount() {
+            return readCount;
+        }
+
+        public CardScheme getScheme() {
+            return scheme;
+        }
+
+        public boolean isCardRead() {
+            return cardRead;
+        }
+
+        /**
+         * @return the first six and the last four digits of the PAN, the others as '*'
+         */
+        public String getMaskedPan() {
+            return maskedPan;
+        }
+
+        /**
+         * @return null if the card gave none
+         */
+        public String getExpirationDate() {
+            return expirationDate;
+        }
+
+        public int getApduCount() {
+            return apduCount;
+        }
+
+        public long getTapMicros() {
+            return tapMicros;
+        }
+
+        public String getSource() {
+            return source;
+        }
+    }
+
+    /**
+     * a segment file, read through a memory map that grows with the file
+     */
+    private static final class Segment {
+        final int id;
+        final File file;
+        final RandomAccessFile randomAccessFile;
+        final FileChannel channel;
+        long size;
+        private MappedByteBuffer map = null;
+
+        Segment(int id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.randomAccessFile = new RandomAccessFile(file, "rw");
+            this.channel = randomAccessFile.getChannel();
+            this.size = channel.size();
+        }
+
+        /**
+         * @param end the bytes that have to be mapped
+         * @return a map of the segment up to at least end
+         */
+        ByteBuffer view(long end) throws IOException {
+            if (map == null || map.capacity() < end) {
+                map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            return map;
+        }
+
+        void truncate(long size) throws IOException {
+            map = null;
+            channel.truncate(size);
+            this.size = size;
+        }
+
+        void close() throws IOException {
+            map = null;
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * open addressing from the hashed PAN to the last record of the card, the hash is already
+     * random, its low bits are the slot; 0 marks an empty slot
+     */
+    private static final class PanIndex {
+        private long[] keys = new long[64];
+        private long[] locations = new long[64];
+        private long[] times = new long[64];
+        private int[] counts = new int[64];
+        private int size = 0;
+
+        int slot(long key) {
+            int mask = keys.length - 1;
+            int slot = (int) key & mask;
+            while (keys[slot] != 0 && keys[slot] != key) slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        /**
+         * @param key
+         * @return the slot of the key, -1 if the key is unknown
+         */
+        int find(long key) {
+            int slot = slot(key);
+            return keys[slot] == key ? slot : -1;
+        }
+
+        void put(long key, long location, long timeMillis, int count) {
+            if (2 * (size + 1) > keys.length) grow();
+            int slot = slot(key);
+            if (keys[slot] == 0) {
+                keys[slot] = key;
+                size++;
+            }
+            locations[slot] = location;
+            times[slot] = timeMillis;
+            counts[slot] = count;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldLocations = locations;
+            long[] oldTimes = times;
+            int[] oldCounts = counts;
+            keys = new long[2 * oldKeys.length];
+            locations = new long[keys.length];
+            times = new long[keys.length];
+            counts = new int[keys.length];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == 0) continue;
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                locations[slot] = oldLocations[i];
+                times[slot] = oldTimes[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+
+        void clear() {
+            Arrays.fill(keys, 0);
+            size = 0;
+        }
+    }
+
+    private final File directory;
+    private final long segmentBytes;
+    private final int maxSegments;
+    private final long key0;
+    private final long key1;
+    // in the order of their ids, the last one is written to
+    private final List<Segment> segments = new ArrayList<>();
+    private final PanIndex index = new PanIndex();
+    private final CRC32 crc = new CRC32();
+    private final byte[] payload = new byte[MAX_PAYLOAD_BYTES];
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(16 * 1024);
+    // the index updates of the batch that is written, applied once the batch is on disk
+    private long[] pendingKeys = new long[64];
+    private long[] pendingLocations = new long[64];
+    private long[] pendingTimes = new long[64];
+    private int[] pendingCounts = new int[64];
+    private long truncatedBytes = 0;
+    private long compactions = 0;
+    private boolean closed = false;
+
+    /**
+     * @param directory created if it does not exist
+     * @throws IOException
+     */
+    public CardHistoryStore(@NonNull File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_MAX_SEGMENTS);
+    }
+
+    /**
+     * opens the store and rebuilds the index from the segments
+     *
+     * @param directory    created if it does not exist
+     * @param segmentBytes the size at which a new segment is started
+     * @param maxSegments  the number of segments that triggers a compaction, at least 2
+     * @throws IOException
+     */
+    public CardHistoryStore(@NonNull File directory, long segmentBytes, int maxSegments) throws IOException {
+        if (segmentBytes < SEGMENT_HEADER_BYTES + RECORD_HEADER_BYTES) throw new IllegalArgumentException("segmentBytes too small: " + segmentBytes);
+        if (maxSegments < 2) throw new IllegalArgumentException("maxSegments must be at least 2: " + maxSegments);
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = maxSegments;
+        if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("cannot create " + directory);
+        byte[] key = readOrCreateKey(new File(directory, KEY_FILE));
+        ByteBuffer keyBuffer = ByteBuffer.wrap(key);
+        this.key0 = keyBuffer.getLong();
+        this.key1 = keyBuffer.getLong();
+        try {
+            openSegments();
+        } catch (IOException | RuntimeException e) {
+            closeSegments();
+            throw e;
+        }
+    }
+
+    private static byte[] readOrCreateKey(File file) throws IOException {
+        byte[] key = new byte[KEY_BYTES];
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+                in.readFully(key);
+            }
+            return key;
+        }
+        new SecureRandom().nextBytes(key);
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(key);
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(file)) throw new IOException("cannot create " + file);
+        return key;
+    }
+
+    private void openSegments() throws IOException {
+        File[] files = directory.listFiles();
+        List<Integer> ids = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    // an interrupted compaction, the segments it read are still there
+                    if (name.startsWith(SEGMENT_PREFIX) && !file.delete()) throw new IOException("cannot delete " + file);
+                    continue;
+                }
+                if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) continue;
+                try {
+                    ids.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // not a segment of the store
+                }
+            }
+        }
+        Collections.sort(ids);
+        for (int i = 0; i < ids.size(); i++) {
+            Segment segment = new Segment(ids.get(i), segmentFile(ids.get(i)));
+            segments.add(segment);
+            scan(segment, i == ids.size() - 1);
+        }
+        if (segments.isEmpty()) newSegment(1);
+    }
+
+    private File segmentFile(int id) {
+        return new File(directory, SEGMENT_PREFIX + id + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * adds the records of a segment to the index
+     *
+     * @param segment
+     * @param last    a broken record at the end of the last segment is cut off, in any other
+     *                segment the rest of the segment is skipped
+     */
+    private void scan(Segment segment, boolean last) throws IOException {
+        if (segment.size < SEGMENT_HEADER_BYTES) {
+            if (!last) throw new IOException("truncated segment " + segment.file);
+            // created but the header never made it to disk
+            truncatedBytes += segment.size;
+            segment.truncate(0);
+            writeHeader(segment);
+            return;
+        }
+        ByteBuffer view = segment.view(segment.size);
+        if (view.getInt(0) != MAGIC || view.getInt(4) != VERSION) throw new IOException("not a history segment: " + segment.file);
+        long position = SEGMENT_HEADER_BYTES;
+        while (position < segment.size) {
+            int length = readRecord(segment, position);
+            if (length < 0) {
+                if (last) {
+                    truncatedBytes += segment.size - position;
+                    segment.truncate(position);
+                }
+                return;
+            }
+            ByteBuffer record = ByteBuffer.wrap(payload, 0, length);
+            long panHash = record.getLong();
+            long timeMillis = record.getLong();
+            int readCount = record.getInt();
+            index.put(panHash, location(segment.id, position), timeMillis, readCount);
+            position += RECORD_HEADER_BYTES + length;
+        }
+    }
+
+    /**
+     * copies the payload of the record at position into payload and checks it
+     *
+     * @param segment
+     * @param position
+     * @return the length of the payload, -1 if the record is broken
+     */
+    private int readRecord(Segment segment, long position) throws IOException {
+        if (position + RECORD_HEADER_BYTES > segment.size) return -1;
+        ByteBuffer view = segment.view(position + RECORD_HEADER_BYTES);
+        int length = view.getInt((int) position);
+        int checksum = view.getInt((int) position + 4);
+        if (length < 1 || length > MAX_PAYLOAD_BYTES || position + RECORD_HEADER_BYTES + length > segment.size) return -1;
+        view = segment.view(position + RECORD_HEADER_BYTES + length);
+        ByteBuffer source = view.duplicate();
+        source.position((int) position + RECORD_HEADER_BYTES);
+        source.get(payload, 0, length);
+        crc.reset();
+        crc.update(payload, 0, length);
+        return (int) crc.getValue() == checksum ? length : -1;
+    }
+
+    private Segment newSegment(int id) throws IOException {
+        Segment segment = new Segment(id, segmentFile(id));
+        segments.add(segment);
+        if (segment.size > 0) segment.truncate(0);
+        writeHeader(segment);
+        return segment;
+    }
+
+    private static void writeHeader(Segment segment) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        writeFully(segment.channel, header, 0);
+        segment.channel.force(false);
+        segment.size = SEGMENT_HEADER_BYTES;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static long location(int segmentId, long position) {
+        return ((long) segmentId << 32) | position;
+    }
+
+    private Segment segment(long location) {
+        int id = (int) (location >>> 32);
+        for (Segment segment : segments) {
+            if (segment.id == id) return segment;
+        }
+        return null;
+    }
+
+    private long panHash(String pan) {
+        long hash = SipHash.hash(key0, key1, pan);
+        // 0 marks an empty slot of the index
+        return hash != 0 ? hash : 1;
+    }
+
+    /**
+     * appends the taps with a PAN as one write and flushes the segment, then starts a new
+     * segment or compacts if needed
+     *
+     * @param batch
+     * @throws IOException
+     */
+    @Override
+    public synchronized void write(List<TapResult> batch) throws IOException {
+        if (closed) throw new IOException("history store closed");
+        Segment segment = segments.get(segments.size() - 1);
+        writeBuffer.clear();
+        int pending = 0;
+        for (TapResult result : batch) {
+            String pan = result.getResult().getPan();
+            if (pan == null) continue;
+            long panHash = panHash(pan);
+            int slot = index.find(panHash);
+            int readCount = slot >= 0 ? index.counts[slot] + 1 : 1;
+            // a card tapped more than once in the batch
+            for (int i = pending - 1; i >= 0; i--) {
+                if (pendingKeys[i] == panHash) {
+                    readCount = pendingCounts[i] + 1;
+                    break;
+                }
+            }
+            if (pending == pendingKeys.length) growPending();
+            pendingKeys[pending] = panHash;
+            pendingLocations[pending] = location(segment.id, segment.size + writeBuffer.position());
+            pendingTimes[pending] = result.getTimeMillis();
+            pendingCounts[pending] = readCount;
+            pending++;
+            encode(result, panHash, readCount);
+        }
+        if (pending == 0) return;
+        writeBuffer.flip();
+        long start = segment.size;
+        try {
+            writeFully(segment.channel, writeBuffer, start);
+            segment.channel.force(false);
+        } catch (IOException e) {
+            // leave no partial record behind, the batch is lost
+            try {
+                segment.truncate(start);
+            } catch (IOException ignored) {
+                // the scan on the next open cuts it off
+            }
+            throw e;
+        }
+        segment.size = start + writeBuffer.limit();
+        for (int i = 0; i < pending; i++) {
+            index.put(pendingKeys[i], pendingLocations[i], pendingTimes[i], pendingCounts[i]);
+        }
+        if (segment.size >= segmentBytes) {
+            newSegment(segment.id + 1);
+            if (segments.size() > maxSegments) compact();
+        }
+    }
+
+    private void growPending() {
+        int length = 2 * pendingKeys.length;
+        pendingKeys = Arrays.copyOf(pendingKeys, length);
+        pendingLocations = Arrays.copyOf(pendingLocations, length);
+        pendingTimes = Arrays.copyOf(pendingTimes, length);
+        pendingCounts = Arrays.copyOf(pendingCounts, length);
+    }
+
+    /**
+     * appends the record of a tap to writeBuffer
+     */
+    private void encode(TapResult result, long panHash, int readCount) {
+        if (writeBuffer.remaining() < RECORD_HEADER_BYTES + MAX_PAYLOAD_BYTES) {
+            ByteBuffer grown = ByteBuffer.allocate(2 * writeBuffer.capacity());
+            writeBuffer.flip();
+            grown.put(writeBuffer);
+            writeBuffer = grown;
+        }
+        CardReadResult card = result.getResult();
+        int start = writeBuffer.position();
+        writeBuffer.position(start + RECORD_HEADER_BYTES);
+        writeBuffer.putLong(panHash);
+        writeBuffer.putLong(result.getTimeMillis());
+        writeBuffer.putInt(readCount);
+        writeBuffer.put((byte) (card.isCardRead() ? 1 : 0));
+        writeBuffer.putChar((char) Math.min(result.getApduCount(), Character.MAX_VALUE));
+        writeBuffer.putLong(result.getTapNanos() / 1_000);
+        putString(result.getScheme().name());
+        putString(maskPan(card.getPan()));
+        putString(card.getExpirationDate() != null ? card.getExpirationDate() : "");
+        putString(result.getSource());
+        int length = writeBuffer.position() - start - RECORD_HEADER_BYTES;
+        crc.reset();
+        crc.update(writeBuffer.array(), start + RECORD_HEADER_BYTES, length);
+        writeBuffer.putInt(start, length);
+        writeBuffer.putInt(start + 4, (int) crc.getValue());
+    }
+
+    /**
+     * a string of at most 255 bytes, a longer one is cut
+     */
+    private void putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, 255);
+        writeBuffer.put((byte) length);
+        writeBuffer.put(bytes, 0, length);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.get() & 0xFF;
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    /**
+     * @param pan
+     * @return the first six and the last four digits, the digits between as '*'
+     */
+    static String maskPan(String pan) {
+        int visibleStart = pan.length() >= 13 ? 6 : 0;
+        int visibleEnd = Math.max(visibleStart, pan.length() - 4);
+        StringBuilder masked = new StringBuilder(pan.length());
+        masked.append(pan, 0, visibleStart);
+        for (int i = visibleStart; i < visibleEnd; i++) masked.append('*');
+        masked.append(pan, visibleEnd, pan.length());
+        return masked.toString();
+    }
+
+    /**
+     * @param pan
+     * @return the last tap of the card, null if the card was never read
+     * @throws IOException
+     */
+    public synchronized Record getLastRead(@NonNull String pan) throws IOException {
+        int slot = index.find(panHash(pan));
+        if (slot < 0) return null;
+        long location = index.locations[slot];
+        Segment segment = segment(location);
+        int length = segment != null ? readRecord(segment, location & 0xFFFFFFFFL) : -1;
+        if (length < 0) throw new IOException("broken record at " + Long.toHexString(location));
+        ByteBuffer record = ByteBuffer.wrap(payload, 0, length);
+        record.getLong();  // the hashed PAN
+        long timeMillis = record.getLong();
+        int readCount = record.getInt();
+        boolean cardRead = record.get() != 0;
+        int apduCount = record.getChar();
+        long tapMicros = record.getLong();
+        CardScheme scheme;
+        try {
+            scheme = CardScheme.valueOf(getString(record));
+        } catch (IllegalArgumentException e) {
+            scheme = CardScheme.UNKNOWN;
+        }
+        String maskedPan = getString(record);
+        String expirationDate = getString(record);
+        String source = getString(record);
+        return new Record(timeMillis, readCount, scheme, cardRead, maskedPan, expirationDate.isEmpty() ? null : expirationDate,
+                apduCount, tapMicros, source);
+    }
+
+    /**
+     * answered from the index, the segments are not read
+     *
+     * @param pan
+     * @return the time of the last tap of the card, -1 if the card was never read
+     */
+    public synchronized long getLastReadMillis(@NonNull String pan) {
+        int slot = index.find(panHash(pan));
+        return slot >= 0 ? index.times[slot] : -1;
+    }
+
+    /**
+     * answered from the index, the segments are not read
+     *
+     * @param pan
+     * @return the number of taps of the card
+     */
+    public synchronized int getReadCount(@NonNull String pan) {
+        int slot = index.find(panHash(pan));
+        return slot >= 0 ? index.counts[slot] : 0;
+    }
+
+    /**
+     * @return the number of distinct cards
+     */
+    public synchronized int getCardCount() {
+        return index.size;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * @return the bytes cut off the last segment when the store was opened
+     */
+    public synchronized long getTruncatedBytes() {
+        return truncatedBytes;
+    }
+
+    public synchronized long getCompactions() {
+        return compactions;
+    }
+
+    /**
+     * rewrites all segments but the one that is written into a single segment that keeps only
+     * the last record of each card; called when there are more than maxSegments
+     *
+     * The compacted segment is written to a temporary file and renamed to the first of the old
+     * segments, then the others are deleted. If the process dies in between, the next open finds
+     * the old records next to the compacted ones, the index ends up the same.
+     *
+     * @throws IOException
+     */
+    public synchronized void compact() throws IOException {
+        if (closed) throw new IOException("history store closed");
+        int sealed = segments.size() - 1;
+        if (sealed < 1) return;
+        Segment first = segments.get(0);
+        File temp = new File(first.file.getPath() + TEMP_SUFFIX);
+        // the records that stay and their new positions
+        long[] moved = new long[64];
+        long[] movedLocations = new long[64];
+        int movedCount = 0;
+        try (RandomAccessFile out = new RandomAccessFile(temp, "rw")) {
+            FileChannel channel = out.getChannel();
+            channel.truncate(0);
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            buffer.putInt(MAGIC).putInt(VERSION);
+            long written = 0;
+            for (int s = 0; s < sealed; s++) {
+                Segment segment = segments.get(s);
+                long position = SEGMENT_HEADER_BYTES;
+                while (position < segment.size) {
+                    int length = readRecord(segment, position);
+                    if (length < 0) break;
+                    long panHash = ByteBuffer.wrap(payload, 0, length).getLong();
+                    int slot = index.find(panHash);
+                    if (slot >= 0 && index.locations[slot] == location(segment.id, position)) {
+                        if (buffer.remaining() < RECORD_HEADER_BYTES + length) {
+                            buffer.flip();
+                            writeFully(channel, buffer, written);
+                            written += buffer.limit();
+                            buffer.clear();
+                        }
+                        if (movedCount == moved.length) {
+                            moved = Arrays.copyOf(moved, 2 * movedCount);
+                            movedLocations = Arrays.copyOf(movedLocations, 2 * movedCount);
+                        }
+                        moved[movedCount] = panHash;
+                        movedLocations[movedCount] = location(first.id, written + buffer.position());
+                        movedCount++;
+                        crc.reset();
+                        crc.update(payload, 0, length);
+                        buffer.putInt(length).putInt((int) crc.getValue()).put(payload, 0, length);
+                    }
+                    position += RECORD_HEADER_BYTES + length;
+                }
+            }
+            buffer.flip();
+            writeFully(channel, buffer, written);
+            channel.force(false);
+        }
+        for (int s = 0; s < sealed; s++) {
+            segments.get(s).close();
+        }
+        if (!temp.renameTo(first.file)) throw new IOException("cannot replace " + first.file);
+        for (int s = 1; s < sealed; s++) {
+            File file = segments.get(s).file;
+            if (!file.delete()) throw new IOException("cannot delete " + file);
+        }
+        Segment active = segments.get(sealed);
+        segments.clear();
+        segments.add(new Segment(first.id, first.file));
+        segments.add(active);
+        for (int i = 0; i < movedCount; i++) {
+            int slot = index.find(moved[i]);
+            index.locations[slot] = movedLocations[i];
+        }
+        compactions++;
+    }
+
+    /**
+     * the pipeline calls it when it is closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        index.clear();
+        closeSegments();
+    }
+
+    private void closeSegments() throws IOException {
+        IOException failure = null;
+        for (Segment segment : segments) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        segments.clear();
+        if (failure != null) throw failure;
+    }
+}
@@ -0,0 +1,437 @@
+package com.arriky.nfcPaymentCardReader;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The structured, immutable result of a card reading session.
+ *
+ * It holds the applications found on the card (AID, label, PDOL, AFL and the status words of
+ * SELECT, GET PROCESSING OPTIONS and READ RECORD), the PAN and the expiration date together
+ * with the place they were read from.
+ *
+ * encode() writes the result in a compact binary form (varints, length prefixed byte fields and
+ * BCD for PAN and expiration date), a typical session takes a few hundred bytes.
+ * decode() reads it back.
+ */
+public final class CardReadResult {
+
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * an application selected during the session
+     */
+    public static final class Application {
+        private final byte[] aid;
+        private final String label;
+        private final byte[] pdol;
+        private final byte[] afl;
+        private final int selectStatusWord;
+        private final int gpoStatusWord;
+        private final List<RecordRead> records;
+
+        public Application(byte[] aid, String label, byte[] pdol, byte[] afl, int selectStatusWord, int gpoStatusWord, List<RecordRead> records) {
+            this.aid = aid.clone();
+            this.label = label;
+            this.pdol = pdol != null ? pdol.clone() : null;
+            this.afl = afl != null ? afl.clone() : null;
+            this.selectStatusWord = selectStatusWord;
+            this.gpoStatusWord = gpoStatusWord;
+            this.records = Collections.unmodifiableList(new ArrayList<>(records));
+        }
+
+        public byte[] getAid() {
+            return aid.clone();
+        }
+
+        public CardScheme getScheme() {
+            return CardScheme.fromAid(aid);
+        }
+
+        /**
+         * @return the Application Label (tag 50) or null
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * @return the PDOL (tag 9F38) or null if the card did not request one
+         */
+        public byte[] getPdol() {
+            return pdol != null ? pdol.clone() : null;
+        }
+
+        /**
+         * @return the Application File Locator or null if the GPO response had none
+         */
+        public byte[] getAfl() {
+            return afl != null ? afl.clone() : null;
+        }
+
+        public int getSelectStatusWord() {
+            return selectStatusWord;
+        }
+
+        /**
+         * @return the status word of the GPO response or 0 if no GPO was sent
+         */
+        public int getGpoStatusWord() {
+            return gpoStatusWord;
+        }
+
+        public List<RecordRead> getRecords() {
+            return records;
+        }
+    }
+
+    /**
+     * a READ RECORD command and the status word of its response
+     */
+    public static final class RecordRead {
+        // the successful reads of SFI 0..31 record 0..31 are shared, a RecordRead is immutable
+        private static final int SHARED_RECORDS = 32;
+        private static final RecordRead[] SUCCESSFUL_READS = new RecordRead[32 * SHARED_RECORDS];
+
+        private final int sfi;
+        private final int record;
+        private final int statusWord;
+
+        public RecordRead(int sfi, int record, int statusWord) {
+            this.sfi = sfi;
+            this.record = record;
+            this.statusWord = statusWord;
+        }
+
+        /**
+         * same as the constructor, but the common successful reads are created only once, so
+         * the READ RECORD loop does not allocate
+         *
+         * @param sfi
+         * @param record
+         * @param statusWord
+         * @return
+         */
+        public static RecordRead of(int sfi, int record, int statusWord) {
+            if (statusWord != 0x9000 || sfi < 0 || sfi >= 32 || record < 0 || record >= SHARED_RECORDS) {
+                return new RecordRead(sfi, record, statusWord);
+            }
+            int index = sfi * SHARED_RECORDS + record;
+            RecordRead read = SUCCESSFUL_READS[index];
+            if (read == null) {
+                // a race creates an equal instance, that is fine for an immutable object
+                read = new RecordRead(sfi, record, statusWord);
+                SUCCESSFUL_READS[index] = read;
+            }
+            return read;
+        }
+
+        public int getSfi() {
+            return sfi;
+        }
+
+        public int getRecord() {
+            return record;
+        }
+
+        public int getStatusWord() {
+            return statusWord;
+        }
+    }
+
+    /**
+     * the place a data element was read from, sfi 0 / record 0 is the GPO response
+     */
+    public static final class Source {
+        public static final Source NONE = new Source(-1, -1);
+        public static final Source GPO_RESPONSE = new Source(0, 0);
+
+        private final int sfi;
+        private final int record;
+
+        private Source(int sfi, int record) {
+            this.sfi = sfi;
+            this.record = record;
+        }
+
+        public static Source record(int sfi, int record) {
+            return new Source(sfi, record);
+        }
+
+        public int getSfi() {
+            return sfi;
+        }
+
+        public int getRecord() {
+            return record;
+        }
+
+        public boolean isGpoResponse() {
+            return sfi == 0 && record == 0;
+        }
+
+        @Override
+        public String toString() {
+            if (sfi < 0) return "none";
+            if (isGpoResponse()) return "GPO response";
+            return "SFI " + sfi + " record " + record;
+        }
+    }
+
+    private final int ppseStatusWord;
+    private final List<Application> applications;
+    private final String pan;
+    private final Source panSource;
+    private final String expirationDate;
+    private final Source expirationDateSource;
+
+    public CardReadResult(int ppseStatusWord, List<Application> applications, String pan, Source panSource, String expirationDate, Source expirationDateSource) {
+        this.ppseStatusWord = ppseStatusWord;
+        this.applications = Collections.unmodifiableList(new ArrayList<>(applications));
+        this.pan = pan;
+        this.panSource = panSource;
+        this.expirationDate = expirationDate;
+        this.expirationDateSource = expirationDateSource;
+    }
+
+    /**
+     * @return the status word of the SELECT PPSE response or 0 if the card did not answer
+     */
+    public int getPpseStatusWord() {
+        return ppseStatusWord;
+    }
+
+    public List<Application> getApplications() {
+        return applications;
+    }
+
+    /**
+     * @return the PAN or null if it was not found
+     */
+    public String getPan() {
+        return pan;
+    }
+
+    public Source getPanSource() {
+        return panSource;
+    }
+
+    /**
+     * @return the expiration date as YYMM or YYMMDD or null if it was not found
+     */
+    public String getExpirationDate() {
+        return expirationDate;
+    }
+
+    public Source getExpirationDateSource() {
+        return expirationDateSource;
+    }
+
+    public boolean isCardRead() {
+        return pan != null;
+    }
+
+    /**
+     * returns the status word at the end of a response
+     *
+     * @param response
+     * @return the status word or 0 if there is none
+     */
+    public static int statusWord(byte[] response) {
+        return statusWord(response, response != null ? response.length : 0);
+    }
+
+    /**
+     * @param response a buffer that holds the response at its start
+     * @param length   the length of the response
+     * @return the status word or 0 if the response is too short
+     */
+    public static int statusWord(byte[] response, int length) {
+        if (response == null || length < 2) return 0;
+        return ((response[length - 2] & 0xFF) << 8) | (response[length - 1] & 0xFF);
+    }
+
+    /**
+     * writes the result in its compact binary form
+     *
+     * @return
+     */
+    public byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        writeVarint(out, FORMAT_VERSION);
+        writeVarint(out, ppseStatusWord);
+        writeVarint(out, applications.size());
+        for (Application application : applications) {
+            writeBytes(out, application.aid);
+            writeBytes(out, application.label != null ? application.label.getBytes(StandardCharsets.UTF_8) : null);
+            writeBytes(out, application.pdol);
+            writeBytes(out, application.afl);
+            writeVarint(out, application.selectStatusWord);
+            writeVarint(out, application.gpoStatusWord);
+            writeVarint(out, application.records.size());
+            for (RecordRead record : application.records) {
+                writeVarint(out, record.sfi);
+                writeVarint(out, record.record);
+                writeVarint(out, record.statusWord);
+            }
+        }
+        writeNumeric(out, pan);
+        writeSource(out, panSource);
+        writeNumeric(out, expirationDate);
+        writeSource(out, expirationDateSource);
+        return out.toByteArray();
+    }
+
+    /**
+     * reads a result written by encode
+     *
+     * @param data
+     * @return
+     * @throws IllegalArgumentException if the data is no valid encoded result
+     */
+    public static CardReadResult decode(byte[] data) {
+        Reader in = new Reader(data);
+        int version = in.readVarint();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("unknown format version " + version);
+        }
+        int ppseStatusWord = in.readVarint();
+        int applicationCount = in.readVarint();
+        List<Application> applications = new ArrayList<>(Math.min(applicationCount, 16));
+        for (int i = 0; i < applicationCount; i++) {
+            byte[] aid = in.readBytes();
+            byte[] label = in.readBytes();
+            byte[] pdol = in.readBytes();
+            byte[] afl = in.readBytes();
+            int selectStatusWord = in.readVarint();
+            int gpoStatusWord = in.readVarint();
+            int recordCount = in.readVarint();
+            List<RecordRead> records = new ArrayList<>(Math.min(recordCount, 32));
+            for (int r = 0; r < recordCount; r++) {
+                records.add(new RecordRead(in.readVarint(), in.readVarint(), in.readVarint()));
+            }
+            if (aid == null) throw new IllegalArgumentException("application without AID");
+            applications.add(new Application(aid, label != null ? new String(label, StandardCharsets.UTF_8) : null,
+                    pdol, afl, selectStatusWord, gpoStatusWord, records));
+        }
+        String pan = in.readNumeric();
+        Source panSource = in.readSource();
+        String expirationDate = in.readNumeric();
+        Source expirationDateSource = in.readSource();
+        return new CardReadResult(ppseStatusWord, applications, pan, panSource, expirationDate, expirationDateSource);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * length + 1 followed by the bytes, 0 = null
+     */
+    private static void writeBytes(ByteArrayOutputStream out, byte[] value) {
+        if (value == null) {
+            writeVarint(out, 0);
+            return;
+        }
+        writeVarint(out, value.length + 1);
+        out.write(value, 0, value.length);
+    }
+
+    /**
+     * number of digits + 1 followed by the digits as BCD, padded with F, 0 = null
+     */
+    private static void writeNumeric(ByteArrayOutputStream out, String digits) {
+        if (digits == null) {
+            writeVarint(out, 0);
+            return;
+        }
+        writeVarint(out, digits.length() + 1);
+        for (int i = 0; i < digits.length(); i += 2) {
+            int high = Character.digit(digits.charAt(i), 16);
+            int low = i + 1 < digits.length() ? Character.digit(digits.charAt(i + 1), 16) : 0x0F;
+            if (high < 0 || low < 0) throw new IllegalArgumentException("not a numeric value: " + digits);
+            out.write((high << 4) | low);
+        }
+    }
+
+    private static void writeSource(ByteArrayOutputStream out, Source source) {
+        if (source == null || source.sfi < 0) {
+            writeVarint(out, 0);
+            return;
+        }
+        writeVarint(out, source.sfi + 1);
+        writeVarint(out, source.record);
+    }
+
+    /**
+     * sequential reader of the encoded form
+     */
+    private static final class Reader {
+        private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+        private final byte[] data;
+        private int position = 0;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        int readVarint() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = next();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IllegalArgumentException("varint too long at offset " + position);
+        }
+
+        byte[] readBytes() {
+            int length = readVarint();
+            if (length == 0) return null;
+            // a varint of five bytes can be negative
+            if (length < 0) throw new IllegalArgumentException("invalid length at offset " + position);
+            length--;
+            if (length > data.length - position) throw new IllegalArgumentException("truncated data at offset " + position);
+            byte[] value = new byte[length];
+            System.arraycopy(data, position, value, 0, length);
+            position += length;
+            return value;
+        }
+
+        String readNumeric() {
+            int digits = readVarint();
+            if (digits == 0) return null;
+            if (digits < 0) throw new IllegalArgumentException("invalid length at offset " + position);
+            digits--;
+            // checked before the allocation, the number of digits is not trusted (in long, it may
+            // be close to Integer.MAX_VALUE)
+            if (digits > 2L * (data.length - position)) throw new IllegalArgumentException("truncated data at offset " + position);
+            char[] chars = new char[digits];
+            for (int i = 0; i < digits; i += 2) {
+                int b = next();
+                chars[i] = DIGITS[b >>> 4];
+                if (i + 1 < digits) chars[i + 1] = DIGITS[b & 0x0F];
+            }
+            return new String(chars);
+        }
+
+        Source readSource() {
+            int sfi = readVarint();
+            if (sfi == 0) return Source.NONE;
+            int record = readVarint();
+            return sfi == 1 && record == 0 ? Source.GPO_RESPONSE : Source.record(sfi - 1, record);
+        }
+
+        private int next() {
+            if (position >= data.length) throw new IllegalArgumentException("truncated data at offset " + position);
+            return data[position++] & 0xFF;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.arriky.nfcPaymentCardReader;
+
+/**
+ * payment schemes, identified by the Registered Application Provider Identifier (RID),
+ * the first 5 bytes of an AID
+ */
+public enum CardScheme {
+    VISA("Visa", "a000000003"),
+    MASTERCARD("Mastercard", "a000000004"),
+    AMEX("American Express", "a000000025"),
+    JCB("JCB", "a000000065"),
+    DISCOVER("Discover", "a000000152"),
+    UNIONPAY("UnionPay", "a000000333"),
+    GIROCARD("girocard", "a000000359"),
+    GIROCARD_ZKA("girocard (ZKA)", "a000000059"),
+    UNKNOWN("unknown", "");
+
+    private final String description;
+    private final byte[] rid;
+
+    private CardScheme(String description, String rid) {
+        this.description = description;
+        this.rid = EmvDecoder.hexToBytes(rid);
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * find the scheme of an application identifier
+     *
+     * @param aid
+     * @return the scheme or UNKNOWN
+     */
+    public static CardScheme fromAid(byte[] aid) {
+        if (aid == null || aid.length < 5) return UNKNOWN;
+        for (CardScheme scheme : values()) {
+            if (scheme.rid.length == 0) continue;
+            boolean match = true;
+            for (int i = 0; i < 5; i++) {
+                if (aid[i] != scheme.rid[i]) {
+                    match = false;
+                    break;
+                }
+            }
+            if (match) return scheme;
+        }
+        return UNKNOWN;
+    }
+
+    @Override
+    public String toString() {
+        return getDescription();
+    }
+}
@@ -0,0 +1,64 @@
+package com.arriky.nfcPaymentCardReader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * a recorded card session: all command / response pairs of one tap in the order they were sent
+ */
+public class CardTranscript {
+
+    private final String name;
+    private final List<ApduExchange> exchanges = new ArrayList<>();
+
+    public CardTranscript(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void addExchange(byte[] command, byte[] response) {
+        exchanges.add(new ApduExchange(command, response));
+    }
+
+    public List<ApduExchange> getExchanges() {
+        return Collections.unmodifiableList(exchanges);
+    }
+
+    /**
+     * the scheme of the first application selected in this session
+     *
+     * @return the scheme or CardScheme.UNKNOWN if no application was selected
+     */
+    public CardScheme getScheme() {
+        for (ApduExchange exchange : exchanges) {
+            byte[] aid = getSelectedAid(exchange.getCommand());
+            if (aid != null) {
+                CardScheme scheme = CardScheme.fromAid(aid);
+                if (scheme != CardScheme.UNKNOWN) return scheme;
+            }
+        }
+        return CardScheme.UNKNOWN;
+    }
+
+    /**
+     * returns the data field of a SELECT by name command (00 A4 04 00 Lc data)
+     *
+     * @param command
+     * @return the selected name or null if the command is no SELECT
+     */
+    private static byte[] getSelectedAid(byte[] command) {
+        if (command.length < 6) return null;
+        if (command[0] != (byte) 0x00 || command[1] != (byte) 0xA4 || command[2] != (byte) 0x04) {
+            return null;
+        }
+        int lc = command[4] & 0xFF;
+        if (command.length < 5 + lc) return null;
+        byte[] aid = new byte[lc];
+        System.arraycopy(command, 5, aid, 0, lc);
+        return aid;
+    }
+}
@@ -0,0 +1,146 @@
+package com.arriky.nfcPaymentCardReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Analyzes a corpus of recorded card sessions (files in the format of logfile.md or the
+ * docs/talk *.html dumps) on all cores and returns the merged CorpusStats.
+ *
+ * The files are split with fork-join until every task holds one file. A file is streamed with
+ * the TranscriptReader, its sessions are decoded in batches of BATCH_SIZE sessions that run as
+ * their own tasks, so a single large file is spread over all cores as well. At most
+ * MAX_PENDING_BATCHES batches of a file wait for a worker, the memory needed does not depend on
+ * the size of the corpus.
+ *
+ * Every session is replayed with a ReplayCard through the EmvDecoder with ReadPolicy.FULL_DUMP,
+ * each task uses its own PanLocationStats and no TtqPreferenceCache, so the results do not depend
+ * on the order of the batches and the TTQs of the corpus do not end up in the shared cache of the
+ * process. The only lock the workers share is the one of the PDOL layout cache of the
+ * GpoCommandBuilder, held for a map lookup per GPO.
+ */
+public class CorpusAnalyzer {
+
+    static final int BATCH_SIZE = 32;
+    static final int MAX_PENDING_BATCHES = 8;
+
+    /**
+     * @param files       the transcript files
+     * @param parallelism the number of worker threads
+     * @return the aggregates of all sessions
+     */
+    public static CorpusStats analyze(List<File> files, int parallelism) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.invoke(new FilesTask(files.toArray(new File[0]), 0, files.size()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @param files
+     * @return the aggregates of all sessions, using all available processors
+     */
+    public static CorpusStats analyze(List<File> files) {
+        return analyze(files, Runtime.getRuntime().availableProcessors());
+    }
+
+    private static final class FilesTask extends RecursiveTask<CorpusStats> {
+        private static final long serialVersionUID = 1L;
+
+        private final File[] files;
+        private final int from;
+        private final int to;
+
+        FilesTask(File[] files, int from, int to) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected CorpusStats compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                FilesTask second = new FilesTask(files, middle, to);
+                second.fork();
+                CorpusStats stats = new FilesTask(files, from, middle).compute();
+                stats.merge(second.join());
+                return stats;
+            }
+            CorpusStats stats = new CorpusStats();
+            if (to > from) analyzeFile(files[from], stats);
+            return stats;
+        }
+
+        private static void analyzeFile(File file, CorpusStats stats) {
+            FileAnalysis analysis = new FileAnalysis(stats);
+            try {
+                TranscriptReader.read(file, analysis);
+            } catch (IOException e) {
+                stats.addUnreadableFile();
+            }
+            analysis.finish();
+        }
+    }
+
+    /**
+     * collects the sessions of a file in batches and forks a task for every full batch
+     */
+    private static final class FileAnalysis implements TranscriptReader.TranscriptListener {
+        private final CorpusStats stats;
+        private final ArrayDeque<ForkJoinTask<CorpusStats>> pending = new ArrayDeque<>();
+        private List<CardTranscript> batch = new ArrayList<>(BATCH_SIZE);
+
+        FileAnalysis(CorpusStats stats) {
+            this.stats = stats;
+        }
+
+        @Override
+        public void onTranscript(CardTranscript transcript) {
+            batch.add(transcript);
+            if (batch.size() < BATCH_SIZE) return;
+            pending.add(new BatchTask(batch).fork());
+            batch = new ArrayList<>(BATCH_SIZE);
+            if (pending.size() > MAX_PENDING_BATCHES) stats.merge(pending.poll().join());
+        }
+
+        void finish() {
+            if (!batch.isEmpty()) stats.merge(new BatchTask(batch).compute());
+            while (!pending.isEmpty()) {
+                stats.merge(pending.poll().join());
+            }
+        }
+    }
+
+    private static final class BatchTask extends RecursiveTask<CorpusStats> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<CardTranscript> transcripts;
+
+        BatchTask(List<CardTranscript> transcripts) {
+            this.transcripts = transcripts;
+        }
+
+        @Override
+        protected CorpusStats compute() {
+            CorpusStats stats = new CorpusStats();
+            PanLocationStats panLocationStats = new PanLocationStats();
+            for (CardTranscript transcript : transcripts) {
+                EmvDecoder emvDecoder = new EmvDecoder();
+                emvDecoder.setReadPolicy(ReadPolicy.FULL_DUMP);
+                emvDecoder.setPanLocationStats(panLocationStats);
+                emvDecoder.setTtqPreferenceCache(null);
+                stats.add(transcript, emvDecoder.decodeEmv(new ReplayCard(transcript)));
+            }
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.arriky.nfcPaymentCardReader;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aggregates of a corpus of recorded card sessions, per card scheme: the AIDs, the PDOL shapes
+ * (requested tags and lengths), the AFL sizes, where the PAN was found and the status words of
+ * the card's responses.
+ *
+ * The size does not depend on the size of the corpus: each table keeps at most MAX_KEYS
+ * different keys, everything else is counted as "other". Two CorpusStats are combined with
+ * merge, so every thread of the CorpusAnalyzer can fill its own.
+ */
+public final class CorpusStats {
+
+    static final int MAX_KEYS = 64;
+    private static final String OTHER = "other";
+
+    /**
+     * a bounded table of counts
+     */
+    public static final class Counts {
+        private final TreeMap<String, Long> counts = new TreeMap<>();
+
+        void add(String key, long count) {
+            Long existing = counts.get(key);
+            if (existing == null && counts.size() >= MAX_KEYS && !key.equals(OTHER)) {
+                key = OTHER;
+                existing = counts.get(key);
+            }
+            counts.put(key, (existing != null ? existing : 0) + count);
+        }
+
+        void merge(Counts other) {
+            for (Map.Entry<String, Long> entry : other.counts.entrySet()) {
+                add(entry.getKey(), entry.getValue());
+            }
+        }
+
+        public long get(String key) {
+            Long count = counts.get(key);
+            return count != null ? count : 0;
+        }
+
+        public int size() {
+            return counts.size();
+        }
+
+        void appendJson(StringBuilder json) {
+            json.append('{');
+            boolean first = true;
+            for (Map.Entry<String, Long> entry : counts.entrySet()) {
+                if (!first) json.append(',');
+                first = false;
+                json.append('"').append(entry.getKey()).append("\":").append(entry.getValue());
+            }
+            json.append('}');
+        }
+    }
+
+    /**
+     * the aggregates of one card scheme
+     */
+    public static final class SchemeStats {
+        private long sessions = 0;
+        private long sessionsRead = 0;
+        private long responses = 0;
+        private long failedResponses = 0;
+        private final Counts aids = new Counts();
+        private final Counts pdolShapes = new Counts();
+        private final Counts aflSizes = new Counts();
+        private final Counts panSources = new Counts();
+        private final Counts statusWords = new Counts();
+
+        void merge(SchemeStats other) {
+            sessions += other.sessions;
+            sessionsRead += other.sessionsRead;
+            responses += other.responses;
+            failedResponses += other.failedResponses;
+            aids.merge(other.aids);
+            pdolShapes.merge(other.pdolShapes);
+            aflSizes.merge(other.aflSizes);
+            panSources.merge(other.panSources);
+            statusWords.merge(other.statusWords);
+        }
+
+        public long getSessions() {
+            return sessions;
+        }
+
+        public long getSessionsRead() {
+            return sessionsRead;
+        }
+
+        /**
+         * @return the share of the card's responses without status word 9000
+         */
+        public double getFailureRate() {
+            return responses == 0 ? 0 : (double) failedResponses / responses;
+        }
+
+        public Counts getAids() {
+            return aids;
+        }
+
+        public Counts getPdolShapes() {
+            return pdolShapes;
+        }
+
+        public Counts getAflSizes() {
+            return aflSizes;
+        }
+
+        public Counts getPanSources() {
+            return panSources;
+        }
+
+        public Counts getStatusWords() {
+            return statusWords;
+        }
+    }
+
+    private final Map<CardScheme, SchemeStats> schemes = new EnumMap<>(CardScheme.class);
+    private long sessions = 0;
+    private long unreadableFiles = 0;
+
+    /**
+     * adds a session: the decoder's result and the status words the card returned in the recording
+     *
+     * @param transcript
+     * @param result the result of replaying the transcript
+     */
+    public void add(CardTranscript transcript, CardReadResult result) {
+        sessions++;
+        SchemeStats stats = getOrCreate(transcript.getScheme());
+        stats.sessions++;
+        if (result.isCardRead()) {
+            stats.sessionsRead++;
+            stats.panSources.add(result.getPanSource().toString(), 1);
+        }
+        for (ApduExchange exchange : transcript.getExchanges()) {
+            int statusWord = CardReadResult.statusWord(exchange.getResponse());
+            stats.responses++;
+            if (statusWord != 0x9000) {
+                stats.failedResponses++;
+                stats.statusWords.add(String.format(java.util.Locale.US, "%04x", statusWord), 1);
+            }
+        }
+        GpoCommandBuilder gpoCommandBuilder = new GpoCommandBuilder();
+        for (CardReadResult.Application application : result.getApplications()) {
+            stats.aids.add(HexCodec.toHex(application.getAid()), 1);
+            if (application.getPdol() != null) {
+                stats.pdolShapes.add(pdolShape(gpoCommandBuilder.getLayout(application.getPdol())), 1);
+            } else {
+                stats.pdolShapes.add("none", 1);
+            }
+            if (application.getAfl() != null) {
+                stats.aflSizes.add(String.valueOf(countAflRecords(application.getAfl())), 1);
+            }
+        }
+    }
+
+    void addUnreadableFile() {
+        unreadableFiles++;
+    }
+
+    /**
+     * adds the aggregates of another CorpusStats to this one
+     *
+     * @param other
+     */
+    public void merge(CorpusStats other) {
+        sessions += other.sessions;
+        unreadableFiles += other.unreadableFiles;
+        for (Map.Entry<CardScheme, SchemeStats> entry : other.schemes.entrySet()) {
+            getOrCreate(entry.getKey()).merge(entry.getValue());
+        }
+    }
+
+    public long getSessions() {
+        return sessions;
+    }
+
+    public long getUnreadableFiles() {
+        return unreadableFiles;
+    }
+
+    /**
+     * @param scheme
+     * @return the aggregates of the scheme, null if the corpus has no session of this scheme
+     */
+    public SchemeStats getScheme(CardScheme scheme) {
+        return schemes.get(scheme);
+    }
+
+    private SchemeStats getOrCreate(CardScheme scheme) {
+        SchemeStats stats = schemes.get(scheme);
+        if (stats == null) {
+            stats = new SchemeStats();
+            schemes.put(scheme, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * e.g. "9f66:4 9f02:6 9f37:4"
+     */
+    private static String pdolShape(GpoCommandBuilder.PdolLayout layout) {
+        if (layout.getTagCount() == 0) return "empty";
+        StringBuilder shape = new StringBuilder();
+        for (int i = 0; i < layout.getTagCount(); i++) {
+            if (i > 0) shape.append(' ');
+            shape.append(Integer.toHexString(layout.getTag(i))).append(':').append(layout.getValueLength(i));
+        }
+        return shape.toString();
+    }
+
+    private static int countAflRecords(byte[] afl) {
+        int count = 0;
+        for (int i = 0; i + 3 < afl.length; i += 4) {
+            count += Math.max(0, (afl[i + 2] & 0xFF) - (afl[i + 1] & 0xFF) + 1);
+        }
+        return count;
+    }
+
+    /**
+     * @return the aggregates as JSON
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder(1024);
+        json.append("{\"sessions\":").append(sessions)
+                .append(",\"unreadableFiles\":").append(unreadableFiles)
+                .append(",\"schemes\":{");
+        boolean first = true;
+        for (Map.Entry<CardScheme, SchemeStats> entry : schemes.entrySet()) {
+            SchemeStats stats = entry.getValue();
+            if (!first) json.append(',');
+            first = false;
+            json.append('"').append(entry.getKey().name()).append("\":{")
+                    .append("\"sessions\":").append(stats.sessions)
+                    .append(",\"sessionsRead\":").append(stats.sessionsRead)
+                    .append(",\"responses\":").append(stats.responses)
+                    .append(",\"failureRate\":").append(String.format(java.util.Locale.US, "%.4f", stats.getFailureRate()))
+                    .append(",\"statusWords\":");
+            stats.statusWords.appendJson(json);
+            json.append(",\"aids\":");
+            stats.aids.appendJson(json);
+            json.append(",\"pdolShapes\":");
+            stats.pdolShapes.appendJson(json);
+            json.append(",\"aflRecords\":");
+            stats.aflSizes.appendJson(json);
+            json.append(",\"panSources\":");
+            stats.panSources.appendJson(json);
+            json.append('}');
+        }
+        json.append("}}");
+        return json.toString();
+    }
+}
@@ -103,7 +103,7 @@ public class DOL {
 
         for(TagAndLength tagAndLength : tagAndLengthList){
             int length = tagAndLength.getLength();
-            pw.println(indentStr+tagAndLength.getTag().getName() + " ("+length+ " "+(length==1?"byte":"bytes")+")");
+            pw.println(indentStr+EmvTagDictionary.getName(PackedTag.pack(tagAndLength.getTag().getTagBytes())) + " ("+length+ " "+(length==1?"byte":"bytes")+")");
         }
     }
 
@@ -0,0 +1,102 @@
+package com.arriky.nfcPaymentCardReader;
+
+/**
+ * A single step of a card reading session, emitted by the EmvDecoder while the card is read.
+ *
+ * MESSAGE and ERROR events carry the lines of the human readable log, the other types carry
+ * the raw data of the step (e.g. the GPO response) and, where it makes sense, a text value
+ * (e.g. the PAN).
+ */
+public class DecodeEvent {
+
+    public enum Type {
+        MESSAGE,        // a line of the log, text
+        ERROR,          // a line of the log that reports a failure, text
+        PPSE_SELECTED,  // data = PPSE response without status word
+        AID_FOUND,      // data = application identifier
+        GPO_DONE,       // data = GET PROCESSING OPTIONS response
+        RECORD_READ,    // data = READ RECORD response, sfi and record
+        PAN_FOUND,      // text = PAN
+        EXPIRY_FOUND,   // text = expiration date YYMM or YYMMDD
+        FINISHED;       // the session has ended
+
+        /**
+         * @return the bit of this type in a subscription mask
+         */
+        public int mask() {
+            return 1 << ordinal();
+        }
+
+        /**
+         * @param types
+         * @return the subscription mask of the types, all types if none are given
+         */
+        public static int mask(Type... types) {
+            if (types == null || types.length == 0) return (1 << values().length) - 1;
+            int mask = 0;
+            for (Type type : types) mask |= type.mask();
+            return mask;
+        }
+    }
+
+    private final Type type;
+    private final String text;
+    private final byte[] data;
+    private final int sfi;
+    private final int record;
+
+    private DecodeEvent(Type type, String text, byte[] data, int sfi, int record) {
+        this.type = type;
+        this.text = text;
+        this.data = data;
+        this.sfi = sfi;
+        this.record = record;
+    }
+
+    public static DecodeEvent text(Type type, String text) {
+        return new DecodeEvent(type, text, null, 0, 0);
+    }
+
+    public static DecodeEvent data(Type type, byte[] data) {
+        return new DecodeEvent(type, null, data, 0, 0);
+    }
+
+    public static DecodeEvent record(int sfi, int record, byte[] data) {
+        return new DecodeEvent(Type.RECORD_READ, null, data, sfi, record);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the text or null for data events
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * the data is shared with the decoder and must not be changed
+     *
+     * @return the raw data or null for text events
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getSfi() {
+        return sfi;
+    }
+
+    public int getRecord() {
+        return record;
+    }
+
+    @Override
+    public String toString() {
+        if (text != null) return type + ": " + text;
+        if (type == Type.RECORD_READ) return type + " sfi " + sfi + " record " + record + ": " + HexCodec.toHex(data);
+        return type + (data != null ? ": " + HexCodec.toHex(data) : "");
+    }
+}
@@ -0,0 +1,104 @@
+package com.arriky.nfcPaymentCardReader;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands the events of the reading thread over to another thread, e.g. the UI thread.
+ *
+ * The events are put into a lock-free single producer / single consumer ring buffer. The first
+ * event after the buffer was drained schedules one drain task on the consumer's executor
+ * (e.g. Activity::runOnUiThread), the drain task delivers all queued events to the consumer.
+ * So the UI renders partial results while the card is still being read, without a task per
+ * event and without locks on the reading thread.
+ *
+ * Only one thread may call onEvent. If the buffer is full the producer waits until the
+ * consumer has caught up, no event is lost.
+ */
+public class DecodeEventHandoff implements DecodeListener {
+
+    private static final int DEFAULT_CAPACITY = 256;
+
+    private final DecodeEvent[] buffer;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); // next event to deliver, written by the consumer
+    private final AtomicLong tail = new AtomicLong(); // next free slot, written by the producer
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final Executor consumerExecutor;
+    private final DecodeListener consumer;
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    public DecodeEventHandoff(Executor consumerExecutor, DecodeListener consumer) {
+        this(consumerExecutor, consumer, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param consumerExecutor runs the drain task on the consumer's thread, needs to run its tasks
+     *                         one after the other like the UI thread does
+     * @param consumer receives the events on the consumer's thread
+     * @param capacity rounded up to a power of 2
+     */
+    public DecodeEventHandoff(Executor consumerExecutor, DecodeListener consumer, int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.buffer = new DecodeEvent[size];
+        this.mask = size - 1;
+        this.consumerExecutor = consumerExecutor;
+        this.consumer = consumer;
+    }
+
+    /**
+     * producer side, called by the EmvDecoder
+     *
+     * @param event
+     */
+    @Override
+    public void onEvent(DecodeEvent event) {
+        long t = tail.get();
+        while (t - head.get() >= buffer.length) {
+            scheduleDrain();
+            Thread.yield();
+        }
+        buffer[(int) (t & mask)] = event;
+        // a volatile write, the drain task must see the event when it sees the new tail
+        tail.set(t + 1);
+        scheduleDrain();
+    }
+
+    /**
+     * @return the number of events waiting for the consumer
+     */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            consumerExecutor.execute(drainTask);
+        }
+    }
+
+    /**
+     * consumer side, clears the flag first so an event published during the drain schedules
+     * a new drain task
+     */
+    private void drain() {
+        drainScheduled.set(false);
+        long h = head.get();
+        long t;
+        while (h < (t = tail.get())) {
+            for (; h < t; h++) {
+                int index = (int) (h & mask);
+                DecodeEvent event = buffer[index];
+                buffer[index] = null;
+                head.lazySet(h + 1);
+                consumer.onEvent(event);
+            }
+        }
+    }
+}
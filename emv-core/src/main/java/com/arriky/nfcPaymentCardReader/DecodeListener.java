@@ -0,0 +1,15 @@
+package com.arriky.nfcPaymentCardReader;
+
+/**
+ * receives the DecodeEvents of a card reading session, see EmvDecoder.addListener
+ */
+public interface DecodeListener {
+
+    /**
+     * called on the thread that reads the card, unless the listener is wrapped in a
+     * DecodeEventHandoff
+     *
+     * @param event
+     */
+    void onEvent(DecodeEvent event);
+}
@@ -0,0 +1,132 @@
+package com.arriky.nfcPaymentCardReader;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The settings every tap of a reader is decoded with. A config is immutable and can be shared
+ * by any number of readers and threads, the caches, the metrics and the trace recorder it points
+ * to are thread safe themselves. Each tap gets its own EmvDecoder from newDecoder, give it the
+ * name of its reader with setSourceName to tell the taps apart in the results and the trace.
+ */
+public final class DecoderConfig {
+
+    private final ReadPolicy readPolicy;
+    private final WarmTapCache warmTapCache;
+    private final TtqPreferenceCache ttqPreferenceCache;
+    private final ReaderMetrics metrics;
+    private final ApduTraceRecorder traceRecorder;
+    private final ResultPipeline resultPipeline;
+    private final RecentCardFilter recentCardFilter;
+    private final OfflineDataAuthenticator offlineDataAuthenticator;
+
+    /**
+     * the defaults of the EmvDecoder: a full dump without warm taps, tracing, recording,
+     * publishing, suppression of repeated taps or offline data authentication
+     */
+    public DecoderConfig() {
+        this(ReadPolicy.FULL_DUMP, null, TtqPreferenceCache.getShared(), null, null, null, null, null);
+    }
+
+    /**
+     * @param readPolicy               how much of the card is read
+     * @param warmTapCache             null disables warm taps, a full dump never uses them
+     * @param ttqPreferenceCache       null disables learning the TTQ alternatives
+     * @param metrics                  null disables tracing
+     * @param traceRecorder            null disables the recording of the exchanges
+     * @param resultPipeline           null disables the publishing of the results
+     * @param recentCardFilter         null disables the suppression of repeated taps
+     * @param offlineDataAuthenticator null disables the offline data authentication
+     */
+    public DecoderConfig(@NonNull ReadPolicy readPolicy, WarmTapCache warmTapCache, TtqPreferenceCache ttqPreferenceCache,
+                         ReaderMetrics metrics, ApduTraceRecorder traceRecorder, ResultPipeline resultPipeline,
+                         RecentCardFilter recentCardFilter, OfflineDataAuthenticator offlineDataAuthenticator) {
+        this.readPolicy = readPolicy;
+        this.warmTapCache = warmTapCache;
+        this.ttqPreferenceCache = ttqPreferenceCache;
+        this.metrics = metrics;
+        this.traceRecorder = traceRecorder;
+        this.resultPipeline = resultPipeline;
+        this.recentCardFilter = recentCardFilter;
+        this.offlineDataAuthenticator = offlineDataAuthenticator;
+    }
+
+    public DecoderConfig withReadPolicy(@NonNull ReadPolicy readPolicy) {
+        return new DecoderConfig(readPolicy, warmTapCache, ttqPreferenceCache, metrics, traceRecorder, resultPipeline, recentCardFilter, offlineDataAuthenticator);
+    }
+
+    public DecoderConfig withWarmTapCache(WarmTapCache warmTapCache) {
+        return new DecoderConfig(readPolicy, warmTapCache, ttqPreferenceCache, metrics, traceRecorder, resultPipeline, recentCardFilter, offlineDataAuthenticator);
+    }
+
+    public DecoderConfig withMetrics(ReaderMetrics metrics) {
+        return new DecoderConfig(readPolicy, warmTapCache, ttqPreferenceCache, metrics, traceRecorder, resultPipeline, recentCardFilter, offlineDataAuthenticator);
+    }
+
+    /**
+     * @param traceRecorder records the taps of all readers of the config, each tap in its own
+     *                      session, null disables the recording
+     */
+    public DecoderConfig withTraceRecorder(ApduTraceRecorder traceRecorder) {
+        return new DecoderConfig(readPolicy, warmTapCache, ttqPreferenceCache, metrics, traceRecorder, resultPipeline, recentCardFilter, offlineDataAuthenticator);
+    }
+
+    public DecoderConfig withResultPipeline(ResultPipeline resultPipeline) {
+        return new DecoderConfig(readPolicy, warmTapCache, ttqPreferenceCache, metrics, traceRecorder, resultPipeline, recentCardFilter, offlineDataAuthenticator);
+    }
+
+    public DecoderConfig withRecentCardFilter(RecentCardFilter recentCardFilter) {
+        return new DecoderConfig(readPolicy, warmTapCache, ttqPreferenceCache, metrics, traceRecorder, resultPipeline, recentCardFilter, offlineDataAuthenticator);
+    }
+
+    public DecoderConfig withOfflineDataAuthenticator(OfflineDataAuthenticator offlineDataAuthenticator) {
+        return new DecoderConfig(readPolicy, warmTapCache, ttqPreferenceCache, metrics, traceRecorder, resultPipeline, recentCardFilter, offlineDataAuthenticator);
+    }
+
+    /**
+     * @return a decoder for one tap
+     */
+    public EmvDecoder newDecoder() {
+        EmvDecoder emvDecoder = new EmvDecoder();
+        emvDecoder.setReadPolicy(readPolicy);
+        emvDecoder.setWarmTapCache(warmTapCache);
+        emvDecoder.setTtqPreferenceCache(ttqPreferenceCache);
+        emvDecoder.setMetrics(metrics);
+        emvDecoder.setTraceRecorder(traceRecorder);
+        emvDecoder.setResultPipeline(resultPipeline);
+        emvDecoder.setRecentCardFilter(recentCardFilter);
+        emvDecoder.setOfflineDataAuthenticator(offlineDataAuthenticator);
+        return emvDecoder;
+    }
+
+    public ReadPolicy getReadPolicy() {
+        return readPolicy;
+    }
+
+    public WarmTapCache getWarmTapCache() {
+        return warmTapCache;
+    }
+
+    public TtqPreferenceCache getTtqPreferenceCache() {
+        return ttqPreferenceCache;
+    }
+
+    public ReaderMetrics getMetrics() {
+        return metrics;
+    }
+
+    public ApduTraceRecorder getTraceRecorder() {
+        return traceRecorder;
+    }
+
+    public ResultPipeline getResultPipeline() {
+        return resultPipeline;
+    }
+
+    public RecentCardFilter getRecentCardFilter() {
+        return recentCardFilter;
+    }
+
+    public OfflineDataAuthenticator getOfflineDataAuthenticator() {
+        return offlineDataAuthenticator;
+    }
+}
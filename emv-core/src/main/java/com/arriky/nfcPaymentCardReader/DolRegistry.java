@@ -0,0 +1,149 @@
+package com.arriky.nfcPaymentCardReader;
+
+/**
+ * Process wide, immutable registry of the terminal's default values for tags requested in a
+ * PDOL or CDOL.
+ *
+ * The values come from the tag table (src/main/tags/emv-tags.txt) through the generated
+ * EmvTagDictionary, the registry only wraps them in entries on first use, nothing is parsed.
+ * A lookup is the dictionary's perfect hash over the packed tag (see PackedTag) and one array
+ * access. The alternative Terminal Transaction Qualifiers have their own rows in the table with
+ * the key 9F66 | alternative, e.g. 0x9F6601 (a real tag 9F 66 xx can not exist as 0x66 ends
+ * the tag).
+ *
+ * Entries are read-only views on the values, so they can be handed out without copying and
+ * read concurrently from any thread.
+ */
+public final class DolRegistry {
+
+    public static final int TAG_TTQ = 0x9F66;
+
+    /**
+     * read-only view on a default value
+     */
+    public static final class Entry {
+        private final int tag;
+        private final String tagName;
+        private final byte[] value;
+
+        private Entry(int tag, String tagName, byte[] value) {
+            this.tag = tag;
+            this.tagName = tagName;
+            this.value = value;
+        }
+
+        /**
+         * @return the packed tag, for the alternative TTQ including the alternative byte
+         */
+        public int getTag() {
+            return tag;
+        }
+
+        public String getTagName() {
+            return tagName;
+        }
+
+        public int length() {
+            return value.length;
+        }
+
+        public byte byteAt(int index) {
+            return value[index];
+        }
+
+        /**
+         * writes the value into target, cut or padded with zeroes to length
+         *
+         * @param target
+         * @param offset
+         * @param length
+         */
+        public void copyTo(byte[] target, int offset, int length) {
+            int copy = Math.min(value.length, length);
+            System.arraycopy(value, 0, target, offset, copy);
+            for (int i = copy; i < length; i++) {
+                target[offset + i] = 0;
+            }
+        }
+
+        /**
+         * @return a copy of the value
+         */
+        public byte[] toByteArray() {
+            return value.clone();
+        }
+    }
+
+    private static final DolRegistry INSTANCE = new DolRegistry();
+
+    private final Entry[] entries;     // in table order, notFound last
+    private final Entry[] byIndex;     // by index in the EmvTagDictionary, null if the tag has no default
+    private final Entry notFound;
+
+    public static DolRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    private DolRegistry() {
+        int count = EmvTagDictionary.defaultCount();
+        entries = new Entry[count + 1];
+        byIndex = new Entry[EmvTagDictionary.size()];
+        for (int i = 0; i < count; i++) {
+            int index = EmvTagDictionary.defaultIndexAt(i);
+            Entry entry = new Entry(EmvTagDictionary.tagAt(index), EmvTagDictionary.nameAt(index), EmvTagDictionary.defaultAt(index));
+            entries[i] = entry;
+            byIndex[index] = entry;
+        }
+        notFound = new Entry(0x00, "Tag not found", new byte[]{0x00});
+        entries[count] = notFound;
+    }
+
+    /**
+     * the key of an alternative Terminal Transaction Qualifiers value
+     *
+     * @param alternative 00 = default, maximum 03
+     * @return
+     */
+    public static int ttqKey(byte alternative) {
+        return (TAG_TTQ << 8) | (alternative & 0xFF);
+    }
+
+    /**
+     * @param tag packed tag
+     * @return the default value or null if the tag has no default
+     */
+    public Entry get(int tag) {
+        int index = EmvTagDictionary.indexOf(tag);
+        return index >= 0 ? byIndex[index] : null;
+    }
+
+    /**
+     * same as get but returns the alternative Terminal Transaction Qualifiers value for 9F66
+     *
+     * @param tag packed tag
+     * @param alternativeTtq 00 = default, maximum 03
+     * @return the default value or null if the tag has no default
+     */
+    public Entry get(int tag, byte alternativeTtq) {
+        return get(tag == TAG_TTQ ? ttqKey(alternativeTtq) : tag);
+    }
+
+    /**
+     * @return the entry returned by name lookups for unknown tags
+     */
+    public Entry getNotFound() {
+        return notFound;
+    }
+
+    public int size() {
+        return entries.length;
+    }
+
+    /**
+     * @param index 0 .. size() - 1
+     * @return the entries in table order
+     */
+    public Entry entryAt(int index) {
+        return entries[index];
+    }
+}
@@ -0,0 +1,73 @@
+package com.arriky.nfcPaymentCardReader;
+
+/**
+ * Lookup of the terminal's default values for PDOL and CDOL tags.
+ * The values are defined once in the shared DolRegistry, creating a DolValues is free.
+ */
+public class DolValues {
+
+    private final DolRegistry registry = DolRegistry.getInstance();
+
+    public DolValues() {
+        // empty constructor, the values live in the DolRegistry
+    }
+
+    public String getDolName(byte[] tagByte) {
+        DolRegistry.Entry entry = registry.get(PackedTag.pack(tagByte));
+        return entry != null ? entry.getTagName() : registry.getNotFound().getTagName(); // default, entry not found
+    }
+
+    /**
+     * returns a copy of the default value of a tag
+     *
+     * @param tagByte
+     * @return the value or null if the tag has no default
+     */
+    public byte[] getDolValue(byte[] tagByte) {
+        DolRegistry.Entry entry = registry.get(PackedTag.pack(tagByte));
+        return entry != null ? entry.toByteArray() : null; // default, entry not found
+    }
+
+    /**
+     * same method as getDolValue but returns alternate tag 9966 Terminal Transaction Qualifiers values
+     * defined at the moment [00] .. [03]
+     * @param tagByte
+     * @param alternateTag9966Ttq
+     * @return
+     */
+    public byte[] getDolValue(byte[] tagByte, byte[] alternateTag9966Ttq) {
+        DolRegistry.Entry entry = registry.get(PackedTag.pack(tagByte), alternateTag9966Ttq[0]);
+        return entry != null ? entry.toByteArray() : null; // default, entry not found
+    }
+
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("List of predefined tag and values for PDOL and CDOL").append("\n");
+        sb.append("Tag  Name                            Value").append("\n");
+        sb.append("-------------------------------------------------").append("\n");
+        for (int i = 0; i < registry.size(); i++) {
+            DolRegistry.Entry dol = registry.entryAt(i);
+            int start = sb.length();
+            sb.append(bytesToHexNpe(PackedTag.toBytes(dol.getTag())));
+            SessionReport.padColumn(sb, start, 5);
+            start = sb.length();
+            sb.append(dol.getTagName());
+            SessionReport.padColumn(sb, start, 32);
+            sb.append(bytesToHexNpe(dol.toByteArray()));
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * converts a byte array to a hex encoded string
+     * This method is Null Pointer Exception (NPE) safe
+     *
+     * @param bytes
+     * @return hex encoded string
+     */
+    private static String bytesToHexNpe(byte[] bytes) {
+        return HexCodec.toHex(bytes);
+    }
+
+}
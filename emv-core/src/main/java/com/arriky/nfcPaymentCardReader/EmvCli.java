@@ -0,0 +1,228 @@
+package com.arriky.nfcPaymentCardReader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Headless batch decoder: replays recorded sessions (logfile.md or the talk *.html files)
+ * through the EmvDecoder and prints one line per session, without a phone or a card.
+ *
+ * usage: EmvCli [--policy FULL_DUMP|PAN_AND_EXPIRY|FIRST_APPLICATION] [--json] [--log] [--verbose] [--metrics] [--record trace] [--oda] [file ...]
+ *        EmvCli --analyze [--threads n] file|directory ...
+ *        EmvCli --trace trace ...
+ * without a file (or with "-") the sessions are read from stdin
+ *
+ * --json    prints one JSON object per session instead of tab separated columns
+ * --log     prints the decoder's log of each session as well
+ * --verbose prints the log with the SessionReport of each session (TLV dumps of all responses)
+ * --metrics prints the ReaderMetrics snapshot of all sessions to stderr at the end
+ * --record  writes all exchanges of the sessions to a binary trace, see ApduTraceRecorder
+ * --oda     runs the offline data authentication with the bundled CA keys and adds its result
+ *           to each line, see OfflineDataAuthenticator
+ * --trace   prints the sessions of binary traces (e.g. exported by the app) in the style of logfile.md
+ * --analyze prints the per scheme CorpusStats of all sessions as JSON, the files are analyzed
+ *           in parallel with the CorpusAnalyzer, directories are searched for *.md and *.html
+ *
+ * run with: ./gradlew :emv-core:run --args='../logfile.md'
+ * the exit code is 0 if the PAN of every session was read, 1 if not and 2 on a usage error
+ */
+public class EmvCli {
+
+    // a trace recorded with --record keeps the newest 4 MB of exchanges
+    private static final int RECORD_CAPACITY = 4 * 1024 * 1024;
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        ReadPolicy readPolicy = ReadPolicy.FULL_DUMP;
+        boolean json = false;
+        boolean log = false;
+        boolean verbose = false;
+        boolean printMetrics = false;
+        boolean analyze = false;
+        boolean trace = false;
+        boolean oda = false;
+        String recordFile = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<String> sources = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--policy") && i + 1 < args.length) {
+                try {
+                    readPolicy = ReadPolicy.valueOf(args[++i]);
+                } catch (IllegalArgumentException e) {
+                    err.println("unknown read policy: " + args[i]);
+                    return 2;
+                }
+            } else if (arg.equals("--json")) {
+                json = true;
+            } else if (arg.equals("--log")) {
+                log = true;
+            } else if (arg.equals("--verbose")) {
+                log = true;
+                verbose = true;
+            } else if (arg.equals("--metrics")) {
+                printMetrics = true;
+            } else if (arg.equals("--record") && i + 1 < args.length) {
+                recordFile = args[++i];
+            } else if (arg.equals("--oda")) {
+                oda = true;
+            } else if (arg.equals("--trace")) {
+                trace = true;
+            } else if (arg.equals("--analyze")) {
+                analyze = true;
+            } else if (arg.equals("--threads") && i + 1 < args.length) {
+                try {
+                    threads = Math.max(1, Integer.parseInt(args[++i]));
+                } catch (NumberFormatException e) {
+                    err.println("not a number: " + args[i]);
+                    return 2;
+                }
+            } else if (arg.startsWith("--")) {
+                err.println("usage: EmvCli [--policy FULL_DUMP|PAN_AND_EXPIRY|FIRST_APPLICATION] [--json] [--log] [--verbose] [--metrics] [--record trace] [--oda] [file ...]");
+                err.println("       EmvCli --analyze [--threads n] file|directory ...");
+                err.println("       EmvCli --trace trace ...");
+                return 2;
+            } else {
+                sources.add(arg);
+            }
+        }
+        if (analyze) return analyze(sources, threads, out, err);
+        if (trace) return printTraces(sources, out, err);
+        if (sources.isEmpty()) sources.add("-");
+
+        List<CardTranscript> transcripts = new ArrayList<>();
+        try {
+            for (String source : sources) {
+                if (source.equals("-")) {
+                    transcripts.addAll(TranscriptReader.read("stdin", new InputStreamReader(System.in, StandardCharsets.UTF_8)));
+                } else {
+                    transcripts.addAll(TranscriptReader.read(new File(source)));
+                }
+            }
+        } catch (IOException e) {
+            err.println("cannot read the sessions: " + e.getMessage());
+            return 2;
+        }
+
+        ReaderMetrics metrics = new ReaderMetrics();
+        ApduTraceRecorder traceRecorder = recordFile != null ? new ApduTraceRecorder(RECORD_CAPACITY) : null;
+        // one authenticator for all sessions, the issuer keys are recovered once
+        OfflineDataAuthenticator offlineDataAuthenticator = oda ? new OfflineDataAuthenticator() : null;
+        int notRead = 0;
+        for (CardTranscript transcript : transcripts) {
+            EmvDecoder emvDecoder = new EmvDecoder();
+            emvDecoder.setReadPolicy(readPolicy);
+            emvDecoder.setMetrics(metrics);
+            emvDecoder.setVerbose(verbose);
+            emvDecoder.setTraceRecorder(traceRecorder);
+            emvDecoder.setOfflineDataAuthenticator(offlineDataAuthenticator);
+            CardReadResult result = emvDecoder.decodeEmv(new ReplayCard(transcript));
+            if (!result.isCardRead()) notRead++;
+            if (json) {
+                out.println(toJson(transcript, result, emvDecoder.getApduCount()));
+            } else {
+                out.println(transcript.getName() + "\t" + transcript.getScheme() + "\t"
+                        + (result.getPan() != null ? result.getPan() : "-") + "\t"
+                        + (result.getExpirationDate() != null ? result.getExpirationDate() : "-") + "\t"
+                        + result.getPanSource() + "\t" + emvDecoder.getApduCount() + " APDUs"
+                        + (oda ? "\t" + (emvDecoder.getOdaResult() != null ? emvDecoder.getOdaResult() : "-") : ""));
+            }
+            if (log) out.print(emvDecoder.getOutputString());
+        }
+        if (printMetrics) err.println(metrics.toJson());
+        if (traceRecorder != null) {
+            try (OutputStream traceOut = new FileOutputStream(recordFile)) {
+                traceRecorder.export(traceOut);
+            } catch (IOException e) {
+                err.println("cannot write the trace: " + e.getMessage());
+                return 2;
+            }
+        }
+        return notRead == 0 ? 0 : 1;
+    }
+
+    private static int printTraces(List<String> sources, PrintStream out, PrintStream err) {
+        if (sources.isEmpty()) {
+            err.println("no trace files");
+            return 2;
+        }
+        StringBuilder report = new StringBuilder(16384);
+        for (String source : sources) {
+            try {
+                report.append("# ").append(source).append("\n\n");
+                ApduTraceReader.render(ApduTraceReader.read(new File(source)), report);
+            } catch (IOException e) {
+                err.println("cannot read the trace " + source + ": " + e.getMessage());
+                return 2;
+            }
+            out.print(report);
+            report.setLength(0);
+        }
+        return 0;
+    }
+
+    private static int analyze(List<String> sources, int threads, PrintStream out, PrintStream err) {
+        List<File> files = new ArrayList<>();
+        for (String source : sources) {
+            File file = new File(source);
+            if (file.isDirectory()) {
+                addTranscriptFiles(file, files);
+            } else if (file.isFile()) {
+                files.add(file);
+            } else {
+                err.println("no such file: " + source);
+                return 2;
+            }
+        }
+        if (files.isEmpty()) {
+            err.println("no transcript files");
+            return 2;
+        }
+        long start = System.nanoTime();
+        CorpusStats stats = CorpusAnalyzer.analyze(files, threads);
+        long nanos = System.nanoTime() - start;
+        out.println(stats.toJson());
+        err.println(String.format(java.util.Locale.US, "%d sessions in %d files, %d threads, %.0f sessions/sec",
+                stats.getSessions(), files.size(), threads, stats.getSessions() / (nanos / 1e9)));
+        return stats.getUnreadableFiles() == 0 ? 0 : 1;
+    }
+
+    private static void addTranscriptFiles(File directory, List<File> files) {
+        File[] children = directory.listFiles();
+        if (children == null) return;
+        java.util.Arrays.sort(children);
+        for (File child : children) {
+            if (child.isDirectory()) {
+                addTranscriptFiles(child, files);
+            } else if (child.getName().endsWith(".md") || child.getName().endsWith(".html")) {
+                files.add(child);
+            }
+        }
+    }
+
+    private static String toJson(CardTranscript transcript, CardReadResult result, int apduCount) {
+        StringBuilder json = new StringBuilder(256);
+        json.append("{\"session\":");
+        TapResult.appendJsonString(json, transcript.getName());
+        json.append(",\"scheme\":\"").append(transcript.getScheme().name()).append('"');
+        json.append(",\"read\":").append(result.isCardRead());
+        json.append(",\"pan\":");
+        TapResult.appendJsonString(json, result.getPan());
+        json.append(",\"expirationDate\":");
+        TapResult.appendJsonString(json, result.getExpirationDate());
+        json.append(",\"panSource\":");
+        TapResult.appendJsonString(json, result.getPanSource().toString());
+        json.append(",\"apdus\":").append(apduCount).append('}');
+        return json.toString();
+    }
+}
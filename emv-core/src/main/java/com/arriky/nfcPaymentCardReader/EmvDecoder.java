@@ -0,0 +1,1085 @@
+package com.arriky.nfcPaymentCardReader;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class EmvDecoder {
+
+    static final String DEFAULT_SOURCE_NAME = "nfc";
+    // a short APDU response: 256 bytes of data and the status word, with room for chained responses
+    static final int RESPONSE_BUFFER_SIZE = 1024;
+    boolean cardRed = false;
+    private final StringBuilder output = new StringBuilder();
+    // registered listeners and the event types each of them subscribed to
+    private DecodeListener[] listeners = new DecodeListener[0];
+    private int[] listenerMasks = new int[0];
+    private int subscribedMask = 0;
+    // the structured result of the last session
+    private int ppseStatusWord = 0;
+    private final List<CardReadResult.Application> applications = new ArrayList<>();
+    private String pan = null;
+    private CardReadResult.Source panSource = CardReadResult.Source.NONE;
+    private String expirationDate = null;
+    private CardReadResult.Source expirationDateSource = CardReadResult.Source.NONE;
+    // apdus sent in the last session and saved by a warm tap
+    private int apduCount = 0;
+    private long apduNanos = 0;
+    private int apdusSaved = 0;
+    // what to read and what the policy saved compared to a full read
+    private ReadPolicy readPolicy = ReadPolicy.FULL_DUMP;
+    private int policyApdusSaved = 0;
+    // AFL records not read again because another application of the card read them
+    private int duplicateRecordsSkipped = 0;
+    // learning the card layout for the warm tap cache
+    private WarmTapCache warmTapCache = null;
+    private long currentSelectAidFingerprint = 0;
+    private long panSelectAidFingerprint = 0;
+    private int panApplicationIndex = -1;
+    // cards read a moment ago are not read again, see RecentCardFilter
+    private RecentCardFilter recentCardFilter = null;
+    private boolean duplicate = false;
+    // offline data authentication of the first application that gets to its records
+    private OfflineDataAuthenticator offlineDataAuthenticator = null;
+    private OdaSession odaSession = null;
+    private OdaResult odaResult = null;
+    private final GpoCommandBuilder gpoCommandBuilder = new GpoCommandBuilder();
+    // the commands of the session are built in reused buffers, see ApduCommandFactory
+    private final ApduCommandFactory commands = new ApduCommandFactory(gpoCommandBuilder);
+    // READ RECORD responses are received into this buffer if the transport can do it
+    private final byte[] responseBuffer = new byte[RESPONSE_BUFFER_SIZE];
+    // the TTQ alternative each card product accepted in the GPO command
+    private TtqPreferenceCache ttqPreferenceCache = TtqPreferenceCache.getShared();
+    // plans the record reads of the session, ordered by where the PAN of the scheme usually is
+    private PanLocationStats panLocationStats = PanLocationStats.getShared();
+    private AflReadPlanner aflReadPlanner = null;
+    // per phase latencies and counters, nothing is traced without a registry
+    private ReaderMetrics metrics = null;
+    private boolean connectionFailed = false;
+    // the raw exchanges of the session, the readable report is rendered from them on demand
+    private final ExchangeLog exchangeLog = new ExchangeLog();
+    private boolean verbose = false;
+    // always-on binary recording of all exchanges, see ApduTraceRecorder
+    private ApduTraceRecorder traceRecorder = null;
+    // the result of every tap is queued for the sinks, see ResultPipeline
+    private ResultPipeline resultPipeline = null;
+    private String sourceName = DEFAULT_SOURCE_NAME;
+    // single pass tlv extraction, the cursor and the result arrays are reused for every response
+    private static final int[] SELECT_AID_TAGS = {0x9F38, 0x50};
+    private static final int[] GPO_TAGS = {0x80, 0x94, 0x57, 0x82};
+    private static final int[] RECORD_TAGS = {0x5A, 0x5F24};
+    // stands in for the GPO response when the PDOL does not fit into the command: wrong length
+    private static final byte[] WRONG_LENGTH_RESPONSE = {(byte) 0x67, (byte) 0x00};
+    private final TlvCursor tlvCursor = new TlvCursor();
+    private final int[] tlvOffsets = new int[4];
+    private final int[] tlvLengths = new int[4];
+    // PAN and expiration date are parsed from the nibbles of the response, the buffers are wiped after each card
+    private final Track2Parser track2Parser = new Track2Parser();
+
+    /**
+     * checks if the response has an 0x'9000' at the end means success
+     * and the method returns the data without 0x'9000' at the end
+     * if any other trailing bytes show up the method returns NULL
+     *
+     * @param data
+     * @return
+     */
+    private byte[] checkResponse(@NonNull byte[] data) {
+        // simple sanity check
+        if (data.length < 5) {
+            return null;
+        } // not ok
+        int status = ((0xff & data[data.length - 2]) << 8) | (0xff & data[data.length - 1]);
+        if (status != 0x9000) {
+            return null;
+        } else {
+            return Arrays.copyOfRange(data, 0, data.length - 2);
+        }
+    }
+
+    /**
+     * converts a byte to int
+     *
+     * @param b
+     * @return
+     */
+    public static int byteToInt(byte b) {
+        return (int) b & 0xFF;
+    }
+
+    public static int intFromByteArray(byte[] bytes) {
+        return new BigInteger(bytes).intValue();
+    }
+
+    /**
+     * converts a byte to its hex string representation
+     *
+     * @param data
+     * @return
+     */
+    public static String byteToHex(byte data) {
+        int hex = data & 0xFF;
+        return Integer.toHexString(hex);
+    }
+
+    /**
+     * converts an integer to a byte array
+     *
+     * @param value
+     * @return
+     */
+    public static byte[] intToByteArray(int value) {
+        return new BigInteger(String.valueOf(value)).toByteArray();
+    }
+
+    /**
+     * converts a byte array to a hex encoded string
+     * This method is Null Pointer Exception (NPE) safe
+     *
+     * @param bytes
+     * @return hex encoded string
+     */
+    public static String bytesToHexNpe(byte[] bytes) {
+        return HexCodec.toHex(bytes);
+    }
+
+    /**
+     * converts a byte array to a hex encoded string
+     * This method is Null Pointer Exception (NPE) safe
+     *
+     * @param bytes
+     * @return hex encoded string with a blank after each value
+     */
+    public static String bytesToHexBlankNpe(byte[] bytes) {
+        return HexCodec.toHexBlank(bytes);
+    }
+
+    /**
+     * converts a hex encoded string to a byte array
+     *
+     * @param str
+     * @return
+     */
+    public static byte[] hexToBytes(String str) {
+        return HexCodec.fromHex(str);
+    }
+
+
+    /**
+     * subscribes a listener to the events of the following decodeEmv calls
+     * the listener is called on the reading thread, wrap it in a DecodeEventHandoff to receive
+     * the events on another thread
+     *
+     * @param listener
+     * @param types the event types to receive, all types if none are given
+     */
+    public void addListener(@NonNull DecodeListener listener, DecodeEvent.Type... types) {
+        int count = listeners.length;
+        listeners = Arrays.copyOf(listeners, count + 1);
+        listenerMasks = Arrays.copyOf(listenerMasks, count + 1);
+        listeners[count] = listener;
+        listenerMasks[count] = DecodeEvent.Type.mask(types);
+        subscribedMask |= listenerMasks[count];
+    }
+
+    /**
+     * enables warm taps: a card product that was read before is read with the SELECT AID, GPO
+     * and READ RECORD commands that found the PAN last time, see WarmTapCache. A warm tap reads
+     * only the application and the records of the PAN, so it is not used with
+     * ReadPolicy.FULL_DUMP and not with offline data authentication
+     *
+     * @param warmTapCache shared by all taps, null disables warm taps
+     */
+    public void setWarmTapCache(WarmTapCache warmTapCache) {
+        this.warmTapCache = warmTapCache;
+    }
+
+    /**
+     * enables the suppression of repeated taps: once the PAN is known, a card that was read
+     * within the window of the filter is not read any further and its result is not published
+     *
+     * @param recentCardFilter shared by all taps, null disables it
+     */
+    public void setRecentCardFilter(RecentCardFilter recentCardFilter) {
+        this.recentCardFilter = recentCardFilter;
+    }
+
+    /**
+     * enables the offline data authentication (SDA or DDA) of the application that is read
+     * first: all records of its AFL are read even if the read policy is complete and a card that
+     * supports DDA gets an INTERNAL AUTHENTICATE. Warm taps are not used, they do not read the
+     * records.
+     *
+     * @param offlineDataAuthenticator shared by all taps, null disables it
+     */
+    public void setOfflineDataAuthenticator(OfflineDataAuthenticator offlineDataAuthenticator) {
+        this.offlineDataAuthenticator = offlineDataAuthenticator;
+    }
+
+    /**
+     * @param verbose true appends the SessionReport (every command and response with its TLV
+     *                dump) to the log at the end of each session, the default is false
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * @param traceRecorder receives every command and response of the following taps, shared by
+     *                      all taps and readers, the exchanges are recorded under the source name,
+     *                      null disables the recording
+     */
+    public void setTraceRecorder(ApduTraceRecorder traceRecorder) {
+        this.traceRecorder = traceRecorder;
+    }
+
+    /**
+     * @param resultPipeline receives the result of every tap once it is decoded, shared by all
+     *                       taps, null disables the publishing
+     */
+    public void setResultPipeline(ResultPipeline resultPipeline) {
+        this.resultPipeline = resultPipeline;
+    }
+
+    /**
+     * @param sourceName the reader the taps are read with, in the published results and the
+     *                   recorded trace, the default is "nfc"
+     */
+    public void setSourceName(@NonNull String sourceName) {
+        this.sourceName = sourceName;
+    }
+
+    /**
+     * @param readPolicy how much of the card is read, the default is ReadPolicy.FULL_DUMP
+     */
+    public void setReadPolicy(@NonNull ReadPolicy readPolicy) {
+        this.readPolicy = readPolicy;
+    }
+
+    /**
+     * @param metrics the registry that receives the latency of every phase and apdu, null
+     *                disables tracing
+     */
+    public void setMetrics(ReaderMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param ttqPreferenceCache the TTQ alternatives card products accepted on earlier taps, the
+     *                           default is the cache shared by the whole process, null disables
+     *                           learning (a rejected GPO is still retried with the alternatives)
+     */
+    public void setTtqPreferenceCache(TtqPreferenceCache ttqPreferenceCache) {
+        this.ttqPreferenceCache = ttqPreferenceCache;
+    }
+
+    /**
+     * @param panLocationStats where the PAN was found on earlier cards, the default are the
+     *                         statistics shared by the whole process
+     */
+    public void setPanLocationStats(@NonNull PanLocationStats panLocationStats) {
+        this.panLocationStats = panLocationStats;
+    }
+
+    /**
+     * the apdus the read policy skipped: the READ RECORDs left in the read plans plus a SELECT
+     * and a GPO for every application that was not read (their records are unknown, so this is
+     * a lower bound), records of another application are in getDuplicateRecordsSkipped
+     *
+     * @return
+     */
+    public int getPolicyApdusSaved() {
+        return policyApdusSaved;
+    }
+
+    /**
+     * the READ RECORDs the AflReadPlanner left out because the record was read for another
+     * application of the card, they are saved by any read policy and not counted in
+     * getPolicyApdusSaved
+     *
+     * @return
+     */
+    public int getDuplicateRecordsSkipped() {
+        return duplicateRecordsSkipped;
+    }
+
+    /**
+     * @return the skipped apdus times the average apdu time of the session, an estimate
+     */
+    public double getPolicyMillisSaved() {
+        if (apduCount == 0) return 0;
+        return policyApdusSaved * (apduNanos / (double) apduCount) / 1e6;
+    }
+
+    /**
+     * @return the number of apdus sent to the card in the last session
+     */
+    public int getApduCount() {
+        return apduCount;
+    }
+
+    /**
+     * @return true if the card of the last session was read within the window of the
+     * RecentCardFilter, the session stopped when the PAN was known
+     */
+    public boolean isDuplicate() {
+        return duplicate;
+    }
+
+    /**
+     * @return the offline data authentication of the last session, null if it was not enabled
+     * or no application got to its records
+     */
+    public OdaResult getOdaResult() {
+        return odaResult;
+    }
+
+    /**
+     * @return the number of apdus a warm tap saved compared to the full reading sequence
+     */
+    public int getApdusSaved() {
+        return apdusSaved;
+    }
+
+    private byte[][] transceiveAll(ApduTransport nfc, byte[][] commands) throws IOException {
+        apduCount += commands.length;
+        long start = System.nanoTime();
+        byte[][] responses = null;
+        try {
+            responses = nfc.transceiveAll(commands);
+            return responses;
+        } finally {
+            long nanos = System.nanoTime() - start;
+            apduNanos += nanos;
+            for (int i = 0; i < commands.length; i++) {
+                exchangeLog.add(commands[i], responses != null ? responses[i] : null);
+            }
+            if (metrics != null) {
+                // the transport does not time the single commands, each gets its share
+                for (int i = 0; i < commands.length; i++) {
+                    metrics.recordApdu(nanos / commands.length, commands[i], responses != null ? responses[i] : null);
+                }
+            }
+        }
+    }
+
+    /**
+     * sends the GET PROCESSING OPTIONS command with the TTQ alternative the card product accepted
+     * last time (00 for an unknown card). If the card rejects it and its PDOL requests the TTQ,
+     * the other alternatives 00..03 are tried in order and the one that works is remembered.
+     *
+     * @param nfc
+     * @param pdol                 the value of tag 9F38, an empty array if the card has no PDOL
+     * @param selectAidFingerprint identifies the card product, see TtqPreferenceCache
+     * @return the last response of the card, 6700 without sending a command if the PDOL is invalid
+     * @throws IOException
+     */
+    private byte[] transceiveGpo(ApduTransport nfc, byte[] pdol, long selectAidFingerprint) throws IOException {
+        if (!gpoCommandBuilder.getLayout(pdol).isValid()) {
+            // the command is not sent, the application is handled like a card that refused it
+            writeErrorToUiAppend("Invalid PDOL: its values need more than " + GpoCommandBuilder.MAX_PDOL_VALUES + " bytes, GPO not sent");
+            return WRONG_LENGTH_RESPONSE.clone();
+        }
+        long phaseStart = System.nanoTime();
+        try {
+            return transceiveGpoAlternatives(nfc, pdol, selectAidFingerprint);
+        } finally {
+            recordPhase(ReaderMetrics.Phase.GPO, phaseStart);
+        }
+    }
+
+    /**
+     * the GPO commands of transceiveGpo, the retries are part of the GPO phase
+     */
+    private byte[] transceiveGpoAlternatives(ApduTransport nfc, byte[] pdol, long selectAidFingerprint) throws IOException {
+        byte preferredTtq = ttqPreferenceCache != null ? ttqPreferenceCache.get(selectAidFingerprint) : TtqPreferenceCache.DEFAULT_TTQ;
+        byte[] response = transceive(nfc, commands.gpo(pdol, preferredTtq));
+        int statusWord = CardReadResult.statusWord(response);
+        // without 9F66 in the PDOL every alternative is the same command
+        if (statusWord == 0x9000 || statusWord == 0 || gpoCommandBuilder.getLayout(pdol).getValueOffset(DolRegistry.TAG_TTQ) < 0) {
+            return response;
+        }
+        byte failedTtq = preferredTtq;
+        for (byte ttq = TtqPreferenceCache.DEFAULT_TTQ; ttq <= TtqPreferenceCache.MAX_TTQ; ttq++) {
+            if (ttq == preferredTtq) continue;
+            writeToUiAppend(String.format(java.util.Locale.US, "GPO with TTQ %02x failed (%04x), retrying with TTQ %02x", failedTtq, statusWord, ttq));
+            if (metrics != null) metrics.recordGpoRetry();
+            response = transceive(nfc, commands.gpo(pdol, ttq));
+            statusWord = CardReadResult.statusWord(response);
+            if (statusWord == 0x9000) {
+                if (ttqPreferenceCache != null) ttqPreferenceCache.put(selectAidFingerprint, ttq);
+                return response;
+            }
+            failedTtq = ttq;
+        }
+        // no alternative works, the next tap starts with the default again
+        if (ttqPreferenceCache != null) ttqPreferenceCache.put(selectAidFingerprint, TtqPreferenceCache.DEFAULT_TTQ);
+        return response;
+    }
+
+    /**
+     * records the span of a phase that started at phaseStart
+     *
+     * @param phase
+     * @param phaseStart System.nanoTime at the first command of the phase
+     */
+    private void recordPhase(ReaderMetrics.Phase phase, long phaseStart) {
+        if (metrics != null) metrics.recordPhase(phase, System.nanoTime() - phaseStart);
+    }
+
+    private byte[] transceive(ApduTransport nfc, byte[] command) throws IOException {
+        apduCount++;
+        long start = System.nanoTime();
+        byte[] response = null;
+        try {
+            response = nfc.transceive(command);
+            return response;
+        } finally {
+            long nanos = System.nanoTime() - start;
+            apduNanos += nanos;
+            exchangeLog.add(command, response);
+            if (metrics != null) metrics.recordApdu(nanos, command, response);
+        }
+    }
+
+    /**
+     * sends a command and receives the response into responseBuffer, nothing is allocated if
+     * the transport supports it, see ApduTransport.transceive(byte[], byte[])
+     *
+     * @param nfc
+     * @param command
+     * @return the length of the response in responseBuffer
+     * @throws IOException
+     */
+    private int transceiveIntoBuffer(ApduTransport nfc, byte[] command) throws IOException {
+        apduCount++;
+        long start = System.nanoTime();
+        int length = -1;
+        try {
+            length = nfc.transceive(command, responseBuffer);
+            return length;
+        } finally {
+            long nanos = System.nanoTime() - start;
+            apduNanos += nanos;
+            byte[] response = length >= 0 ? responseBuffer : null;
+            exchangeLog.add(command, response, length);
+            if (metrics != null) metrics.recordApdu(nanos, command, response, length);
+        }
+    }
+
+    /**
+     * the applications of a PPSE response in the order of their Application Priority Indicator
+     * (tag 87, low nibble, 1 = highest); applications without priority follow in PPSE order
+     *
+     * @param ppse
+     * @return the AIDs
+     */
+    private List<byte[]> getAidsByPriority(byte[] ppse) {
+        final List<byte[]> aids = new ArrayList<>();
+        final List<Integer> priorities = new ArrayList<>();
+        List<byte[]> looseAids = new ArrayList<>();
+        // the application template (tag 61) the cursor is in
+        int templateEnd = -1;
+        byte[] templateAid = null;
+        int templatePriority = 0;
+        TlvCursor cursor = tlvCursor.reset(ppse, 0, ppse.length);
+        while (cursor.next()) {
+            if (templateEnd >= 0 && cursor.getTagOffset() >= templateEnd) {
+                addApplication(aids, priorities, templateAid, templatePriority);
+                templateEnd = -1;
+            }
+            int tag = cursor.getTag();
+            if (tag == 0x61) {
+                templateEnd = cursor.getValueOffset() + cursor.getValueLength();
+                templateAid = null;
+                templatePriority = 0;
+            } else if (tag == 0x4F) {
+                byte[] aid = Arrays.copyOfRange(ppse, cursor.getValueOffset(), cursor.getValueOffset() + cursor.getValueLength());
+                if (templateEnd < 0) {
+                    looseAids.add(aid);
+                } else if (templateAid == null) {
+                    templateAid = aid;
+                }
+            } else if (tag == 0x87 && templateEnd >= 0 && templatePriority == 0 && cursor.getValueLength() > 0) {
+                templatePriority = ppse[cursor.getValueOffset()] & 0x0F;
+            }
+        }
+        if (templateEnd >= 0) addApplication(aids, priorities, templateAid, templatePriority);
+        if (cursor.getStatus() != TlvCursor.OK) {
+            writeErrorToUiAppend("Malformed PPSE response: " + TlvCursor.statusName(cursor.getStatus()));
+        }
+        if (aids.isEmpty()) {
+            // no application templates, take the AIDs as they are
+            return looseAids;
+        }
+        Integer[] order = new Integer[aids.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        // a stable sort keeps the PPSE order for equal priorities
+        Arrays.sort(order, (a, b) -> Integer.compare(priorities.get(a), priorities.get(b)));
+        List<byte[]> sorted = new ArrayList<>(aids.size());
+        for (Integer index : order) sorted.add(aids.get(index));
+        return sorted;
+    }
+
+    private static void addApplication(List<byte[]> aids, List<Integer> priorities, byte[] aid, int priority) {
+        if (aid == null) return;
+        aids.add(aid);
+        priorities.add(priority == 0 ? Integer.MAX_VALUE : priority);
+    }
+
+    /**
+     * extracts the tags from a response in a single pass, the value offsets and lengths are in
+     * tlvOffsets and tlvLengths in the order of the tags
+     *
+     * @param response the response including the status word
+     * @param tags
+     * @return TlvCursor.OK or the reason why the response is malformed
+     */
+    private int scanResponse(byte[] response, int[] tags) {
+        return tlvCursor.resetResponse(response).scan(tags, tlvOffsets, tlvLengths);
+    }
+
+    /**
+     * same as scanResponse for a response at the start of a buffer
+     *
+     * @param response
+     * @param length   the length of the response including the status word
+     * @param tags
+     * @return
+     */
+    private int scanResponse(byte[] response, int length, int[] tags) {
+        return tlvCursor.reset(response, 0, Math.max(0, length - 2)).scan(tags, tlvOffsets, tlvLengths);
+    }
+
+    /**
+     * @param response the response of the last scanResponse
+     * @param index    index of the tag in the scanned tags
+     * @return a copy of the value or null if the tag was not found
+     */
+    private byte[] tlvValue(byte[] response, int index) {
+        if (tlvOffsets[index] < 0) return null;
+        return Arrays.copyOfRange(response, tlvOffsets[index], tlvOffsets[index] + tlvLengths[index]);
+    }
+
+    private boolean isReadPolicyComplete() {
+        return readPolicy.isComplete(pan != null, expirationDate != null);
+    }
+
+    /**
+     * @return true if the session has read enough, by the read policy (and the records the offline
+     * data authentication needs) or because the card is a duplicate
+     */
+    private boolean isReadComplete() {
+        return duplicate || (isReadPolicyComplete() && (odaSession == null || odaSession.hasAllRecords()));
+    }
+
+    /**
+     * returns the Application File Locator of a GPO response after scanResponse with GPO_TAGS,
+     * either from tag 80 (format 1, AIP followed by the AFL) or from tag 94 in template 77 (format 2)
+     *
+     * @param gpoResponse
+     * @return the AFL or null
+     */
+    private byte[] getAflFromGpoResponse(byte[] gpoResponse) {
+        if (tlvOffsets[1] >= 0) return tlvValue(gpoResponse, 1);
+        if (tlvOffsets[0] >= 0 && tlvLengths[0] >= 2) {
+            return Arrays.copyOfRange(gpoResponse, tlvOffsets[0] + 2, tlvOffsets[0] + tlvLengths[0]);
+        }
+        return null;
+    }
+
+    /**
+     * returns the Application Interchange Profile of a GPO response after scanResponse with
+     * GPO_TAGS, the first two bytes of tag 80 (format 1) or tag 82 in template 77 (format 2)
+     *
+     * @param gpoResponse
+     * @return the AIP or null
+     */
+    private byte[] getAipFromGpoResponse(byte[] gpoResponse) {
+        if (tlvOffsets[3] >= 0) return tlvValue(gpoResponse, 3);
+        if (tlvOffsets[0] >= 0 && tlvLengths[0] >= 2) {
+            return Arrays.copyOfRange(gpoResponse, tlvOffsets[0], tlvOffsets[0] + 2);
+        }
+        return null;
+    }
+
+    /**
+     * authenticates the application whose records were just read, with an INTERNAL
+     * AUTHENTICATE if the card supports DDA
+     *
+     * @param nfc
+     * @param session
+     * @throws IOException
+     */
+    private void authenticateOfflineData(ApduTransport nfc, OdaSession session) throws IOException {
+        long phaseStart = System.nanoTime();
+        OdaResult result;
+        try {
+            result = offlineDataAuthenticator.authenticate(session, pan);
+            if (result == null) {
+                byte[] dynamicData = offlineDataAuthenticator.newDynamicData(session);
+                byte[] response = transceive(nfc, commands.internalAuthenticate(dynamicData));
+                result = offlineDataAuthenticator.verifyDynamicSignature(session, dynamicData, response);
+            }
+        } finally {
+            recordPhase(ReaderMetrics.Phase.AUTHENTICATE, phaseStart);
+        }
+        odaResult = result;
+        if (result.getStatus() == OdaResult.Status.FAILED) {
+            writeErrorToUiAppend("Offline data authentication: " + result);
+        } else {
+            writeToUiAppend("Offline data authentication: " + result);
+        }
+    }
+
+    /**
+     * the structured result of the session
+     *
+     * @return
+     */
+    public CardReadResult getResult() {
+        return new CardReadResult(ppseStatusWord, applications, pan, panSource, expirationDate, expirationDateSource);
+    }
+
+    /**
+     * the commands and responses of the last session, the readable report is only rendered
+     * when it is asked for, e.g. by a detail view
+     *
+     * @return
+     */
+    public SessionReport getSessionReport() {
+        return new SessionReport(exchangeLog.toExchanges());
+    }
+
+    private void setPanAndExpirationDate(String pan, String expirationDate, CardReadResult.Source source) {
+        // the application that is being read, it is added to applications after its records
+        panApplicationIndex = applications.size();
+        panSelectAidFingerprint = currentSelectAidFingerprint;
+        this.pan = pan;
+        this.panSource = source;
+        if (expirationDate != null && !expirationDate.isEmpty()) {
+            this.expirationDate = expirationDate;
+            this.expirationDateSource = source;
+        }
+        if (recentCardFilter != null && recentCardFilter.checkAndRecord(pan)) {
+            duplicate = true;
+            writeToUiAppend("Duplicate tap: card read within the last " + recentCardFilter.getWindowMillis() + " ms, reading stopped");
+        }
+    }
+
+    /**
+     * the complete log of the session as shown in the UI
+     *
+     * @return
+     */
+    public String getOutputString() {
+        return output.toString();
+    }
+
+    private boolean isSubscribed(DecodeEvent.Type type) {
+        return (subscribedMask & type.mask()) != 0;
+    }
+
+    private void emit(DecodeEvent event) {
+        int mask = event.getType().mask();
+        for (int i = 0; i < listeners.length; i++) {
+            if ((listenerMasks[i] & mask) != 0) listeners[i].onEvent(event);
+        }
+    }
+
+    private void emitData(DecodeEvent.Type type, byte[] data) {
+        if (isSubscribed(type)) emit(DecodeEvent.data(type, data));
+    }
+
+    private void emitText(DecodeEvent.Type type, String text) {
+        if (isSubscribed(type)) emit(DecodeEvent.text(type, text));
+    }
+
+    /**
+     * renders the report straight into the log
+     */
+    private void appendSessionReport() {
+        int start = output.length();
+        output.append('\n');
+        getSessionReport().render(output);
+        if (isSubscribed(DecodeEvent.Type.MESSAGE)) emitText(DecodeEvent.Type.MESSAGE, output.substring(start + 1));
+    }
+
+    private void writeToUiAppend(String message) {
+        output.append(message).append("\n");
+        emitText(DecodeEvent.Type.MESSAGE, message);
+    }
+
+    private void writeErrorToUiAppend(String message) {
+        output.append(message).append("\n");
+        emitText(DecodeEvent.Type.ERROR, message);
+    }
+
+    /**
+     * reads a discovered tag and logs the discovery like the recorded sessions do
+     *
+     * @param nfc the transport to the tag, null if the tag does not support IsoDep
+     * @return the structured result, the log is available with getOutputString
+     */
+    public CardReadResult decodeDiscoveredTag(ApduTransport nfc) {
+        writeToUiAppend("NFC tag discovered");
+        if (nfc == null) {
+            writeErrorToUiAppend("Card reading error");
+            publishResult(0);
+            return getResult();
+        }
+        return decodeEmv(nfc);
+    }
+
+    /**
+     * runs the complete reading sequence (select PPSE, select AID, get processing options and
+     * read records) against the card behind the transport
+     *
+     * @param nfc
+     * @return the structured result, the log is available with getOutputString
+     */
+    public CardReadResult decodeEmv(@NonNull ApduTransport nfc) {
+        long start = System.nanoTime();
+        if (traceRecorder != null) nfc = new TracingTransport(nfc, traceRecorder, sourceName);
+        try {
+            decodeEmvSession(nfc);
+        } finally {
+            long tapNanos = System.nanoTime() - start;
+            if (metrics != null) metrics.recordTap(getTapScheme(), tapNanos, cardRed, connectionFailed);
+            if (verbose) appendSessionReport();
+            emitText(DecodeEvent.Type.FINISHED, cardRed ? "card read" : "card not read");
+            publishResult(tapNanos);
+        }
+        return getResult();
+    }
+
+    /**
+     * queues the result of the tap for the sinks of the pipeline, does not wait for them, a
+     * duplicate tap is not published
+     *
+     * @param tapNanos
+     */
+    private void publishResult(long tapNanos) {
+        if (resultPipeline == null || duplicate) return;
+        resultPipeline.offer(new TapResult(sourceName, System.currentTimeMillis(), tapNanos, apduCount, getResult(), output.toString()));
+    }
+
+    /**
+     * @return the scheme of the application that delivered the PAN, or of the first application
+     */
+    private CardScheme getTapScheme() {
+        if (panApplicationIndex >= 0 && panApplicationIndex < applications.size()) {
+            return applications.get(panApplicationIndex).getScheme();
+        }
+        return applications.isEmpty() ? CardScheme.UNKNOWN : applications.get(0).getScheme();
+    }
+
+    /**
+     * @return true if a warm tap can be used, it stops after the PAN like a read policy does
+     */
+    private boolean isWarmTapEnabled() {
+        return warmTapCache != null && readPolicy != ReadPolicy.FULL_DUMP && offlineDataAuthenticator == null;
+    }
+
+    /**
+     * reads a card with a known layout: select the AID that delivered the PAN last time, get the
+     * processing options and read only the record that holds the PAN
+     * every response is checked against the profile, nothing is added to the result if the card
+     * does not match
+     *
+     * @param nfc
+     * @param profile
+     * @return true if the PAN was read, false if the complete reading sequence is needed
+     * @throws IOException
+     */
+    private boolean decodeWarmTap(ApduTransport nfc, WarmTapCache.CardProfile profile) throws IOException {
+        byte[] aid = profile.getAid();
+        long phaseStart = System.nanoTime();
+        byte[] selectAidResponse = transceive(nfc, commands.select(aid));
+        recordPhase(ReaderMetrics.Phase.SELECT_AID, phaseStart);
+        byte[] selectAidResponseOk = checkResponse(selectAidResponse);
+        if (selectAidResponseOk == null || !profile.matchesSelectAidResponse(selectAidResponse)) return false;
+        if (scanResponse(selectAidResponse, SELECT_AID_TAGS) != TlvCursor.OK) return false;
+        byte[] pdolValue = tlvValue(selectAidResponse, 0);
+        byte[] tag50Value = tlvValue(selectAidResponse, 1);
+
+        byte[] gpoRequestResponse = transceiveGpo(nfc, pdolValue != null ? pdolValue : new byte[0], WarmTapCache.fingerprint(selectAidResponse));
+        if (scanResponse(gpoRequestResponse, GPO_TAGS) != TlvCursor.OK) return false;
+        byte[] aflBytes = getAflFromGpoResponse(gpoRequestResponse);
+        int track2Offset = tlvOffsets[2];
+        int track2Length = tlvLengths[2];
+        if (checkResponse(gpoRequestResponse) == null || !profile.matchesAfl(aflBytes)) return false;
+
+        CardReadResult.Source source = profile.getPanSource();
+        List<CardReadResult.RecordRead> recordReads = new ArrayList<>();
+        // the record is received into responseBuffer
+        int readRecordLength = -1;
+        String readPan;
+        String readExpirationDate;
+        if (source.isGpoResponse()) {
+            if (track2Offset < 0) return false;
+            if (track2Parser.parseTrack2(gpoRequestResponse, track2Offset, track2Length) != Track2Parser.OK) return false;
+            readPan = track2Parser.panToString();
+            readExpirationDate = track2Parser.expirationDateToString();
+            track2Parser.wipe();
+        } else {
+            phaseStart = System.nanoTime();
+            readRecordLength = transceiveIntoBuffer(nfc, commands.readRecord(source.getSfi(), source.getRecord()));
+            recordPhase(ReaderMetrics.Phase.READ_RECORD, phaseStart);
+            int readRecordStatusWord = CardReadResult.statusWord(responseBuffer, readRecordLength);
+            recordReads.add(CardReadResult.RecordRead.of(source.getSfi(), source.getRecord(), readRecordStatusWord));
+            // the same check as checkResponse
+            if (readRecordLength < 5 || readRecordStatusWord != 0x9000) return false;
+            if (scanResponse(responseBuffer, readRecordLength, RECORD_TAGS) != TlvCursor.OK || tlvOffsets[0] < 0) return false;
+            if (track2Parser.parsePan(responseBuffer, tlvOffsets[0], tlvLengths[0]) != Track2Parser.OK) return false;
+            if (tlvOffsets[1] >= 0) track2Parser.parseExpirationDate(responseBuffer, tlvOffsets[1], tlvLengths[1]);
+            readPan = track2Parser.panToString();
+            readExpirationDate = track2Parser.expirationDateToString();
+            track2Parser.wipe();
+        }
+
+        // the card matches its profile, report the session like the full sequence does
+        emitData(DecodeEvent.Type.AID_FOUND, aid);
+        emitData(DecodeEvent.Type.GPO_DONE, gpoRequestResponse);
+        if (readRecordLength >= 0 && isSubscribed(DecodeEvent.Type.RECORD_READ)) {
+            // the listener gets its own copy, the buffer is reused
+            emit(DecodeEvent.record(source.getSfi(), source.getRecord(), Arrays.copyOf(responseBuffer, readRecordLength)));
+        }
+        String applicationLabel = tag50Value != null ? new String(tag50Value, StandardCharsets.ISO_8859_1) : null;
+        setPanAndExpirationDate(readPan, readExpirationDate, source);
+        applications.add(new CardReadResult.Application(aid, applicationLabel, pdolValue, aflBytes,
+                CardReadResult.statusWord(selectAidResponse), CardReadResult.statusWord(gpoRequestResponse), recordReads));
+        writeToUiAppend("PAN: " + readPan);
+        emitText(DecodeEvent.Type.PAN_FOUND, readPan);
+        String expirationDateString = "Expiration date (" + (readExpirationDate.length() == 4 ? "YYMM): " : "YYMMDD): ") + readExpirationDate;
+        emitText(DecodeEvent.Type.EXPIRY_FOUND, readExpirationDate);
+        writeToUiAppend(expirationDateString);
+        cardRed = true;
+        apdusSaved = Math.max(0, profile.getFullSequenceApdus() - apduCount);
+        writeToUiAppend("Warm tap: " + apdusSaved + " APDUs saved");
+        return true;
+    }
+
+    private void decodeEmvSession(ApduTransport nfc) {
+        aflReadPlanner = new AflReadPlanner(panLocationStats);
+        try {
+            nfc.connect();
+            writeToUiAppend("Connection with card success");
+
+            /**
+             * step 1 code start
+             */
+
+            long phaseStart = System.nanoTime();
+            byte[] selectPpseCommand = commands.selectPpse();
+            byte[] selectPpseResponse = transceive(nfc, selectPpseCommand);
+            ppseStatusWord = CardReadResult.statusWord(selectPpseResponse);
+            byte[] selectPpseResponseOk = checkResponse(selectPpseResponse);
+            recordPhase(ReaderMetrics.Phase.PPSE, phaseStart);
+            // proceed only when te do have a positive read result = 0x'9000' at the end of response data
+            if (selectPpseResponseOk != null) {
+                emitData(DecodeEvent.Type.PPSE_SELECTED, selectPpseResponseOk);
+
+                long ppseFingerprint = WarmTapCache.fingerprint(selectPpseResponse);
+                if (isWarmTapEnabled()) {
+                    WarmTapCache.CardProfile profile = warmTapCache.get(ppseFingerprint);
+                    if (profile != null) {
+                        if (decodeWarmTap(nfc, profile)) return;
+                        // the card does not match the profile, forget it and read the complete card
+                        warmTapCache.remove(ppseFingerprint);
+                    }
+                }
+
+                // find all entries for tag 0x4f, ordered by their priority
+                List<byte[]> aidList = getAidsByPriority(selectPpseResponseOk);
+                if (aidList.size() < 1) {
+                    writeErrorToUiAppend("Card reading error");
+                }
+                for (byte[] aid : aidList) {
+                    emitData(DecodeEvent.Type.AID_FOUND, aid);
+                }
+
+                int aidsToRead = Math.min(aidList.size(), readPolicy.getMaxApplications());
+                int aidsRead = 0;
+                for (int aidNumber = 0; aidNumber < aidsToRead && !isReadComplete(); aidNumber++) {
+                    aidsRead++;
+                    byte[] aidSelected = aidList.get(aidNumber);
+                    phaseStart = System.nanoTime();
+                    byte[] selectAidCommand = commands.select(aidSelected);
+                    byte[] selectAidResponse = transceive(nfc, selectAidCommand);
+                    currentSelectAidFingerprint = WarmTapCache.fingerprint(selectAidResponse);
+
+                    byte[] selectAidResponseOk = checkResponse(selectAidResponse);
+                    int selectAidStatusWord = CardReadResult.statusWord(selectAidResponse);
+                    if (selectAidResponseOk != null) {
+                        int selectAidTlvStatus = scanResponse(selectAidResponse, SELECT_AID_TAGS);
+                        if (selectAidTlvStatus != TlvCursor.OK) {
+                            writeErrorToUiAppend("Malformed SELECT AID response: " + TlvCursor.statusName(selectAidTlvStatus));
+                        }
+                        byte[] pdolValue = tlvValue(selectAidResponse, 0);
+                        byte[] tag50Value = tlvValue(selectAidResponse, 1);
+                        String applicationLabel = tag50Value != null ? new String(tag50Value, StandardCharsets.ISO_8859_1) : null;
+                        recordPhase(ReaderMetrics.Phase.SELECT_AID, phaseStart);
+                        // VisaCards and (German) GiroCards send a PDOL, MasterCards do not
+                        byte[] gpoRequestResponse = transceiveGpo(nfc, pdolValue != null ? pdolValue : new byte[0], currentSelectAidFingerprint);
+                        emitData(DecodeEvent.Type.GPO_DONE, gpoRequestResponse);
+                        int gpoStatusWord = CardReadResult.statusWord(gpoRequestResponse);
+
+                        int gpoTlvStatus = scanResponse(gpoRequestResponse, GPO_TAGS);
+                        if (gpoTlvStatus != TlvCursor.OK) {
+                            writeErrorToUiAppend("Malformed GPO response: " + TlvCursor.statusName(gpoTlvStatus));
+                        }
+                        byte[] aflBytes = getAflFromGpoResponse(gpoRequestResponse);
+                        if (offlineDataAuthenticator != null && odaResult == null && gpoStatusWord == 0x9000) {
+                            odaSession = new OdaSession(aidSelected, getAipFromGpoResponse(gpoRequestResponse), aflBytes);
+                        }
+
+                        if (tlvOffsets[2] >= 0 && track2Parser.parseTrack2(gpoRequestResponse, tlvOffsets[2], tlvLengths[2]) == Track2Parser.OK) {
+                            String pan = track2Parser.panToString();
+                            String expDate = track2Parser.expirationDateToString();
+                            track2Parser.wipe();
+                            if (!cardRed) setPanAndExpirationDate(pan, expDate, CardReadResult.Source.GPO_RESPONSE);
+
+                            writeToUiAppend("PAN: " + pan);
+                            emitText(DecodeEvent.Type.PAN_FOUND, pan);
+                            String expirationDateString = "Expiration date (" + (expDate.length() == 4 ? "YYMM): " : "YYMMDD): ") + expDate;
+                            emitText(DecodeEvent.Type.EXPIRY_FOUND, expDate);
+                            cardRed = true;
+                            writeToUiAppend(expirationDateString);
+
+                        }
+
+
+
+                        // all records of the AFL in one plan, records read for a previous application are left out
+                        phaseStart = System.nanoTime();
+                        CardScheme scheme = CardScheme.fromAid(aidSelected);
+                        AflReadPlanner.ReadPlan readPlan = aflReadPlanner.plan(scheme, aflBytes);
+                        duplicateRecordsSkipped += readPlan.getDuplicates();
+                        // a full dump reads every record, so the plan goes to the transport as one unit
+                        // (unless the GPO response already showed a duplicate)
+                        byte[][] readRecordResponses = readPolicy == ReadPolicy.FULL_DUMP && !duplicate
+                                ? transceiveAll(nfc, commands.readRecords(readPlan)) : null;
+                        List<CardReadResult.RecordRead> recordReads = new ArrayList<>(readPlan.size());
+
+                        for (int p = 0; p < readPlan.size() && !isReadComplete(); p++) {
+                            int sfi = readPlan.getSfi(p);
+                            int iRecord = readPlan.getRecord(p);
+                            // a record is either one of the pipelined responses or a view into responseBuffer
+                            byte[] readRecordResponse;
+                            int readRecordLength;
+                            if (readRecordResponses != null) {
+                                readRecordResponse = readRecordResponses[p];
+                                readRecordLength = readRecordResponse != null ? readRecordResponse.length : -1;
+                            } else {
+                                readRecordLength = transceiveIntoBuffer(nfc, commands.readRecord(sfi, iRecord));
+                                readRecordResponse = responseBuffer;
+                            }
+                            if (odaSession != null) odaSession.addRecord(sfi, iRecord, readRecordResponse, readRecordLength);
+                            if (readRecordResponse != null) {
+                                recordReads.add(CardReadResult.RecordRead.of(sfi, iRecord, CardReadResult.statusWord(readRecordResponse, readRecordLength)));
+                                if (isSubscribed(DecodeEvent.Type.RECORD_READ)) {
+                                    // the listener gets its own copy of a view into the buffer
+                                    emit(DecodeEvent.record(sfi, iRecord, readRecordResponse == responseBuffer
+                                            ? Arrays.copyOf(responseBuffer, readRecordLength) : readRecordResponse));
+                                }
+                            }
+                            if (readRecordResponse != null) {
+
+
+                                // checking for PAN and Expiration Date
+                                int recordTlvStatus = scanResponse(readRecordResponse, readRecordLength, RECORD_TAGS);
+                                if (recordTlvStatus == TlvCursor.OK) {
+                                    boolean recordHasPan = tlvOffsets[0] >= 0
+                                            && track2Parser.parsePan(readRecordResponse, tlvOffsets[0], tlvLengths[0]) == Track2Parser.OK;
+                                    boolean recordHasExpirationDate = tlvOffsets[1] >= 0
+                                            && track2Parser.parseExpirationDate(readRecordResponse, tlvOffsets[1], tlvLengths[1]) == Track2Parser.OK;
+                                    if (recordHasPan && cardRed == false) {
+                                        String readRecordPanString = track2Parser.panToString();
+                                        String readRecordExpirationDateString = track2Parser.expirationDateToString();
+                                        setPanAndExpirationDate(readRecordPanString, readRecordExpirationDateString, CardReadResult.Source.record(sfi, iRecord));
+                                        aflReadPlanner.recordPanLocation(scheme, sfi, iRecord);
+                                        writeToUiAppend("PAN: " + readRecordPanString);
+                                        emitText(DecodeEvent.Type.PAN_FOUND, readRecordPanString);
+                                        String expirationDateString = "Expiration date (" + (readRecordExpirationDateString.length() == 4 ? "YYMM): " : "YYMMDD): ") + readRecordExpirationDateString;
+                                        emitText(DecodeEvent.Type.EXPIRY_FOUND, readRecordExpirationDateString);
+                                        writeToUiAppend(expirationDateString);
+                                        cardRed = true;
+                                    } else if (recordHasExpirationDate && cardRed && expirationDate == null) {
+                                        // the PAN record had no expiration date
+                                        String readRecordExpirationDateString = track2Parser.expirationDateToString();
+                                        expirationDate = readRecordExpirationDateString;
+                                        expirationDateSource = CardReadResult.Source.record(sfi, iRecord);
+                                        emitText(DecodeEvent.Type.EXPIRY_FOUND, readRecordExpirationDateString);
+                                        writeToUiAppend("Expiration date (" + (readRecordExpirationDateString.length() == 4 ? "YYMM): " : "YYMMDD): ") + readRecordExpirationDateString);
+                                    }
+                                    track2Parser.wipe();
+                                } else {
+                                    // a malformed record is skipped
+                                    writeErrorToUiAppend("Malformed record SFI " + sfi + " record " + iRecord + ": " + TlvCursor.statusName(recordTlvStatus));
+                                }
+
+                            } else {
+                                writeErrorToUiAppend("Card reading error");
+                            }
+                        }
+                        recordPhase(ReaderMetrics.Phase.READ_RECORD, phaseStart);
+                        // the records of the plan the read policy did not need
+                        policyApdusSaved += Math.max(0, readPlan.size() - recordReads.size());
+
+                        /**
+                         * step 6 code end
+                         */
+                        if (odaSession != null) {
+                            // a duplicate stopped reading, there is nothing to authenticate
+                            if (!duplicate) authenticateOfflineData(nfc, odaSession);
+                            odaSession = null;
+                        }
+                        applications.add(new CardReadResult.Application(aidSelected, applicationLabel, pdolValue, aflBytes,
+                                selectAidStatusWord, gpoStatusWord, recordReads));
+
+                    } else { // if (selectAidResponseOk != null) {
+                        recordPhase(ReaderMetrics.Phase.SELECT_AID, phaseStart);
+                        writeErrorToUiAppend("Card reading error");
+                        applications.add(new CardReadResult.Application(aidSelected, null, null, null,
+                                selectAidStatusWord, 0, Collections.<CardReadResult.RecordRead>emptyList()));
+                    }
+
+
+                }
+
+                // what the read policy saved compared to a full read, the records of each plan
+                // are counted above
+                policyApdusSaved += 2 * (aidList.size() - aidsRead);
+                if (readPolicy != ReadPolicy.FULL_DUMP) {
+                    writeToUiAppend("Read policy (" + readPolicy + ") saved " + policyApdusSaved + " APDUs, about "
+                            + String.format(java.util.Locale.US, "%.1f", getPolicyMillisSaved()) + " ms");
+                }
+
+                // remember the layout of this card product for the next tap
+                // (not from a duplicate, its sequence stopped early)
+                if (isWarmTapEnabled() && cardRed && !duplicate && panApplicationIndex >= 0 && panApplicationIndex < applications.size()) {
+                    CardReadResult.Application panApplication = applications.get(panApplicationIndex);
+                    warmTapCache.put(ppseFingerprint, new WarmTapCache.CardProfile(panApplication.getAid(),
+                            panSelectAidFingerprint, panApplication.getAfl(), panSource, apduCount));
+                }
+
+            } else {
+                writeErrorToUiAppend("Card reading error");
+            }
+
+        } catch (IOException e) {
+            connectionFailed = true;
+            writeErrorToUiAppend("Connection with card failure");
+            writeErrorToUiAppend(e.getMessage());
+            // throw new RuntimeException(e);
+            return;
+        }
+    }
+}
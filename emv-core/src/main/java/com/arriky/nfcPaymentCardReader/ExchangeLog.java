@@ -0,0 +1,74 @@
+package com.arriky.nfcPaymentCardReader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The commands and responses of a session, copied back to back into one growing byte array.
+ * The commands come from the reused buffers of the ApduCommandFactory and the responses may be
+ * views into a reused response buffer, so they have to be copied; the arrays only grow until the
+ * longest session was seen, after that logging an exchange allocates nothing.
+ *
+ * toExchanges creates the ApduExchange objects when the SessionReport is asked for.
+ */
+final class ExchangeLog {
+
+    private static final int INITIAL_BYTES = 4096;
+    private static final int INITIAL_EXCHANGES = 32;
+    // the response length of an exchange without response
+    private static final int NO_RESPONSE = -1;
+
+    private byte[] data = new byte[INITIAL_BYTES];
+    private int size = 0;
+    // per exchange: offset of the command, length of the command, length of the response (follows the command)
+    private int[] entries = new int[3 * INITIAL_EXCHANGES];
+    private int count = 0;
+
+    /**
+     * @param command
+     * @param response       null if the card did not answer
+     * @param responseLength the bytes of the response that belong to it
+     */
+    void add(byte[] command, byte[] response, int responseLength) {
+        if (response == null) responseLength = NO_RESPONSE;
+        int bytes = command.length + Math.max(0, responseLength);
+        if (size + bytes > data.length) data = Arrays.copyOf(data, Math.max(2 * data.length, size + bytes));
+        if (3 * count + 3 > entries.length) entries = Arrays.copyOf(entries, 2 * entries.length);
+        entries[3 * count] = size;
+        entries[3 * count + 1] = command.length;
+        entries[3 * count + 2] = responseLength;
+        count++;
+        System.arraycopy(command, 0, data, size, command.length);
+        size += command.length;
+        if (responseLength > 0) {
+            System.arraycopy(response, 0, data, size, responseLength);
+            size += responseLength;
+        }
+    }
+
+    void add(byte[] command, byte[] response) {
+        add(command, response, response != null ? response.length : NO_RESPONSE);
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * @return copies of the exchanges in the order they were logged
+     */
+    List<ApduExchange> toExchanges() {
+        List<ApduExchange> exchanges = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int offset = entries[3 * i];
+            int commandLength = entries[3 * i + 1];
+            int responseLength = entries[3 * i + 2];
+            byte[] command = Arrays.copyOfRange(data, offset, offset + commandLength);
+            byte[] response = responseLength == NO_RESPONSE ? null
+                    : Arrays.copyOfRange(data, offset + commandLength, offset + commandLength + responseLength);
+            exchanges.add(new ApduExchange(command, response));
+        }
+        return exchanges;
+    }
+}
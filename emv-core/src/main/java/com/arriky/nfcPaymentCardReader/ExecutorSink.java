@@ -0,0 +1,60 @@
+package com.arriky.nfcPaymentCardReader;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Hands the batches to a sink that has to run on another thread, e.g. a sink that updates the
+ * views and runs on the UI thread (Activity::runOnUiThread). The pipeline does not wait for
+ * the target, so its lag ends with the hand-over and the target's errors are only counted here.
+ */
+public class ExecutorSink implements ResultSink {
+
+    private final Executor executor;
+    private final ResultSink target;
+    private volatile long errors = 0;
+
+    /**
+     * @param executor runs the target's writes one after the other
+     * @param target
+     */
+    public ExecutorSink(@NonNull Executor executor, @NonNull ResultSink target) {
+        this.executor = executor;
+        this.target = target;
+    }
+
+    @Override
+    public void write(List<TapResult> batch) {
+        // the pipeline reuses the list of the batch
+        final List<TapResult> copy = new ArrayList<>(batch);
+        executor.execute(() -> {
+            try {
+                target.write(copy);
+            } catch (IOException e) {
+                errors++;
+            }
+        });
+    }
+
+    /**
+     * @return the batches the target failed to write
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    @Override
+    public void close() {
+        executor.execute(() -> {
+            try {
+                target.close();
+            } catch (IOException e) {
+                errors++;
+            }
+        });
+    }
+}
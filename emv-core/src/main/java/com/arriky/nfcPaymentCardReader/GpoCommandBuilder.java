@@ -0,0 +1,266 @@
+package com.arriky.nfcPaymentCardReader;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builds the GET PROCESSING OPTIONS command directly as bytes.
+ *
+ * The layout of a PDOL (tags, lengths and the offset of each value in the command) is parsed
+ * once and cached by the raw 9F38 bytes, together with a complete command that holds the
+ * default values from the DolRegistry. A card with a known PDOL gets its command as a copy of that
+ * template, only the per-transaction fields (e.g. the Terminal Transaction Qualifiers) are
+ * patched in.
+ *
+ * The cache is shared by all taps and bounded to MAX_CACHED_PDOLS entries.
+ *
+ * The PDOL comes from the card: a PDOL whose values need more than MAX_PDOL_VALUES bytes does
+ * not fit into the Lc of a short APDU, its layout is invalid and no command is built from it.
+ */
+public class GpoCommandBuilder {
+
+    private static final int MAX_CACHED_PDOLS = 64;
+    private static final byte DEFAULT_TTQ = (byte) 0x00;
+    // Lc = 83, the length in the form 81 xx and the values, at most 255
+    static final int MAX_PDOL_VALUES = 252;
+
+    private static final Map<ByteBuffer, PdolLayout> PDOL_CACHE = new LinkedHashMap<ByteBuffer, PdolLayout>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, PdolLayout> eldest) {
+            return size() > MAX_CACHED_PDOLS;
+        }
+    };
+
+    /**
+     * the parsed layout of a PDOL and the GPO command filled with the default values, the
+     * layout of an invalid PDOL has the tags and lengths but no command
+     */
+    public static final class PdolLayout {
+        private final int[] tags;
+        private final int[] valueOffsets;
+        private final int[] valueLengths;
+        private final byte[] template;
+
+        private PdolLayout(int[] tags, int[] valueOffsets, int[] valueLengths, byte[] template) {
+            this.tags = tags;
+            this.valueOffsets = valueOffsets;
+            this.valueLengths = valueLengths;
+            this.template = template;
+        }
+
+        public int getTagCount() {
+            return tags.length;
+        }
+
+        public int getTag(int index) {
+            return tags[index];
+        }
+
+        public int getValueLength(int index) {
+            return valueLengths[index];
+        }
+
+        /**
+         * @return false if the values do not fit into a GET PROCESSING OPTIONS command
+         */
+        public boolean isValid() {
+            return template != null;
+        }
+
+        /**
+         * offset of the value of a tag in the GPO command
+         *
+         * @param tag packed tag, see PackedTag
+         * @return the offset or -1 if the card did not request the tag or the layout is invalid
+         */
+        public int getValueOffset(int tag) {
+            if (template == null) return -1;
+            for (int i = 0; i < tags.length; i++) {
+                if (tags[i] == tag) return valueOffsets[i];
+            }
+            return -1;
+        }
+
+        /**
+         * the length of the complete GPO command
+         *
+         * @return the length or 0 if the layout is invalid
+         */
+        public int getCommandLength() {
+            return template != null ? template.length : 0;
+        }
+
+        /**
+         * copies the command with the default values into the target
+         *
+         * @param target
+         * @param offset
+         * @return the number of bytes written
+         * @throws IllegalStateException if the layout is invalid
+         */
+        public int copyTemplate(byte[] target, int offset) {
+            if (template == null) throw new IllegalStateException("the values of the PDOL need more than " + MAX_PDOL_VALUES + " bytes");
+            System.arraycopy(template, 0, target, offset, template.length);
+            return template.length;
+        }
+
+        /**
+         * writes a value for a tag into a command built from this layout
+         * the value is cut or padded with zeroes to the requested length
+         *
+         * @param command
+         * @param commandOffset
+         * @param tag packed tag, see PackedTag
+         * @param value
+         * @return false if the card did not request the tag or the layout is invalid
+         */
+        public boolean patch(byte[] command, int commandOffset, int tag, byte[] value) {
+            if (template == null) return false;
+            for (int i = 0; i < tags.length; i++) {
+                if (tags[i] == tag) {
+                    writeValue(value, command, commandOffset + valueOffsets[i], valueLengths[i]);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * same as patch but takes the value from the DolRegistry without copying it
+         *
+         * @param command
+         * @param commandOffset
+         * @param tag packed tag, see PackedTag
+         * @param value
+         * @return false if the card did not request the tag or the layout is invalid
+         */
+        public boolean patch(byte[] command, int commandOffset, int tag, DolRegistry.Entry value) {
+            if (template == null) return false;
+            for (int i = 0; i < tags.length; i++) {
+                if (tags[i] == tag) {
+                    value.copyTo(command, commandOffset + valueOffsets[i], valueLengths[i]);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * builds the GET PROCESSING OPTIONS command for a PDOL
+     *
+     * @param pdol the value of tag 9F38, an empty array if the card has no PDOL
+     * @param alternativeTtq 00 = default, maximum 03, see DolValues
+     * @return the complete command
+     * @throws IllegalStateException if the PDOL is invalid, see PdolLayout.isValid
+     */
+    public byte[] build(@NonNull byte[] pdol, byte[] alternativeTtq) {
+        PdolLayout layout = getLayout(pdol);
+        byte[] command = new byte[layout.getCommandLength()];
+        build(layout, alternativeTtq != null && alternativeTtq.length > 0 ? alternativeTtq[0] : DEFAULT_TTQ, command, 0);
+        return command;
+    }
+
+    /**
+     * writes the GET PROCESSING OPTIONS command of a layout into a buffer of the caller
+     *
+     * @param layout
+     * @param alternativeTtq 00 = default, maximum 03, see DolValues
+     * @param target         needs room for layout.getCommandLength() bytes
+     * @param offset
+     * @return the number of bytes written
+     * @throws IllegalStateException if the layout is invalid
+     */
+    public int build(@NonNull PdolLayout layout, byte alternativeTtq, byte[] target, int offset) {
+        int length = layout.copyTemplate(target, offset);
+        if (alternativeTtq != DEFAULT_TTQ) {
+            DolRegistry.Entry ttq = DolRegistry.getInstance().get(DolRegistry.TAG_TTQ, alternativeTtq);
+            if (ttq != null) layout.patch(target, offset, DolRegistry.TAG_TTQ, ttq);
+        }
+        return length;
+    }
+
+    /**
+     * returns the cached layout of a PDOL, the PDOL is parsed on first use
+     *
+     * @param pdol
+     * @return
+     */
+    public PdolLayout getLayout(@NonNull byte[] pdol) {
+        ByteBuffer key = ByteBuffer.wrap(pdol);
+        synchronized (PDOL_CACHE) {
+            PdolLayout layout = PDOL_CACHE.get(key);
+            if (layout != null) return layout;
+        }
+        PdolLayout layout = parse(pdol);
+        synchronized (PDOL_CACHE) {
+            // the key needs its own copy, the caller may reuse the pdol array
+            PDOL_CACHE.put(ByteBuffer.wrap(pdol.clone()), layout);
+        }
+        return layout;
+    }
+
+    /**
+     * a DOL is a list of tags and lengths without values, e.g. 9F6604 9F0206 ...
+     * an incomplete last entry is ignored
+     */
+    private static PdolLayout parse(byte[] pdol) {
+        int count = 0;
+        int pos = 0;
+        while (pos < pdol.length) {
+            int tagLength = PackedTag.tagLength(pdol, pos, pdol.length);
+            if (tagLength < 0 || pos + tagLength >= pdol.length) break;
+            pos += tagLength + 1;
+            count++;
+        }
+        int[] tags = new int[count];
+        int[] lengths = new int[count];
+        int valueSum = 0;
+        pos = 0;
+        for (int i = 0; i < count; i++) {
+            int tagLength = PackedTag.tagLength(pdol, pos, pdol.length);
+            tags[i] = PackedTag.pack(pdol, pos, tagLength);
+            pos += tagLength;
+            lengths[i] = pdol[pos++] & 0xFF;
+            valueSum += lengths[i];
+        }
+        if (valueSum > MAX_PDOL_VALUES) return new PdolLayout(tags, new int[count], lengths, null);
+
+        // 80 A8 00 00 Lc 83 length values 00
+        int lengthFieldSize = valueSum > 127 ? 2 : 1;
+        int lc = 1 + lengthFieldSize + valueSum;
+        byte[] template = new byte[5 + lc + 1];
+        template[0] = (byte) 0x80;  // CLA
+        template[1] = (byte) 0xA8;  // INS
+        template[2] = (byte) 0x00;  // P1
+        template[3] = (byte) 0x00;  // P2
+        template[4] = (byte) lc;    // Lc
+        template[5] = (byte) 0x83;  // Command Template
+        int offset = 6;
+        if (lengthFieldSize == 2) template[offset++] = (byte) 0x81;
+        template[offset++] = (byte) valueSum;
+
+        DolRegistry registry = DolRegistry.getInstance();
+        int[] offsets = new int[count];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = offset;
+            // a tag without default value stays zeroed
+            DolRegistry.Entry defaultValue = registry.get(tags[i], DEFAULT_TTQ);
+            if (defaultValue != null) defaultValue.copyTo(template, offset, lengths[i]);
+            offset += lengths[i];
+        }
+        template[offset] = (byte) 0x00;  // Le
+        return new PdolLayout(tags, offsets, lengths, template);
+    }
+
+    private static void writeValue(byte[] value, byte[] target, int offset, int length) {
+        int copy = Math.min(value.length, length);
+        System.arraycopy(value, 0, target, offset, copy);
+        for (int i = copy; i < length; i++) {
+            target[offset + i] = 0;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.arriky.nfcPaymentCardReader;
+
+/**
+ * Table driven hex encoding and decoding.
+ *
+ * All methods that take a target (char[], byte[] or StringBuilder) write directly into it and
+ * do not create temporary objects, so they can be used on the hot path of a tap. The encoded
+ * form is lower case like the one of EmvDecoder.bytesToHexNpe, decoding accepts both cases.
+ */
+public final class HexCodec {
+
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+    // high and low character of every byte value, index = (b & 0xff) * 2
+    private static final char[] BYTE_TO_HEX = new char[512];
+    // value of a hex character or -1, index = character
+    private static final byte[] HEX_TO_NIBBLE = new byte[128];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            BYTE_TO_HEX[i * 2] = DIGITS[i >>> 4];
+            BYTE_TO_HEX[i * 2 + 1] = DIGITS[i & 0x0F];
+        }
+        java.util.Arrays.fill(HEX_TO_NIBBLE, (byte) -1);
+        for (int i = 0; i < 10; i++) {
+            HEX_TO_NIBBLE['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            HEX_TO_NIBBLE['a' + i] = (byte) (10 + i);
+            HEX_TO_NIBBLE['A' + i] = (byte) (10 + i);
+        }
+    }
+
+    private HexCodec() {
+    }
+
+    /**
+     * writes len bytes of src as 2 * len hex characters into dst
+     *
+     * @param src
+     * @param srcOffset
+     * @param len
+     * @param dst
+     * @param dstOffset
+     * @return the number of characters written
+     */
+    public static int encode(byte[] src, int srcOffset, int len, char[] dst, int dstOffset) {
+        int d = dstOffset;
+        for (int i = srcOffset, end = srcOffset + len; i < end; i++) {
+            int index = (src[i] & 0xFF) << 1;
+            dst[d++] = BYTE_TO_HEX[index];
+            dst[d++] = BYTE_TO_HEX[index + 1];
+        }
+        return d - dstOffset;
+    }
+
+    /**
+     * appends len bytes of src as hex characters to the StringBuilder
+     *
+     * @param src
+     * @param srcOffset
+     * @param len
+     * @param sb
+     * @return sb
+     */
+    public static StringBuilder encode(byte[] src, int srcOffset, int len, StringBuilder sb) {
+        sb.ensureCapacity(sb.length() + 2 * len);
+        for (int i = srcOffset, end = srcOffset + len; i < end; i++) {
+            int index = (src[i] & 0xFF) << 1;
+            sb.append(BYTE_TO_HEX[index]).append(BYTE_TO_HEX[index + 1]);
+        }
+        return sb;
+    }
+
+    /**
+     * appends len bytes of src as hex characters with a blank after each value to the StringBuilder
+     *
+     * @param src
+     * @param srcOffset
+     * @param len
+     * @param sb
+     * @return sb
+     */
+    public static StringBuilder encodeBlank(byte[] src, int srcOffset, int len, StringBuilder sb) {
+        sb.ensureCapacity(sb.length() + 3 * len);
+        for (int i = srcOffset, end = srcOffset + len; i < end; i++) {
+            int index = (src[i] & 0xFF) << 1;
+            sb.append(BYTE_TO_HEX[index]).append(BYTE_TO_HEX[index + 1]).append(' ');
+        }
+        return sb;
+    }
+
+    /**
+     * converts a byte array to a hex encoded string
+     * This method is Null Pointer Exception (NPE) safe
+     *
+     * @param bytes
+     * @return hex encoded string
+     */
+    public static String toHex(byte[] bytes) {
+        if (bytes == null) return "";
+        char[] chars = new char[bytes.length * 2];
+        encode(bytes, 0, bytes.length, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * converts a byte array to a hex encoded string with a blank after each value
+     * This method is Null Pointer Exception (NPE) safe
+     *
+     * @param bytes
+     * @return hex encoded string
+     */
+    public static String toHexBlank(byte[] bytes) {
+        if (bytes == null) return "";
+        char[] chars = new char[bytes.length * 3];
+        int d = 0;
+        for (byte b : bytes) {
+            int index = (b & 0xFF) << 1;
+            chars[d++] = BYTE_TO_HEX[index];
+            chars[d++] = BYTE_TO_HEX[index + 1];
+            chars[d++] = ' ';
+        }
+        return new String(chars);
+    }
+
+    /**
+     * decodes len hex characters of src into len / 2 bytes of dst
+     * a trailing odd character is ignored like in EmvDecoder.hexToBytes
+     *
+     * @param src
+     * @param srcOffset
+     * @param len
+     * @param dst
+     * @param dstOffset
+     * @return the number of bytes written
+     * @throws NumberFormatException if a character is no hex digit
+     */
+    public static int decode(CharSequence src, int srcOffset, int len, byte[] dst, int dstOffset) {
+        int count = len / 2;
+        int s = srcOffset;
+        for (int i = 0; i < count; i++) {
+            int high = nibble(src.charAt(s++));
+            int low = nibble(src.charAt(s++));
+            dst[dstOffset + i] = (byte) ((high << 4) | low);
+        }
+        return count;
+    }
+
+    /**
+     * decodes hex characters of src that may be separated by blanks into dst
+     *
+     * @param src
+     * @param srcOffset
+     * @param len
+     * @param dst
+     * @param dstOffset
+     * @return the number of bytes written
+     * @throws NumberFormatException if a character is no hex digit or blank
+     */
+    public static int decodeBlank(CharSequence src, int srcOffset, int len, byte[] dst, int dstOffset) {
+        int d = dstOffset;
+        int high = -1;
+        for (int s = srcOffset, end = srcOffset + len; s < end; s++) {
+            char c = src.charAt(s);
+            if (c == ' ') continue;
+            int value = nibble(c);
+            if (high < 0) {
+                high = value;
+            } else {
+                dst[d++] = (byte) ((high << 4) | value);
+                high = -1;
+            }
+        }
+        return d - dstOffset;
+    }
+
+    /**
+     * converts a hex encoded string to a byte array
+     *
+     * @param str
+     * @return
+     */
+    public static byte[] fromHex(CharSequence str) {
+        byte[] bytes = new byte[str.length() / 2];
+        decode(str, 0, str.length(), bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * converts a hex encoded string with blanks between the values to a byte array
+     *
+     * @param str
+     * @return
+     */
+    public static byte[] fromHexBlank(CharSequence str) {
+        int digits = 0;
+        for (int i = 0; i < str.length(); i++) {
+            if (str.charAt(i) != ' ') digits++;
+        }
+        byte[] bytes = new byte[digits / 2];
+        decodeBlank(str, 0, str.length(), bytes, 0);
+        return bytes;
+    }
+
+    private static int nibble(char c) {
+        int value = c < 128 ? HEX_TO_NIBBLE[c] : -1;
+        if (value < 0) {
+            throw new NumberFormatException("invalid hex character: " + c);
+        }
+        return value;
+    }
+}
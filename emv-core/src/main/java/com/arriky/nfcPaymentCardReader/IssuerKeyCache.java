@@ -0,0 +1,164 @@
+package com.arriky.nfcPaymentCardReader;
+
+import androidx.annotation.NonNull;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the issuer public keys recovered from issuer certificates (tag 90), so the RSA
+ * recovery with the CA key and the certificate checks run once per issuer and not on every tap:
+ * all cards of an issuer carry the same certificate.
+ *
+ * The key is a SHA-256 hash over the CA key (RID and index), the certificate, the remainder
+ * (tag 92) and the exponent (tag 9F32), so only the very same certificate finds a key. Only
+ * keys whose certificate passed all checks are stored, the checks that depend on the card (the
+ * issuer identifier against the PAN, the expiry against the date) are repeated on every tap.
+ * The cache is bounded (least recently used entries are removed) and can be shared by all taps.
+ */
+public final class IssuerKeyCache {
+
+    public static final int DEFAULT_CAPACITY = 64;
+
+    /**
+     * a recovered issuer public key and the data of its certificate
+     */
+    public static final class IssuerKey {
+        private final BigInteger modulus;
+        private final BigInteger exponent;
+        private final int modulusLength;
+        private final byte[] issuerIdentifier;
+        private final byte[] expirationDate;
+
+        IssuerKey(BigInteger modulus, BigInteger exponent, int modulusLength, byte[] issuerIdentifier, byte[] expirationDate) {
+            this.modulus = modulus;
+            this.exponent = exponent;
+            this.modulusLength = modulusLength;
+            this.issuerIdentifier = issuerIdentifier;
+            this.expirationDate = expirationDate;
+        }
+
+        public BigInteger getModulus() {
+            return modulus;
+        }
+
+        public BigInteger getExponent() {
+            return exponent;
+        }
+
+        /**
+         * @return the length of the modulus in bytes, the length of the certificates it signs
+         */
+        public int getModulusLength() {
+            return modulusLength;
+        }
+
+        /**
+         * @return the leftmost 3..8 digits of the PAN, padded with F, 4 bytes
+         */
+        public byte[] getIssuerIdentifier() {
+            return issuerIdentifier.clone();
+        }
+
+        /**
+         * @return MMYY of the certificate, 2 bytes BCD
+         */
+        public byte[] getExpirationDate() {
+            return expirationDate.clone();
+        }
+    }
+
+    private final Map<ByteBuffer, IssuerKey> keys;
+    private long hits = 0;
+    private long misses = 0;
+
+    public IssuerKeyCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the maximum number of issuer keys
+     */
+    public IssuerKeyCache(final int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.keys = new LinkedHashMap<ByteBuffer, IssuerKey>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, IssuerKey> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @param caKey       the key the certificate is signed with
+     * @param certificate tag 90
+     * @param remainder   tag 92, an empty array if the card has none
+     * @param exponent    tag 9F32
+     * @return the key of the certificate in the cache
+     */
+    public static byte[] certificateHash(@NonNull CaPublicKeyTable.Key caKey, @NonNull byte[] certificate,
+                                         @NonNull byte[] remainder, @NonNull byte[] exponent) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+        digest.update(caKey.getRid());
+        digest.update((byte) caKey.getIndex());
+        update(digest, certificate);
+        update(digest, remainder);
+        update(digest, exponent);
+        return digest.digest();
+    }
+
+    // with the length, so the boundaries between the fields are part of the hash
+    private static void update(MessageDigest digest, byte[] value) {
+        digest.update((byte) (value.length >>> 8));
+        digest.update((byte) value.length);
+        digest.update(value);
+    }
+
+    /**
+     * @param certificateHash see certificateHash
+     * @return the key or null if the certificate was not seen or was evicted
+     */
+    public synchronized IssuerKey get(@NonNull byte[] certificateHash) {
+        IssuerKey key = keys.get(ByteBuffer.wrap(certificateHash));
+        if (key != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return key;
+    }
+
+    /**
+     * @param certificateHash see certificateHash
+     * @param key             recovered from a certificate that passed all checks
+     */
+    public synchronized void put(@NonNull byte[] certificateHash, @NonNull IssuerKey key) {
+        keys.put(ByteBuffer.wrap(certificateHash.clone()), key);
+    }
+
+    public synchronized void clear() {
+        keys.clear();
+    }
+
+    public synchronized int size() {
+        return keys.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,51 @@
+package com.arriky.nfcPaymentCardReader;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Exports the taps as JSON lines (one object per tap, see TapResult.appendJson) to a stream,
+ * e.g. a file another process tails or the stdin of an importer. A batch is encoded into one
+ * buffer and written with a single write and flush.
+ */
+public class JsonLinesSink implements ResultSink {
+
+    private final OutputStream out;
+    private final StringBuilder lines = new StringBuilder(4096);
+
+    /**
+     * @param out closed with the sink
+     */
+    public JsonLinesSink(@NonNull OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(List<TapResult> batch) throws IOException {
+        out.write(encode(batch, lines));
+        out.flush();
+    }
+
+    /**
+     * @param batch
+     * @param lines a reusable buffer
+     * @return the taps as UTF-8 JSON lines
+     */
+    static byte[] encode(List<TapResult> batch, StringBuilder lines) {
+        lines.setLength(0);
+        for (TapResult result : batch) {
+            result.appendJson(lines);
+            lines.append('\n');
+        }
+        return lines.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
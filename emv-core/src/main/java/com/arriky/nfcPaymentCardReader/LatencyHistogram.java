@@ -0,0 +1,113 @@
+package com.arriky.nfcPaymentCardReader;
+
+/**
+ * A latency histogram with fixed buckets from 100 microseconds to 1 second, recording needs no
+ * lock and no allocation.
+ *
+ * Percentiles are estimated with the upper bound of the bucket they fall into, good enough to
+ * see which phase of a tap is slow.
+ */
+public final class LatencyHistogram {
+
+    // upper bounds of the buckets in microseconds, the last bucket holds everything above 1 s
+    private static final long[] BOUNDS_MICROS = {
+            100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 500_000, 1_000_000
+    };
+
+    private final StripedCounter[] buckets = new StripedCounter[BOUNDS_MICROS.length + 1];
+    private final StripedCounter sumMicros = new StripedCounter();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new StripedCounter();
+        }
+    }
+
+    /**
+     * @return the upper bounds of the buckets in microseconds (without the overflow bucket)
+     */
+    public static long[] getBoundsMicros() {
+        return BOUNDS_MICROS.clone();
+    }
+
+    /**
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = nanos / 1_000;
+        int bucket = 0;
+        while (bucket < BOUNDS_MICROS.length && micros > BOUNDS_MICROS[bucket]) bucket++;
+        buckets[bucket].increment();
+        sumMicros.add(micros);
+    }
+
+    /**
+     * @return the number of recorded durations in each bucket
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (StripedCounter bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    public long getSumMicros() {
+        return sumMicros.sum();
+    }
+
+    /**
+     * @param counts   bucket counts as returned by getBucketCounts
+     * @param quantile e.g. 0.99
+     * @return the upper bound of the bucket holding the quantile, -1 for the overflow bucket
+     * and 0 if nothing was recorded
+     */
+    public static long percentileMicros(long[] counts, double quantile) {
+        long total = 0;
+        for (long count : counts) total += count;
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(total * quantile);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return i < BOUNDS_MICROS.length ? BOUNDS_MICROS[i] : -1;
+        }
+        return -1;
+    }
+
+    /**
+     * appends the histogram as a JSON object
+     *
+     * @param json
+     */
+    void appendJson(StringBuilder json) {
+        long[] counts = getBucketCounts();
+        long count = 0;
+        for (long c : counts) count += c;
+        json.append("{\"count\":").append(count)
+                .append(",\"sumMicros\":").append(getSumMicros())
+                .append(",\"p50Micros\":").append(percentileMicros(counts, 0.5))
+                .append(",\"p99Micros\":").append(percentileMicros(counts, 0.99))
+                .append(",\"buckets\":[");
+        for (int i = 0; i < counts.length; i++) {
+            if (i > 0) json.append(',');
+            json.append(counts[i]);
+        }
+        json.append("]}");
+    }
+
+    public void reset() {
+        for (StripedCounter bucket : buckets) {
+            bucket.reset();
+        }
+        sumMicros.reset();
+    }
+}
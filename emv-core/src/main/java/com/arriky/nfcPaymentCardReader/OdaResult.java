@@ -0,0 +1,73 @@
+package com.arriky.nfcPaymentCardReader;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * The outcome of the offline data authentication of an application, see OfflineDataAuthenticator.
+ */
+public final class OdaResult {
+
+    /**
+     * the method of EMV Book 2 the card was authenticated with, chosen by the Application
+     * Interchange Profile (tag 82)
+     */
+    public enum Method {
+        NONE, SDA, DDA, CDA
+    }
+
+    public enum Status {
+        // the card supports no method or the data for it is missing
+        NOT_PERFORMED,
+        PASSED,
+        FAILED
+    }
+
+    private final Method method;
+    private final Status status;
+    private final String reason;
+
+    private OdaResult(Method method, Status status, String reason) {
+        this.method = method;
+        this.status = status;
+        this.reason = reason;
+    }
+
+    static OdaResult passed(@NonNull Method method, String note) {
+        return new OdaResult(method, Status.PASSED, note);
+    }
+
+    static OdaResult failed(@NonNull Method method, @NonNull String reason) {
+        return new OdaResult(method, Status.FAILED, reason);
+    }
+
+    static OdaResult notPerformed(@NonNull Method method, @NonNull String reason) {
+        return new OdaResult(method, Status.NOT_PERFORMED, reason);
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isPassed() {
+        return status == Status.PASSED;
+    }
+
+    /**
+     * @return why the authentication failed or was not performed, a note on a passed result, may be null
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    @Override
+    public String toString() {
+        String text = method + " " + status.name().toLowerCase(Locale.US).replace('_', ' ');
+        return reason != null ? text + ": " + reason : text;
+    }
+}
@@ -0,0 +1,197 @@
+package com.arriky.nfcPaymentCardReader;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * What the offline data authentication of one application needs from its records, collected
+ * by the EmvDecoder while it reads the AFL: the values of the certificate tags and the static
+ * data to be authenticated of the records the AFL marks for ODA (its fourth byte per entry).
+ * The certificates may be in any record, so the session is complete when every record of the
+ * AFL was read.
+ *
+ * The records may arrive in any order (see AflReadPlanner), the static data is put together in
+ * AFL order when it is asked for. Per EMV Book 3 a record of SFI 1..10 adds the value of its
+ * template 70, a record of SFI 11..30 the complete template. Responses are copied, they may be
+ * views into a reused buffer. A session belongs to one EmvDecoder and is not thread safe.
+ */
+final class OdaSession {
+
+    static final int TAG_CA_INDEX = 0;
+    static final int TAG_ISSUER_CERTIFICATE = 1;
+    static final int TAG_ISSUER_REMAINDER = 2;
+    static final int TAG_ISSUER_EXPONENT = 3;
+    static final int TAG_SIGNED_STATIC_DATA = 4;
+    static final int TAG_ICC_CERTIFICATE = 5;
+    static final int TAG_ICC_EXPONENT = 6;
+    static final int TAG_ICC_REMAINDER = 7;
+    static final int TAG_DDOL = 8;
+    static final int TAG_SDA_TAG_LIST = 9;
+    static final int TAG_PAN = 10;
+    // in the order of the indexes above
+    private static final int[] TAGS = {0x8F, 0x90, 0x92, 0x9F32, 0x93, 0x9F46, 0x9F47, 0x9F48, 0x9F49, 0x9F4A, 0x5A};
+    private static final int TEMPLATE_70 = 0x70;
+    private static final int MAX_TEMPLATE_SFI = 10;
+
+    private final byte[] aid;
+    private final byte[] aip;
+    // the records in AFL order, which are read and the static data of those marked for ODA
+    private final int[] sfis;
+    private final int[] records;
+    private final boolean[] oda;
+    private final boolean[] read;
+    private final byte[][] staticData;
+    private int missing;
+    private String failure = null;
+    private final byte[][] values = new byte[TAGS.length][];
+    private final TlvCursor cursor = new TlvCursor();
+    private final int[] offsets = new int[TAGS.length];
+    private final int[] lengths = new int[TAGS.length];
+    // the ICC key recovered for the dynamic signature
+    private BigInteger iccModulus = null;
+    private BigInteger iccExponent = null;
+    private int iccModulusLength = 0;
+
+    /**
+     * @param aid the AID of the application, its RID selects the CA key
+     * @param aip the Application Interchange Profile from the GPO response, null if the card sent none
+     * @param afl the Application File Locator, null if the card sent none
+     */
+    OdaSession(byte[] aid, byte[] aip, byte[] afl) {
+        this.aid = aid.clone();
+        this.aip = aip != null ? aip.clone() : null;
+        int count = 0;
+        for (int i = 0; afl != null && i + 3 < afl.length; i += 4) {
+            count += Math.max(0, (afl[i + 2] & 0xFF) - (afl[i + 1] & 0xFF) + 1);
+        }
+        sfis = new int[count];
+        records = new int[count];
+        oda = new boolean[count];
+        read = new boolean[count];
+        staticData = new byte[count][];
+        int n = 0;
+        for (int i = 0; afl != null && i + 3 < afl.length; i += 4) {
+            int sfi = (afl[i] & 0xFF) >>> 3;
+            int first = afl[i + 1] & 0xFF;
+            int last = afl[i + 2] & 0xFF;
+            for (int record = first; record <= last; record++) {
+                sfis[n] = sfi;
+                records[n] = record;
+                oda[n] = record - first < (afl[i + 3] & 0xFF);
+                n++;
+            }
+        }
+        missing = count;
+    }
+
+    /**
+     * notes the certificate tags of a record and keeps its static data if the record is
+     * marked for ODA
+     *
+     * @param sfi
+     * @param record
+     * @param response the response including the status word
+     * @param length   the length of the response, -1 if the card did not answer
+     */
+    void addRecord(int sfi, int record, byte[] response, int length) {
+        int index = indexOf(sfi, record);
+        if (index < 0 || read[index]) return;
+        read[index] = true;
+        missing--;
+        if (length < 2 || CardReadResult.statusWord(response, length) != 0x9000) {
+            if (oda[index] && failure == null) failure = "record " + record + " of SFI " + sfi + " not read";
+            return;
+        }
+        int dataLength = length - 2;
+        if (cursor.reset(response, 0, dataLength).scan(TAGS, offsets, lengths) == TlvCursor.OK) {
+            for (int i = 0; i < TAGS.length; i++) {
+                if (offsets[i] >= 0 && values[i] == null) {
+                    values[i] = Arrays.copyOfRange(response, offsets[i], offsets[i] + lengths[i]);
+                }
+            }
+        }
+        if (!oda[index]) return;
+        if (sfi <= MAX_TEMPLATE_SFI) {
+            if (!cursor.reset(response, 0, dataLength).next() || cursor.getTag() != TEMPLATE_70
+                    || cursor.getValueOffset() + cursor.getValueLength() != dataLength) {
+                if (failure == null) failure = "record " + record + " of SFI " + sfi + " is not a template 70";
+                return;
+            }
+            staticData[index] = Arrays.copyOfRange(response, cursor.getValueOffset(), dataLength);
+        } else {
+            staticData[index] = Arrays.copyOf(response, dataLength);
+        }
+    }
+
+    private int indexOf(int sfi, int record) {
+        for (int i = 0; i < sfis.length; i++) {
+            if (sfis[i] == sfi && records[i] == record) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if all records of the AFL were read or reading more can not help any more
+     */
+    boolean hasAllRecords() {
+        return missing == 0 || failure != null || OfflineDataAuthenticator.selectMethod(aip) == OdaResult.Method.NONE;
+    }
+
+    /**
+     * @return why the records do not allow an authentication, null if they do
+     */
+    String getRecordFailure() {
+        if (failure != null) return failure;
+        if (missing > 0) return missing + " records of the AFL not read";
+        return null;
+    }
+
+    /**
+     * @return the static data to be authenticated of the records in AFL order
+     */
+    byte[] getStaticData() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] data : staticData) {
+            if (data != null) out.write(data, 0, data.length);
+        }
+        return out.toByteArray();
+    }
+
+    byte[] getAid() {
+        return aid;
+    }
+
+    /**
+     * @return the Application Interchange Profile or null
+     */
+    byte[] getAip() {
+        return aip;
+    }
+
+    /**
+     * @param tag one of the TAG_ indexes
+     * @return the value of the first occurrence in the records or null
+     */
+    byte[] getValue(int tag) {
+        return values[tag];
+    }
+
+    void setIccKey(BigInteger modulus, BigInteger exponent, int modulusLength) {
+        this.iccModulus = modulus;
+        this.iccExponent = exponent;
+        this.iccModulusLength = modulusLength;
+    }
+
+    BigInteger getIccModulus() {
+        return iccModulus;
+    }
+
+    BigInteger getIccExponent() {
+        return iccExponent;
+    }
+
+    int getIccModulusLength() {
+        return iccModulusLength;
+    }
+}
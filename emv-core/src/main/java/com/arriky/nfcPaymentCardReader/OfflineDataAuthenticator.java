@@ -0,0 +1,422 @@
+package com.arriky.nfcPaymentCardReader;
+
+import androidx.annotation.NonNull;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Locale;
+
+/**
+ * Offline data authentication (EMV Book 2): verifies that the data of the records was signed
+ * by the issuer (SDA) or that the card holds a private key certified by the issuer (DDA), with
+ * the CA public keys of the CaPublicKeyTable as the root.
+ *
+ * The EmvDecoder collects the certificates and the static data in an OdaSession while it reads
+ * the AFL and calls authenticate after the last record. Every method starts with the issuer
+ * public key, recovered from the issuer certificate (tag 90) with the CA key. All cards of an
+ * issuer carry the same certificate, so the recovered key is kept in the IssuerKeyCache and a
+ * known issuer costs no RSA operation with the CA key. What is left per tap is the work with the
+ * card's own data: the signed static data (SDA) or the ICC certificate and the signature of the
+ * INTERNAL AUTHENTICATE response (DDA).
+ *
+ * CDA signs the GENERATE AC response, which this reader does not send: a card that supports CDA
+ * but not DDA gets its certificates checked and is reported as not performed.
+ *
+ * An authenticator is thread safe and can be shared by all taps.
+ */
+public class OfflineDataAuthenticator {
+
+    // byte 1 of the Application Interchange Profile
+    static final int AIP_SDA = 0x40;
+    static final int AIP_DDA = 0x20;
+    static final int AIP_CDA = 0x01;
+    // the DDOL the terminal uses if the card has none: the unpredictable number
+    static final byte[] DEFAULT_DDOL = {(byte) 0x9F, (byte) 0x37, (byte) 0x04};
+    static final int TAG_UNPREDICTABLE_NUMBER = 0x9F37;
+    private static final byte HEADER = (byte) 0x6A;
+    private static final byte TRAILER = (byte) 0xBC;
+    private static final byte FORMAT_ISSUER_CERTIFICATE = 0x02;
+    private static final byte FORMAT_SIGNED_STATIC_DATA = 0x03;
+    private static final byte FORMAT_ICC_CERTIFICATE = 0x04;
+    private static final byte FORMAT_SIGNED_DYNAMIC_DATA = 0x05;
+    private static final byte SHA_1 = 0x01;
+    private static final byte RSA = 0x01;
+    private static final int HASH_LENGTH = 20;
+    // the bytes of a certificate around the (leftmost digits of the) public key
+    private static final int ISSUER_CERTIFICATE_OVERHEAD = 36;
+    private static final int ICC_CERTIFICATE_OVERHEAD = 42;
+    private static final int SIGNED_DYNAMIC_DATA_OVERHEAD = 25;
+
+    private final CaPublicKeyTable caPublicKeys;
+    private final IssuerKeyCache issuerKeyCache;
+    private final SecureRandom random = new SecureRandom();
+    private final StripedCounter rsaOperations = new StripedCounter();
+
+    /**
+     * authenticates with the bundled CA keys and a cache of DEFAULT_CAPACITY issuer keys
+     */
+    public OfflineDataAuthenticator() {
+        this(CaPublicKeyTable.getShared(), new IssuerKeyCache());
+    }
+
+    /**
+     * @param caPublicKeys   the roots, e.g. a table with generated test keys
+     * @param issuerKeyCache the recovered issuer keys, shared by all taps
+     */
+    public OfflineDataAuthenticator(@NonNull CaPublicKeyTable caPublicKeys, @NonNull IssuerKeyCache issuerKeyCache) {
+        this.caPublicKeys = caPublicKeys;
+        this.issuerKeyCache = issuerKeyCache;
+    }
+
+    public CaPublicKeyTable getCaPublicKeys() {
+        return caPublicKeys;
+    }
+
+    public IssuerKeyCache getIssuerKeyCache() {
+        return issuerKeyCache;
+    }
+
+    /**
+     * @return the number of RSA recoveries done so far, with the CA, issuer and ICC keys
+     */
+    public long getRsaOperations() {
+        return rsaOperations.sum();
+    }
+
+    /**
+     * the strongest method card and reader both support, CDA only if the card does not
+     * support DDA (see the class comment)
+     *
+     * @param aip the Application Interchange Profile, null if the card sent none
+     * @return
+     */
+    static OdaResult.Method selectMethod(byte[] aip) {
+        if (aip == null || aip.length < 1) return OdaResult.Method.NONE;
+        int capabilities = aip[0] & 0xFF;
+        if ((capabilities & AIP_DDA) != 0) return OdaResult.Method.DDA;
+        if ((capabilities & AIP_CDA) != 0) return OdaResult.Method.CDA;
+        if ((capabilities & AIP_SDA) != 0) return OdaResult.Method.SDA;
+        return OdaResult.Method.NONE;
+    }
+
+    /**
+     * verifies the certificates and, for SDA, the signed static data of an application whose
+     * records are read
+     *
+     * @param session
+     * @param pan     the PAN the certificates have to name, used if the records hold no tag 5A
+     * @return the result, null if the ICC key is recovered and the card has to sign the dynamic
+     * data of newDynamicData next (DDA), see verifyDynamicSignature
+     */
+    OdaResult authenticate(@NonNull OdaSession session, String pan) {
+        OdaResult.Method method = selectMethod(session.getAip());
+        if (method == OdaResult.Method.NONE) return OdaResult.notPerformed(method, "the card supports no offline data authentication");
+        String recordFailure = session.getRecordFailure();
+        if (recordFailure != null) return OdaResult.failed(method, recordFailure);
+        byte[] panValue = session.getValue(OdaSession.TAG_PAN);
+        if (panValue != null) pan = panDigits(panValue);
+        if (pan == null) return OdaResult.notPerformed(method, "no PAN");
+
+        byte[] caIndex = session.getValue(OdaSession.TAG_CA_INDEX);
+        if (caIndex == null || caIndex.length != 1) return OdaResult.failed(method, "no CA public key index");
+        CaPublicKeyTable.Key caKey = caPublicKeys.get(session.getAid(), caIndex[0] & 0xFF);
+        if (caKey == null) {
+            return OdaResult.notPerformed(method, String.format(Locale.US, "CA public key %02X of %s unknown",
+                    caIndex[0] & 0xFF, HexCodec.toHex(Arrays.copyOf(session.getAid(), 5)).toUpperCase(Locale.US)));
+        }
+        byte[] issuerCertificate = session.getValue(OdaSession.TAG_ISSUER_CERTIFICATE);
+        byte[] issuerExponent = session.getValue(OdaSession.TAG_ISSUER_EXPONENT);
+        if (issuerCertificate == null || issuerExponent == null) return OdaResult.failed(method, "no issuer public key certificate");
+        byte[] issuerRemainder = orEmpty(session.getValue(OdaSession.TAG_ISSUER_REMAINDER));
+
+        byte[] certificateHash = IssuerKeyCache.certificateHash(caKey, issuerCertificate, issuerRemainder, issuerExponent);
+        IssuerKeyCache.IssuerKey issuerKey = issuerKeyCache.get(certificateHash);
+        if (issuerKey == null) {
+            try {
+                issuerKey = recoverIssuerKey(caKey, issuerCertificate, issuerRemainder, issuerExponent);
+            } catch (IllegalArgumentException e) {
+                return OdaResult.failed(method, e.getMessage());
+            }
+            issuerKeyCache.put(certificateHash, issuerKey);
+        }
+        // the checks against the card, a cached key is shared by all cards of the issuer
+        if (!matchesIssuerIdentifier(issuerKey.getIssuerIdentifier(), pan)) {
+            return OdaResult.failed(method, "the issuer identifier does not match the PAN");
+        }
+        if (isExpired(issuerKey.getExpirationDate())) return OdaResult.failed(method, "the issuer public key certificate is expired");
+
+        byte[] staticData = getStaticDataToAuthenticate(session);
+        if (staticData == null) return OdaResult.failed(method, "the static data authentication tag list holds more than the AIP");
+        try {
+            if (method == OdaResult.Method.SDA) {
+                verifySignedStaticData(issuerKey, session.getValue(OdaSession.TAG_SIGNED_STATIC_DATA), staticData);
+                return OdaResult.passed(method, null);
+            }
+            recoverIccKey(session, issuerKey, pan, staticData);
+        } catch (IllegalArgumentException e) {
+            return OdaResult.failed(method, e.getMessage());
+        }
+        if (method == OdaResult.Method.CDA) {
+            return OdaResult.notPerformed(method, "certificates valid, the GENERATE AC signature is not checked");
+        }
+        return null;
+    }
+
+    /**
+     * @param session after authenticate returned null
+     * @return the data of the card's DDOL (or the default DDOL) with a fresh unpredictable
+     * number, the data of the INTERNAL AUTHENTICATE command
+     */
+    byte[] newDynamicData(@NonNull OdaSession session) {
+        byte[] ddol = session.getValue(OdaSession.TAG_DDOL);
+        if (ddol == null || ddol.length == 0) ddol = DEFAULT_DDOL;
+        GpoCommandBuilder.PdolLayout layout = new GpoCommandBuilder().getLayout(ddol);
+        int length = 0;
+        for (int i = 0; i < layout.getTagCount(); i++) {
+            length += layout.getValueLength(i);
+        }
+        byte[] data = new byte[length];
+        DolRegistry registry = DolRegistry.getInstance();
+        int offset = 0;
+        for (int i = 0; i < layout.getTagCount(); i++) {
+            int tag = layout.getTag(i);
+            int valueLength = layout.getValueLength(i);
+            if (tag == TAG_UNPREDICTABLE_NUMBER) {
+                byte[] unpredictableNumber = new byte[valueLength];
+                random.nextBytes(unpredictableNumber);
+                System.arraycopy(unpredictableNumber, 0, data, offset, valueLength);
+            } else {
+                DolRegistry.Entry entry = registry.get(tag);
+                // data the terminal does not have is sent as zeroes
+                if (entry != null) entry.copyTo(data, offset, valueLength);
+            }
+            offset += valueLength;
+        }
+        return data;
+    }
+
+    /**
+     * verifies the Signed Dynamic Application Data of an INTERNAL AUTHENTICATE response
+     *
+     * @param session     after authenticate returned null
+     * @param dynamicData the data of the command, see newDynamicData
+     * @param response    the response including the status word, null if the card did not answer
+     * @return
+     */
+    OdaResult verifyDynamicSignature(@NonNull OdaSession session, @NonNull byte[] dynamicData, byte[] response) {
+        OdaResult.Method method = OdaResult.Method.DDA;
+        int statusWord = CardReadResult.statusWord(response);
+        if (statusWord != 0x9000) {
+            return OdaResult.failed(method, String.format(Locale.US, "INTERNAL AUTHENTICATE failed (%04x)", statusWord));
+        }
+        // format 1: tag 80 holds the signature, format 2: tag 9F4B in template 77
+        int[] offsets = new int[2];
+        int[] lengths = new int[2];
+        new TlvCursor().resetResponse(response).scan(new int[]{0x80, 0x9F4B}, offsets, lengths);
+        int index = offsets[0] >= 0 ? 0 : 1;
+        if (offsets[index] < 0) return OdaResult.failed(method, "no signed dynamic application data");
+        byte[] signature = Arrays.copyOfRange(response, offsets[index], offsets[index] + lengths[index]);
+        try {
+            int length = session.getIccModulusLength();
+            byte[] recovered = recover(signature, session.getIccModulus(), session.getIccExponent(), length, "signed dynamic application data");
+            if (recovered[1] != FORMAT_SIGNED_DYNAMIC_DATA) throw new IllegalArgumentException("signed dynamic application data: wrong format");
+            if (recovered[2] != SHA_1) throw new IllegalArgumentException("signed dynamic application data: unknown hash algorithm");
+            int dynamicDataLength = recovered[3] & 0xFF;
+            if (dynamicDataLength > length - SIGNED_DYNAMIC_DATA_OVERHEAD) {
+                throw new IllegalArgumentException("signed dynamic application data: invalid length");
+            }
+            verifyHash(recovered, "signed dynamic application data", dynamicData);
+        } catch (IllegalArgumentException e) {
+            return OdaResult.failed(method, e.getMessage());
+        }
+        return OdaResult.passed(method, null);
+    }
+
+    /**
+     * recovers the issuer public key and checks its certificate, the checks that depend on the
+     * card are left to the caller
+     *
+     * @param caKey
+     * @param certificate tag 90
+     * @param remainder   tag 92, empty if the card has none
+     * @param exponent    tag 9F32
+     * @return
+     * @throws IllegalArgumentException if the certificate is invalid
+     */
+    IssuerKeyCache.IssuerKey recoverIssuerKey(CaPublicKeyTable.Key caKey, byte[] certificate, byte[] remainder, byte[] exponent) {
+        int length = caKey.getModulusLength();
+        byte[] recovered = recover(certificate, caKey.getModulus(), caKey.getExponent(), length, "issuer public key certificate");
+        if (recovered[1] != FORMAT_ISSUER_CERTIFICATE) throw new IllegalArgumentException("issuer public key certificate: wrong format");
+        if (recovered[11] != SHA_1) throw new IllegalArgumentException("issuer public key certificate: unknown hash algorithm");
+        if (recovered[12] != RSA) throw new IllegalArgumentException("issuer public key certificate: unknown public key algorithm");
+        if ((recovered[14] & 0xFF) != exponent.length) throw new IllegalArgumentException("issuer public key certificate: wrong exponent length");
+        verifyHash(recovered, "issuer public key certificate", remainder, exponent);
+        byte[] modulus = publicKey(recovered, 15, length - ISSUER_CERTIFICATE_OVERHEAD, recovered[13] & 0xFF, remainder);
+        return new IssuerKeyCache.IssuerKey(new BigInteger(1, modulus), new BigInteger(1, exponent), modulus.length,
+                Arrays.copyOfRange(recovered, 2, 6), Arrays.copyOfRange(recovered, 6, 8));
+    }
+
+    private void verifySignedStaticData(IssuerKeyCache.IssuerKey issuerKey, byte[] signedStaticData, byte[] staticData) {
+        if (signedStaticData == null) throw new IllegalArgumentException("no signed static application data");
+        byte[] recovered = recover(signedStaticData, issuerKey.getModulus(), issuerKey.getExponent(),
+                issuerKey.getModulusLength(), "signed static application data");
+        if (recovered[1] != FORMAT_SIGNED_STATIC_DATA) throw new IllegalArgumentException("signed static application data: wrong format");
+        if (recovered[2] != SHA_1) throw new IllegalArgumentException("signed static application data: unknown hash algorithm");
+        verifyHash(recovered, "signed static application data", staticData);
+    }
+
+    private void recoverIccKey(OdaSession session, IssuerKeyCache.IssuerKey issuerKey, String pan, byte[] staticData) {
+        byte[] certificate = session.getValue(OdaSession.TAG_ICC_CERTIFICATE);
+        byte[] exponent = session.getValue(OdaSession.TAG_ICC_EXPONENT);
+        if (certificate == null || exponent == null) throw new IllegalArgumentException("no ICC public key certificate");
+        byte[] remainder = orEmpty(session.getValue(OdaSession.TAG_ICC_REMAINDER));
+        int length = issuerKey.getModulusLength();
+        byte[] recovered = recover(certificate, issuerKey.getModulus(), issuerKey.getExponent(), length, "ICC public key certificate");
+        if (recovered[1] != FORMAT_ICC_CERTIFICATE) throw new IllegalArgumentException("ICC public key certificate: wrong format");
+        if (recovered[17] != SHA_1) throw new IllegalArgumentException("ICC public key certificate: unknown hash algorithm");
+        if (recovered[18] != RSA) throw new IllegalArgumentException("ICC public key certificate: unknown public key algorithm");
+        if ((recovered[20] & 0xFF) != exponent.length) throw new IllegalArgumentException("ICC public key certificate: wrong exponent length");
+        verifyHash(recovered, "ICC public key certificate", remainder, exponent, staticData);
+        if (!pan.equals(panDigits(Arrays.copyOfRange(recovered, 2, 12)))) {
+            throw new IllegalArgumentException("the ICC public key certificate is for another PAN");
+        }
+        if (isExpired(Arrays.copyOfRange(recovered, 12, 14))) throw new IllegalArgumentException("the ICC public key certificate is expired");
+        byte[] modulus = publicKey(recovered, 21, length - ICC_CERTIFICATE_OVERHEAD, recovered[19] & 0xFF, remainder);
+        session.setIccKey(new BigInteger(1, modulus), new BigInteger(1, exponent), modulus.length);
+    }
+
+    /**
+     * the RSA recovery of EMV Book 2: data ^ exponent mod modulus, with header and trailer checked
+     *
+     * @param data
+     * @param modulus
+     * @param exponent
+     * @param length   the length of the modulus in bytes
+     * @param name     for the message of the exception
+     * @return the recovered data, length bytes
+     * @throws IllegalArgumentException if the data does not recover to a valid block
+     */
+    private byte[] recover(byte[] data, BigInteger modulus, BigInteger exponent, int length, String name) {
+        if (data.length != length) throw new IllegalArgumentException(name + ": length " + data.length + " instead of " + length);
+        BigInteger value = new BigInteger(1, data);
+        if (value.compareTo(modulus) >= 0) throw new IllegalArgumentException(name + ": not below the modulus");
+        rsaOperations.increment();
+        byte[] bytes = value.modPow(exponent, modulus).toByteArray();
+        byte[] recovered = new byte[length];
+        // toByteArray has a sign byte or fewer bytes than the modulus
+        int copy = Math.min(bytes.length, length);
+        System.arraycopy(bytes, bytes.length - copy, recovered, length - copy, copy);
+        if (recovered[0] != HEADER || recovered[length - 1] != TRAILER) throw new IllegalArgumentException(name + ": recovery failed");
+        return recovered;
+    }
+
+    /**
+     * compares the SHA-1 hash before the trailer with the hash over the recovered data from the
+     * format to the hash and the given data
+     *
+     * @param recovered
+     * @param name      for the message of the exception
+     * @param data
+     */
+    private static void verifyHash(byte[] recovered, String name, byte[]... data) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has SHA-1
+            throw new IllegalStateException(e);
+        }
+        int hashOffset = recovered.length - 1 - HASH_LENGTH;
+        digest.update(recovered, 1, hashOffset - 1);
+        for (byte[] part : data) {
+            digest.update(part);
+        }
+        byte[] hash = digest.digest();
+        if (!MessageDigest.isEqual(hash, Arrays.copyOfRange(recovered, hashOffset, hashOffset + HASH_LENGTH))) {
+            throw new IllegalArgumentException(name + ": hash mismatch");
+        }
+    }
+
+    /**
+     * @param recovered
+     * @param offset    where the public key (or its leftmost digits) starts
+     * @param room      the bytes the certificate has for the key
+     * @param keyLength the length of the key in the certificate
+     * @param remainder the digits that did not fit
+     * @return the modulus
+     */
+    private static byte[] publicKey(byte[] recovered, int offset, int room, int keyLength, byte[] remainder) {
+        if (keyLength <= room) {
+            // a remainder the key does not need is only part of the hash
+            return Arrays.copyOfRange(recovered, offset, offset + keyLength);
+        }
+        if (remainder.length != keyLength - room) throw new IllegalArgumentException("public key remainder missing or of the wrong length");
+        byte[] modulus = Arrays.copyOfRange(recovered, offset, offset + keyLength);
+        System.arraycopy(remainder, 0, modulus, room, remainder.length);
+        return modulus;
+    }
+
+    /**
+     * @param session
+     * @return the static data of the records plus the AIP if the card's tag list names it,
+     * null if the tag list holds other tags
+     */
+    private static byte[] getStaticDataToAuthenticate(OdaSession session) {
+        byte[] staticData = session.getStaticData();
+        byte[] tagList = session.getValue(OdaSession.TAG_SDA_TAG_LIST);
+        if (tagList == null || tagList.length == 0) return staticData;
+        if (tagList.length != 1 || tagList[0] != (byte) 0x82 || session.getAip() == null) return null;
+        byte[] aip = session.getAip();
+        byte[] data = Arrays.copyOf(staticData, staticData.length + aip.length);
+        System.arraycopy(aip, 0, data, staticData.length, aip.length);
+        return data;
+    }
+
+    /**
+     * @param issuerIdentifier the leftmost 3..8 digits of the PAN, padded with F
+     * @param pan
+     * @return
+     */
+    static boolean matchesIssuerIdentifier(byte[] issuerIdentifier, String pan) {
+        String digits = panDigits(issuerIdentifier);
+        return digits.length() >= 3 && pan.startsWith(digits);
+    }
+
+    /**
+     * @param bcd BCD digits, padded with F
+     * @return the digits without the padding
+     */
+    static String panDigits(byte[] bcd) {
+        String hex = HexCodec.toHex(bcd).toUpperCase(Locale.US);
+        int end = hex.length();
+        while (end > 0 && hex.charAt(end - 1) == 'F') end--;
+        return hex.substring(0, end);
+    }
+
+    /**
+     * @param mmyy the expiration date of a certificate, BCD
+     * @return true if the month has passed
+     */
+    static boolean isExpired(byte[] mmyy) {
+        int month = bcd(mmyy[0]);
+        int year = bcd(mmyy[1]);
+        if (month < 1 || month > 12 || year < 0) return true;
+        Calendar now = Calendar.getInstance();
+        int current = (now.get(Calendar.YEAR) % 100) * 12 + now.get(Calendar.MONTH);
+        return year * 12 + month - 1 < current;
+    }
+
+    private static int bcd(byte b) {
+        int high = (b >>> 4) & 0x0F;
+        int low = b & 0x0F;
+        return high > 9 || low > 9 ? -1 : high * 10 + low;
+    }
+
+    private static byte[] orEmpty(byte[] value) {
+        return value != null ? value : new byte[0];
+    }
+}
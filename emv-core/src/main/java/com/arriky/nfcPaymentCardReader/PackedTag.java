@@ -0,0 +1,66 @@
+package com.arriky.nfcPaymentCardReader;
+
+/**
+ * BER-TLV tags packed into an int, e.g. 0x9F38 for the PDOL or 0x5A for the PAN.
+ * EMV tags have up to 3 bytes, so every tag fits and the packed value is unique.
+ */
+public final class PackedTag {
+
+    private PackedTag() {
+    }
+
+    /**
+     * packs len tag bytes starting at offset
+     *
+     * @param tag
+     * @param offset
+     * @param len
+     * @return
+     */
+    public static int pack(byte[] tag, int offset, int len) {
+        int packed = 0;
+        for (int i = offset; i < offset + len; i++) {
+            packed = (packed << 8) | (tag[i] & 0xFF);
+        }
+        return packed;
+    }
+
+    public static int pack(byte[] tag) {
+        return pack(tag, 0, tag.length);
+    }
+
+    /**
+     * returns the length of a tag starting at offset, using the BER rules:
+     * if the low 5 bits of the first byte are all set, the tag continues with every following
+     * byte that has bit 8 set
+     *
+     * @param data
+     * @param offset
+     * @param end
+     * @return the length of the tag or -1 if the tag is not complete
+     */
+    public static int tagLength(byte[] data, int offset, int end) {
+        if (offset >= end) return -1;
+        if ((data[offset] & 0x1F) != 0x1F) return 1;
+        int i = offset + 1;
+        while (i < end && (data[i] & 0x80) != 0) i++;
+        if (i >= end) return -1;
+        return i - offset + 1;
+    }
+
+    /**
+     * unpacks a tag to its bytes
+     *
+     * @param packed
+     * @return
+     */
+    public static byte[] toBytes(int packed) {
+        int len = packed > 0xFFFFFF || packed < 0 ? 4 : packed > 0xFFFF ? 3 : packed > 0xFF ? 2 : 1;
+        byte[] tag = new byte[len];
+        for (int i = len - 1; i >= 0; i--) {
+            tag[i] = (byte) packed;
+            packed >>>= 8;
+        }
+        return tag;
+    }
+}
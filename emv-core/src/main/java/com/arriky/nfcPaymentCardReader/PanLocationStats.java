@@ -0,0 +1,89 @@
+package com.arriky.nfcPaymentCardReader;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Counts in which record (SFI and record number) the PAN was found, separately for each card
+ * scheme. The AflReadPlanner reads the records with the highest count first.
+ *
+ * Only locations are stored, no card data. The statistics are bounded: each scheme keeps at most
+ * MAX_LOCATIONS locations and all counts of a scheme are halved when one of them reaches
+ * MAX_COUNT, so a changed card layout takes over after a few taps.
+ */
+public final class PanLocationStats {
+
+    private static final int MAX_LOCATIONS = 32;
+    private static final int MAX_COUNT = 1024;
+    private static final PanLocationStats SHARED = new PanLocationStats();
+
+    private final Map<CardScheme, Map<Integer, Integer>> counts = new EnumMap<>(CardScheme.class);
+
+    /**
+     * @return the statistics shared by all readings in this process
+     */
+    public static PanLocationStats getShared() {
+        return SHARED;
+    }
+
+    /**
+     * packs a location into an int, the SFI in the upper and the record number in the lower byte
+     *
+     * @param sfi
+     * @param record
+     * @return
+     */
+    static int location(int sfi, int record) {
+        return ((sfi & 0xFF) << 8) | (record & 0xFF);
+    }
+
+    /**
+     * note that the PAN of a card of this scheme was found in this record
+     *
+     * @param scheme
+     * @param sfi
+     * @param record
+     */
+    public synchronized void recordPanLocation(CardScheme scheme, int sfi, int record) {
+        Map<Integer, Integer> schemeCounts = counts.get(scheme);
+        if (schemeCounts == null) {
+            schemeCounts = new HashMap<>();
+            counts.put(scheme, schemeCounts);
+        }
+        Integer key = location(sfi, record);
+        Integer count = schemeCounts.get(key);
+        if (count == null && schemeCounts.size() >= MAX_LOCATIONS) return;
+        int newCount = (count != null ? count : 0) + 1;
+        schemeCounts.put(key, newCount);
+        if (newCount >= MAX_COUNT) {
+            Iterator<Map.Entry<Integer, Integer>> iterator = schemeCounts.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Integer, Integer> entry = iterator.next();
+                if (entry.getValue() < 2) {
+                    iterator.remove();
+                } else {
+                    entry.setValue(entry.getValue() / 2);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param scheme
+     * @param sfi
+     * @param record
+     * @return how often the PAN of this scheme was found in this record
+     */
+    public synchronized int getPanCount(CardScheme scheme, int sfi, int record) {
+        Map<Integer, Integer> schemeCounts = counts.get(scheme);
+        if (schemeCounts == null) return 0;
+        Integer count = schemeCounts.get(location(sfi, record));
+        return count != null ? count : 0;
+    }
+
+    public synchronized void clear() {
+        counts.clear();
+    }
+}
@@ -0,0 +1,44 @@
+package com.arriky.nfcPaymentCardReader;
+
+/**
+ * How much of a card the EmvDecoder reads.
+ *
+ * The applications are read in the order of their Application Priority Indicator (tag 87),
+ * the session ends as soon as the policy has what it needs.
+ */
+public enum ReadPolicy {
+    PAN_AND_EXPIRY("PAN and expiration date only"),
+    FIRST_APPLICATION("first application only"),
+    FULL_DUMP("full dump");
+
+    private final String description;
+
+    private ReadPolicy(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * @param panFound
+     * @param expirationDateFound
+     * @return true if no further READ RECORD or application is needed
+     */
+    public boolean isComplete(boolean panFound, boolean expirationDateFound) {
+        return this == PAN_AND_EXPIRY && panFound && expirationDateFound;
+    }
+
+    /**
+     * @return the maximum number of applications to read
+     */
+    public int getMaxApplications() {
+        return this == FIRST_APPLICATION ? 1 : Integer.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return getDescription();
+    }
+}
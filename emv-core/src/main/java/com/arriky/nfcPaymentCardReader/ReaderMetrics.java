@@ -0,0 +1,240 @@
+package com.arriky.nfcPaymentCardReader;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Counters and latency histograms of all card readings, the EmvDecoder reports every tap, every
+ * phase of a tap and every APDU when a registry is set.
+ *
+ * All counters and histograms are created up front, so recording only increments striped
+ * counters and takes no lock. Status words other than 9000 are counted per status word for up
+ * to MAX_STATUS_WORDS different values, the rest is counted as "other".
+ *
+ * toJson gives a snapshot of the registry: the counters, a histogram per reading phase and a
+ * histogram of the complete tap per card scheme. A phase is recorded once per tap (SELECT_AID,
+ * GPO, READ_RECORD and AUTHENTICATE once per application) from its first command until its
+ * responses are handled, a GPO with its TTQ retries and a READ_RECORD with all its records.
+ */
+public final class ReaderMetrics {
+
+    private static final int MAX_STATUS_WORDS = 32;
+    private static final ReaderMetrics SHARED = new ReaderMetrics();
+
+    /**
+     * the traced phases of a card reading, TRANSCEIVE holds every single APDU regardless of its
+     * phase
+     */
+    public enum Phase {
+        TAP, PPSE, SELECT_AID, GPO, READ_RECORD, AUTHENTICATE, TRANSCEIVE
+    }
+
+    private final StripedCounter taps = new StripedCounter();
+    private final StripedCounter tapsRead = new StripedCounter();
+    private final StripedCounter tapsFailed = new StripedCounter();
+    private final StripedCounter connectionErrors = new StripedCounter();
+    private final StripedCounter apdus = new StripedCounter();
+    private final StripedCounter bytesSent = new StripedCounter();
+    private final StripedCounter bytesReceived = new StripedCounter();
+    private final StripedCounter statusWordErrors = new StripedCounter();
+    private final StripedCounter gpoRetries = new StripedCounter();
+    private final StripedCounter otherStatusWords = new StripedCounter();
+    private final ConcurrentMap<Integer, StripedCounter> statusWords = new ConcurrentHashMap<>();
+    private final Map<Phase, LatencyHistogram> phases = new EnumMap<>(Phase.class);
+    private final Map<CardScheme, LatencyHistogram> schemeTaps = new EnumMap<>(CardScheme.class);
+    private final Map<CardScheme, StripedCounter> schemeFailures = new EnumMap<>(CardScheme.class);
+
+    public ReaderMetrics() {
+        // the enum maps are filled once and only read afterwards
+        for (Phase phase : Phase.values()) {
+            phases.put(phase, new LatencyHistogram());
+        }
+        for (CardScheme scheme : CardScheme.values()) {
+            schemeTaps.put(scheme, new LatencyHistogram());
+            schemeFailures.put(scheme, new StripedCounter());
+        }
+    }
+
+    /**
+     * @return the registry shared by all readings in this process
+     */
+    public static ReaderMetrics getShared() {
+        return SHARED;
+    }
+
+    /**
+     * records one phase of a card reading
+     *
+     * @param phase one of PPSE, SELECT_AID, GPO, READ_RECORD and AUTHENTICATE
+     * @param nanos time from the first command of the phase until its responses were handled
+     */
+    public void recordPhase(Phase phase, long nanos) {
+        phases.get(phase).record(nanos);
+    }
+
+    /**
+     * records one APDU exchange
+     *
+     * @param nanos    time between sending the command and receiving the response
+     * @param command
+     * @param response may be null
+     */
+    public void recordApdu(long nanos, byte[] command, byte[] response) {
+        recordApdu(nanos, command, response, response != null ? response.length : 0);
+    }
+
+    /**
+     * records one APDU exchange whose response is a view into a buffer
+     *
+     * @param nanos
+     * @param command
+     * @param response       may be null
+     * @param responseLength the bytes of the buffer that belong to the response
+     */
+    public void recordApdu(long nanos, byte[] command, byte[] response, int responseLength) {
+        apdus.increment();
+        phases.get(Phase.TRANSCEIVE).record(nanos);
+        bytesSent.add(command.length);
+        if (response == null) return;
+        bytesReceived.add(responseLength);
+        int statusWord = CardReadResult.statusWord(response, responseLength);
+        if (statusWord != 0x9000) {
+            statusWordErrors.increment();
+            statusWordCounter(statusWord).increment();
+        }
+    }
+
+    /**
+     * records a complete tap
+     *
+     * @param scheme          the scheme of the application that was read, UNKNOWN if none
+     * @param nanos           duration of the tap
+     * @param cardRead        true if the PAN was read
+     * @param connectionError true if the connection to the card failed
+     */
+    public void recordTap(CardScheme scheme, long nanos, boolean cardRead, boolean connectionError) {
+        taps.increment();
+        phases.get(Phase.TAP).record(nanos);
+        schemeTaps.get(scheme).record(nanos);
+        if (cardRead) {
+            tapsRead.increment();
+        } else {
+            tapsFailed.increment();
+            schemeFailures.get(scheme).increment();
+        }
+        if (connectionError) connectionErrors.increment();
+    }
+
+    /**
+     * records a GPO command that was sent again with another TTQ alternative
+     */
+    public void recordGpoRetry() {
+        gpoRetries.increment();
+    }
+
+    private StripedCounter statusWordCounter(int statusWord) {
+        StripedCounter counter = statusWords.get(statusWord);
+        if (counter != null) return counter;
+        if (statusWords.size() >= MAX_STATUS_WORDS) return otherStatusWords;
+        counter = new StripedCounter();
+        StripedCounter existing = statusWords.putIfAbsent(statusWord, counter);
+        return existing != null ? existing : counter;
+    }
+
+    public long getTaps() {
+        return taps.sum();
+    }
+
+    public long getApdus() {
+        return apdus.sum();
+    }
+
+    public long getGpoRetries() {
+        return gpoRetries.sum();
+    }
+
+    public LatencyHistogram getHistogram(Phase phase) {
+        return phases.get(phase);
+    }
+
+    public LatencyHistogram getHistogram(CardScheme scheme) {
+        return schemeTaps.get(scheme);
+    }
+
+    /**
+     * @return a snapshot of all counters and histograms as JSON
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder(2048);
+        json.append("{\"counters\":{")
+                .append("\"taps\":").append(taps.sum())
+                .append(",\"tapsRead\":").append(tapsRead.sum())
+                .append(",\"tapsFailed\":").append(tapsFailed.sum())
+                .append(",\"connectionErrors\":").append(connectionErrors.sum())
+                .append(",\"apdus\":").append(apdus.sum())
+                .append(",\"bytesSent\":").append(bytesSent.sum())
+                .append(",\"bytesReceived\":").append(bytesReceived.sum())
+                .append(",\"statusWordErrors\":").append(statusWordErrors.sum())
+                .append(",\"gpoRetries\":").append(gpoRetries.sum())
+                .append("},\"statusWords\":{");
+        boolean first = true;
+        for (Map.Entry<Integer, StripedCounter> entry : new TreeMap<>(statusWords).entrySet()) {
+            if (!first) json.append(',');
+            first = false;
+            json.append('"').append(String.format(java.util.Locale.US, "%04x", entry.getKey())).append("\":").append(entry.getValue().sum());
+        }
+        long other = otherStatusWords.sum();
+        if (other > 0) {
+            if (!first) json.append(',');
+            json.append("\"other\":").append(other);
+        }
+        json.append("},\"bucketBoundsMicros\":[");
+        long[] bounds = LatencyHistogram.getBoundsMicros();
+        for (int i = 0; i < bounds.length; i++) {
+            if (i > 0) json.append(',');
+            json.append(bounds[i]);
+        }
+        json.append("],\"phases\":{");
+        first = true;
+        for (Map.Entry<Phase, LatencyHistogram> entry : phases.entrySet()) {
+            if (!first) json.append(',');
+            first = false;
+            json.append('"').append(entry.getKey().name()).append("\":");
+            entry.getValue().appendJson(json);
+        }
+        json.append("},\"schemes\":{");
+        first = true;
+        for (CardScheme scheme : CardScheme.values()) {
+            LatencyHistogram histogram = schemeTaps.get(scheme);
+            if (histogram.getCount() == 0) continue;
+            if (!first) json.append(',');
+            first = false;
+            json.append('"').append(scheme.name()).append("\":{\"failures\":").append(schemeFailures.get(scheme).sum())
+                    .append(",\"tap\":");
+            histogram.appendJson(json);
+            json.append('}');
+        }
+        json.append("}}");
+        return json.toString();
+    }
+
+    public void reset() {
+        taps.reset();
+        tapsRead.reset();
+        tapsFailed.reset();
+        connectionErrors.reset();
+        apdus.reset();
+        bytesSent.reset();
+        bytesReceived.reset();
+        statusWordErrors.reset();
+        gpoRetries.reset();
+        otherStatusWords.reset();
+        statusWords.clear();
+        for (LatencyHistogram histogram : phases.values()) histogram.reset();
+        for (LatencyHistogram histogram : schemeTaps.values()) histogram.reset();
+        for (StripedCounter counter : schemeFailures.values()) counter.reset();
+    }
+}
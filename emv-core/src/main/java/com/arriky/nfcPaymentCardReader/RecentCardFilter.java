@@ -0,0 +1,146 @@
+package com.arriky.nfcPaymentCardReader;
+
+import androidx.annotation.NonNull;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Recognizes a card that was read a moment ago, e.g. a card that stays on the reader and is
+ * discovered again after the presence check or one that is tapped twice by accident. The
+ * EmvDecoder asks the filter as soon as it knows the PAN and stops reading the card if it was
+ * seen within the window.
+ *
+ * A card is remembered by a keyed hash of its PAN (SipHash-2-4 with a random key per filter),
+ * no PAN is stored and the hashes mean nothing outside the process. The table has a fixed
+ * number of slots, so the memory stays the same however many cards pass: the hash picks a
+ * bucket of WAYS slots, each slot is one long with 32 bits of the hash and the time of the last
+ * tap in milliseconds. A new card replaces the slot of the bucket that was used longest ago
+ * (empty or expired slots first), an LRU per bucket. The slots are updated with compareAndSet,
+ * the filter can be shared by all readers without locks.
+ *
+ * Two different cards are mistaken for each other with a probability of about WAYS / 2^32.
+ */
+public final class RecentCardFilter {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final long DEFAULT_WINDOW_MILLIS = 2000;
+    static final int WAYS = 4;
+    // the timestamps wrap after 2^32 ms (49 days), the window must stay far below that
+    static final long MAX_WINDOW_MILLIS = 24L * 60 * 60 * 1000;
+    private static final long TIME_MASK = 0xFFFFFFFFL;
+    private static final long FINGERPRINT_MASK = ~TIME_MASK;
+    private static final long EMPTY = 0;
+
+    private final AtomicLongArray slots;
+    private final int bucketMask;
+    private final long windowMillis;
+    private final long key0;
+    private final long key1;
+    private final StripedCounter checks = new StripedCounter();
+    private final StripedCounter duplicates = new StripedCounter();
+
+    public RecentCardFilter() {
+        this(DEFAULT_CAPACITY, DEFAULT_WINDOW_MILLIS);
+    }
+
+    /**
+     * @param capacity     the number of cards remembered at most, rounded up to a power of two
+     * @param windowMillis a card seen again within this time is a duplicate
+     */
+    public RecentCardFilter(int capacity, long windowMillis) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        if (windowMillis < 0 || windowMillis > MAX_WINDOW_MILLIS) throw new IllegalArgumentException("invalid window: " + windowMillis);
+        int needed = (capacity + WAYS - 1) / WAYS;
+        int buckets = needed == 1 ? 1 : Integer.highestOneBit(needed - 1) << 1;
+        this.slots = new AtomicLongArray(buckets * WAYS);
+        this.bucketMask = buckets - 1;
+        this.windowMillis = windowMillis;
+        SecureRandom random = new SecureRandom();
+        this.key0 = random.nextLong();
+        this.key1 = random.nextLong();
+    }
+
+    /**
+     * looks the card up and remembers it with the current time, a card that stays on the reader
+     * remains a duplicate as long as it is discovered again within the window
+     *
+     * @param pan
+     * @return true if the card was seen within the window
+     */
+    public boolean checkAndRecord(@NonNull String pan) {
+        checks.increment();
+        long hash = SipHash.hash(key0, key1, pan);
+        long fingerprint = hash & FINGERPRINT_MASK;
+        if (fingerprint == EMPTY) fingerprint = TIME_MASK + 1;
+        int base = ((int) hash & bucketMask) * WAYS;
+        long now = System.nanoTime() / 1_000_000L;
+        long entry = fingerprint | (now & TIME_MASK);
+        while (true) {
+            int victim = base;
+            long victimSlot = slots.get(base);
+            long victimAge = -1;
+            boolean retry = false;
+            for (int i = base; i < base + WAYS; i++) {
+                long slot = slots.get(i);
+                if (slot != EMPTY && (slot & FINGERPRINT_MASK) == fingerprint) {
+                    if (!slots.compareAndSet(i, slot, entry)) {
+                        retry = true;
+                        break;
+                    }
+                    boolean recent = age(slot, now) <= windowMillis;
+                    if (recent) duplicates.increment();
+                    return recent;
+                }
+                long age = slot == EMPTY ? Long.MAX_VALUE : age(slot, now);
+                if (age > victimAge) {
+                    victim = i;
+                    victimSlot = slot;
+                    victimAge = age;
+                }
+            }
+            // a lost race is rare, the bucket is read again
+            if (!retry && slots.compareAndSet(victim, victimSlot, entry)) return false;
+        }
+    }
+
+    /**
+     * @param slot
+     * @param now  milliseconds
+     * @return milliseconds since the tap of the slot
+     */
+    private static long age(long slot, long now) {
+        return (now - slot) & TIME_MASK;
+    }
+
+    /**
+     * forgets all cards
+     */
+    public void clear() {
+        for (int i = 0; i < slots.length(); i++) {
+            slots.set(i, EMPTY);
+        }
+    }
+
+    public int getCapacity() {
+        return slots.length();
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * @return the number of cards looked up
+     */
+    public long getChecks() {
+        return checks.sum();
+    }
+
+    /**
+     * @return the number of cards seen within the window
+     */
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+}
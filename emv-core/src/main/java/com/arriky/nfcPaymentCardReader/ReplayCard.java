@@ -0,0 +1,159 @@
+package com.arriky.nfcPaymentCardReader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A simulated card that answers from a recorded session (see TranscriptReader).
+ *
+ * The responses are looked up by the exact command bytes, in the context of the application
+ * that was selected last, so a session that selects several AIDs replays the records of the
+ * right application. A GET PROCESSING OPTIONS command is matched by its header only when the
+ * PDOL data differs from the recording (e.g. another unpredictable number or date).
+ * Unknown READ RECORD commands are answered with 0x'6A83' (record not found), all other
+ * unknown commands with 0x'6A82' (file not found).
+ *
+ * A ReplayCard can be connected and used any number of times, this is what the benchmarks do.
+ */
+public class ReplayCard implements ApduTransport {
+
+    private static final byte[] SW_RECORD_NOT_FOUND = new byte[]{(byte) 0x6A, (byte) 0x83};
+    private static final byte[] SW_FILE_NOT_FOUND = new byte[]{(byte) 0x6A, (byte) 0x82};
+    private static final byte INS_SELECT = (byte) 0xA4;
+    private static final byte INS_GPO = (byte) 0xA8;
+    private static final byte INS_READ_RECORD = (byte) 0xB2;
+
+    private final String name;
+    private final CardScheme scheme;
+    // responses to SELECT commands
+    private final Map<ByteBuffer, byte[]> selectResponses = new HashMap<>();
+    // responses to all other commands, per selected application
+    private final Map<ByteBuffer, Map<ByteBuffer, byte[]>> applicationResponses = new HashMap<>();
+    private final Map<ByteBuffer, byte[]> noApplicationResponses = new HashMap<>();
+    private Map<ByteBuffer, byte[]> selectedApplication = noApplicationResponses;
+    private long transceiveCount = 0;
+    private byte[] keyCommand = null;
+    private ByteBuffer key = null;
+
+    public ReplayCard(CardTranscript transcript) {
+        this.name = transcript.getName();
+        this.scheme = transcript.getScheme();
+        Map<ByteBuffer, byte[]> context = noApplicationResponses;
+        for (ApduExchange exchange : transcript.getExchanges()) {
+            ByteBuffer key = ByteBuffer.wrap(exchange.getCommand());
+            if (isInstruction(exchange.getCommand(), INS_SELECT)) {
+                if (!selectResponses.containsKey(key)) selectResponses.put(key, exchange.getResponse());
+                context = applicationResponses.get(key);
+                if (context == null) {
+                    context = new HashMap<>();
+                    applicationResponses.put(key, context);
+                }
+            } else {
+                if (!context.containsKey(key)) context.put(key, exchange.getResponse());
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CardScheme getScheme() {
+        return scheme;
+    }
+
+    /**
+     * number of commands answered since the card was created
+     *
+     * @return
+     */
+    public long getTransceiveCount() {
+        return transceiveCount;
+    }
+
+    @Override
+    public void connect() {
+        // a new tap starts without a selected application
+        selectedApplication = noApplicationResponses;
+    }
+
+    @Override
+    public byte[] transceive(byte[] command) throws IOException {
+        return answer(command).clone();
+    }
+
+    /**
+     * copies the recorded response into the buffer, allocates nothing when the decoder reuses
+     * its command buffers
+     */
+    @Override
+    public int transceive(byte[] command, byte[] response) throws IOException {
+        return ApduTransport.copyResponse(answer(command), response);
+    }
+
+    /**
+     * @param command
+     * @return the recorded response, must not be modified
+     * @throws IOException
+     */
+    private byte[] answer(byte[] command) throws IOException {
+        if (command == null || command.length < 4) {
+            throw new IOException("invalid command apdu");
+        }
+        transceiveCount++;
+        ByteBuffer key = key(command);
+        if (isInstruction(command, INS_SELECT)) {
+            byte[] response = selectResponses.get(key);
+            Map<ByteBuffer, byte[]> application = applicationResponses.get(key);
+            selectedApplication = application != null ? application : noApplicationResponses;
+            return response != null ? response : SW_FILE_NOT_FOUND;
+        }
+        byte[] response = selectedApplication.get(key);
+        if (response == null && isInstruction(command, INS_GPO)) {
+            response = findByHeader(command);
+        }
+        if (response == null) {
+            return isInstruction(command, INS_READ_RECORD) ? SW_RECORD_NOT_FOUND : SW_FILE_NOT_FOUND;
+        }
+        return response;
+    }
+
+    /**
+     * the lookup key of a command, the wrapper is reused as long as the caller reuses its
+     * command array (it is only used for lookups, never stored)
+     */
+    private ByteBuffer key(byte[] command) {
+        if (command != keyCommand) {
+            keyCommand = command;
+            key = ByteBuffer.wrap(command);
+        }
+        return key;
+    }
+
+    @Override
+    public void close() {
+        selectedApplication = noApplicationResponses;
+    }
+
+    private byte[] findByHeader(byte[] command) {
+        for (Map.Entry<ByteBuffer, byte[]> entry : selectedApplication.entrySet()) {
+            ByteBuffer recorded = entry.getKey();
+            if (recorded.remaining() < 4) continue;
+            boolean match = true;
+            for (int i = 0; i < 4; i++) {
+                if (recorded.get(recorded.position() + i) != command[i]) {
+                    match = false;
+                    break;
+                }
+            }
+            if (match) return entry.getValue();
+        }
+        return null;
+    }
+
+    private static boolean isInstruction(byte[] command, byte ins) {
+        return command.length >= 2 && command[1] == ins;
+    }
+}
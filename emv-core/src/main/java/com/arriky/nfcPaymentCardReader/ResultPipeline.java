@@ -0,0 +1,442 @@
+package com.arriky.nfcPaymentCardReader;
+
+import androidx.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Takes the results of the taps off the reading threads and hands them to the sinks (UI, files,
+ * sockets) on a thread of its own, so a slow sink never holds up the next card.
+ *
+ * Any number of readers offer their results into a bounded queue, one dispatcher thread takes
+ * everything that is queued (up to MAX_BATCH) and writes it to each sink as one batch. The
+ * longer a sink takes, the bigger the next batch gets, a busy pipeline writes less often.
+ * What happens when the queue is full is decided by the OverflowPolicy.
+ *
+ * toJson gives the metrics: queue depth, dropped and coalesced results, and per sink the
+ * batches, the errors and the lag from the offer to the end of the sink's write.
+ */
+public final class ResultPipeline implements Closeable {
+
+    /**
+     * what offer does if the queue is full
+     */
+    public enum OverflowPolicy {
+        // the oldest queued result is dropped, the reader never waits
+        DROP_OLDEST,
+        // the reader waits until the dispatcher made room, nothing is lost
+        BLOCK,
+        // the result replaces the queued result of the same reader, the oldest is dropped if there is none
+        COALESCE
+    }
+
+    static final int DEFAULT_CAPACITY = 256;
+    static final int MAX_BATCH = 64;
+    // close waits this long for the dispatcher to drain the queue
+    static final long CLOSE_MILLIS = 2000;
+
+    private final OverflowPolicy overflowPolicy;
+    // ring buffer of the queued results and the time they were offered, guarded by lock
+    private final TapResult[] queue;
+    private final long[] offeredNanos;
+    private int head = 0;
+    private int count = 0;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private boolean closed = false;
+    // counters, guarded by lock
+    private long offered = 0;
+    private long dropped = 0;
+    private long coalesced = 0;
+    private long blocked = 0;
+    private int maxDepth = 0;
+    // only changed before start, the dispatcher reads it without the lock
+    private final List<SinkStats> sinks = new ArrayList<>();
+    private Thread dispatcher = null;
+
+    public ResultPipeline() {
+        this(DEFAULT_CAPACITY, OverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * @param capacity       the number of results that can be queued
+     * @param overflowPolicy
+     */
+    public ResultPipeline(int capacity, @NonNull OverflowPolicy overflowPolicy) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.queue = new TapResult[capacity];
+        this.offeredNanos = new long[capacity];
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * @param name the name of the sink in the metrics
+     * @param sink
+     * @return this
+     */
+    public synchronized ResultPipeline addSink(@NonNull String name, @NonNull ResultSink sink) {
+        if (dispatcher != null) throw new IllegalStateException("sinks can only be added before start");
+        sinks.add(new SinkStats(name, sink));
+        return this;
+    }
+
+    public synchronized void start() {
+        if (dispatcher != null) return;
+        dispatcher = new Thread(this::dispatch, "result-pipeline");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * queues the result of a tap, called by the reading threads
+     *
+     * @param result
+     * @return false if the result was dropped because the pipeline is closed or, with
+     * OverflowPolicy.BLOCK, the waiting thread was interrupted
+     */
+    public boolean offer(@NonNull TapResult result) {
+        lock.lock();
+        try {
+            if (closed) {
+                dropped++;
+                return false;
+            }
+            offered++;
+            if (count == queue.length) {
+                switch (overflowPolicy) {
+                    case BLOCK:
+                        blocked++;
+                        try {
+                            while (count == queue.length && !closed) notFull.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            dropped++;
+                            return false;
+                        }
+                        if (closed) {
+                            dropped++;
+                            return false;
+                        }
+                        break;
+                    case COALESCE:
+                        int index = findQueued(result.getSource());
+                        if (index >= 0) {
+                            queue[index] = result;
+                            offeredNanos[index] = System.nanoTime();
+                            coalesced++;
+                            return true;
+                        }
+                        // nothing of this reader is queued
+                        dropOldest();
+                        break;
+                    case DROP_OLDEST:
+                        dropOldest();
+                        break;
+                }
+            }
+            int tail = (head + count) % queue.length;
+            queue[tail] = result;
+            offeredNanos[tail] = System.nanoTime();
+            count++;
+            if (count > maxDepth) maxDepth = count;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * makes room for one result, called with the lock held
+     */
+    private void dropOldest() {
+        queue[head] = null;
+        head = (head + 1) % queue.length;
+        count--;
+        dropped++;
+    }
+
+    /**
+     * @param source
+     * @return the index of the newest queued result of the reader, -1 if there is none
+     */
+    private int findQueued(String source) {
+        for (int i = count - 1; i >= 0; i--) {
+            int index = (head + i) % queue.length;
+            if (queue[index].getSource().equals(source)) return index;
+        }
+        return -1;
+    }
+
+    private void dispatch() {
+        List<TapResult> batch = new ArrayList<>(MAX_BATCH);
+        long[] batchNanos = new long[MAX_BATCH];
+        while (true) {
+            lock.lock();
+            try {
+                while (count == 0 && !closed) notEmpty.awaitUninterruptibly();
+                // closed and drained
+                if (count == 0) break;
+                int size = Math.min(count, MAX_BATCH);
+                for (int i = 0; i < size; i++) {
+                    batch.add(queue[head]);
+                    batchNanos[i] = offeredNanos[head];
+                    queue[head] = null;
+                    head = (head + 1) % queue.length;
+                }
+                count -= size;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            for (SinkStats sink : sinks) {
+                sink.write(batch, batchNanos);
+            }
+            batch.clear();
+        }
+        for (SinkStats sink : sinks) {
+            try {
+                sink.sink.close();
+            } catch (IOException | RuntimeException e) {
+                sink.lastError = e.toString();
+            }
+        }
+    }
+
+    /**
+     * refuses further results, the dispatcher writes the queued ones to the sinks and closes the
+     * sinks in the background; does not wait, e.g. for the UI thread
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * refuses further results, writes the queued ones to the sinks and closes the sinks,
+     * waits at most CLOSE_MILLIS for it
+     */
+    @Override
+    public void close() {
+        shutdown();
+        Thread thread;
+        synchronized (this) {
+            thread = dispatcher;
+        }
+        if (thread == null || thread == Thread.currentThread()) return;
+        try {
+            thread.join(CLOSE_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public int getCapacity() {
+        return queue.length;
+    }
+
+    /**
+     * @return the number of queued results
+     */
+    public int getDepth() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxDepth() {
+        lock.lock();
+        try {
+            return maxDepth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getOffered() {
+        lock.lock();
+        try {
+            return offered;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the results that never reached the sinks
+     */
+    public long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the results that replaced a queued result of the same reader
+     */
+    public long getCoalesced() {
+        lock.lock();
+        try {
+            return coalesced;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return how often a reader had to wait for room in the queue
+     */
+    public long getBlocked() {
+        lock.lock();
+        try {
+            return blocked;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param name
+     * @return the metrics of the sink, null if there is no sink of that name
+     */
+    public synchronized SinkStats getSinkStats(String name) {
+        for (SinkStats sink : sinks) {
+            if (sink.name.equals(name)) return sink;
+        }
+        return null;
+    }
+
+    /**
+     * @return a snapshot of the queue and the sinks as JSON
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder(1024);
+        lock.lock();
+        try {
+            json.append("{\"policy\":\"").append(overflowPolicy.name()).append('"')
+                    .append(",\"capacity\":").append(queue.length)
+                    .append(",\"depth\":").append(count)
+                    .append(",\"maxDepth\":").append(maxDepth)
+                    .append(",\"offered\":").append(offered)
+                    .append(",\"dropped\":").append(dropped)
+                    .append(",\"coalesced\":").append(coalesced)
+                    .append(",\"blocked\":").append(blocked);
+        } finally {
+            lock.unlock();
+        }
+        json.append(",\"bucketBoundsMicros\":[");
+        long[] bounds = LatencyHistogram.getBoundsMicros();
+        for (int i = 0; i < bounds.length; i++) {
+            if (i > 0) json.append(',');
+            json.append(bounds[i]);
+        }
+        json.append("],\"sinks\":{");
+        boolean first = true;
+        synchronized (this) {
+            for (SinkStats sink : sinks) {
+                if (!first) json.append(',');
+                first = false;
+                TapResult.appendJsonString(json, sink.name);
+                json.append(":{\"batches\":").append(sink.batches)
+                        .append(",\"written\":").append(sink.written)
+                        .append(",\"errors\":").append(sink.errors)
+                        .append(",\"lastError\":");
+                TapResult.appendJsonString(json, sink.lastError);
+                json.append(",\"lag\":");
+                sink.lag.appendJson(json);
+                json.append('}');
+            }
+        }
+        json.append("}}");
+        return json.toString();
+    }
+
+    /**
+     * the metrics of one sink, written by the dispatcher only
+     */
+    public static final class SinkStats {
+        private final String name;
+        private final ResultSink sink;
+        private final LatencyHistogram lag = new LatencyHistogram();
+        private volatile long batches = 0;
+        private volatile long written = 0;
+        private volatile long errors = 0;
+        private volatile String lastError = null;
+
+        SinkStats(String name, ResultSink sink) {
+            this.name = name;
+            this.sink = sink;
+        }
+
+        void write(List<TapResult> batch, long[] batchNanos) {
+            try {
+                sink.write(batch);
+            } catch (IOException | RuntimeException e) {
+                errors++;
+                lastError = e.toString();
+                return;
+            }
+            long now = System.nanoTime();
+            for (int i = 0; i < batch.size(); i++) {
+                lag.record(now - batchNanos[i]);
+            }
+            batches++;
+            written += batch.size();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getBatches() {
+            return batches;
+        }
+
+        /**
+         * @return the results the sink wrote
+         */
+        public long getWritten() {
+            return written;
+        }
+
+        /**
+         * @return the batches the sink failed to write
+         */
+        public long getErrors() {
+            return errors;
+        }
+
+        public String getLastError() {
+            return lastError;
+        }
+
+        /**
+         * @return the time from the offer of a result to the end of the sink's write
+         */
+        public LatencyHistogram getLag() {
+            return lag;
+        }
+    }
+}
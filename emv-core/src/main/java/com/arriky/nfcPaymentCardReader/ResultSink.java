@@ -0,0 +1,19 @@
+package com.arriky.nfcPaymentCardReader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A destination of the ResultPipeline, e.g. the UI, a file or a socket. The pipeline calls a
+ * sink on its own thread only, one batch after the other, so a sink needs no locks. A sink
+ * should write a batch with one write and one flush instead of one per tap.
+ */
+public interface ResultSink extends Closeable {
+
+    /**
+     * @param batch the taps in the order they were queued, only valid during the call
+     * @throws IOException the batch is lost for this sink, the pipeline goes on with the next one
+     */
+    void write(List<TapResult> batch) throws IOException;
+}
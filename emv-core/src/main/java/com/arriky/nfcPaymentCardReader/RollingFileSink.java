@@ -0,0 +1,108 @@
+package com.arriky.nfcPaymentCardReader;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Appends the taps to a file that is rolled over when it reaches maxBytes: name.log is renamed
+ * to name.1.log, name.1.log to name.2.log and so on, the oldest file is deleted. So the files
+ * never take more than about maxBytes * maxFiles.
+ *
+ * A tap is written either as its log (a markdown header with time and reader, then the log of
+ * the session like logfile.md) or as a JSON line. A batch is written with one write.
+ */
+public class RollingFileSink implements ResultSink {
+
+    private final File directory;
+    private final String name;
+    private final long maxBytes;
+    private final int maxFiles;
+    private final boolean jsonLines;
+    private final StringBuilder text = new StringBuilder(4096);
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS 'UTC'", Locale.US);
+    private FileOutputStream out = null;
+    private long size = 0;
+
+    /**
+     * @param directory created if it does not exist
+     * @param name      the base name of the files
+     * @param maxBytes  the size at which the file is rolled over
+     * @param maxFiles  the number of files kept, including the current one
+     * @param jsonLines true writes a JSON line per tap instead of its log
+     */
+    public RollingFileSink(@NonNull File directory, @NonNull String name, long maxBytes, int maxFiles, boolean jsonLines) {
+        if (maxBytes < 1 || maxFiles < 1) throw new IllegalArgumentException("maxBytes and maxFiles must be positive");
+        this.directory = directory;
+        this.name = name;
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+        this.jsonLines = jsonLines;
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    @Override
+    public void write(List<TapResult> batch) throws IOException {
+        byte[] data;
+        if (jsonLines) {
+            data = JsonLinesSink.encode(batch, text);
+        } else {
+            text.setLength(0);
+            for (TapResult result : batch) {
+                text.append("## ").append(dateFormat.format(new Date(result.getTimeMillis())))
+                        .append(' ').append(result.getSource()).append("\n\n")
+                        .append(result.getLog()).append('\n');
+            }
+            data = text.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        if (out == null) open();
+        if (size > 0 && size + data.length > maxBytes) {
+            roll();
+            open();
+        }
+        out.write(data);
+        out.flush();
+        size += data.length;
+    }
+
+    /**
+     * @param index 0 for the current file
+     * @return
+     */
+    File getFile(int index) {
+        return new File(directory, index == 0 ? name + ".log" : name + "." + index + ".log");
+    }
+
+    private void open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("cannot create " + directory);
+        File file = getFile(0);
+        out = new FileOutputStream(file, true);
+        size = file.length();
+    }
+
+    private void roll() throws IOException {
+        out.close();
+        out = null;
+        File oldest = getFile(maxFiles - 1);
+        if (oldest.exists() && !oldest.delete()) throw new IOException("cannot delete " + oldest);
+        for (int i = maxFiles - 2; i >= 0; i--) {
+            File file = getFile(i);
+            if (file.exists() && !file.renameTo(getFile(i + 1))) throw new IOException("cannot rename " + file);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        FileOutputStream opened = out;
+        out = null;
+        if (opened != null) opened.close();
+    }
+}
@@ -0,0 +1,245 @@
+package com.arriky.nfcPaymentCardReader;
+
+import com.github.devnied.emvnfccard.enums.SwEnum;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The readable report of a reading session in the style of logfile.md: every command and
+ * response in hex, the responses as TLV dumps with the tag names and, for a GPO command, the
+ * PDOL as a table of the values that were sent.
+ *
+ * The decoder keeps only the raw exchanges of a session, the report is rendered from them when
+ * it is needed (verbose mode or a detail view), nothing is formatted while the card is read.
+ * render appends to a StringBuilder the caller provides, the indentation comes from a padding
+ * table, the hex digits from the HexCodec tables and the tag names and formats from the generated
+ * EmvTagDictionary. A report is not thread safe.
+ */
+public final class SessionReport {
+
+    private static final byte INS_SELECT = (byte) 0xA4;
+    private static final byte INS_GPO = (byte) 0xA8;
+    private static final byte INS_READ_RECORD = (byte) 0xB2;
+    private static final byte INS_INTERNAL_AUTHENTICATE = (byte) 0x88;
+    private static final byte[] PPSE = "2PAY.SYS.DDF01".getBytes(StandardCharsets.US_ASCII);
+    private static final String SEPARATOR = "------------------------------------";
+    private static final String TABLE_SEPARATOR = "-----------------------------------------------------";
+    private static final int MAX_DEPTH = 9;
+    private static final char[] SPACES = new char[96];
+
+    static {
+        Arrays.fill(SPACES, ' ');
+    }
+
+    private final List<ApduExchange> exchanges;
+    private final TlvCursor cursor = new TlvCursor();
+    // indentation of each template level of the tlv dump
+    private final int[] indents = new int[MAX_DEPTH + 1];
+    private final GpoCommandBuilder gpoCommandBuilder = new GpoCommandBuilder();
+
+    /**
+     * @param exchanges the commands and responses of the session, the arrays are not copied
+     */
+    public SessionReport(List<ApduExchange> exchanges) {
+        this.exchanges = new ArrayList<>(exchanges);
+    }
+
+    public int getExchangeCount() {
+        return exchanges.size();
+    }
+
+    public List<ApduExchange> getExchanges() {
+        return exchanges;
+    }
+
+    /**
+     * @return the complete report
+     */
+    public String render() {
+        StringBuilder report = new StringBuilder(512 * (exchanges.size() + 1));
+        render(report);
+        return report.toString();
+    }
+
+    /**
+     * appends the complete report
+     *
+     * @param out
+     */
+    public void render(StringBuilder out) {
+        byte[] pdol = null;
+        for (int i = 0; i < exchanges.size(); i++) {
+            ApduExchange exchange = exchanges.get(i);
+            byte[] command = exchange.getCommand();
+            byte[] response = exchange.getResponse();
+            appendTitle(out, command);
+            out.append(" command  length ").append(command.length).append(" data: ");
+            HexCodec.encode(command, 0, command.length, out).append('\n');
+            if (isInstruction(command, INS_GPO)) {
+                appendPdolTable(out, pdol, command);
+            }
+            appendTitle(out, command);
+            if (response == null) {
+                out.append(" no response\n\n");
+                continue;
+            }
+            out.append(" response length ").append(response.length).append(" data: ");
+            HexCodec.encode(response, 0, response.length, out).append('\n');
+            out.append(SEPARATOR).append('\n');
+            appendTlv(out, response);
+            appendStatusWord(out, response);
+            out.append(SEPARATOR).append("\n\n");
+            // the PDOL of the selected application is needed for the following GPO
+            if (isInstruction(command, INS_SELECT) && !isPpse(command)) {
+                pdol = findValue(response, 0x9F38);
+            }
+        }
+    }
+
+    private static void appendTitle(StringBuilder out, byte[] command) {
+        if (isInstruction(command, INS_SELECT)) {
+            if (isPpse(command)) {
+                out.append("select PPSE");
+            } else {
+                out.append("select AID ");
+                int length = command.length > 4 ? Math.min(command[4] & 0xFF, command.length - 5) : 0;
+                HexCodec.encode(command, 5, length, out);
+            }
+        } else if (isInstruction(command, INS_GPO)) {
+            out.append("get the processing options");
+        } else if (isInstruction(command, INS_READ_RECORD) && command.length >= 4) {
+            out.append("read record SFI ").append((command[3] & 0xFF) >>> 3).append(" record ").append(command[2] & 0xFF);
+        } else if (isInstruction(command, INS_INTERNAL_AUTHENTICATE)) {
+            out.append("internal authenticate");
+        } else {
+            out.append("apdu");
+        }
+    }
+
+    /**
+     * the tags the card requested in its PDOL and the values the GPO command sent for them
+     */
+    private void appendPdolTable(StringBuilder out, byte[] pdol, byte[] command) {
+        GpoCommandBuilder.PdolLayout layout = gpoCommandBuilder.getLayout(pdol != null ? pdol : new byte[0]);
+        int tagCount = layout.getTagCount();
+        out.append("The card is requesting ").append(tagCount).append(tagCount == 1 ? " tag" : " tags").append(" in the PDOL\n\n");
+        out.append("Tag  Tag Name                        Length Value\n");
+        out.append(TABLE_SEPARATOR).append('\n');
+        if (tagCount == 0) {
+            out.append("     no PDOL provided, the command is empty\n");
+        }
+        // the values are read from the command, a command of another layout shows none
+        boolean sameLayout = command.length == layout.getCommandLength();
+        for (int i = 0; i < tagCount; i++) {
+            int tag = layout.getTag(i);
+            int length = layout.getValueLength(i);
+            int start = out.length();
+            byte[] tagBytes = PackedTag.toBytes(tag);
+            HexCodec.encode(tagBytes, 0, tagBytes.length, out);
+            padColumn(out, start, 5);
+            start = out.length();
+            out.append(EmvTagDictionary.getName(tag));
+            padColumn(out, start, 36);
+            start = out.length();
+            out.append(length);
+            padColumn(out, start, 3);
+            if (sameLayout) HexCodec.encodeBlank(command, layout.getValueOffset(tag), length, out);
+            out.append('\n');
+        }
+        out.append(TABLE_SEPARATOR).append('\n');
+    }
+
+    /**
+     * the elements of a response, each template indented by the width of its tag and length
+     */
+    private void appendTlv(StringBuilder out, byte[] response) {
+        cursor.resetResponse(response);
+        indents[0] = 0;
+        while (cursor.next()) {
+            int depth = Math.min(cursor.getDepth(), MAX_DEPTH - 1);
+            int indent = indents[depth];
+            int headerLength = cursor.getValueOffset() - cursor.getTagOffset();
+            int valueIndent = indent + 3 * headerLength;
+            appendSpaces(out, indent);
+            HexCodec.encodeBlank(response, cursor.getTagOffset(), headerLength, out);
+            int index = EmvTagDictionary.indexOf(cursor.getTag());
+            out.append("-- ").append(index >= 0 ? EmvTagDictionary.nameAt(index) : EmvTagDictionary.UNKNOWN_NAME).append('\n');
+            if (cursor.isConstructed()) {
+                indents[depth + 1] = valueIndent;
+                continue;
+            }
+            appendSpaces(out, valueIndent);
+            HexCodec.encodeBlank(response, cursor.getValueOffset(), cursor.getValueLength(), out);
+            TagFormat format = index >= 0 ? EmvTagDictionary.formatAt(index) : TagFormat.BINARY;
+            if (format == TagFormat.TEXT || format == TagFormat.MIXED) {
+                out.append("(=");
+                for (int i = cursor.getValueOffset(), end = i + cursor.getValueLength(); i < end; i++) {
+                    out.append((char) (response[i] & 0xFF));
+                }
+                out.append(")\n");
+            } else {
+                out.append('(').append(format.name()).append(")\n");
+            }
+        }
+        if (cursor.getStatus() != TlvCursor.OK) {
+            out.append("malformed response: ").append(TlvCursor.statusName(cursor.getStatus())).append('\n');
+        }
+    }
+
+    private static void appendStatusWord(StringBuilder out, byte[] response) {
+        if (response.length < 2) return;
+        HexCodec.encodeBlank(response, response.length - 2, 2, out);
+        SwEnum sw = SwEnum.getSW(response);
+        out.append("-- ").append(sw != null ? sw.getDetail() : "Unknown").append('\n');
+    }
+
+    private byte[] findValue(byte[] response, int tag) {
+        cursor.resetResponse(response);
+        while (cursor.next()) {
+            if (cursor.getTag() == tag) {
+                return Arrays.copyOfRange(response, cursor.getValueOffset(), cursor.getValueOffset() + cursor.getValueLength());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * pads the column that starts at start to width characters, a longer text is cut so at
+     * least one blank separates the columns
+     *
+     * @param out
+     * @param start
+     * @param width
+     */
+    static void padColumn(StringBuilder out, int start, int width) {
+        int length = out.length() - start;
+        if (length >= width) {
+            out.setLength(start + width - 1);
+            length = width - 1;
+        }
+        appendSpaces(out, width - length);
+    }
+
+    private static void appendSpaces(StringBuilder out, int count) {
+        while (count > 0) {
+            int chunk = Math.min(count, SPACES.length);
+            out.append(SPACES, 0, chunk);
+            count -= chunk;
+        }
+    }
+
+    private static boolean isPpse(byte[] command) {
+        if (command.length < 5 + PPSE.length || (command[4] & 0xFF) != PPSE.length) return false;
+        for (int i = 0; i < PPSE.length; i++) {
+            if (command[5 + i] != PPSE[i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean isInstruction(byte[] command, byte ins) {
+        return command.length >= 2 && command[1] == ins;
+    }
+}
@@ -0,0 +1,62 @@
+package com.arriky.nfcPaymentCardReader;
+
+/**
+ * SipHash-2-4, a keyed 64 bit hash. Used to remember cards by their PAN without storing it:
+ * without the key the hashes can not be matched against a list of PANs.
+ */
+final class SipHash {
+
+    private SipHash() {
+    }
+
+    /**
+     * @param key0 the first 8 bytes of the key
+     * @param key1 the last 8 bytes of the key
+     * @param text the characters are hashed as one byte each, meant for digits
+     * @return
+     */
+    static long hash(long key0, long key1, String text) {
+        long v0 = key0 ^ 0x736f6d6570736575L;
+        long v1 = key1 ^ 0x646f72616e646f6dL;
+        long v2 = key0 ^ 0x6c7967656e657261L;
+        long v3 = key1 ^ 0x7465646279746573L;
+        int length = text.length();
+        // the last block holds the remaining bytes and the length, the block after it finalizes
+        int blocks = length / 8 + 1;
+        for (int block = 0; block <= blocks; block++) {
+            long m = 0;
+            int rounds;
+            if (block < blocks) {
+                int start = 8 * block;
+                int end = Math.min(start + 8, length);
+                for (int i = start; i < end; i++) {
+                    m |= (long) (text.charAt(i) & 0xFF) << (8 * (i - start));
+                }
+                if (block == blocks - 1) m |= (long) (length & 0xFF) << 56;
+                v3 ^= m;
+                rounds = 2;
+            } else {
+                v2 ^= 0xFF;
+                rounds = 4;
+            }
+            for (int r = 0; r < rounds; r++) {
+                v0 += v1;
+                v1 = Long.rotateLeft(v1, 13);
+                v1 ^= v0;
+                v0 = Long.rotateLeft(v0, 32);
+                v2 += v3;
+                v3 = Long.rotateLeft(v3, 16);
+                v3 ^= v2;
+                v0 += v3;
+                v3 = Long.rotateLeft(v3, 21);
+                v3 ^= v0;
+                v2 += v1;
+                v1 = Long.rotateLeft(v1, 17);
+                v1 ^= v2;
+                v2 = Long.rotateLeft(v2, 32);
+            }
+            v0 ^= m;
+        }
+        return v0 ^ v1 ^ v2 ^ v3;
+    }
+}
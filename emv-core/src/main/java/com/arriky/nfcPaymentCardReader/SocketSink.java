@@ -0,0 +1,75 @@
+package com.arriky.nfcPaymentCardReader;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+
+/**
+ * Streams the taps as JSON lines to a TCP socket, e.g. a local point of sale process listening
+ * on 127.0.0.1. The socket is opened with the first batch; if a write fails the socket is
+ * closed, the batch is lost and the next batch connects again.
+ */
+public class SocketSink implements ResultSink {
+
+    static final int CONNECT_TIMEOUT_MILLIS = 1000;
+
+    private final String host;
+    private final int port;
+    private final StringBuilder lines = new StringBuilder(4096);
+    private Socket socket = null;
+    private OutputStream out = null;
+
+    /**
+     * @param host
+     * @param port
+     */
+    public SocketSink(@NonNull String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    @Override
+    public void write(List<TapResult> batch) throws IOException {
+        byte[] data = JsonLinesSink.encode(batch, lines);
+        try {
+            if (socket == null) connect();
+            out.write(data);
+            out.flush();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void connect() throws IOException {
+        Socket connecting = new Socket();
+        try {
+            connecting.setTcpNoDelay(true);
+            connecting.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+            out = connecting.getOutputStream();
+            socket = connecting;
+        } catch (IOException e) {
+            connecting.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return true if the socket is open
+     */
+    public boolean isConnected() {
+        return socket != null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        Socket connected = socket;
+        socket = null;
+        out = null;
+        if (connected != null) connected.close();
+    }
+}
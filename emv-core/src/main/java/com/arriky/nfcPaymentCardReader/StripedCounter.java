@@ -0,0 +1,49 @@
+package com.arriky.nfcPaymentCardReader;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many threads can increment without contention, in the style of
+ * java.util.concurrent.atomic.LongAdder (which needs Android API 24, the app runs on API 21).
+ *
+ * Each thread adds to one of several stripes chosen by its thread id, the stripes are spaced
+ * 8 longs (one cache line) apart so they do not share a cache line. Reading the value sums all
+ * stripes, so a sum taken while other threads add is not an atomic snapshot.
+ */
+public final class StripedCounter {
+
+    private static final int PADDING = 8;
+    private static final int STRIPES = stripes();
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    private static int stripes() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int stripes = 1;
+        while (stripes < processors * 2 && stripes < 64) stripes <<= 1;
+        return stripes;
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long value) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        cells.getAndAdd(stripe * PADDING, value);
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    public void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            cells.set(i * PADDING, 0);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.arriky.nfcPaymentCardReader;
+
+/**
+ * The format of a tag's value as listed in the tag table (src/main/tags/emv-tags.txt),
+ * SessionReport shows TEXT and MIXED values as text and the name of the others.
+ */
+public enum TagFormat {
+    BINARY,
+    NUMERIC,
+    TEXT,
+    MIXED,
+    TEMPLATE,
+    DOL
+}
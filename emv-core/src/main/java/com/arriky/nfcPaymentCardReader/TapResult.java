@@ -0,0 +1,112 @@
+package com.arriky.nfcPaymentCardReader;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The outcome of one tap as it is handed to the ResultPipeline: the structured result, the log
+ * of the session and where and when the card was read. A TapResult is immutable, the sinks
+ * read it on the pipeline's thread while the reader already decodes the next card.
+ */
+public final class TapResult {
+
+    private final String source;
+    private final long timeMillis;
+    private final long tapNanos;
+    private final int apduCount;
+    private final CardReadResult result;
+    private final String log;
+
+    /**
+     * @param source     the reader the card was read with
+     * @param timeMillis the end of the tap, System.currentTimeMillis
+     * @param tapNanos   the duration of the tap
+     * @param apduCount
+     * @param result
+     * @param log        the log of the session, see EmvDecoder.getOutputString
+     */
+    public TapResult(@NonNull String source, long timeMillis, long tapNanos, int apduCount, @NonNull CardReadResult result, @NonNull String log) {
+        this.source = source;
+        this.timeMillis = timeMillis;
+        this.tapNanos = tapNanos;
+        this.apduCount = apduCount;
+        this.result = result;
+        this.log = log;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    public long getTapNanos() {
+        return tapNanos;
+    }
+
+    public int getApduCount() {
+        return apduCount;
+    }
+
+    public CardReadResult getResult() {
+        return result;
+    }
+
+    public String getLog() {
+        return log;
+    }
+
+    /**
+     * @return the scheme of the first application, UNKNOWN if no application was selected
+     */
+    public CardScheme getScheme() {
+        return result.getApplications().isEmpty() ? CardScheme.UNKNOWN : result.getApplications().get(0).getScheme();
+    }
+
+    /**
+     * appends the tap as one line of JSON (without the line break), the log is left out
+     *
+     * @param json
+     */
+    public void appendJson(StringBuilder json) {
+        json.append("{\"time\":").append(timeMillis);
+        json.append(",\"source\":");
+        appendJsonString(json, source);
+        json.append(",\"scheme\":\"").append(getScheme().name()).append('"');
+        json.append(",\"read\":").append(result.isCardRead());
+        json.append(",\"pan\":");
+        appendJsonString(json, result.getPan());
+        json.append(",\"expirationDate\":");
+        appendJsonString(json, result.getExpirationDate());
+        json.append(",\"panSource\":");
+        appendJsonString(json, result.getPanSource().toString());
+        json.append(",\"apdus\":").append(apduCount);
+        json.append(",\"tapMicros\":").append(tapNanos / 1_000).append('}');
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder(256);
+        appendJson(json);
+        return json.toString();
+    }
+
+    static void appendJsonString(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format(java.util.Locale.US, "\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,226 @@
+package com.arriky.nfcPaymentCardReader;
+
+/**
+ * A flyweight cursor over BER-TLV encoded data, e.g. a card's response. The cursor walks the
+ * byte array by offset and creates no objects: tag, value offset and value length of the
+ * current element are plain fields.
+ *
+ * next visits all elements in the order they appear in the data (depth first), a constructed
+ * element (templates like 6F, 70, 77 or A5) is returned itself and then its content. Padding
+ * bytes 00 and FF between elements are skipped. Malformed data ends the walk, getStatus tells
+ * what was wrong instead of an exception.
+ *
+ * scan extracts a set of tags in a single pass, e.g. PAN and expiration date of a record.
+ * A cursor can be reused for any number of responses, it is not thread safe.
+ */
+public final class TlvCursor {
+
+    public static final int OK = 0;
+    // the data ends inside a tag
+    public static final int TRUNCATED_TAG = -1;
+    // the data ends inside a length field
+    public static final int TRUNCATED_LENGTH = -2;
+    // indefinite length or a length field with more than 3 length bytes
+    public static final int INVALID_LENGTH = -3;
+    // the value is longer than the data or the enclosing template
+    public static final int TRUNCATED_VALUE = -4;
+    // templates nested deeper than MAX_DEPTH
+    public static final int TOO_DEEP = -5;
+    // a tag with more than 4 bytes
+    public static final int INVALID_TAG = -6;
+
+    private static final int MAX_DEPTH = 8;
+
+    private byte[] data;
+    private int position;
+    private int end;
+    // end offsets of the templates the cursor is in
+    private final int[] ends = new int[MAX_DEPTH];
+    private int depth;
+    private int status;
+    // the current element
+    private int tag;
+    private int tagOffset;
+    private int valueOffset;
+    private int valueLength;
+    private boolean constructed;
+
+    /**
+     * positions the cursor before the first element of the data
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @return this cursor
+     */
+    public TlvCursor reset(byte[] data, int offset, int length) {
+        this.data = data;
+        this.position = offset;
+        this.end = offset + length;
+        this.depth = 0;
+        this.status = OK;
+        this.tag = 0;
+        this.tagOffset = -1;
+        this.valueOffset = -1;
+        this.valueLength = 0;
+        this.constructed = false;
+        return this;
+    }
+
+    /**
+     * positions the cursor before the first element of a response, the trailing status word
+     * (e.g. 0x'9000') is not part of the data
+     *
+     * @param response
+     * @return this cursor
+     */
+    public TlvCursor resetResponse(byte[] response) {
+        return reset(response, 0, response != null ? Math.max(0, response.length - 2) : 0);
+    }
+
+    /**
+     * moves to the next element
+     *
+     * @return true if the cursor is on an element, false at the end of the data or if the data is
+     * malformed, see getStatus
+     */
+    public boolean next() {
+        if (status != OK) return false;
+        int limit;
+        while (true) {
+            // leave the templates that are complete
+            while (depth > 0 && position >= ends[depth - 1]) depth--;
+            limit = depth > 0 ? ends[depth - 1] : end;
+            while (position < limit && (data[position] == (byte) 0x00 || data[position] == (byte) 0xFF)) position++;
+            if (position < limit) break;
+            if (depth == 0) return false;
+        }
+        int tagLength = PackedTag.tagLength(data, position, limit);
+        if (tagLength < 0) return fail(TRUNCATED_TAG);
+        if (tagLength > 4) return fail(INVALID_TAG);
+        int p = position + tagLength;
+        if (p >= limit) return fail(TRUNCATED_LENGTH);
+        int length = data[p] & 0xFF;
+        p++;
+        if (length > 0x7F) {
+            int lengthBytes = length & 0x7F;
+            if (lengthBytes == 0 || lengthBytes > 3) return fail(INVALID_LENGTH);
+            if (p + lengthBytes > limit) return fail(TRUNCATED_LENGTH);
+            length = 0;
+            for (int i = 0; i < lengthBytes; i++) {
+                length = (length << 8) | (data[p++] & 0xFF);
+            }
+        }
+        if (length > limit - p) return fail(TRUNCATED_VALUE);
+        tag = PackedTag.pack(data, position, tagLength);
+        tagOffset = position;
+        valueOffset = p;
+        valueLength = length;
+        constructed = (data[position] & 0x20) != 0;
+        if (constructed) {
+            if (depth == MAX_DEPTH) return fail(TOO_DEEP);
+            ends[depth++] = p + length;
+            position = p;
+        } else {
+            position = p + length;
+        }
+        return true;
+    }
+
+    private boolean fail(int status) {
+        this.status = status;
+        this.position = end;
+        return false;
+    }
+
+    /**
+     * walks the remaining elements once and notes the first occurrence of each requested tag
+     *
+     * @param tags         packed tags, e.g. 0x5A and 0x5F24
+     * @param valueOffsets receives the value offset of each tag, -1 if the tag was not found
+     * @param valueLengths receives the value length of each tag, 0 if the tag was not found
+     * @return OK or the reason why the data is malformed, tags found before the malformed part
+     * are reported
+     */
+    public int scan(int[] tags, int[] valueOffsets, int[] valueLengths) {
+        for (int i = 0; i < tags.length; i++) {
+            valueOffsets[i] = -1;
+            valueLengths[i] = 0;
+        }
+        int missing = tags.length;
+        while (missing > 0 && next()) {
+            for (int i = 0; i < tags.length; i++) {
+                if (tags[i] == tag && valueOffsets[i] < 0) {
+                    valueOffsets[i] = valueOffset;
+                    valueLengths[i] = valueLength;
+                    missing--;
+                    break;
+                }
+            }
+        }
+        return status;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return OK or the reason why the walk ended early
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    public int getTag() {
+        return tag;
+    }
+
+    public int getTagOffset() {
+        return tagOffset;
+    }
+
+    public int getValueOffset() {
+        return valueOffset;
+    }
+
+    public int getValueLength() {
+        return valueLength;
+    }
+
+    public boolean isConstructed() {
+        return constructed;
+    }
+
+    /**
+     * @return the number of templates the current element is in
+     */
+    public int getDepth() {
+        return constructed ? depth - 1 : depth;
+    }
+
+    /**
+     * @param status
+     * @return a readable name of a status code
+     */
+    public static String statusName(int status) {
+        switch (status) {
+            case OK:
+                return "ok";
+            case TRUNCATED_TAG:
+                return "truncated tag";
+            case TRUNCATED_LENGTH:
+                return "truncated length";
+            case INVALID_LENGTH:
+                return "invalid length";
+            case TRUNCATED_VALUE:
+                return "truncated value";
+            case TOO_DEEP:
+                return "templates nested too deep";
+            case INVALID_TAG:
+                return "invalid tag";
+            default:
+                return "unknown status " + status;
+        }
+    }
+}
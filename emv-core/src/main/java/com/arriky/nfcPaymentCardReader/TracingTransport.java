@@ -0,0 +1,86 @@
+package com.arriky.nfcPaymentCardReader;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+
+/**
+ * An ApduTransport that passes every command to another transport and records the exchange
+ * in an ApduTraceRecorder. connect starts a new session in the recording, the transport keeps
+ * its id and start time, so taps of other readers on the same recorder do not mix with it.
+ */
+public class TracingTransport implements ApduTransport {
+
+    private final ApduTransport transport;
+    private final ApduTraceRecorder recorder;
+    private final String source;
+    private int session = 0;
+    private long sessionStartNanos = System.nanoTime();
+
+    public TracingTransport(@NonNull ApduTransport transport, @NonNull ApduTraceRecorder recorder) {
+        this(transport, recorder, null);
+    }
+
+    /**
+     * @param transport
+     * @param recorder
+     * @param source    the name of the reader in the recording, may be null
+     */
+    public TracingTransport(@NonNull ApduTransport transport, @NonNull ApduTraceRecorder recorder, String source) {
+        this.transport = transport;
+        this.recorder = recorder;
+        this.source = source;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        sessionStartNanos = System.nanoTime();
+        session = recorder.startSession(source);
+        transport.connect();
+    }
+
+    @Override
+    public byte[] transceive(byte[] command) throws IOException {
+        long start = System.nanoTime();
+        byte[] response = null;
+        try {
+            response = transport.transceive(command);
+            return response;
+        } finally {
+            recorder.record(session, start - sessionStartNanos, System.nanoTime() - start, command, response);
+        }
+    }
+
+    @Override
+    public int transceive(byte[] command, byte[] response) throws IOException {
+        long start = System.nanoTime();
+        int length = -1;
+        try {
+            length = transport.transceive(command, response);
+            return length;
+        } finally {
+            recorder.record(session, start - sessionStartNanos, System.nanoTime() - start, command, length >= 0 ? response : null, length);
+        }
+    }
+
+    @Override
+    public byte[][] transceiveAll(byte[][] commands) throws IOException {
+        long start = System.nanoTime();
+        byte[][] responses = null;
+        try {
+            responses = transport.transceiveAll(commands);
+            return responses;
+        } finally {
+            // the transport does not time the single commands, each gets its share
+            long nanos = (System.nanoTime() - start) / Math.max(1, commands.length);
+            for (int i = 0; i < commands.length; i++) {
+                recorder.record(session, start + i * nanos - sessionStartNanos, nanos, commands[i], responses != null ? responses[i] : null);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        transport.close();
+    }
+}
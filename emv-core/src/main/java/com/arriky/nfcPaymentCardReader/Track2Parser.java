@@ -0,0 +1,196 @@
+package com.arriky.nfcPaymentCardReader;
+
+import java.util.Arrays;
+
+/**
+ * Parses the PAN and the expiration date straight from the BCD nibbles of a card's response,
+ * without hex strings in between:
+ * - Track 2 Equivalent Data (tag 57): PAN, separator D, expiration date YYMM, service code
+ * - Application PAN (tag 5A): PAN padded with F
+ * - Application Expiration Date (tag 5F24): YYMMDD
+ *
+ * The digits are written into char arrays owned by the parser, the same arrays are used for
+ * every card. wipe overwrites them, so no copy of the PAN is left on the heap unless the caller
+ * creates one with panToString. A parser is not thread safe.
+ */
+public final class Track2Parser {
+
+    public static final int OK = 0;
+    // no field separator D in the track 2 data
+    public static final int NO_SEPARATOR = -1;
+    // a nibble that is not a decimal digit
+    public static final int INVALID_DIGIT = -2;
+    // the data ends before the expiration date or the service code
+    public static final int TOO_SHORT = -3;
+    // more than MAX_PAN_DIGITS digits
+    public static final int PAN_TOO_LONG = -4;
+
+    public static final int MAX_PAN_DIGITS = 19;
+
+    private final char[] pan = new char[MAX_PAN_DIGITS];
+    private int panLength = 0;
+    private final char[] expirationDate = new char[6];
+    private int expirationDateLength = 0;
+    private final char[] serviceCode = new char[3];
+    private int serviceCodeLength = 0;
+
+    private static int nibble(byte[] data, int offset, int index) {
+        int b = data[offset + (index >>> 1)];
+        return (index & 1) == 0 ? (b >>> 4) & 0x0F : b & 0x0F;
+    }
+
+    /**
+     * parses Track 2 Equivalent Data, the PAN ends at the separator D, the expiration date (YYMM)
+     * and the service code follow it
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @return OK or the reason why the data could not be parsed
+     */
+    public int parseTrack2(byte[] data, int offset, int length) {
+        wipe();
+        int nibbles = length * 2;
+        int index = 0;
+        while (index < nibbles) {
+            int n = nibble(data, offset, index);
+            if (n == 0x0D) break;
+            index++;
+            // F before the separator is padding
+            if (n == 0x0F) continue;
+            if (n > 9) return fail(INVALID_DIGIT);
+            if (panLength == MAX_PAN_DIGITS) return fail(PAN_TOO_LONG);
+            pan[panLength++] = (char) ('0' + n);
+        }
+        if (index == nibbles) return fail(NO_SEPARATOR);
+        // skip the separator
+        index++;
+        if (index + 4 > nibbles) return fail(TOO_SHORT);
+        for (int i = 0; i < 4; i++) {
+            int n = nibble(data, offset, index++);
+            if (n > 9) return fail(INVALID_DIGIT);
+            expirationDate[expirationDateLength++] = (char) ('0' + n);
+        }
+        // the service code is optional for the PAN, it is left empty if the data ends early
+        if (index + 3 <= nibbles) {
+            for (int i = 0; i < 3; i++) {
+                int n = nibble(data, offset, index++);
+                if (n > 9) break;
+                serviceCode[serviceCodeLength++] = (char) ('0' + n);
+            }
+            if (serviceCodeLength < 3) {
+                Arrays.fill(serviceCode, '\0');
+                serviceCodeLength = 0;
+            }
+        }
+        return OK;
+    }
+
+    /**
+     * parses an Application PAN (tag 5A), trailing F nibbles are padding
+     * the expiration date and the service code are left as they are
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @return OK or the reason why the data could not be parsed
+     */
+    public int parsePan(byte[] data, int offset, int length) {
+        Arrays.fill(pan, '\0');
+        panLength = 0;
+        int nibbles = length * 2;
+        while (nibbles > 0 && nibble(data, offset, nibbles - 1) == 0x0F) nibbles--;
+        if (nibbles > MAX_PAN_DIGITS) return PAN_TOO_LONG;
+        for (int index = 0; index < nibbles; index++) {
+            int n = nibble(data, offset, index);
+            if (n > 9) {
+                Arrays.fill(pan, '\0');
+                panLength = 0;
+                return INVALID_DIGIT;
+            }
+            pan[panLength++] = (char) ('0' + n);
+        }
+        return OK;
+    }
+
+    /**
+     * parses an Application Expiration Date (tag 5F24, YYMMDD)
+     * the PAN and the service code are left as they are
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @return OK or the reason why the data could not be parsed
+     */
+    public int parseExpirationDate(byte[] data, int offset, int length) {
+        expirationDateLength = 0;
+        if (length < 3) return TOO_SHORT;
+        for (int index = 0; index < 6; index++) {
+            int n = nibble(data, offset, index);
+            if (n > 9) {
+                expirationDateLength = 0;
+                return INVALID_DIGIT;
+            }
+            expirationDate[expirationDateLength++] = (char) ('0' + n);
+        }
+        return OK;
+    }
+
+    private int fail(int status) {
+        wipe();
+        return status;
+    }
+
+    /**
+     * the buffer holding the PAN, only the first getPanLength chars are valid
+     */
+    public char[] getPanChars() {
+        return pan;
+    }
+
+    public int getPanLength() {
+        return panLength;
+    }
+
+    public boolean hasPan() {
+        return panLength > 0;
+    }
+
+    /**
+     * @return the PAN, an empty string if there is none
+     */
+    public String panToString() {
+        return new String(pan, 0, panLength);
+    }
+
+    /**
+     * @return the expiration date, YYMM from track 2 or YYMMDD from tag 5F24, an empty string if
+     * there is none
+     */
+    public String expirationDateToString() {
+        return new String(expirationDate, 0, expirationDateLength);
+    }
+
+    public int getExpirationDateLength() {
+        return expirationDateLength;
+    }
+
+    /**
+     * @return the service code from track 2, an empty string if there is none
+     */
+    public String serviceCodeToString() {
+        return new String(serviceCode, 0, serviceCodeLength);
+    }
+
+    /**
+     * overwrites PAN, expiration date and service code
+     */
+    public void wipe() {
+        Arrays.fill(pan, '\0');
+        Arrays.fill(expirationDate, '\0');
+        Arrays.fill(serviceCode, '\0');
+        panLength = 0;
+        expirationDateLength = 0;
+        serviceCodeLength = 0;
+    }
+}
@@ -0,0 +1,121 @@
+package com.arriky.nfcPaymentCardReader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads recorded card sessions from the text logs written by the "Talk to your Credit Card" apps,
+ * see logfile.md and the docs/talk *.html files.
+ *
+ * Only the raw apdu lines are used, e.g.
+ * 01 select PPSE command  length 20 data: 00a404000e325041592e5359532e444446303100
+ * 01 select PPSE response length 64 data: 6f3c840e32...9000
+ * All pretty printed tlv output in between is ignored. A new session starts with every
+ * "NFC tag discovered" line, a markdown heading ("## ...") names the following sessions.
+ */
+public class TranscriptReader {
+
+    private static final Pattern APDU_LINE = Pattern.compile("(command|response)\\s+length:?\\s*\\d+\\s+data:\\s*([0-9a-fA-F]*)");
+    private static final String SESSION_START = "NFC tag discovered";
+
+    /**
+     * receives the sessions of a log one by one while the log is read
+     */
+    public interface TranscriptListener {
+        void onTranscript(CardTranscript transcript);
+    }
+
+    public static List<CardTranscript> read(File file) throws IOException {
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            return read(file.getName(), reader);
+        }
+    }
+
+    /**
+     * streams all sessions of a log file, only one session is held in memory at a time
+     *
+     * @param file
+     * @param listener
+     * @throws IOException
+     */
+    public static void read(File file, TranscriptListener listener) throws IOException {
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            read(file.getName(), reader, listener);
+        }
+    }
+
+    /**
+     * parses all sessions in the log
+     *
+     * @param sourceName used to name the sessions
+     * @param reader
+     * @return the sessions that contain at least one complete command / response pair
+     * @throws IOException
+     */
+    public static List<CardTranscript> read(String sourceName, Reader reader) throws IOException {
+        List<CardTranscript> result = new ArrayList<>();
+        read(sourceName, reader, result::add);
+        return result;
+    }
+
+    /**
+     * parses all sessions in the log and hands each session to the listener as soon as it is
+     * complete
+     *
+     * @param sourceName used to name the sessions
+     * @param reader
+     * @param listener   receives the sessions that contain at least one complete command /
+     *                   response pair
+     * @throws IOException
+     */
+    public static void read(String sourceName, Reader reader, TranscriptListener listener) throws IOException {
+        BufferedReader br = new BufferedReader(reader);
+        String heading = sourceName;
+        CardTranscript current = null;
+        byte[] pendingCommand = null;
+        int sessionNumber = 0;
+        String line;
+        while ((line = br.readLine()) != null) {
+            if (line.startsWith("## ")) {
+                heading = sourceName + " " + line.substring(3).trim();
+                continue;
+            }
+            if (line.startsWith(SESSION_START)) {
+                notifyIfNotEmpty(listener, current);
+                sessionNumber++;
+                current = new CardTranscript(heading + " #" + sessionNumber);
+                pendingCommand = null;
+                continue;
+            }
+            Matcher matcher = APDU_LINE.matcher(line);
+            if (!matcher.find()) continue;
+            if (current == null) {
+                sessionNumber++;
+                current = new CardTranscript(heading + " #" + sessionNumber);
+            }
+            byte[] data = EmvDecoder.hexToBytes(matcher.group(2));
+            if (matcher.group(1).equals("command")) {
+                pendingCommand = data;
+            } else if (pendingCommand != null) {
+                current.addExchange(pendingCommand, data);
+                pendingCommand = null;
+            }
+        }
+        notifyIfNotEmpty(listener, current);
+    }
+
+    private static void notifyIfNotEmpty(TranscriptListener listener, CardTranscript transcript) {
+        if (transcript != null && !transcript.getExchanges().isEmpty()) {
+            listener.onTranscript(transcript);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.arriky.nfcPaymentCardReader;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers which Terminal Transaction Qualifiers (9F66) alternative a card product accepted in
+ * the GET PROCESSING OPTIONS command, see DolRegistry for the alternatives 00..03.
+ *
+ * Some cards reject the default TTQ 00 (e.g. with 0x'6985'), the EmvDecoder then tries the
+ * other alternatives one after the other. The alternative that worked is stored here, so the
+ * next tap of a card from the same issuer sends it right away and skips the failing GPO.
+ *
+ * The key is a fingerprint of the SELECT AID response (the FCI holds the AID and the
+ * issuer's application data), no card data like the PAN is stored. Card products that accept
+ * the default are not stored. The cache is bounded (least recently used entries are removed)
+ * and can be shared by all taps.
+ */
+public final class TtqPreferenceCache {
+
+    public static final byte DEFAULT_TTQ = (byte) 0x00;
+    public static final byte MAX_TTQ = (byte) 0x03;
+    private static final int SHARED_CAPACITY = 64;
+    private static final TtqPreferenceCache SHARED = new TtqPreferenceCache(SHARED_CAPACITY);
+
+    private final Map<Long, Byte> preferences;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param capacity the maximum number of card products
+     */
+    public TtqPreferenceCache(final int capacity) {
+        this.preferences = new LinkedHashMap<Long, Byte>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Byte> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the cache shared by all readings in this process
+     */
+    public static TtqPreferenceCache getShared() {
+        return SHARED;
+    }
+
+    /**
+     * @param selectAidFingerprint see WarmTapCache.fingerprint
+     * @return the alternative that worked last time, DEFAULT_TTQ if the card product is unknown
+     */
+    public synchronized byte get(long selectAidFingerprint) {
+        Byte ttq = preferences.get(selectAidFingerprint);
+        if (ttq != null) {
+            hits++;
+            return ttq;
+        }
+        misses++;
+        return DEFAULT_TTQ;
+    }
+
+    /**
+     * stores the alternative a card product accepted, the default removes the entry
+     *
+     * @param selectAidFingerprint
+     * @param ttq
+     */
+    public synchronized void put(long selectAidFingerprint, byte ttq) {
+        if (ttq == DEFAULT_TTQ) {
+            preferences.remove(selectAidFingerprint);
+        } else {
+            preferences.put(selectAidFingerprint, ttq);
+        }
+    }
+
+    public synchronized int size() {
+        return preferences.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized void clear() {
+        preferences.clear();
+        hits = 0;
+        misses = 0;
+    }
+}
@@ -0,0 +1,132 @@
+package com.arriky.nfcPaymentCardReader;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers where the PAN of a card product was found, so a repeated tap can skip most of the
+ * reading sequence.
+ *
+ * The key is a fingerprint of the SELECT PPSE response (the FCI), the profile holds the AID
+ * that delivered the PAN, a fingerprint of its SELECT response, its AFL and the place of the
+ * PAN (GPO response or SFI/record). No card data like the PAN is stored, the profile only
+ * describes the layout of a card product.
+ *
+ * The EmvDecoder verifies every step of a warm tap against the live responses and falls back
+ * to the full sequence on any mismatch. The cache is bounded (least recently used entries are
+ * removed) and can be shared by all taps.
+ */
+public class WarmTapCache {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * the layout of a card product as learned from a complete reading sequence
+     */
+    public static final class CardProfile {
+        private final byte[] aid;
+        private final long selectAidFingerprint;
+        private final byte[] afl;
+        private final CardReadResult.Source panSource;
+        private final int fullSequenceApdus;
+
+        public CardProfile(byte[] aid, long selectAidFingerprint, byte[] afl, CardReadResult.Source panSource, int fullSequenceApdus) {
+            this.aid = aid.clone();
+            this.selectAidFingerprint = selectAidFingerprint;
+            this.afl = afl != null ? afl.clone() : new byte[0];
+            this.panSource = panSource;
+            this.fullSequenceApdus = fullSequenceApdus;
+        }
+
+        public byte[] getAid() {
+            return aid.clone();
+        }
+
+        public boolean matchesSelectAidResponse(byte[] selectAidResponse) {
+            return fingerprint(selectAidResponse) == selectAidFingerprint;
+        }
+
+        public boolean matchesAfl(byte[] afl) {
+            return java.util.Arrays.equals(this.afl, afl != null ? afl : new byte[0]);
+        }
+
+        public CardReadResult.Source getPanSource() {
+            return panSource;
+        }
+
+        /**
+         * @return the number of apdus the complete reading sequence needed
+         */
+        public int getFullSequenceApdus() {
+            return fullSequenceApdus;
+        }
+    }
+
+    private final Map<Long, CardProfile> profiles;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param capacity the maximum number of card products
+     */
+    public WarmTapCache(final int capacity) {
+        this.profiles = new LinkedHashMap<Long, CardProfile>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CardProfile> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * 64 bit FNV-1a hash of a response
+     *
+     * @param data
+     * @return
+     */
+    public static long fingerprint(byte[] data) {
+        long hash = FNV_OFFSET_BASIS;
+        if (data == null) return hash;
+        for (byte b : data) {
+            hash ^= (b & 0xFF);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    public synchronized CardProfile get(long ppseFingerprint) {
+        CardProfile profile = profiles.get(ppseFingerprint);
+        if (profile != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return profile;
+    }
+
+    public synchronized void put(long ppseFingerprint, CardProfile profile) {
+        profiles.put(ppseFingerprint, profile);
+    }
+
+    /**
+     * forgets a profile that did not match the live card
+     *
+     * @param ppseFingerprint
+     */
+    public synchronized void remove(long ppseFingerprint) {
+        profiles.remove(ppseFingerprint);
+    }
+
+    public synchronized int size() {
+        return profiles.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,294 @@
+package com.arriky.nfcPaymentCardReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Build time generator of EmvTagDictionary, run by the generateEmvTags task of emv-core.
+ *
+ * Reads the tag table (src/main/tags/emv-tags.txt) and writes a Java class that holds the
+ * names, formats and default values as array literals, so nothing is parsed when the app
+ * starts. The lookup is a perfect hash: the generator searches a multiplier for which
+ * (tag * multiplier) >>> shift gives every tag of the table a slot of its own, a lookup is one
+ * multiplication and one comparison.
+ *
+ * usage: EmvTagGenerator table outputDirectory
+ */
+public final class EmvTagGenerator {
+
+    private static final String PACKAGE = "com.arriky.nfcPaymentCardReader";
+    private static final String CLASS_NAME = "EmvTagDictionary";
+    private static final List<String> FORMATS = Arrays.asList("BINARY", "NUMERIC", "TEXT", "MIXED", "TEMPLATE", "DOL");
+    private static final int MAX_BITS = 14;
+    private static final int TRIES_PER_SIZE = 1_000_000;
+
+    private static final class Row {
+        final int key;
+        final String format;
+        final byte[] value;
+        final String name;
+
+        Row(int key, String format, byte[] value, String name) {
+            this.key = key;
+            this.format = format;
+            this.value = value;
+            this.name = name;
+        }
+    }
+
+    private EmvTagGenerator() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: EmvTagGenerator table outputDirectory");
+            System.exit(2);
+        }
+        File table = new File(args[0]);
+        List<Row> rows = read(table);
+        int[] keys = new int[rows.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = rows.get(i).key;
+        }
+        int[] hash = findMultiplier(keys);
+        File directory = new File(args[1], PACKAGE.replace('.', File.separatorChar));
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("can not create " + directory);
+        }
+        File output = new File(directory, CLASS_NAME + ".java");
+        try (Writer writer = Files.newBufferedWriter(output.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(generate(table.getName(), rows, hash[0], hash[1]));
+        }
+    }
+
+    static List<Row> read(File table) throws IOException {
+        List<Row> rows = new ArrayList<>();
+        List<String> lines = Files.readAllLines(table.toPath(), StandardCharsets.UTF_8);
+        for (int n = 0; n < lines.size(); n++) {
+            String line = lines.get(n).trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] fields = line.split("\\s+", 4);
+            if (fields.length != 4) throw new IOException(table.getName() + ":" + (n + 1) + ": expected tag, format, default and name");
+            try {
+                int key = parseKey(fields[0]);
+                if (!FORMATS.contains(fields[1])) throw new IllegalArgumentException("unknown format " + fields[1]);
+                byte[] value = fields[2].equals("-") ? null : parseHex(fields[2]);
+                for (Row row : rows) {
+                    if (row.key == key) throw new IllegalArgumentException("duplicate tag " + fields[0]);
+                }
+                rows.add(new Row(key, fields[1], value, fields[3]));
+            } catch (IllegalArgumentException e) {
+                throw new IOException(table.getName() + ":" + (n + 1) + ": " + e.getMessage());
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * @param field a tag in hex, a TTQ alternative as 9F66/01
+     * @return the packed tag (see PackedTag), an alternative is appended as last byte
+     */
+    private static int parseKey(String field) {
+        int slash = field.indexOf('/');
+        String tag = slash < 0 ? field : field.substring(0, slash);
+        if (tag.length() < 2 || tag.length() > 6 || tag.length() % 2 != 0) throw new IllegalArgumentException("bad tag " + field);
+        int key = Integer.parseInt(tag, 16);
+        if (slash >= 0) {
+            if (tag.length() > 4) throw new IllegalArgumentException("bad alternative " + field);
+            key = (key << 8) | (Integer.parseInt(field.substring(slash + 1), 16) & 0xFF);
+        }
+        return key;
+    }
+
+    private static byte[] parseHex(String hex) {
+        if (hex.length() % 2 != 0) throw new IllegalArgumentException("odd number of hex digits " + hex);
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    /**
+     * searches an odd multiplier, starting with a table of four slots per key
+     *
+     * @param keys distinct keys
+     * @return the multiplier and the shift
+     */
+    static int[] findMultiplier(int[] keys) {
+        int bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(4 * keys.length - 1));
+        // fixed seed, the same table always gives the same class
+        long seed = 0x9E3779B97F4A7C15L;
+        for (; bits <= MAX_BITS; bits++) {
+            boolean[] used = new boolean[1 << bits];
+            int shift = 32 - bits;
+            for (int i = 0; i < TRIES_PER_SIZE; i++) {
+                seed = seed * 6364136223846793005L + 1442695040888963407L;
+                int multiplier = (int) (seed >>> 32) | 1;
+                Arrays.fill(used, false);
+                boolean perfect = true;
+                for (int key : keys) {
+                    int slot = (key * multiplier) >>> shift;
+                    if (used[slot]) {
+                        perfect = false;
+                        break;
+                    }
+                    used[slot] = true;
+                }
+                if (perfect) return new int[]{multiplier, shift};
+            }
+        }
+        throw new IllegalStateException("no perfect hash for " + keys.length + " tags");
+    }
+
+    static String generate(String tableName, List<Row> rows, int multiplier, int shift) {
+        short[] slots = new short[1 << (32 - shift)];
+        for (int i = 0; i < rows.size(); i++) {
+            slots[(rows.get(i).key * multiplier) >>> shift] = (short) (i + 1);
+        }
+        StringBuilder out = new StringBuilder(16 * 1024);
+        out.append("// generated by EmvTagGenerator from ").append(tableName).append(", do not edit\n");
+        out.append("package ").append(PACKAGE).append(";\n\n");
+        out.append("/**\n");
+        out.append(" * The EMV tags of ").append(tableName).append(": name, format and the terminal's default value.\n");
+        out.append(" * A tag is found with a perfect hash over the packed tag (see PackedTag), the slot\n");
+        out.append(" * (tag * MULTIPLIER) >>> SHIFT holds index + 1 of the tag or 0 if no tag of the table\n");
+        out.append(" * hashes to it. Generated at build time, nothing is parsed or hashed when the class loads.\n");
+        out.append(" */\n");
+        out.append("public final class ").append(CLASS_NAME).append(" {\n\n");
+        out.append("    public static final String UNKNOWN_NAME = \"[UNKNOWN TAG]\";\n");
+        out.append("    private static final int MULTIPLIER = ").append(String.format("0x%08X", multiplier)).append(";\n");
+        out.append("    private static final int SHIFT = ").append(shift).append(";\n\n");
+
+        out.append("    // index + 1 of the tag in the slot, 0 for an empty slot\n");
+        out.append("    private static final short[] SLOTS = {");
+        for (int i = 0; i < slots.length; i++) {
+            if (i % 16 == 0) out.append("\n            ");
+            out.append(slots[i]).append(i < slots.length - 1 ? ", " : "");
+        }
+        out.append("\n    };\n\n");
+
+        out.append("    private static final int[] TAGS = {");
+        for (int i = 0; i < rows.size(); i++) {
+            if (i % 8 == 0) out.append("\n            ");
+            out.append(String.format("0x%X", rows.get(i).key)).append(i < rows.size() - 1 ? ", " : "");
+        }
+        out.append("\n    };\n\n");
+
+        out.append("    private static final String[] NAMES = {\n");
+        for (Row row : rows) {
+            out.append("            \"").append(row.name.replace("\\", "\\\\").replace("\"", "\\\"")).append("\",\n");
+        }
+        out.append("    };\n\n");
+
+        out.append("    private static final TagFormat[] FORMATS = {\n");
+        for (Row row : rows) {
+            out.append("            TagFormat.").append(row.format).append(",\n");
+        }
+        out.append("    };\n\n");
+
+        out.append("    private static final byte[][] DEFAULTS = {\n");
+        List<Integer> defaults = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i++) {
+            Row row = rows.get(i);
+            out.append("            ");
+            if (row.value == null) {
+                out.append("null");
+            } else {
+                defaults.add(i);
+                out.append('{');
+                for (int b = 0; b < row.value.length; b++) {
+                    if (b > 0) out.append(", ");
+                    out.append(String.format("(byte) 0x%02X", row.value[b] & 0xFF));
+                }
+                out.append('}');
+            }
+            out.append(",\n");
+        }
+        out.append("    };\n\n");
+
+        out.append("    // the indexes of the tags with a default value in table order\n");
+        out.append("    private static final int[] DEFAULT_INDEXES = {");
+        for (int i = 0; i < defaults.size(); i++) {
+            out.append(defaults.get(i)).append(i < defaults.size() - 1 ? ", " : "");
+        }
+        out.append("};\n\n");
+
+        out.append("    private ").append(CLASS_NAME).append("() {\n");
+        out.append("    }\n\n");
+
+        out.append("    /**\n");
+        out.append("     * @param tag packed tag\n");
+        out.append("     * @return the index of the tag, -1 if the table does not know it\n");
+        out.append("     */\n");
+        out.append("    public static int indexOf(int tag) {\n");
+        out.append("        int index = SLOTS[(tag * MULTIPLIER) >>> SHIFT] - 1;\n");
+        out.append("        return index >= 0 && TAGS[index] == tag ? index : -1;\n");
+        out.append("    }\n\n");
+
+        out.append("    /**\n");
+        out.append("     * @param tag packed tag\n");
+        out.append("     * @return the name of the tag, UNKNOWN_NAME if the table does not know it\n");
+        out.append("     */\n");
+        out.append("    public static String getName(int tag) {\n");
+        out.append("        int index = indexOf(tag);\n");
+        out.append("        return index >= 0 ? NAMES[index] : UNKNOWN_NAME;\n");
+        out.append("    }\n\n");
+
+        out.append("    /**\n");
+        out.append("     * @param tag packed tag\n");
+        out.append("     * @return the format of the value, BINARY if the table does not know the tag\n");
+        out.append("     */\n");
+        out.append("    public static TagFormat getFormat(int tag) {\n");
+        out.append("        int index = indexOf(tag);\n");
+        out.append("        return index >= 0 ? FORMATS[index] : TagFormat.BINARY;\n");
+        out.append("    }\n\n");
+
+        out.append("    public static int size() {\n");
+        out.append("        return TAGS.length;\n");
+        out.append("    }\n\n");
+
+        out.append("    public static int tagAt(int index) {\n");
+        out.append("        return TAGS[index];\n");
+        out.append("    }\n\n");
+
+        out.append("    public static String nameAt(int index) {\n");
+        out.append("        return NAMES[index];\n");
+        out.append("    }\n\n");
+
+        out.append("    public static TagFormat formatAt(int index) {\n");
+        out.append("        return FORMATS[index];\n");
+        out.append("    }\n\n");
+
+        out.append("    /**\n");
+        out.append("     * @param index\n");
+        out.append("     * @return the default value, shared and not to be modified, null if the tag has none\n");
+        out.append("     */\n");
+        out.append("    static byte[] defaultAt(int index) {\n");
+        out.append("        return DEFAULTS[index];\n");
+        out.append("    }\n\n");
+
+        out.append("    /**\n");
+        out.append("     * @return the number of tags with a default value\n");
+        out.append("     */\n");
+        out.append("    public static int defaultCount() {\n");
+        out.append("        return DEFAULT_INDEXES.length;\n");
+        out.append("    }\n\n");
+
+        out.append("    /**\n");
+        out.append("     * @param i 0 .. defaultCount() - 1\n");
+        out.append("     * @return the index of the i-th tag with a default value in table order\n");
+        out.append("     */\n");
+        out.append("    public static int defaultIndexAt(int i) {\n");
+        out.append("        return DEFAULT_INDEXES[i];\n");
+        out.append("    }\n");
+        out.append("}\n");
+        return out.toString();
+    }
+}
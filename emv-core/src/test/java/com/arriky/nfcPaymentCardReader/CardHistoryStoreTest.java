@@ -0,0 +1,178 @@
+package com.arriky.nfcPaymentCardReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The card history on disk: the index rebuilt when the store is opened again, a tap that was
+ * only partly written when the app died, the compaction of the segments and that no PAN ends up
+ * in the files.
+ */
+public class CardHistoryStoreTest {
+
+    private static final String PAN_1 = "5413330089020011";
+    private static final String PAN_2 = "4761739001010010";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void countsTheTapsOfACard() throws IOException {
+        File directory = folder.newFolder();
+        try (CardHistoryStore store = new CardHistoryStore(directory)) {
+            store.write(Arrays.asList(tap(PAN_1, 1000), tap(PAN_2, 2000), tap(PAN_1, 3000)));
+            store.write(Collections.singletonList(tap(null, 4000)));
+            assertEquals(2, store.getReadCount(PAN_1));
+            assertEquals(1, store.getReadCount(PAN_2));
+            assertEquals(0, store.getReadCount("4000000000000002"));
+            assertEquals(3000, store.getLastReadMillis(PAN_1));
+            assertEquals(2, store.getCardCount());
+
+            CardHistoryStore.Record record = store.getLastRead(PAN_1);
+            assertNotNull(record);
+            assertEquals(2, record.getReadCount());
+            assertEquals("541333******0011", record.getMaskedPan());
+            assertEquals("2412", record.getExpirationDate());
+            assertNull(store.getLastRead("4000000000000002"));
+        }
+        assertNoPanIn(directory);
+    }
+
+    @Test
+    public void rebuildsTheIndexWhenOpenedAgain() throws IOException {
+        File directory = folder.newFolder();
+        try (CardHistoryStore store = new CardHistoryStore(directory)) {
+            store.write(Arrays.asList(tap(PAN_1, 1000), tap(PAN_1, 2000)));
+            store.write(Collections.singletonList(tap(PAN_2, 3000)));
+        }
+        try (CardHistoryStore store = new CardHistoryStore(directory)) {
+            assertEquals(2, store.getReadCount(PAN_1));
+            assertEquals(2000, store.getLastReadMillis(PAN_1));
+            assertEquals(1, store.getReadCount(PAN_2));
+            assertEquals(0, store.getTruncatedBytes());
+            // the count goes on from the stored one
+            store.write(Collections.singletonList(tap(PAN_1, 4000)));
+            assertEquals(3, store.getLastRead(PAN_1).getReadCount());
+        }
+    }
+
+    @Test
+    public void cutsOffATornWrite() throws IOException {
+        File directory = folder.newFolder();
+        try (CardHistoryStore store = new CardHistoryStore(directory)) {
+            store.write(Collections.singletonList(tap(PAN_1, 1000)));
+            store.write(Collections.singletonList(tap(PAN_2, 2000)));
+        }
+        File segment = lastSegment(directory);
+        long intact = segment.length();
+        // the second record loses its last bytes, then garbage of a record that never finished
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(intact - 3);
+            file.seek(intact - 3);
+            file.write(new byte[]{0x00, 0x00, 0x00, 0x20, 0x12, 0x34});
+        }
+        try (CardHistoryStore store = new CardHistoryStore(directory)) {
+            assertEquals(1, store.getReadCount(PAN_1));
+            assertEquals(0, store.getReadCount(PAN_2));
+            assertTrue(store.getTruncatedBytes() > 0);
+            // the store appends after the last intact record
+            store.write(Collections.singletonList(tap(PAN_2, 3000)));
+        }
+        try (CardHistoryStore store = new CardHistoryStore(directory)) {
+            assertEquals(0, store.getTruncatedBytes());
+            assertEquals(1, store.getReadCount(PAN_2));
+            assertEquals(3000, store.getLastReadMillis(PAN_2));
+        }
+    }
+
+    @Test
+    public void compactsTheSegments() throws IOException {
+        File directory = folder.newFolder();
+        // a segment holds a few records, a compaction runs once there are three
+        try (CardHistoryStore store = new CardHistoryStore(directory, 256, 2)) {
+            for (int i = 0; i < 40; i++) {
+                store.write(Collections.singletonList(tap(i % 2 == 0 ? PAN_1 : PAN_2, 1000 + i)));
+            }
+            assertTrue(store.getCompactions() > 0);
+            assertTrue(store.getSegmentCount() <= 3);
+            assertEquals(20, store.getReadCount(PAN_1));
+            assertEquals(20, store.getReadCount(PAN_2));
+            assertEquals(1039, store.getLastRead(PAN_2).getTimeMillis());
+        }
+        assertTrue(segments(directory).size() <= 3);
+        try (CardHistoryStore store = new CardHistoryStore(directory, 256, 2)) {
+            assertEquals(20, store.getReadCount(PAN_1));
+            assertEquals(1038, store.getLastReadMillis(PAN_1));
+            assertEquals(20, store.getLastRead(PAN_2).getReadCount());
+        }
+    }
+
+    @Test
+    public void ignoresAnInterruptedCompaction() throws IOException {
+        File directory = folder.newFolder();
+        try (CardHistoryStore store = new CardHistoryStore(directory)) {
+            store.write(Collections.singletonList(tap(PAN_1, 1000)));
+        }
+        File temp = new File(directory, "history-1.seg.tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(new byte[]{0x45, 0x4D});
+        }
+        try (CardHistoryStore store = new CardHistoryStore(directory)) {
+            assertEquals(1, store.getReadCount(PAN_1));
+        }
+        assertFalse(temp.exists());
+    }
+
+    private static TapResult tap(String pan, long timeMillis) {
+        CardReadResult result = new CardReadResult(0x9000, Collections.<CardReadResult.Application>emptyList(),
+                pan, CardReadResult.Source.GPO_RESPONSE, pan != null ? "2412" : null, CardReadResult.Source.GPO_RESPONSE);
+        return new TapResult("test", timeMillis, 120_000_000L, 6, result, "");
+    }
+
+    private static List<File> segments(File directory) {
+        List<File> segments = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(".seg")) segments.add(file);
+            }
+        }
+        return segments;
+    }
+
+    private static File lastSegment(File directory) {
+        File last = null;
+        for (File file : segments(directory)) {
+            if (last == null || file.getName().compareTo(last.getName()) > 0) last = file;
+        }
+        return last;
+    }
+
+    private static void assertNoPanIn(File directory) throws IOException {
+        for (File file : segments(directory)) {
+            byte[] data = new byte[(int) file.length()];
+            try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+                in.readFully(data);
+            }
+            String text = new String(data, "ISO-8859-1");
+            assertFalse(text.contains(PAN_1));
+            assertFalse(text.contains(PAN_2));
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.arriky.nfcPaymentCardReader;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * The compact binary form of a result: a round trip, and encoded data that is cut or carries
+ * lengths the data can not hold has to be rejected with an IllegalArgumentException, without
+ * allocating what the lengths ask for.
+ */
+public class CardReadResultTest {
+
+    @Test
+    public void decodesWhatItEncodes() {
+        CardReadResult.Application application = new CardReadResult.Application(HexCodec.fromHex("a0000000041010"),
+                "Mastercard", null, HexCodec.fromHex("08010100"), 0x9000, 0x9000,
+                Collections.singletonList(new CardReadResult.RecordRead(1, 1, 0x9000)));
+        CardReadResult result = new CardReadResult(0x9000, Collections.singletonList(application),
+                "5413330089020011", CardReadResult.Source.record(1, 1), "2412", CardReadResult.Source.GPO_RESPONSE);
+
+        CardReadResult decoded = CardReadResult.decode(result.encode());
+        assertEquals("5413330089020011", decoded.getPan());
+        assertEquals("2412", decoded.getExpirationDate());
+        assertEquals(1, decoded.getApplications().size());
+        assertArrayEquals(application.getAid(), decoded.getApplications().get(0).getAid());
+        assertEquals("Mastercard", decoded.getApplications().get(0).getLabel());
+        assertEquals(1, decoded.getApplications().get(0).getRecords().size());
+    }
+
+    @Test
+    public void rejectsTruncatedData() {
+        CardReadResult result = new CardReadResult(0x9000, Collections.<CardReadResult.Application>emptyList(),
+                "4761739001010010", CardReadResult.Source.GPO_RESPONSE, null, CardReadResult.Source.NONE);
+        byte[] data = result.encode();
+        for (int length = 0; length < data.length; length++) {
+            assertRejected(Arrays.copyOf(data, length));
+        }
+        // a varint whose continuation bit is set on the last byte
+        assertRejected(new byte[]{1, (byte) 0x90});
+        // a varint of more than five bytes
+        assertRejected(new byte[]{1, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01});
+    }
+
+    @Test
+    public void rejectsOversizedLengths() {
+        // an AID longer than the data
+        assertRejected(new byte[]{1, 0, 1, 0x7F, 0x01, 0x02});
+        // an AID of a negative length
+        assertRejected(new byte[]{1, 0, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F});
+        // a PAN of Integer.MAX_VALUE digits
+        assertRejected(new byte[]{1, 0, 0, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x08, 0x12});
+        // a PAN of a negative number of digits
+        assertRejected(new byte[]{1, 0, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F});
+        // a PAN of more digits than the remaining bytes hold
+        assertRejected(new byte[]{1, 0, 0, 0x06, 0x12, 0x34});
+    }
+
+    private static void assertRejected(byte[] data) {
+        try {
+            CardReadResult.decode(data);
+            fail("decoded " + HexCodec.toHex(data));
+        } catch (IllegalArgumentException expected) {
+            // the documented failure
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.arriky.nfcPaymentCardReader;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * The layout of the command template 83 for PDOLs of every size: the short length form, the
+ * long form 81 xx from 128 bytes of values on, and a PDOL whose values do not fit into the Lc
+ * of a short APDU.
+ */
+public class GpoCommandBuilderTest {
+
+    private final GpoCommandBuilder builder = new GpoCommandBuilder();
+
+    @Test
+    public void buildsTheCommandWithoutPdol() {
+        assertArrayEquals(HexCodec.fromHex("80a8000002830000"), builder.build(new byte[0], null));
+    }
+
+    @Test
+    public void usesTheShortLengthForm() {
+        // a proprietary tag without default value, 127 bytes
+        byte[] command = builder.build(HexCodec.fromHex("df017f"), null);
+        assertEquals(5 + 2 + 127 + 1, command.length);
+        assertEquals(2 + 127, command[4] & 0xFF);
+        assertEquals(0x83, command[5] & 0xFF);
+        assertEquals(127, command[6] & 0xFF);
+        assertEquals(7, builder.getLayout(HexCodec.fromHex("df017f")).getValueOffset(0xDF01));
+    }
+
+    @Test
+    public void usesTheLongLengthFormFrom128Bytes() {
+        byte[] pdol = HexCodec.fromHex("df0180df0248");
+        byte[] command = builder.build(pdol, null);
+        int values = 0x80 + 0x48;
+        assertEquals(5 + 3 + values + 1, command.length);
+        assertEquals(3 + values, command[4] & 0xFF);
+        assertEquals(0x83, command[5] & 0xFF);
+        assertEquals(0x81, command[6] & 0xFF);
+        assertEquals(values, command[7] & 0xFF);
+        assertEquals(8, builder.getLayout(pdol).getValueOffset(0xDF01));
+        assertEquals(8 + 0x80, builder.getLayout(pdol).getValueOffset(0xDF02));
+        assertEquals(0x00, command[command.length - 1]);
+    }
+
+    @Test
+    public void fillsTheLargestCommand() {
+        byte[] command = builder.build(HexCodec.fromHex("df01fc"), null);
+        assertEquals(255, command[4] & 0xFF);
+        assertEquals(GpoCommandBuilder.MAX_PDOL_VALUES, command[7] & 0xFF);
+        assertEquals(5 + 255 + 1, command.length);
+    }
+
+    @Test
+    public void rejectsValuesBeyondTheLc() {
+        byte[] pdol = HexCodec.fromHex("df01fcdf0201");
+        GpoCommandBuilder.PdolLayout layout = builder.getLayout(pdol);
+        assertFalse(layout.isValid());
+        // the tags stay readable for the reports
+        assertEquals(2, layout.getTagCount());
+        assertEquals(1, layout.getValueLength(1));
+        assertEquals(0, layout.getCommandLength());
+        assertEquals(-1, layout.getValueOffset(0xDF01));
+        try {
+            builder.build(pdol, null);
+            fail("built a command for " + HexCodec.toHex(pdol));
+        } catch (IllegalStateException expected) {
+            // no command is built
+        }
+        assertTrue(builder.getLayout(HexCodec.fromHex("df01fc")).isValid());
+    }
+}
@@ -0,0 +1,360 @@
+package com.arriky.nfcPaymentCardReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.RSAKeyGenParameterSpec;
+import java.util.Arrays;
+
+/**
+ * Offline data authentication against a simulated card whose CA, issuer and ICC keys are
+ * generated for the test: the certificates are built as EMV Book 2 describes them, the card
+ * signs the INTERNAL AUTHENTICATE data with its ICC key. Checks SDA and DDA, the rejection of
+ * changed records and signatures and that a second tap of the issuer's cards skips the
+ * recovery of the issuer key. A recorded card checks the bundled CA keys.
+ *
+ * run with: ./gradlew :emv-core:test --tests '*OfflineDataAuthenticatorTest*'
+ */
+public class OfflineDataAuthenticatorTest {
+
+    private static final byte[] AID = HexCodec.fromHex("a0000000031010");
+    private static final int CA_INDEX = 0x92;
+    private static final String PAN = "4761739001010010";
+    private static final byte[] AIP_SDA = {0x40, 0x00};
+    private static final byte[] AIP_DDA = {0x20, 0x00};
+    // SFI 1 records 1..2, record 1 for ODA, SFI 2 record 1
+    private static final byte[] AFL = HexCodec.fromHex("0801020110010100");
+    // a Visa card signed with CA key 09
+    private static final String RECORDED_CARD = "docs/talk DKB m visa credit.html";
+
+    private static RSAPrivateKey caKey;
+    private static RSAPublicKey caPublicKey;
+    private static RSAPrivateKey issuerKey;
+    private static RSAPublicKey issuerPublicKey;
+    private static RSAPrivateKey iccKey;
+    private static RSAPublicKey iccPublicKey;
+
+    @BeforeClass
+    public static void generateKeys() throws GeneralSecurityException {
+        // the key lengths leave a remainder for the issuer and the ICC key
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(new RSAKeyGenParameterSpec(1152, RSAKeyGenParameterSpec.F4));
+        KeyPair ca = generator.generateKeyPair();
+        caKey = (RSAPrivateKey) ca.getPrivate();
+        caPublicKey = (RSAPublicKey) ca.getPublic();
+        generator.initialize(new RSAKeyGenParameterSpec(1024, RSAKeyGenParameterSpec.F0));
+        KeyPair issuer = generator.generateKeyPair();
+        issuerKey = (RSAPrivateKey) issuer.getPrivate();
+        issuerPublicKey = (RSAPublicKey) issuer.getPublic();
+        generator.initialize(new RSAKeyGenParameterSpec(768, RSAKeyGenParameterSpec.F0));
+        KeyPair icc = generator.generateKeyPair();
+        iccKey = (RSAPrivateKey) icc.getPrivate();
+        iccPublicKey = (RSAPublicKey) icc.getPublic();
+    }
+
+    @Test
+    public void passesSda() {
+        OfflineDataAuthenticator authenticator = newAuthenticator();
+        EmvDecoder emvDecoder = tap(new TestCard(AIP_SDA), authenticator, ReadPolicy.FULL_DUMP);
+        assertEquals(OdaResult.Method.SDA, emvDecoder.getOdaResult().getMethod());
+        assertTrue(emvDecoder.getOdaResult().toString(), emvDecoder.getOdaResult().isPassed());
+        // issuer certificate and signed static data
+        assertEquals(2, authenticator.getRsaOperations());
+    }
+
+    @Test
+    public void passesDdaWithTheCachedIssuerKey() {
+        OfflineDataAuthenticator authenticator = newAuthenticator();
+        EmvDecoder first = tap(new TestCard(AIP_DDA), authenticator, ReadPolicy.FULL_DUMP);
+        assertEquals(OdaResult.Method.DDA, first.getOdaResult().getMethod());
+        assertTrue(first.getOdaResult().toString(), first.getOdaResult().isPassed());
+        // issuer certificate, ICC certificate and signed dynamic data
+        assertEquals(3, authenticator.getRsaOperations());
+
+        EmvDecoder second = tap(new TestCard(AIP_DDA), authenticator, ReadPolicy.FULL_DUMP);
+        assertTrue(second.getOdaResult().toString(), second.getOdaResult().isPassed());
+        assertEquals(5, authenticator.getRsaOperations());
+        assertEquals(1, authenticator.getIssuerKeyCache().getHits());
+        assertEquals(1, authenticator.getIssuerKeyCache().size());
+    }
+
+    @Test
+    public void readsTheCertificatesBeyondTheReadPolicy() {
+        // the PAN is in the first record, the certificates follow
+        EmvDecoder emvDecoder = tap(new TestCard(AIP_DDA), newAuthenticator(), ReadPolicy.PAN_AND_EXPIRY);
+        assertTrue(emvDecoder.getOdaResult().toString(), emvDecoder.getOdaResult().isPassed());
+    }
+
+    @Test
+    public void failsOnAChangedRecord() {
+        TestCard card = new TestCard(AIP_DDA);
+        // the expiration date of the ODA record after the card was personalized
+        card.panRecord[card.panRecord.length - 1] ^= 0x01;
+        EmvDecoder emvDecoder = tap(card, newAuthenticator(), ReadPolicy.FULL_DUMP);
+        assertEquals(OdaResult.Status.FAILED, emvDecoder.getOdaResult().getStatus());
+        assertEquals("ICC public key certificate: hash mismatch", emvDecoder.getOdaResult().getReason());
+    }
+
+    @Test
+    public void failsOnAWrongDynamicSignature() {
+        TestCard card = new TestCard(AIP_DDA);
+        card.signWrongData = true;
+        EmvDecoder emvDecoder = tap(card, newAuthenticator(), ReadPolicy.FULL_DUMP);
+        assertEquals(OdaResult.Status.FAILED, emvDecoder.getOdaResult().getStatus());
+        assertEquals("signed dynamic application data: hash mismatch", emvDecoder.getOdaResult().getReason());
+    }
+
+    @Test
+    public void doesNotPerformWithAnUnknownCaKey() {
+        OfflineDataAuthenticator authenticator = new OfflineDataAuthenticator(new CaPublicKeyTable(), new IssuerKeyCache());
+        EmvDecoder emvDecoder = tap(new TestCard(AIP_DDA), authenticator, ReadPolicy.FULL_DUMP);
+        assertEquals(OdaResult.Status.NOT_PERFORMED, emvDecoder.getOdaResult().getStatus());
+        assertEquals(0, authenticator.getRsaOperations());
+    }
+
+    @Test
+    public void isOffByDefault() {
+        EmvDecoder emvDecoder = new EmvDecoder();
+        emvDecoder.decodeEmv(new TestCard(AIP_DDA));
+        assertTrue(emvDecoder.cardRed);
+        assertNull(emvDecoder.getOdaResult());
+    }
+
+    @Test
+    public void recoversTheCertificatesOfARecordedCard() throws IOException {
+        // the unit tests run in the module directory, the transcripts are in the project root
+        File file = new File("..", RECORDED_CARD);
+        if (!file.exists()) file = new File(RECORDED_CARD);
+        ReplayCard card = new ReplayCard(TranscriptReader.read(file).get(0));
+        // the bundled CA keys
+        OfflineDataAuthenticator authenticator = new OfflineDataAuthenticator();
+        EmvDecoder emvDecoder = new DecoderConfig().withOfflineDataAuthenticator(authenticator).newDecoder();
+        emvDecoder.decodeEmv(card);
+        assertTrue("card not read", emvDecoder.cardRed);
+
+        // an issuer key is only cached after its certificate was recovered and its hash matched
+        assertEquals(1, authenticator.getIssuerKeyCache().size());
+        OdaResult result = emvDecoder.getOdaResult();
+        assertEquals(OdaResult.Method.DDA, result.getMethod());
+        // the card has expired since it was recorded and the transcript has no INTERNAL
+        // AUTHENTICATE, the chain may only fail on a date or on the missing signature
+        String reason = result.getReason();
+        assertTrue(reason, reason.endsWith("is expired") || reason.startsWith("INTERNAL AUTHENTICATE failed"));
+    }
+
+    private static OfflineDataAuthenticator newAuthenticator() {
+        CaPublicKeyTable table = new CaPublicKeyTable();
+        table.add(Arrays.copyOf(AID, 5), CA_INDEX, caPublicKey.getModulus(), caPublicKey.getPublicExponent());
+        return new OfflineDataAuthenticator(table, new IssuerKeyCache());
+    }
+
+    private static EmvDecoder tap(TestCard card, OfflineDataAuthenticator authenticator, ReadPolicy readPolicy) {
+        EmvDecoder emvDecoder = new DecoderConfig().withReadPolicy(readPolicy).withOfflineDataAuthenticator(authenticator).newDecoder();
+        emvDecoder.decodeEmv(card);
+        assertTrue("card not read", emvDecoder.cardRed);
+        return emvDecoder;
+    }
+
+    /**
+     * a card with one application, its records are personalized with the generated keys
+     */
+    private static final class TestCard implements ApduTransport {
+        final byte[] aip;
+        final byte[] panRecord;
+        final byte[] issuerRecord;
+        final byte[] iccRecord;
+        boolean signWrongData = false;
+
+        TestCard(byte[] aip) {
+            this.aip = aip;
+            panRecord = tlv(0x70, tlv(0x5A, HexCodec.fromHex(PAN)), tlv(0x5F24, HexCodec.fromHex("491231")));
+            // the static data to be authenticated: the value of the ODA record and the AIP
+            byte[] staticData = concat(Arrays.copyOfRange(panRecord, 2, panRecord.length), aip);
+            byte[] issuerModulus = unsigned(issuerPublicKey.getModulus());
+            int issuerRoom = caLength() - 36;
+            issuerRecord = tlv(0x70, tlv(0x8F, new byte[]{(byte) CA_INDEX}),
+                    tlv(0x90, issuerCertificate(issuerModulus)),
+                    tlv(0x92, Arrays.copyOfRange(issuerModulus, issuerRoom, issuerModulus.length)),
+                    tlv(0x9F32, new byte[]{0x03}),
+                    tlv(0x9F4A, new byte[]{(byte) 0x82}));
+            byte[] iccModulus = unsigned(iccPublicKey.getModulus());
+            int iccRoom = issuerLength() - 42;
+            iccRecord = tlv(0x70, tlv(0x93, signedStaticData(staticData)),
+                    tlv(0x9F46, iccCertificate(iccModulus, staticData)),
+                    tlv(0x9F47, new byte[]{0x03}),
+                    tlv(0x9F48, Arrays.copyOfRange(iccModulus, iccRoom, iccModulus.length)));
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public byte[] transceive(byte[] command) {
+            int ins = command[1] & 0xFF;
+            if (ins == 0xA4 && Arrays.equals(Arrays.copyOfRange(command, 5, command.length - 1), ApduCommandFactory.PPSE_NAME)) {
+                return ok(tlv(0x6F, tlv(0x84, ApduCommandFactory.PPSE_NAME),
+                        tlv(0xA5, tlv(0xBF0C, tlv(0x61, tlv(0x4F, AID), tlv(0x87, new byte[]{0x01}))))));
+            } else if (ins == 0xA4) {
+                return ok(tlv(0x6F, tlv(0x84, AID), tlv(0xA5, tlv(0x50, "TEST".getBytes()))));
+            } else if (ins == 0xA8) {
+                return ok(tlv(0x77, tlv(0x82, aip), tlv(0x94, AFL)));
+            } else if (ins == 0xB2) {
+                int sfi = (command[3] & 0xFF) >>> 3;
+                int record = command[2] & 0xFF;
+                if (sfi == 1 && record == 1) return ok(panRecord);
+                if (sfi == 1 && record == 2) return ok(issuerRecord);
+                if (sfi == 2 && record == 1) return ok(iccRecord);
+                return new byte[]{(byte) 0x6A, (byte) 0x83};
+            } else if (ins == 0x88) {
+                byte[] dynamicData = Arrays.copyOfRange(command, 5, 5 + (command[4] & 0xFF));
+                if (signWrongData) dynamicData[0] ^= 0x01;
+                return ok(tlv(0x80, signedDynamicData(dynamicData)));
+            }
+            return new byte[]{(byte) 0x6D, (byte) 0x00};
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static byte[] issuerCertificate(byte[] issuerModulus) {
+        int length = caLength();
+        byte[] block = new byte[length];
+        block[1] = 0x02;
+        System.arraycopy(HexCodec.fromHex("476173ff"), 0, block, 2, 4);
+        System.arraycopy(HexCodec.fromHex("1249"), 0, block, 6, 2);
+        System.arraycopy(HexCodec.fromHex("000001"), 0, block, 8, 3);
+        block[11] = 0x01;
+        block[12] = 0x01;
+        block[13] = (byte) issuerModulus.length;
+        block[14] = 0x01;
+        System.arraycopy(issuerModulus, 0, block, 15, length - 36);
+        int room = length - 36;
+        return sign(block, caKey, Arrays.copyOfRange(issuerModulus, room, issuerModulus.length), new byte[]{0x03});
+    }
+
+    private static byte[] iccCertificate(byte[] iccModulus, byte[] staticData) {
+        int length = issuerLength();
+        byte[] block = new byte[length];
+        block[1] = 0x04;
+        byte[] pan = HexCodec.fromHex(PAN + "ffff");
+        System.arraycopy(pan, 0, block, 2, 10);
+        System.arraycopy(HexCodec.fromHex("1249"), 0, block, 12, 2);
+        System.arraycopy(HexCodec.fromHex("000002"), 0, block, 14, 3);
+        block[17] = 0x01;
+        block[18] = 0x01;
+        block[19] = (byte) iccModulus.length;
+        block[20] = 0x01;
+        int room = length - 42;
+        System.arraycopy(iccModulus, 0, block, 21, room);
+        return sign(block, issuerKey, Arrays.copyOfRange(iccModulus, room, iccModulus.length), new byte[]{0x03}, staticData);
+    }
+
+    private static byte[] signedStaticData(byte[] staticData) {
+        byte[] block = new byte[issuerLength()];
+        block[1] = 0x03;
+        block[2] = 0x01;
+        block[3] = (byte) 0xDA;
+        block[4] = (byte) 0xC1;
+        Arrays.fill(block, 5, block.length - 21, (byte) 0xBB);
+        return sign(block, issuerKey, staticData);
+    }
+
+    private static byte[] signedDynamicData(byte[] terminalData) {
+        byte[] block = new byte[(iccPublicKey.getModulus().bitLength() + 7) / 8];
+        block[1] = 0x05;
+        block[2] = 0x01;
+        // the ICC dynamic number
+        block[3] = 0x09;
+        block[4] = 0x08;
+        System.arraycopy(HexCodec.fromHex("0102030405060708"), 0, block, 5, 8);
+        Arrays.fill(block, 13, block.length - 21, (byte) 0xBB);
+        return sign(block, iccKey, terminalData);
+    }
+
+    /**
+     * sets header, hash and trailer of the block and signs it
+     *
+     * @param block the fields between header and hash
+     * @param key
+     * @param data  the data that is hashed after the fields
+     * @return
+     */
+    private static byte[] sign(byte[] block, RSAPrivateKey key, byte[]... data) {
+        int hashOffset = block.length - 21;
+        block[0] = (byte) 0x6A;
+        block[block.length - 1] = (byte) 0xBC;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(block, 1, hashOffset - 1);
+            for (byte[] part : data) {
+                digest.update(part);
+            }
+            System.arraycopy(digest.digest(), 0, block, hashOffset, 20);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        BigInteger signature = new BigInteger(1, block).modPow(key.getPrivateExponent(), key.getModulus());
+        byte[] bytes = unsigned(signature);
+        byte[] padded = new byte[block.length];
+        System.arraycopy(bytes, 0, padded, padded.length - bytes.length, bytes.length);
+        return padded;
+    }
+
+    private static int caLength() {
+        return (caPublicKey.getModulus().bitLength() + 7) / 8;
+    }
+
+    private static int issuerLength() {
+        return (issuerPublicKey.getModulus().bitLength() + 7) / 8;
+    }
+
+    private static byte[] unsigned(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        return bytes[0] == 0 && bytes.length > 1 ? Arrays.copyOfRange(bytes, 1, bytes.length) : bytes;
+    }
+
+    private static byte[] ok(byte[] data) {
+        return concat(data, new byte[]{(byte) 0x90, 0x00});
+    }
+
+    private static byte[] tlv(int tag, byte[]... values) {
+        byte[] value = concat(values);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (tag > 0xFF) out.write(tag >>> 8);
+        out.write(tag & 0xFF);
+        if (value.length > 0xFF) {
+            out.write(0x82);
+            out.write(value.length >>> 8);
+        } else if (value.length > 0x7F) {
+            out.write(0x81);
+        }
+        out.write(value.length & 0xFF);
+        out.write(value, 0, value.length);
+        return out.toByteArray();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+}
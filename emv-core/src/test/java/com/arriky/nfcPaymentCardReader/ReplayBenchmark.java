@@ -0,0 +1,127 @@
+package com.arriky.nfcPaymentCardReader;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * End-to-end decode benchmark on a plain JVM: every recorded session in logfile.md and
+ * docs/talk *.html is replayed through EmvDecoder.decodeEmv with a ReplayCard, and the
+ * sessions/sec and p50/p99 decode time per card scheme are printed. A second run traces into a
+ * ReaderMetrics registry and prints the tracing overhead and the JSON snapshot.
+ *
+ * run with: ./gradlew :emv-core:test --tests '*ReplayBenchmark*' -i
+ * the number of measured taps can be changed with the system property benchmark.taps
+ */
+public class ReplayBenchmark {
+
+    private static final int WARMUP_TAPS = 5000;
+    private static final int MEASURED_TAPS = Integer.getInteger("benchmark.taps", 20000);
+
+    @Test
+    public void replayAllTranscripts() throws IOException {
+        List<ReplayCard> cards = new ArrayList<>();
+        for (CardTranscript transcript : loadTranscripts()) {
+            cards.add(new ReplayCard(transcript));
+        }
+        assertFalse("no transcripts found", cards.isEmpty());
+
+        // every recorded card needs to be readable before the timing makes sense
+        for (ReplayCard card : cards) {
+            EmvDecoder emvDecoder = new EmvDecoder();
+            emvDecoder.decodeEmv(card);
+            assertTrue("no PAN found in " + card.getName(), emvDecoder.cardRed);
+        }
+
+        // warm up the traced and the untraced path, so the overhead is not compiler warmup
+        ReaderMetrics warmupMetrics = new ReaderMetrics();
+        for (int i = 0; i < WARMUP_TAPS; i++) {
+            tap(cards.get(i % cards.size()), (i & 1) == 0 ? null : warmupMetrics);
+        }
+
+        Map<CardScheme, long[]> durations = new EnumMap<>(CardScheme.class);
+        Map<CardScheme, Integer> counts = new EnumMap<>(CardScheme.class);
+        for (ReplayCard card : cards) {
+            durations.put(card.getScheme(), new long[MEASURED_TAPS]);
+            counts.put(card.getScheme(), 0);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_TAPS; i++) {
+            ReplayCard card = cards.get(i % cards.size());
+            long duration = tap(card);
+            int count = counts.get(card.getScheme());
+            durations.get(card.getScheme())[count] = duration;
+            counts.put(card.getScheme(), count + 1);
+        }
+        long total = System.nanoTime() - start;
+
+        System.out.println("Replay benchmark: " + cards.size() + " recorded sessions, " + MEASURED_TAPS + " taps");
+        System.out.println(String.format("%-18s %8s %14s %10s %10s", "Scheme", "Taps", "Sessions/sec", "p50 us", "p99 us"));
+        for (Map.Entry<CardScheme, long[]> entry : durations.entrySet()) {
+            int count = counts.get(entry.getKey());
+            long[] sorted = Arrays.copyOf(entry.getValue(), count);
+            Arrays.sort(sorted);
+            long sum = 0;
+            for (long d : sorted) sum += d;
+            System.out.println(String.format("%-18s %8d %14.0f %10.1f %10.1f",
+                    entry.getKey().getDescription(), count, count / (sum / 1e9),
+                    percentile(sorted, 50) / 1e3, percentile(sorted, 99) / 1e3));
+        }
+        System.out.println(String.format("%-18s %8d %14.0f", "all", MEASURED_TAPS, MEASURED_TAPS / (total / 1e9)));
+
+        // the same taps again with tracing into a metrics registry
+        ReaderMetrics metrics = new ReaderMetrics();
+        long tracedStart = System.nanoTime();
+        for (int i = 0; i < MEASURED_TAPS; i++) {
+            tap(cards.get(i % cards.size()), metrics);
+        }
+        long tracedTotal = System.nanoTime() - tracedStart;
+        System.out.println(String.format("%-18s %8d %14.0f   tracing overhead %.1f %%", "all traced", MEASURED_TAPS,
+                MEASURED_TAPS / (tracedTotal / 1e9), (tracedTotal - total) * 100.0 / total));
+        System.out.println(metrics.toJson());
+    }
+
+    private static long tap(ReplayCard card) {
+        return tap(card, null);
+    }
+
+    private static long tap(ReplayCard card, ReaderMetrics metrics) {
+        long start = System.nanoTime();
+        EmvDecoder emvDecoder = new EmvDecoder();
+        emvDecoder.setMetrics(metrics);
+        emvDecoder.decodeEmv(card);
+        return System.nanoTime() - start;
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    /**
+     * the unit tests run in the module directory, the transcripts are in the project root
+     */
+    private static List<CardTranscript> loadTranscripts() throws IOException {
+        File root = new File("..");
+        if (!new File(root, "logfile.md").exists()) root = new File(".");
+        List<CardTranscript> transcripts = new ArrayList<>(TranscriptReader.read(new File(root, "logfile.md")));
+        File[] docs = new File(root, "docs").listFiles((dir, name) -> name.startsWith("talk") && name.endsWith(".html"));
+        if (docs != null) {
+            Arrays.sort(docs);
+            for (File doc : docs) {
+                transcripts.addAll(TranscriptReader.read(doc));
+            }
+        }
+        return transcripts;
+    }
+}
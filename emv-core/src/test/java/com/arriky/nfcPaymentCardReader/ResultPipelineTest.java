@@ -0,0 +1,157 @@
+package com.arriky.nfcPaymentCardReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The overflow policies of the queue and the metrics of the sinks. The queue is filled before
+ * the dispatcher is started, so what overflows does not depend on the timing of the threads.
+ */
+public class ResultPipelineTest {
+
+    @Test
+    public void dropsTheOldestResult() {
+        ResultPipeline pipeline = new ResultPipeline(2, ResultPipeline.OverflowPolicy.DROP_OLDEST);
+        RecordingSink sink = new RecordingSink();
+        pipeline.addSink("sink", sink);
+        assertTrue(pipeline.offer(tap("a", 1)));
+        assertTrue(pipeline.offer(tap("a", 2)));
+        assertTrue(pipeline.offer(tap("a", 3)));
+        assertEquals(2, pipeline.getDepth());
+        assertEquals(1, pipeline.getDropped());
+
+        pipeline.start();
+        pipeline.close();
+        assertEquals(listOf(2L, 3L), sink.times);
+        assertTrue(sink.closed);
+        assertEquals(3, pipeline.getOffered());
+        assertEquals(2, pipeline.getMaxDepth());
+    }
+
+    @Test
+    public void coalescesTheResultsOfAReader() {
+        ResultPipeline pipeline = new ResultPipeline(2, ResultPipeline.OverflowPolicy.COALESCE);
+        RecordingSink sink = new RecordingSink();
+        pipeline.addSink("sink", sink);
+        pipeline.offer(tap("a", 1));
+        pipeline.offer(tap("b", 2));
+        // replaces the queued result of reader a in its place
+        pipeline.offer(tap("a", 3));
+        assertEquals(1, pipeline.getCoalesced());
+        assertEquals(0, pipeline.getDropped());
+        // reader c has nothing queued, the oldest result is dropped
+        pipeline.offer(tap("c", 4));
+        assertEquals(1, pipeline.getDropped());
+
+        pipeline.start();
+        pipeline.close();
+        assertEquals(listOf(2L, 4L), sink.times);
+    }
+
+    @Test
+    public void blocksTheReaderUntilThereIsRoom() throws InterruptedException {
+        final ResultPipeline pipeline = new ResultPipeline(1, ResultPipeline.OverflowPolicy.BLOCK);
+        RecordingSink sink = new RecordingSink();
+        pipeline.addSink("sink", sink);
+        pipeline.offer(tap("a", 1));
+        final AtomicBoolean accepted = new AtomicBoolean(false);
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread reader = new Thread(() -> {
+            accepted.set(pipeline.offer(tap("a", 2)));
+            done.countDown();
+        });
+        reader.start();
+        assertFalse("the reader did not wait", done.await(200, TimeUnit.MILLISECONDS));
+
+        pipeline.start();
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertTrue(accepted.get());
+        pipeline.close();
+        assertEquals(listOf(1L, 2L), sink.times);
+        assertEquals(1, pipeline.getBlocked());
+        assertEquals(0, pipeline.getDropped());
+    }
+
+    @Test
+    public void refusesResultsAfterShutdown() {
+        ResultPipeline pipeline = new ResultPipeline(4, ResultPipeline.OverflowPolicy.DROP_OLDEST);
+        RecordingSink sink = new RecordingSink();
+        pipeline.addSink("sink", sink);
+        pipeline.start();
+        pipeline.offer(tap("a", 1));
+        pipeline.shutdown();
+        assertFalse(pipeline.offer(tap("a", 2)));
+        // close waits for the queued result
+        pipeline.close();
+        assertEquals(listOf(1L), sink.times);
+        assertEquals(1, pipeline.getDropped());
+    }
+
+    @Test
+    public void measuresTheLagOfEachSink() {
+        ResultPipeline pipeline = new ResultPipeline(8, ResultPipeline.OverflowPolicy.DROP_OLDEST);
+        RecordingSink sink = new RecordingSink();
+        RecordingSink failing = new RecordingSink();
+        failing.fail = true;
+        pipeline.addSink("sink", sink).addSink("failing", failing);
+        for (int i = 0; i < 5; i++) pipeline.offer(tap("a", i));
+        pipeline.start();
+        pipeline.close();
+
+        ResultPipeline.SinkStats stats = pipeline.getSinkStats("sink");
+        assertEquals(1, stats.getBatches());
+        assertEquals(5, stats.getWritten());
+        assertEquals(5, stats.getLag().getCount());
+        assertEquals(0, stats.getErrors());
+        ResultPipeline.SinkStats failed = pipeline.getSinkStats("failing");
+        assertEquals(1, failed.getErrors());
+        assertEquals(0, failed.getWritten());
+        assertEquals(0, failed.getLag().getCount());
+        assertTrue(failed.getLastError().contains("sink failed"));
+        // a failing sink does not keep the batch from the others
+        assertEquals(5, sink.times.size());
+        assertTrue(pipeline.toJson().contains("\"failing\":{\"batches\":0,\"written\":0,\"errors\":1"));
+    }
+
+    private static TapResult tap(String source, long timeMillis) {
+        CardReadResult result = new CardReadResult(0x9000, Collections.<CardReadResult.Application>emptyList(),
+                null, CardReadResult.Source.NONE, null, CardReadResult.Source.NONE);
+        return new TapResult(source, timeMillis, 1_000_000L, 1, result, "");
+    }
+
+    private static List<Long> listOf(Long... values) {
+        List<Long> list = new ArrayList<>();
+        Collections.addAll(list, values);
+        return list;
+    }
+
+    /**
+     * keeps the times of the written results, runs on the dispatcher
+     */
+    private static final class RecordingSink implements ResultSink {
+        final List<Long> times = Collections.synchronizedList(new ArrayList<Long>());
+        volatile boolean fail = false;
+        volatile boolean closed = false;
+
+        @Override
+        public void write(List<TapResult> batch) {
+            if (fail) throw new IllegalStateException("sink failed");
+            for (TapResult result : batch) times.add(result.getTimeMillis());
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.arriky.nfcPaymentCardReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * The walk of the TlvCursor over well formed responses, and the status it ends with for each
+ * kind of malformed data: a cut tag or length field, the unsupported length forms 80 and 84, a
+ * value longer than its template and templates nested deeper than the cursor follows.
+ */
+public class TlvCursorTest {
+
+    private final TlvCursor cursor = new TlvCursor();
+
+    @Test
+    public void walksTheElementsDepthFirst() {
+        // 6F { 84 a001, A5 { 50 "ABC" } } and the status word
+        byte[] response = HexCodec.fromHex("6f0b8402a001a50550034142439000");
+        cursor.resetResponse(response);
+        assertNext(0x6F, 0);
+        assertTrue(cursor.isConstructed());
+        assertNext(0x84, 1);
+        assertEquals(4, cursor.getValueOffset());
+        assertEquals(2, cursor.getValueLength());
+        assertNext(0xA5, 1);
+        assertNext(0x50, 2);
+        assertEquals(3, cursor.getValueLength());
+        assertFalse(cursor.next());
+        assertEquals(TlvCursor.OK, cursor.getStatus());
+    }
+
+    @Test
+    public void skipsThePadding() {
+        byte[] data = HexCodec.fromHex("0000700900ff5a021234ff00ff5f2403251231ffff");
+        int[] offsets = new int[2];
+        int[] lengths = new int[2];
+        assertEquals(TlvCursor.OK, cursor.reset(data, 0, data.length).scan(new int[]{0x5A, 0x5F24}, offsets, lengths));
+        assertEquals(8, offsets[0]);
+        assertEquals(2, lengths[0]);
+        assertEquals(16, offsets[1]);
+        assertEquals(3, lengths[1]);
+        // only padding
+        assertEquals(TlvCursor.OK, walk("00ffff00"));
+    }
+
+    @Test
+    public void readsTheLongLengthForms() {
+        assertEquals(TlvCursor.OK, walk("5a81021234"));
+        assertEquals(TlvCursor.OK, walk("5a820003123456"));
+        assertEquals(TlvCursor.OK, walk("5a8300000112"));
+        cursor.reset(HexCodec.fromHex("708200045a021234"), 0, 8);
+        assertNext(0x70, 0);
+        assertEquals(4, cursor.getValueOffset());
+        assertEquals(4, cursor.getValueLength());
+    }
+
+    @Test
+    public void reportsATruncatedTag() {
+        assertEquals(TlvCursor.TRUNCATED_TAG, walk("9f"));
+        assertEquals(TlvCursor.TRUNCATED_TAG, walk("5a01129f81"));
+        // the second byte of the tag is outside of its template
+        assertEquals(TlvCursor.TRUNCATED_TAG, walk("70019f3601"));
+    }
+
+    @Test
+    public void reportsATruncatedLength() {
+        assertEquals(TlvCursor.TRUNCATED_LENGTH, walk("5a"));
+        assertEquals(TlvCursor.TRUNCATED_LENGTH, walk("9f36"));
+        assertEquals(TlvCursor.TRUNCATED_LENGTH, walk("5a8200"));
+        assertEquals(TlvCursor.TRUNCATED_LENGTH, walk("5a81"));
+    }
+
+    @Test
+    public void rejectsTheLengthForms80And84() {
+        // indefinite length
+        assertEquals(TlvCursor.INVALID_LENGTH, walk("70805a0112"));
+        // four length bytes
+        assertEquals(TlvCursor.INVALID_LENGTH, walk("5a840000000112"));
+    }
+
+    @Test
+    public void reportsAValueLongerThanItsTemplate() {
+        assertEquals(TlvCursor.TRUNCATED_VALUE, walk("5a051234"));
+        // the data holds the value, the template 70 does not
+        assertEquals(TlvCursor.TRUNCATED_VALUE, walk("70045a041234567890"));
+        assertEquals(TlvCursor.TRUNCATED_VALUE, walk("5a83ffffff12"));
+    }
+
+    @Test
+    public void limitsTheNesting() {
+        assertEquals(TlvCursor.OK, walk(nested(8)));
+        assertEquals(TlvCursor.TOO_DEEP, walk(nested(9)));
+    }
+
+    @Test
+    public void rejectsTagsLongerThanFourBytes() {
+        assertEquals(TlvCursor.INVALID_TAG, walk("9f8181810100"));
+        assertEquals(TlvCursor.OK, walk("9f81810100"));
+    }
+
+    @Test
+    public void keepsTheTagsBeforeTheMalformedPart() {
+        byte[] data = HexCodec.fromHex("5a0212345f240525");
+        int[] offsets = new int[2];
+        int[] lengths = new int[2];
+        int status = cursor.reset(data, 0, data.length).scan(new int[]{0x5A, 0x5F24}, offsets, lengths);
+        assertEquals(TlvCursor.TRUNCATED_VALUE, status);
+        assertEquals(2, offsets[0]);
+        assertEquals(-1, offsets[1]);
+        assertEquals(0, lengths[1]);
+        assertFalse(cursor.next());
+        // a reset starts over with a clean status
+        assertEquals(TlvCursor.OK, walk("5a021234"));
+        assertEquals("truncated value", TlvCursor.statusName(status));
+    }
+
+    /**
+     * walks all elements of the data
+     *
+     * @return the status the walk ended with
+     */
+    private int walk(String hex) {
+        byte[] data = HexCodec.fromHex(hex);
+        cursor.reset(data, 0, data.length);
+        while (cursor.next()) {
+            assertTrue(cursor.getValueOffset() + cursor.getValueLength() <= data.length);
+        }
+        return cursor.getStatus();
+    }
+
+    private void assertNext(int tag, int depth) {
+        assertTrue(cursor.next());
+        assertEquals(tag, cursor.getTag());
+        assertEquals(depth, cursor.getDepth());
+    }
+
+    /**
+     * a tag 50 inside of the given number of A5 templates
+     */
+    private static String nested(int templates) {
+        String hex = "500141";
+        for (int i = 0; i < templates; i++) {
+            hex = String.format("a5%02x", hex.length() / 2) + hex;
+        }
+        return hex;
+    }
+}
@@ -0,0 +1,118 @@
+package com.arriky.nfcPaymentCardReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * The BCD parsing of the Track 2 Equivalent Data (tag 57), the Application PAN (tag 5A) and the
+ * expiration date (tag 5F24): the status of each kind of malformed data, and that no digit of a
+ * PAN is left in the buffers of the parser after a failure or a wipe.
+ */
+public class Track2ParserTest {
+
+    private final Track2Parser parser = new Track2Parser();
+
+    @Test
+    public void parsesTrack2() {
+        assertEquals(Track2Parser.OK, parseTrack2("5413330089020011d24122010000000000000f"));
+        assertEquals("5413330089020011", parser.panToString());
+        assertEquals("2412", parser.expirationDateToString());
+        assertEquals("201", parser.serviceCodeToString());
+        // 19 digits are the longest PAN
+        assertEquals(Track2Parser.OK, parseTrack2("1234567890123456789d2412201f"));
+        assertEquals(19, parser.getPanLength());
+    }
+
+    @Test
+    public void needsTheSeparator() {
+        assertEquals(Track2Parser.NO_SEPARATOR, parseTrack2("5413330089020011"));
+        assertWiped();
+    }
+
+    @Test
+    public void rejectsAPanOfMoreThan19Digits() {
+        assertEquals(Track2Parser.PAN_TOO_LONG, parseTrack2("12345678901234567890d2412201"));
+        assertWiped();
+        assertEquals(Track2Parser.PAN_TOO_LONG, parsePan("12345678901234567890"));
+        assertWiped();
+    }
+
+    @Test
+    public void rejectsNibblesThatAreNoDigits() {
+        assertEquals(Track2Parser.INVALID_DIGIT, parseTrack2("54133300890200a1d2412201"));
+        assertWiped();
+        // in the expiration date
+        assertEquals(Track2Parser.INVALID_DIGIT, parseTrack2("5413330089020011d24a2201"));
+        assertWiped();
+        assertEquals(Track2Parser.INVALID_DIGIT, parsePan("54133300890200a1"));
+        assertWiped();
+        // an F that is not at the end is no padding
+        assertEquals(Track2Parser.INVALID_DIGIT, parsePan("5413f30089020011"));
+        assertWiped();
+    }
+
+    @Test
+    public void readsTrack2WithoutServiceCode() {
+        assertEquals(Track2Parser.OK, parseTrack2("5413330089020011d2412f"));
+        assertEquals("5413330089020011", parser.panToString());
+        assertEquals("2412", parser.expirationDateToString());
+        assertEquals("", parser.serviceCodeToString());
+        // a service code with padding in it is dropped
+        assertEquals(Track2Parser.OK, parseTrack2("5413330089020011d24122f0"));
+        assertEquals("", parser.serviceCodeToString());
+        // the expiration date is not optional
+        assertEquals(Track2Parser.TOO_SHORT, parseTrack2("5413330089020011d241"));
+        assertWiped();
+    }
+
+    @Test
+    public void dropsThePaddingOfTheApplicationPan() {
+        assertEquals(Track2Parser.OK, parsePan("541333008902001f"));
+        assertEquals("541333008902001", parser.panToString());
+        assertEquals(Track2Parser.OK, parsePan("1234567890123456789f"));
+        assertEquals(19, parser.getPanLength());
+        assertEquals(Track2Parser.OK, parsePan("4761739001010010ffff"));
+        assertEquals("4761739001010010", parser.panToString());
+    }
+
+    @Test
+    public void parsesTheExpirationDate() {
+        byte[] data = HexCodec.fromHex("251231");
+        assertEquals(Track2Parser.OK, parser.parseExpirationDate(data, 0, data.length));
+        assertEquals("251231", parser.expirationDateToString());
+        assertEquals(Track2Parser.TOO_SHORT, parser.parseExpirationDate(data, 0, 2));
+        assertEquals(0, parser.getExpirationDateLength());
+    }
+
+    @Test
+    public void wipesTheBuffers() {
+        assertEquals(Track2Parser.OK, parseTrack2("5413330089020011d24122010000000000000f"));
+        char[] pan = parser.getPanChars();
+        parser.wipe();
+        // the same array, overwritten
+        assertTrue(pan == parser.getPanChars());
+        for (char c : pan) assertEquals('\0', c);
+        assertWiped();
+    }
+
+    private int parseTrack2(String hex) {
+        byte[] data = HexCodec.fromHex(hex);
+        return parser.parseTrack2(data, 0, data.length);
+    }
+
+    private int parsePan(String hex) {
+        byte[] data = HexCodec.fromHex(hex);
+        return parser.parsePan(data, 0, data.length);
+    }
+
+    private void assertWiped() {
+        assertFalse(parser.hasPan());
+        for (char c : parser.getPanChars()) assertEquals('\0', c);
+        assertEquals("", parser.panToString());
+        assertEquals("", parser.expirationDateToString());
+        assertEquals("", parser.serviceCodeToString());
+    }
+}
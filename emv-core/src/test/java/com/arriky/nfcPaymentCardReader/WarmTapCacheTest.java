@@ -0,0 +1,73 @@
+package com.arriky.nfcPaymentCardReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Replays a recorded card twice through one WarmTapCache: a full dump has to read the same
+ * card on the second tap, a read policy that stops after the PAN takes the warm path.
+ */
+public class WarmTapCacheTest {
+
+    private static final String TRANSCRIPT = "docs/talk voba m gc.html";
+
+    @Test
+    public void fullDumpReadsTheWholeCardOnEveryTap() throws IOException {
+        ReplayCard card = loadCard();
+        WarmTapCache warmTapCache = new WarmTapCache(16);
+        EmvDecoder first = tap(card, ReadPolicy.FULL_DUMP, warmTapCache);
+        EmvDecoder second = tap(card, ReadPolicy.FULL_DUMP, warmTapCache);
+
+        assertEquals(first.getApduCount(), second.getApduCount());
+        assertEquals(first.getResult().getApplications().size(), second.getResult().getApplications().size());
+        assertEquals(countRecords(first), countRecords(second));
+        assertTrue("the full dump reads more than one application", second.getResult().getApplications().size() > 1);
+        assertEquals(0, warmTapCache.size());
+    }
+
+    @Test
+    public void readPolicyTakesTheWarmPath() throws IOException {
+        ReplayCard card = loadCard();
+        WarmTapCache warmTapCache = new WarmTapCache(16);
+        EmvDecoder first = tap(card, ReadPolicy.PAN_AND_EXPIRY, warmTapCache);
+        EmvDecoder second = tap(card, ReadPolicy.PAN_AND_EXPIRY, warmTapCache);
+
+        assertTrue(second.cardRed);
+        assertTrue("a warm tap needs fewer APDUs", second.getApduCount() < first.getApduCount());
+        assertEquals(first.getResult().getPan(), second.getResult().getPan());
+    }
+
+    private static EmvDecoder tap(ReplayCard card, ReadPolicy readPolicy, WarmTapCache warmTapCache) {
+        EmvDecoder emvDecoder = new EmvDecoder();
+        emvDecoder.setReadPolicy(readPolicy);
+        emvDecoder.setWarmTapCache(warmTapCache);
+        emvDecoder.decodeEmv(card);
+        assertTrue("no PAN found in " + card.getName(), emvDecoder.cardRed);
+        return emvDecoder;
+    }
+
+    private static int countRecords(EmvDecoder emvDecoder) {
+        int records = 0;
+        for (CardReadResult.Application application : emvDecoder.getResult().getApplications()) {
+            records += application.getRecords().size();
+        }
+        return records;
+    }
+
+    /**
+     * the unit tests run in the module directory, the transcripts are in the project root
+     */
+    private static ReplayCard loadCard() throws IOException {
+        File file = new File("..", TRANSCRIPT);
+        if (!file.exists()) file = new File(TRANSCRIPT);
+        CardTranscript transcript = TranscriptReader.read(file).get(0);
+        assertNotNull(transcript);
+        return new ReplayCard(transcript);
+    }
+}
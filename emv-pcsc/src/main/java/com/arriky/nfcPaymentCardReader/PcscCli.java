@@ -0,0 +1,126 @@
+package com.arriky.nfcPaymentCardReader;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Reads the cards of all attached PC/SC readers until the process is stopped and prints one
+ * line per tap: reader, scheme, PAN, expiration date, where the PAN was found and the number
+ * of APDUs.
+ *
+ * usage: PcscCli [--policy FULL_DUMP|PAN_AND_EXPIRY|FIRST_APPLICATION] [--log] [--jsonl file] [--socket port] [--dedupe millis] [--history dir] [--oda]
+ *
+ * --jsonl  appends a JSON line per tap to the file
+ * --socket sends a JSON line per tap to 127.0.0.1:port, e.g. to the point of sale process
+ * --dedupe a card read again within millis (e.g. left on the reader) is not read to the end and
+ *          not published, see RecentCardFilter
+ * --history stores every card read in a CardHistoryStore in the directory and prints how often
+ *          the card was read before
+ * --oda    authenticates the cards offline (SDA or DDA, see OfflineDataAuthenticator) with the
+ *          bundled CA keys and prints the result, all records of the application are read
+ *
+ * The JSON lines are written by a ResultPipeline, a slow file or socket does not hold up the
+ * readers. The metrics of the pipeline are printed when the process is stopped.
+ *
+ * run with: ./gradlew :emv-pcsc:run
+ */
+public class PcscCli {
+
+    private static final String USAGE = "usage: PcscCli [--policy FULL_DUMP|PAN_AND_EXPIRY|FIRST_APPLICATION] [--log] [--jsonl file] [--socket port] [--dedupe millis] [--history dir] [--oda]";
+
+    public static void main(String[] args) throws InterruptedException {
+        ReadPolicy readPolicy = ReadPolicy.PAN_AND_EXPIRY;
+        boolean log = false;
+        ResultPipeline resultPipeline = null;
+        RecentCardFilter recentCardFilter = null;
+        CardHistoryStore historyStore = null;
+        OfflineDataAuthenticator offlineDataAuthenticator = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--policy") && i + 1 < args.length) {
+                try {
+                    readPolicy = ReadPolicy.valueOf(args[++i]);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("unknown read policy: " + args[i]);
+                    System.exit(2);
+                }
+            } else if (args[i].equals("--log")) {
+                log = true;
+            } else if (args[i].equals("--jsonl") && i + 1 < args.length) {
+                if (resultPipeline == null) resultPipeline = new ResultPipeline();
+                try {
+                    resultPipeline.addSink("jsonl", new JsonLinesSink(new FileOutputStream(new File(args[++i]), true)));
+                } catch (FileNotFoundException e) {
+                    System.err.println("cannot open " + args[i] + ": " + e.getMessage());
+                    System.exit(1);
+                }
+            } else if (args[i].equals("--socket") && i + 1 < args.length) {
+                if (resultPipeline == null) resultPipeline = new ResultPipeline();
+                try {
+                    resultPipeline.addSink("socket", new SocketSink("127.0.0.1", Integer.parseInt(args[++i])));
+                } catch (NumberFormatException e) {
+                    System.err.println("invalid port: " + args[i]);
+                    System.exit(2);
+                }
+            } else if (args[i].equals("--history") && i + 1 < args.length) {
+                if (resultPipeline == null) resultPipeline = new ResultPipeline();
+                try {
+                    historyStore = new CardHistoryStore(new File(args[++i]));
+                } catch (IOException e) {
+                    System.err.println("cannot open " + args[i] + ": " + e.getMessage());
+                    System.exit(1);
+                }
+                resultPipeline.addSink("history", historyStore);
+            } else if (args[i].equals("--oda")) {
+                offlineDataAuthenticator = new OfflineDataAuthenticator();
+            } else if (args[i].equals("--dedupe") && i + 1 < args.length) {
+                try {
+                    recentCardFilter = new RecentCardFilter(RecentCardFilter.DEFAULT_CAPACITY, Long.parseLong(args[++i]));
+                } catch (IllegalArgumentException e) {
+                    System.err.println("invalid dedupe window: " + args[i]);
+                    System.exit(2);
+                }
+            } else {
+                System.err.println(USAGE);
+                System.exit(2);
+            }
+        }
+
+        DecoderConfig config = new DecoderConfig()
+                .withReadPolicy(readPolicy)
+                .withWarmTapCache(new WarmTapCache(256))
+                .withMetrics(ReaderMetrics.getShared())
+                .withResultPipeline(resultPipeline)
+                .withRecentCardFilter(recentCardFilter)
+                .withOfflineDataAuthenticator(offlineDataAuthenticator);
+        final boolean printLog = log;
+        final CardHistoryStore history = historyStore;
+        final PcscReaderService service = PcscReaderService.forDefaultTerminals(config, (readerName, result, emvDecoder) -> {
+            String line = readerName + "\t" + (result.getApplications().isEmpty() ? CardScheme.UNKNOWN : result.getApplications().get(0).getScheme()) + "\t"
+                    + (result.getPan() != null ? result.getPan() : "-") + "\t"
+                    + (result.getExpirationDate() != null ? result.getExpirationDate() : "-") + "\t"
+                    + result.getPanSource() + "\t" + emvDecoder.getApduCount() + " APDUs"
+                    + (emvDecoder.isDuplicate() ? "\tduplicate" : "")
+                    + (emvDecoder.getOdaResult() != null ? "\t" + emvDecoder.getOdaResult() : "")
+                    // the store is written by the pipeline, this tap may not be in it yet
+                    + (history != null && result.getPan() != null ? "\tread before " + history.getReadCount(result.getPan()) + "x" : "");
+            synchronized (System.out) {
+                System.out.println(line);
+                if (printLog) System.out.print(emvDecoder.getOutputString());
+            }
+        });
+        final ResultPipeline pipeline = resultPipeline;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            service.close();
+            if (pipeline != null) {
+                pipeline.close();
+                System.err.println(pipeline.toJson());
+            }
+        }));
+        if (pipeline != null) pipeline.start();
+        System.err.println("waiting for cards, session loops on " + (service.usesVirtualThreads() ? "virtual threads" : "a pool of " + PcscReaderService.POOL_THREADS + " threads"));
+        service.start();
+        Thread.currentThread().join();
+    }
+}
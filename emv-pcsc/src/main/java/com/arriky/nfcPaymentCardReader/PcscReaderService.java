@@ -0,0 +1,265 @@
+package com.arriky.nfcPaymentCardReader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CardTerminals;
+import javax.smartcardio.TerminalFactory;
+
+/**
+ * Reads the cards of all PC/SC readers attached to the host, e.g. the USB contactless readers
+ * of the checkout lanes. Every reader gets its own session loop: wait for a card, decode it
+ * with a new EmvDecoder from the shared DecoderConfig, report the result to the TapListener,
+ * wait until the card is removed.
+ *
+ * On a JDK with virtual threads (21+) each session loop runs on its own virtual thread and
+ * blocks in the PC/SC calls, a blocked reader does not hold a platform thread. On older JDKs
+ * the loops are steps on a small scheduled pool instead: every POLL_MILLIS each reader is
+ * asked whether a card is present, so dozens of readers share POOL_THREADS threads. The
+ * virtual threads are looked up by reflection, the module still runs on Java 8.
+ *
+ * Readers are discovered every DISCOVERY_MILLIS, a reader that is unplugged ends its session
+ * loop and gets a new one when it comes back. The CardTerminals are injected, so the service
+ * runs against an in-process fake as well as against TerminalFactory.getDefault().
+ */
+public final class PcscReaderService implements Closeable {
+
+    /**
+     * receives the result of every tap, called on the reader's session thread
+     */
+    public interface TapListener {
+        /**
+         * @param readerName
+         * @param result
+         * @param emvDecoder the decoder of the tap, e.g. for its log or its SessionReport
+         */
+        void onTap(String readerName, CardReadResult result, EmvDecoder emvDecoder);
+    }
+
+    static final long DISCOVERY_MILLIS = 1000;
+    // a blocking session loop checks this often whether the service was closed
+    static final long WAIT_MILLIS = 250;
+    static final long POLL_MILLIS = 50;
+    static final int POOL_THREADS = 4;
+
+    private final CardTerminals terminals;
+    private final DecoderConfig config;
+    private final TapListener listener;
+    // null if the JDK has no virtual threads
+    private final ExecutorService virtualThreads;
+    // reader discovery and, without virtual threads, the polling session loops
+    private final ScheduledExecutorService scheduler;
+    private final ConcurrentMap<String, ReaderSession> sessions = new ConcurrentHashMap<>();
+    private volatile boolean running = false;
+
+    /**
+     * @param terminals the readers, see TerminalFactory.terminals
+     * @param config    shared by all readers
+     * @param listener
+     */
+    public PcscReaderService(CardTerminals terminals, DecoderConfig config, TapListener listener) {
+        this(terminals, config, listener, true);
+    }
+
+    /**
+     * @param terminals
+     * @param config
+     * @param listener
+     * @param useVirtualThreads false runs the session loops on the polling pool even if the
+     *                          JDK has virtual threads
+     */
+    public PcscReaderService(CardTerminals terminals, DecoderConfig config, TapListener listener, boolean useVirtualThreads) {
+        this.terminals = terminals;
+        this.config = config;
+        this.listener = listener;
+        this.virtualThreads = useVirtualThreads ? newVirtualThreadExecutor() : null;
+        this.scheduler = Executors.newScheduledThreadPool(virtualThreads != null ? 1 : POOL_THREADS);
+    }
+
+    /**
+     * @param config
+     * @param listener
+     * @return a service for the readers of the system's PC/SC stack
+     */
+    public static PcscReaderService forDefaultTerminals(DecoderConfig config, TapListener listener) {
+        return new PcscReaderService(TerminalFactory.getDefault().terminals(), config, listener);
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor on Java 21+
+     *
+     * @return the executor or null if the JDK has no virtual threads
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // older JDK, or a preview JDK without --enable-preview
+            return null;
+        }
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        scheduler.scheduleWithFixedDelay(this::discoverReaders, 0, DISCOVERY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * stops all session loops, a tap that is being decoded is finished first
+     */
+    @Override
+    public synchronized void close() {
+        running = false;
+        scheduler.shutdownNow();
+        if (virtualThreads != null) virtualThreads.shutdown();
+    }
+
+    /**
+     * @return true if the session loops run on virtual threads
+     */
+    public boolean usesVirtualThreads() {
+        return virtualThreads != null;
+    }
+
+    /**
+     * @return the readers that have a session loop
+     */
+    public Set<String> getReaderNames() {
+        return new TreeSet<>(sessions.keySet());
+    }
+
+    private void discoverReaders() {
+        List<CardTerminal> list;
+        try {
+            list = terminals.list();
+        } catch (CardException e) {
+            // no PC/SC service or no reader, try again later
+            return;
+        }
+        for (CardTerminal terminal : list) {
+            String name = terminal.getName();
+            if (sessions.containsKey(name)) continue;
+            ReaderSession session = new ReaderSession(terminal);
+            if (sessions.putIfAbsent(name, session) != null) continue;
+            try {
+                if (virtualThreads != null) {
+                    virtualThreads.execute(session::run);
+                } else {
+                    scheduler.execute(session::poll);
+                }
+            } catch (RejectedExecutionException e) {
+                // the service was closed
+                sessions.remove(name, session);
+            }
+        }
+    }
+
+    /**
+     * the session loop of one reader
+     */
+    private final class ReaderSession {
+        private final CardTerminal terminal;
+        private final String name;
+        // the card in the reader was read, wait until it is removed
+        private boolean cardRead = false;
+
+        ReaderSession(CardTerminal terminal) {
+            this.terminal = terminal;
+            this.name = terminal.getName();
+        }
+
+        /**
+         * the blocking loop for a virtual thread
+         */
+        void run() {
+            try {
+                while (running) {
+                    if (!terminal.waitForCardPresent(WAIT_MILLIS)) continue;
+                    try {
+                        decode();
+                    } catch (RuntimeException e) {
+                        // a failed tap, the card is read again once it was removed
+                        System.err.println("tap failed for " + name + ": " + e);
+                    }
+                    while (running && !terminal.waitForCardAbsent(WAIT_MILLIS)) {
+                        // the card is still in the field
+                    }
+                }
+            } catch (CardException e) {
+                // the reader was unplugged
+            } finally {
+                sessions.remove(name, this);
+            }
+        }
+
+        /**
+         * one step of the loop for the polling pool, schedules the next step itself
+         */
+        void poll() {
+            boolean next = false;
+            try {
+                boolean cardPresent = terminal.isCardPresent();
+                if (cardPresent && !cardRead) {
+                    cardRead = true;
+                    decode();
+                } else if (!cardPresent) {
+                    cardRead = false;
+                }
+                next = true;
+            } catch (CardException e) {
+                // the reader was unplugged
+            } catch (RuntimeException e) {
+                // a failed tap, the card is read again once it was removed
+                System.err.println("tap failed for " + name + ": " + e);
+                next = true;
+            } finally {
+                // without a next step the reader has to be found again by discoverReaders
+                if (!next || !running || !scheduleNext()) sessions.remove(name, this);
+            }
+        }
+
+        private boolean scheduleNext() {
+            try {
+                scheduler.schedule(this::poll, POLL_MILLIS, TimeUnit.MILLISECONDS);
+                return true;
+            } catch (RejectedExecutionException e) {
+                return false;
+            }
+        }
+
+        private void decode() {
+            EmvDecoder emvDecoder = config.newDecoder();
+            emvDecoder.setSourceName(name);
+            PcscTransport transport = new PcscTransport(terminal);
+            CardReadResult result;
+            try {
+                result = emvDecoder.decodeEmv(transport);
+            } finally {
+                try {
+                    transport.close();
+                } catch (IOException e) {
+                    // the card was removed during the tap
+                }
+            }
+            try {
+                listener.onTap(name, result, emvDecoder);
+            } catch (RuntimeException e) {
+                // the session loop keeps running for the next card
+                System.err.println("tap listener failed for " + name + ": " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.arriky.nfcPaymentCardReader;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import javax.smartcardio.Card;
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CommandAPDU;
+
+/**
+ * ApduTransport on top of a PC/SC reader (javax.smartcardio), e.g. a USB contactless reader
+ * at a checkout lane. connect opens the card in the reader with any protocol, close releases it
+ * without resetting the card.
+ *
+ * The decoder's reused command and response buffers are passed to the channel as ByteBuffers,
+ * the wrappers are kept as long as the decoder keeps its buffers.
+ */
+public class PcscTransport implements ApduTransport {
+
+    private final CardTerminal terminal;
+    private Card card = null;
+    private CardChannel channel = null;
+    private byte[] commandArray = null;
+    private ByteBuffer commandBuffer = null;
+    private byte[] responseArray = null;
+    private ByteBuffer responseBuffer = null;
+
+    public PcscTransport(CardTerminal terminal) {
+        this.terminal = terminal;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        try {
+            card = terminal.connect("*");
+            channel = card.getBasicChannel();
+        } catch (CardException e) {
+            throw new IOException("cannot connect to the card in " + terminal.getName(), e);
+        }
+    }
+
+    @Override
+    public byte[] transceive(byte[] command) throws IOException {
+        if (channel == null) throw new IOException("not connected");
+        try {
+            return channel.transmit(new CommandAPDU(command)).getBytes();
+        } catch (CardException | IllegalArgumentException e) {
+            throw new IOException("transmit to " + terminal.getName() + " failed", e);
+        }
+    }
+
+    @Override
+    public int transceive(byte[] command, byte[] response) throws IOException {
+        if (channel == null) throw new IOException("not connected");
+        if (command != commandArray) {
+            commandArray = command;
+            commandBuffer = ByteBuffer.wrap(command);
+        }
+        if (response != responseArray) {
+            responseArray = response;
+            responseBuffer = ByteBuffer.wrap(response);
+        }
+        commandBuffer.clear();
+        responseBuffer.clear();
+        try {
+            return channel.transmit(commandBuffer, responseBuffer);
+        } catch (CardException | IllegalArgumentException | IllegalStateException | BufferOverflowException e) {
+            throw new IOException("transmit to " + terminal.getName() + " failed", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        Card connected = card;
+        card = null;
+        channel = null;
+        if (connected == null) return;
+        try {
+            connected.disconnect(false);
+        } catch (CardException e) {
+            throw new IOException("cannot disconnect from the card in " + terminal.getName(), e);
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.arriky.nfcPaymentCardReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.smartcardio.ATR;
+import javax.smartcardio.Card;
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CardTerminals;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+/**
+ * Runs the PcscReaderService against an in-process fake of the PC/SC stack: dozens of readers,
+ * each with a recorded card from logfile.md and docs/talk *.html (see ReplayCard) in its field.
+ * Every reader has to report exactly one tap with the PAN of its card, on virtual threads if
+ * the JDK has them and on the polling pool. A tap that fails with an exception must not end the
+ * session loop of its reader.
+ *
+ * run with: ./gradlew :emv-pcsc:test
+ */
+public class PcscReaderServiceTest {
+
+    private static final int READERS = 40;
+
+    @Test
+    public void readsAllReaders() throws Exception {
+        readAllReaders(true);
+    }
+
+    @Test
+    public void readsAllReadersOnThePollingPool() throws Exception {
+        readAllReaders(false);
+    }
+
+    @Test
+    public void keepsTheReaderAfterAFailedTap() throws Exception {
+        keepReaderAfterAFailedTap(true);
+    }
+
+    @Test
+    public void keepsTheReaderAfterAFailedTapOnThePollingPool() throws Exception {
+        keepReaderAfterAFailedTap(false);
+    }
+
+    /**
+     * the first tap throws from the decoder, the reader has to stay in the service and read the
+     * card once it is put in again
+     */
+    private void keepReaderAfterAFailedTap(boolean useVirtualThreads) throws Exception {
+        CardTranscript transcript = loadTranscripts().get(0);
+        FakeTerminal reader = new FakeTerminal("lane 0", new ReplayCard(transcript));
+        reader.failingConnects = 1;
+        final CountDownLatch read = new CountDownLatch(1);
+        final Map<String, String> pans = new ConcurrentHashMap<>();
+        PcscReaderService service = new PcscReaderService(new FakeTerminals(Collections.singletonList(reader)),
+                new DecoderConfig(), (readerName, result, emvDecoder) -> {
+            if (result.getPan() != null) pans.put(readerName, result.getPan());
+            read.countDown();
+        }, useVirtualThreads);
+        try {
+            service.start();
+            reader.insertCard();
+            // the failed tap, the reader stays and the card is not read again while it is in the field
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (reader.failingConnects > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, reader.failingConnects);
+            Thread.sleep(3 * PcscReaderService.POLL_MILLIS);
+            assertEquals(1, read.getCount());
+            assertEquals(Collections.singleton("lane 0"), service.getReaderNames());
+
+            reader.removeCard();
+            Thread.sleep(3 * PcscReaderService.POLL_MILLIS);
+            reader.insertCard();
+            assertTrue("the card was not read after the failed tap", read.await(10, TimeUnit.SECONDS));
+        } finally {
+            service.close();
+        }
+        assertEquals(new EmvDecoder().decodeEmv(new ReplayCard(transcript)).getPan(), pans.get("lane 0"));
+    }
+
+    private void readAllReaders(boolean useVirtualThreads) throws Exception {
+        List<CardTranscript> transcripts = loadTranscripts();
+        assertFalse("no transcripts found", transcripts.isEmpty());
+        List<FakeTerminal> readers = new ArrayList<>();
+        Map<String, String> expectedPans = new ConcurrentHashMap<>();
+        for (int i = 0; i < READERS; i++) {
+            CardTranscript transcript = transcripts.get(i % transcripts.size());
+            FakeTerminal reader = new FakeTerminal("lane " + i, new ReplayCard(transcript));
+            readers.add(reader);
+            expectedPans.put(reader.getName(), new EmvDecoder().decodeEmv(new ReplayCard(transcript)).getPan());
+        }
+
+        final Map<String, Integer> taps = new ConcurrentHashMap<>();
+        final Map<String, String> pans = new ConcurrentHashMap<>();
+        final Map<String, Integer> apduCounts = new ConcurrentHashMap<>();
+        final CountDownLatch allRead = new CountDownLatch(READERS);
+        ApduTraceRecorder traceRecorder = new ApduTraceRecorder(4 * 1024 * 1024);
+        DecoderConfig config = new DecoderConfig().withReadPolicy(ReadPolicy.PAN_AND_EXPIRY).withWarmTapCache(new WarmTapCache(16))
+                .withTraceRecorder(traceRecorder);
+        PcscReaderService service = new PcscReaderService(new FakeTerminals(readers), config, (readerName, result, emvDecoder) -> {
+            taps.merge(readerName, 1, Integer::sum);
+            if (result.getPan() != null) pans.put(readerName, result.getPan());
+            apduCounts.put(readerName, emvDecoder.getApduCount());
+            allRead.countDown();
+        }, useVirtualThreads);
+        try {
+            service.start();
+            for (FakeTerminal reader : readers) {
+                reader.insertCard();
+            }
+            assertTrue("not all readers were read", allRead.await(30, TimeUnit.SECONDS));
+            // the cards stay in the field, they must not be read a second time
+            Thread.sleep(3 * PcscReaderService.POLL_MILLIS);
+        } finally {
+            service.close();
+        }
+        assertEquals(READERS, taps.size());
+        for (FakeTerminal reader : readers) {
+            assertEquals(reader.getName(), Integer.valueOf(1), taps.get(reader.getName()));
+            assertEquals(reader.getName(), expectedPans.get(reader.getName()), pans.get(reader.getName()));
+        }
+
+        // the taps ran at the same time on one recorder, each has to come out as its own session
+        List<ApduTraceReader.TraceSession> sessions = ApduTraceReader.read(traceRecorder.export());
+        assertEquals(READERS, sessions.size());
+        for (ApduTraceReader.TraceSession session : sessions) {
+            assertTrue(session.getSource(), apduCounts.containsKey(session.getSource()));
+            assertEquals(session.getSource(), apduCounts.remove(session.getSource()).intValue(), session.getExchanges().size());
+            for (int i = 1; i < session.getExchanges().size(); i++) {
+                assertTrue(session.getOffsetMicros(i - 1) <= session.getOffsetMicros(i));
+            }
+        }
+    }
+
+    private static List<CardTranscript> loadTranscripts() throws IOException {
+        List<CardTranscript> transcripts = new ArrayList<>();
+        File root = new File("..");
+        transcripts.addAll(TranscriptReader.read(new File(root, "logfile.md")));
+        File[] talks = new File(root, "docs").listFiles((dir, name) -> name.startsWith("talk") && name.endsWith(".html"));
+        if (talks != null) {
+            for (File talk : talks) {
+                transcripts.addAll(TranscriptReader.read(talk));
+            }
+        }
+        return transcripts;
+    }
+
+    private static final class FakeTerminals extends CardTerminals {
+        private final List<CardTerminal> terminals;
+
+        FakeTerminals(List<? extends CardTerminal> terminals) {
+            this.terminals = new ArrayList<>(terminals);
+        }
+
+        @Override
+        public List<CardTerminal> list(State state) {
+            return Collections.unmodifiableList(terminals);
+        }
+
+        @Override
+        public boolean waitForChange(long timeout) throws CardException {
+            try {
+                Thread.sleep(Math.max(1, timeout));
+            } catch (InterruptedException e) {
+                throw new CardException(e);
+            }
+            return false;
+        }
+    }
+
+    private static final class FakeTerminal extends CardTerminal {
+        private final String name;
+        private final ReplayCard replayCard;
+        private volatile boolean cardPresent = false;
+        // the next connects throw from the decoder like a broken driver
+        volatile int failingConnects = 0;
+
+        FakeTerminal(String name, ReplayCard replayCard) {
+            this.name = name;
+            this.replayCard = replayCard;
+        }
+
+        void insertCard() {
+            synchronized (this) {
+                cardPresent = true;
+                notifyAll();
+            }
+        }
+
+        void removeCard() {
+            synchronized (this) {
+                cardPresent = false;
+                notifyAll();
+            }
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Card connect(String protocol) throws CardException {
+            if (!cardPresent) throw new CardException("no card present");
+            if (failingConnects > 0) {
+                failingConnects--;
+                throw new IllegalStateException("driver failure");
+            }
+            replayCard.connect();
+            return new FakeCard(replayCard);
+        }
+
+        @Override
+        public boolean isCardPresent() {
+            return cardPresent;
+        }
+
+        @Override
+        public synchronized boolean waitForCardPresent(long timeout) throws CardException {
+            return waitFor(true, timeout);
+        }
+
+        @Override
+        public synchronized boolean waitForCardAbsent(long timeout) throws CardException {
+            return waitFor(false, timeout);
+        }
+
+        private boolean waitFor(boolean present, long timeout) throws CardException {
+            long deadline = System.currentTimeMillis() + timeout;
+            try {
+                while (cardPresent != present) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) return false;
+                    wait(remaining);
+                }
+            } catch (InterruptedException e) {
+                throw new CardException(e);
+            }
+            return true;
+        }
+    }
+
+    private static final class FakeCard extends Card {
+        private final CardChannel channel;
+
+        FakeCard(final ReplayCard replayCard) {
+            this.channel = new CardChannel() {
+                @Override
+                public Card getCard() {
+                    return FakeCard.this;
+                }
+
+                @Override
+                public int getChannelNumber() {
+                    return 0;
+                }
+
+                @Override
+                public ResponseAPDU transmit(CommandAPDU command) throws CardException {
+                    try {
+                        return new ResponseAPDU(replayCard.transceive(command.getBytes()));
+                    } catch (IOException e) {
+                        throw new CardException(e);
+                    }
+                }
+
+                @Override
+                public int transmit(ByteBuffer command, ByteBuffer response) throws CardException {
+                    byte[] bytes = new byte[command.remaining()];
+                    command.get(bytes);
+                    byte[] answer = transmit(new CommandAPDU(bytes)).getBytes();
+                    response.put(answer);
+                    return answer.length;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        @Override
+        public ATR getATR() {
+            return new ATR(new byte[]{(byte) 0x3B, (byte) 0x80, (byte) 0x80, (byte) 0x01, (byte) 0x01});
+        }
+
+        @Override
+        public String getProtocol() {
+            return "T=1";
+        }
+
+        @Override
+        public CardChannel getBasicChannel() {
+            return channel;
+        }
+
+        @Override
+        public CardChannel openLogicalChannel() throws CardException {
+            throw new CardException("logical channels are not supported");
+        }
+
+        @Override
+        public void beginExclusive() {
+        }
+
+        @Override
+        public void endExclusive() {
+        }
+
+        @Override
+        public byte[] transmitControlCommand(int controlCode, byte[] command) throws CardException {
+            throw new CardException("control commands are not supported");
+        }
+
+        @Override
+        public void disconnect(boolean reset) {
+        }
+    }
+}